@@ -0,0 +1,77 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.sobject;
+
+import java.io.IOException;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+
+/**
+ * Recorded API responses the benchmarks run against, from src/main/resources/fixtures.
+ */
+final class Fixtures {
+
+	static final String SESSION_ID = "00Dx0000000BV7z!AR8AQP0jITN80ESEsj5EbaZTFG0RNBaT1cyWk7TrqoDjoNIWQ2ME";
+	static final String HOSTNAME = "na12.salesforce.com";
+	static final double API_VERSION = 42.0;
+	static final String RECORD_ID = "001000000004000001";
+
+	private Fixtures() {
+	}
+
+	/**
+	 * @return GET /sobjects/, about 320 sObjects.
+	 */
+	static String describeGlobal() throws IOException {
+		return load("describe-global.json");
+	}
+
+	/**
+	 * @return GET /sobjects/Account/describe/, 61 fields with picklist values and child relationships.
+	 */
+	static String describeAccount() throws IOException {
+		return load("describe-account.json");
+	}
+
+	/**
+	 * @return GET /sobjects/Account/{id}/, every field populated.
+	 */
+	static String accountRecord() throws IOException {
+		return load("account-record.json");
+	}
+
+	/**
+	 * @return GET /search/, 200 results over four sObjects.
+	 */
+	static String searchResults() throws IOException {
+		return load("search-results.json");
+	}
+
+	private static String load(String name) throws IOException {
+		return Resources.toString(Resources.getResource("fixtures/" + name), Charsets.UTF_8);
+	}
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.sobject;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.force.api.rest.sobject.model.AnySObject;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * Building records from JSON and writing them back, for one Account with every field populated.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SObjectJsonBenchmark {
+
+	private String json;
+	private JSONObject jsonObject;
+	private AnySObject record;
+
+	@Setup
+	public void setUp() throws IOException, JSONException {
+		json = Fixtures.accountRecord();
+		jsonObject = new JSONObject(json);
+		record = new AnySObject("Account", jsonObject);
+	}
+
+	/**
+	 * AnySObject(JSONObject) alone, from an already parsed object.
+	 */
+	@Benchmark
+	public AnySObject fromJsonObject() throws JSONException {
+		return new AnySObject("Account", jsonObject);
+	}
+
+	/**
+	 * Parsing the body into a JSONObject, then the record.
+	 */
+	@Benchmark
+	public AnySObject fromString() throws JSONException {
+		return new AnySObject("Account", new JSONObject(json));
+	}
+
+	/**
+	 * The streaming decoder that get and queries use, for comparison.
+	 */
+	@Benchmark
+	public AnySObject streamDecode() throws IOException, JSONException {
+		return JsonStreamDecoder.readRecord("Account", new JsonReader(new StringReader(json)));
+	}
+
+	@Benchmark
+	public String toJson() throws JSONException {
+		return record.toJson();
+	}
+}
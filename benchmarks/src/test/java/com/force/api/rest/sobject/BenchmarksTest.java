@@ -0,0 +1,90 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.sobject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.commons.httpclient.HttpMethod;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import com.force.api.rest.sobject.model.AnySObject;
+
+/**
+ * Runs each benchmark method once outside JMH, so a fixture that no longer decodes, or a benchmark that measures an
+ * error path, fails the build instead of producing numbers.
+ */
+public class BenchmarksTest {
+
+	@Test
+	public void describesParseToTheRecordedSize() throws Exception {
+		DescribeParsingBenchmark benchmark = new DescribeParsingBenchmark();
+		benchmark.setUp();
+
+		assertTrue(benchmark.describeGlobal().getSobjects().size() > 300);
+		DescribeLayout account = benchmark.describeLayout();
+		assertEquals("Account", account.getName());
+		assertEquals(61, account.getAllFields().size());
+	}
+
+	@Test
+	public void recordDecodersAgree() throws Exception {
+		SObjectJsonBenchmark benchmark = new SObjectJsonBenchmark();
+		benchmark.setUp();
+
+		AnySObject fromJsonObject = benchmark.fromJsonObject();
+		AnySObject streamed = benchmark.streamDecode();
+		assertEquals(Fixtures.RECORD_ID, fromJsonObject.getId());
+		assertEquals(Fixtures.RECORD_ID, streamed.getId());
+		assertEquals(fromJsonObject.getFieldNames().size(), benchmark.fromString().getFieldNames().size());
+		assertEquals(fromJsonObject.getFieldNames().size(), new JSONObject(benchmark.toJson()).length());
+	}
+
+	@Test
+	public void searchResultsAreAllDecoded() throws Exception {
+		SearchResultsBenchmark benchmark = new SearchResultsBenchmark();
+		benchmark.setUp();
+		try {
+			assertEquals(200, benchmark.getResultsFromJsonArray().size());
+		} finally {
+			benchmark.tearDown();
+		}
+	}
+
+	@Test
+	public void requestsAreBuiltForTheRecord() throws Exception {
+		RequestBuildingBenchmark benchmark = new RequestBuildingBenchmark();
+		benchmark.setUp();
+		try {
+			assertTrue(benchmark.recordUrl().endsWith("/sobjects/Account/" + Fixtures.RECORD_ID + "/"));
+			HttpMethod get = benchmark.recordGet();
+			assertEquals("OAuth " + Fixtures.SESSION_ID, get.getRequestHeader("Authorization").getValue());
+		} finally {
+			benchmark.tearDown();
+		}
+	}
+}
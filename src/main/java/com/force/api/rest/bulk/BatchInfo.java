@@ -0,0 +1,78 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.bulk;
+
+import org.w3c.dom.Element;
+
+/**
+ * This class represents a batchInfo response from /services/async/{version}/job/{jobId}/batch/{batchId}
+ */
+public class BatchInfo {
+	private String id;
+	private String jobId;
+	private String state;
+	private String stateMessage;
+	private int numberRecordsProcessed;
+	private int numberRecordsFailed;
+
+	static BatchInfo fromXml(Element element) {
+		BatchInfo batch = new BatchInfo();
+		batch.id = XmlResponses.text(element, "id");
+		batch.jobId = XmlResponses.text(element, "jobId");
+		batch.state = XmlResponses.text(element, "state");
+		batch.stateMessage = XmlResponses.text(element, "stateMessage");
+		batch.numberRecordsProcessed = XmlResponses.number(element, "numberRecordsProcessed");
+		batch.numberRecordsFailed = XmlResponses.number(element, "numberRecordsFailed");
+		return batch;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getJobId() {
+		return jobId;
+	}
+
+	/**
+	 * @return Queued, InProgress, Completed, Failed or Not Processed.
+	 */
+	public String getState() {
+		return state;
+	}
+
+	public String getStateMessage() {
+		return stateMessage;
+	}
+
+	public int getNumberRecordsProcessed() {
+		return numberRecordsProcessed;
+	}
+
+	public int getNumberRecordsFailed() {
+		return numberRecordsFailed;
+	}
+}
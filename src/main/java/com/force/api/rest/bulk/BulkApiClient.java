@@ -0,0 +1,335 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.bulk;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.methods.StringRequestEntity;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.io.IOUtils;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import com.force.api.rest.sobject.ConnectionSettings;
+import com.force.api.rest.sobject.RestApiException;
+import com.force.api.rest.sobject.RestSObjectApiClient;
+import com.force.api.rest.sobject.model.SObject;
+import com.google.common.collect.Lists;
+
+/**
+ * Client for the Bulk API (/services/async/{version}), for loads too large to send record by record.
+ * 
+ * Records are read from an iterator and streamed to the server as CSV batches, so a load of any size only holds the
+ * row being written in memory. Results are streamed back the same way. Instances are thread-safe.
+ */
+public class BulkApiClient {
+
+	private final Logger logger = Logger.getLogger(BulkApiClient.class.getName());
+
+	private static final String SESSION_HEADER = "X-SFDC-Session";
+	private static final String XML_CONTENT_TYPE = "application/xml";
+	private static final String CHARSET = "UTF-8";
+	private static final String SEPARATOR = "/";
+	private static final String JOB_ENDPOINT = "job";
+	private static final String BATCH_ENDPOINT = "batch";
+	private static final String RESULT_ENDPOINT = "result";
+
+	/** Most rows the server accepts in one batch. */
+	public static final int MAX_BATCH_ROWS = 10000;
+	/** Most bytes the server accepts in one batch. */
+	public static final long MAX_BATCH_BYTES = 10000000L;
+
+	private volatile String sessionId;
+	private final String asyncUrl;
+	private final HttpClient client;
+	private final MultiThreadedHttpConnectionManager connectionManager;
+
+	private volatile int batchRows = MAX_BATCH_ROWS;
+	private volatile long initialPollMillis = 1000L;
+	private volatile long maxPollMillis = 30000L;
+
+	/**
+	 * Uses the session, instance and API version of a REST client.
+	 */
+	public BulkApiClient(RestSObjectApiClient restClient) {
+		this(restClient.getSessionId(), restClient.getInstanceUrl(), restClient.getApiVersion(),
+				new ConnectionSettings());
+	}
+
+	/**
+	 * @param sessionId Something like CAFEQERXogDBv.PuvKpbdGkn2RYJ8whjq.Ht2b3QHFNL3AWm.nKwsFNn8dit3v7rC_HMw0yaiEduJMCHZA0Y8UBFUIpr2wLr
+	 * @param instanceUrl Something like https://na1.salesforce.com
+	 * @param apiVersion Something like 24.0
+	 * @param settings Connection pool sizing and timeouts.
+	 */
+	public BulkApiClient(String sessionId, String instanceUrl, double apiVersion, ConnectionSettings settings) {
+		if (sessionId == null || sessionId.isEmpty()) {
+			throw new IllegalArgumentException("Provide a sessionId");
+		}
+		if (instanceUrl == null || instanceUrl.isEmpty()) {
+			throw new IllegalArgumentException("Provide an instance URL like https://na1.salesforce.com");
+		}
+		this.sessionId = sessionId;
+		this.asyncUrl = instanceUrl + "/services/async/" + String.valueOf(apiVersion) + SEPARATOR;
+
+		HttpConnectionManagerParams params = new HttpConnectionManagerParams();
+		params.setMaxTotalConnections(settings.getMaxTotalConnections());
+		params.setDefaultMaxConnectionsPerHost(settings.getMaxConnectionsPerHost());
+		params.setConnectionTimeout(settings.getConnectionTimeoutMillis());
+		params.setSoTimeout(settings.getSocketTimeoutMillis());
+		this.connectionManager = new MultiThreadedHttpConnectionManager();
+		this.connectionManager.setParams(params);
+		this.client = new HttpClient(connectionManager);
+	}
+
+	public void shutdown() {
+		connectionManager.shutdown();
+	}
+
+	public String getSessionId() {
+		return sessionId;
+	}
+
+	/**
+	 * Re-set the session ID if the session expires.
+	 */
+	public void setSessionId(String sessionId) {
+		this.sessionId = sessionId;
+	}
+
+	public int getBatchRows() {
+		return batchRows;
+	}
+
+	/**
+	 * @param batchRows Rows per batch, at most {@link #MAX_BATCH_ROWS}. Batches are also cut before they reach
+	 *        {@link #MAX_BATCH_BYTES}.
+	 */
+	public void setBatchRows(int batchRows) {
+		if (batchRows < 1 || batchRows > MAX_BATCH_ROWS) {
+			throw new IllegalArgumentException("batchRows must be between 1 and " + MAX_BATCH_ROWS);
+		}
+		this.batchRows = batchRows;
+	}
+
+	/**
+	 * Sets how {@link #awaitCompletion(String, long)} polls: it starts at initialPollMillis and doubles the wait after
+	 * every poll up to maxPollMillis.
+	 */
+	public void setPollInterval(long initialPollMillis, long maxPollMillis) {
+		if (initialPollMillis < 1 || maxPollMillis < initialPollMillis) {
+			throw new IllegalArgumentException("Poll intervals must be positive and initial <= max");
+		}
+		this.initialPollMillis = initialPollMillis;
+		this.maxPollMillis = maxPollMillis;
+	}
+
+	/**
+	 * Creates a job, uploads every record in CSV batches and closes the job so the server starts on the last batch.
+	 * Use {@link #awaitCompletion(String, long)} to wait for it to finish.
+	 * 
+	 * @param sobjectName Something like Account
+	 * @param operation What to do with the records.
+	 * @param externalIdFieldName The external Id field for upserts, otherwise null.
+	 * @param records Records to load; they are read once, in order.
+	 * @param columns Fields to send. Every record should have the same fields; missing and null ones are set to null.
+	 * @return The closed job.
+	 */
+	public JobInfo load(String sobjectName, BulkOperation operation, String externalIdFieldName,
+			Iterator<? extends SObject> records, List<String> columns) throws IOException, RestApiException {
+		JobInfo job = createJob(sobjectName, operation, externalIdFieldName);
+		try {
+			uploadBatches(job.getId(), records, columns);
+		} catch (IOException e) {
+			abortQuietly(job.getId());
+			throw e;
+		} catch (RestApiException e) {
+			abortQuietly(job.getId());
+			throw e;
+		}
+		return closeJob(job.getId());
+	}
+
+	private void abortQuietly(String jobId) {
+		try {
+			abortJob(jobId);
+		} catch (Exception e) {
+			//keep the upload failure as the one the caller sees
+			logger.log(Level.WARNING, "Could not abort job " + jobId, e);
+		}
+	}
+
+	public JobInfo createJob(String sobjectName, BulkOperation operation, String externalIdFieldName)
+			throws IOException, RestApiException {
+		if (operation == BulkOperation.UPSERT && externalIdFieldName == null) {
+			throw new IllegalArgumentException("Upserts need an external Id field");
+		}
+		PostMethod method = new PostMethod(asyncUrl + JOB_ENDPOINT);
+		method.setRequestEntity(new StringRequestEntity(XmlResponses.jobInfo("operation", operation.toString(),
+				"object", sobjectName, "externalIdFieldName", externalIdFieldName, "contentType", "CSV"),
+				XML_CONTENT_TYPE, CHARSET));
+		return JobInfo.fromXml(executeXmlRequest(method));
+	}
+
+	/**
+	 * Streams records to the job, starting a new batch whenever the current one reaches the row or byte limit.
+	 * 
+	 * @return The batches that were created, in order.
+	 */
+	public List<BatchInfo> uploadBatches(String jobId, Iterator<? extends SObject> records, List<String> columns)
+			throws IOException, RestApiException {
+		if (columns == null || columns.isEmpty()) {
+			throw new IllegalArgumentException("Provide the columns to upload");
+		}
+		List<BatchInfo> batches = Lists.newArrayList();
+		CsvBatchEntity.RecordSource source = new CsvBatchEntity.RecordSource(records);
+		while (source.hasNext()) {
+			PostMethod method = new PostMethod(asyncUrl + JOB_ENDPOINT + SEPARATOR + jobId + SEPARATOR + BATCH_ENDPOINT);
+			CsvBatchEntity entity = new CsvBatchEntity(source, columns, batchRows, MAX_BATCH_BYTES);
+			method.setRequestEntity(entity);
+			BatchInfo batch = BatchInfo.fromXml(executeXmlRequest(method));
+			logger.log(Level.FINE, "Uploaded batch " + batch.getId() + " with " + entity.getRowsWritten() + " rows");
+			batches.add(batch);
+		}
+		return batches;
+	}
+
+	public JobInfo closeJob(String jobId) throws IOException, RestApiException {
+		return setJobState(jobId, "Closed");
+	}
+
+	public JobInfo abortJob(String jobId) throws IOException, RestApiException {
+		return setJobState(jobId, "Aborted");
+	}
+
+	public JobInfo getJob(String jobId) throws IOException, RestApiException {
+		GetMethod method = new GetMethod(asyncUrl + JOB_ENDPOINT + SEPARATOR + jobId);
+		return JobInfo.fromXml(executeXmlRequest(method));
+	}
+
+	public List<BatchInfo> getBatches(String jobId) throws IOException, RestApiException {
+		GetMethod method = new GetMethod(asyncUrl + JOB_ENDPOINT + SEPARATOR + jobId + SEPARATOR + BATCH_ENDPOINT);
+		Element batchInfoList = executeXmlRequest(method);
+		NodeList nodes = batchInfoList.getElementsByTagNameNS("*", "batchInfo");
+		List<BatchInfo> batches = Lists.newArrayListWithCapacity(nodes.getLength());
+		for (int i = 0; i < nodes.getLength(); i++) {
+			batches.add(BatchInfo.fromXml((Element) nodes.item(i)));
+		}
+		return batches;
+	}
+
+	/**
+	 * Polls the job until every batch has completed or failed, backing off between polls.
+	 * 
+	 * @param timeoutMillis Give up after this long.
+	 * @return The finished job.
+	 * @throws InterruptedIOException If the timeout passes or the thread is interrupted.
+	 */
+	public JobInfo awaitCompletion(String jobId, long timeoutMillis) throws IOException, RestApiException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		long wait = initialPollMillis;
+		while (true) {
+			JobInfo job = getJob(jobId);
+			if (job.isDone() || "Aborted".equals(job.getState()) || "Failed".equals(job.getState())) {
+				return job;
+			}
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) {
+				throw new InterruptedIOException("Job " + jobId + " did not finish within " + timeoutMillis + "ms");
+			}
+			try {
+				Thread.sleep(Math.min(wait, remaining));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for job " + jobId);
+			}
+			wait = Math.min(wait * 2, maxPollMillis);
+		}
+	}
+
+	/**
+	 * Streams the per-row results of a batch. The caller must read the iterator to the end or close it.
+	 */
+	public BulkResultIterator getBatchResults(String jobId, String batchId) throws IOException, RestApiException {
+		GetMethod method = new GetMethod(asyncUrl + JOB_ENDPOINT + SEPARATOR + jobId + SEPARATOR + BATCH_ENDPOINT
+				+ SEPARATOR + batchId + SEPARATOR + RESULT_ENDPOINT);
+		execute(method);
+		try {
+			return new BulkResultIterator(method);
+		} catch (IOException e) {
+			method.releaseConnection();
+			throw e;
+		}
+	}
+
+	private JobInfo setJobState(String jobId, String state) throws IOException, RestApiException {
+		PostMethod method = new PostMethod(asyncUrl + JOB_ENDPOINT + SEPARATOR + jobId);
+		method.setRequestEntity(new StringRequestEntity(XmlResponses.jobInfo("state", state), XML_CONTENT_TYPE,
+				CHARSET));
+		return JobInfo.fromXml(executeXmlRequest(method));
+	}
+
+	private Element executeXmlRequest(HttpMethod method) throws IOException, RestApiException {
+		try {
+			execute(method);
+			return XmlResponses.parse(method.getResponseBodyAsStream());
+		} finally {
+			method.releaseConnection();
+		}
+	}
+
+	/**
+	 * Sends the request and checks the status. On success the response is left unread for the caller.
+	 */
+	private void execute(HttpMethod method) throws IOException, RestApiException {
+		method.setRequestHeader(SESSION_HEADER, sessionId);
+		logger.log(Level.FINE, method.getName() + " " + method.getURI().toString());
+		int status;
+		try {
+			status = client.executeMethod(method);
+		} catch (IOException e) {
+			method.releaseConnection();
+			throw e;
+		}
+		if (status >= 400) {
+			InputStream stream = method.getResponseBodyAsStream();
+			String responseBody = stream == null ? "" : IOUtils.toString(stream, CHARSET);
+			method.releaseConnection();
+			throw new RestApiException(responseBody, status);
+		}
+	}
+}
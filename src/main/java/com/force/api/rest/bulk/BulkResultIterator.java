@@ -0,0 +1,114 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.bulk;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.apache.commons.httpclient.HttpMethod;
+
+/**
+ * Streams the result rows of one batch off the connection. Close it, or read it to the end, to give the connection
+ * back to the pool.
+ */
+public class BulkResultIterator implements Iterator<BulkResult> {
+
+	private static final String ID = "Id";
+	private static final String SUCCESS = "Success";
+	private static final String CREATED = "Created";
+	private static final String ERROR = "Error";
+
+	private final HttpMethod method;
+	private final CsvReader reader;
+	private final int idColumn;
+	private final int successColumn;
+	private final int createdColumn;
+	private final int errorColumn;
+	private List<String> next;
+
+	BulkResultIterator(HttpMethod method) throws IOException {
+		this.method = method;
+		this.reader = new CsvReader(new InputStreamReader(method.getResponseBodyAsStream(), "UTF-8"));
+		List<String> header = reader.readRow();
+		if (header == null) {
+			throw new IOException("Batch result has no header row");
+		}
+		idColumn = header.indexOf(ID);
+		successColumn = header.indexOf(SUCCESS);
+		createdColumn = header.indexOf(CREATED);
+		errorColumn = header.indexOf(ERROR);
+		advance();
+	}
+
+	//@Override
+	public boolean hasNext() {
+		return next != null;
+	}
+
+	/**
+	 * @throws IllegalStateException if the connection fails while reading the next row.
+	 */
+	//@Override
+	public BulkResult next() {
+		if (next == null) {
+			throw new NoSuchElementException();
+		}
+		List<String> row = next;
+		try {
+			advance();
+		} catch (IOException e) {
+			close();
+			throw new IllegalStateException("Could not read batch results", e);
+		}
+		String error = column(row, errorColumn);
+		return new BulkResult(column(row, idColumn), Boolean.parseBoolean(column(row, successColumn)),
+				Boolean.parseBoolean(column(row, createdColumn)), error == null || error.isEmpty() ? null : error);
+	}
+
+	//@Override
+	public void remove() {
+		throw new UnsupportedOperationException("Batch results are read-only");
+	}
+
+	public void close() {
+		next = null;
+		method.releaseConnection();
+	}
+
+	private void advance() throws IOException {
+		next = reader.readRow();
+		if (next == null) {
+			close();
+		}
+	}
+
+	private static String column(List<String> row, int index) {
+		return index < 0 || index >= row.size() ? null : row.get(index);
+	}
+}
@@ -0,0 +1,184 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.bulk;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.commons.httpclient.methods.RequestEntity;
+import org.json.JSONObject;
+
+import com.force.api.rest.sobject.model.SObject;
+
+/**
+ * Streams one CSV batch straight from an iterator of records onto the connection. Rows are rendered as they are
+ * written, so a batch is never held in memory. The batch ends when the iterator runs out, the row limit is reached,
+ * or the next row would take it over the byte limit; that row is kept for the next batch.
+ * 
+ * Null fields are written as #N/A, which the Bulk API reads as "set to null"; an empty field would leave the value
+ * on the server unchanged.
+ */
+class CsvBatchEntity implements RequestEntity {
+
+	private static final String CONTENT_TYPE = "text/csv; charset=UTF-8";
+	private static final String CHARSET = "UTF-8";
+	private static final byte[] NEWLINE = { '\n' };
+	private static final String NULL_VALUE = "#N/A";
+
+	private final RecordSource source;
+	private final List<String> columns;
+	private final int maxRows;
+	private final long maxBytes;
+	private int rowsWritten;
+
+	CsvBatchEntity(RecordSource source, List<String> columns, int maxRows, long maxBytes) {
+		this.source = source;
+		this.columns = columns;
+		this.maxRows = maxRows;
+		this.maxBytes = maxBytes;
+	}
+
+	int getRowsWritten() {
+		return rowsWritten;
+	}
+
+	//@Override
+	public boolean isRepeatable() {
+		//the rows are pulled off an iterator and can't be read again
+		return false;
+	}
+
+	//@Override
+	public void writeRequest(OutputStream out) throws IOException {
+		byte[] header = row(columns).getBytes(CHARSET);
+		out.write(header);
+		out.write(NEWLINE);
+		long bytes = header.length + 1;
+
+		while (rowsWritten < maxRows && source.hasNext()) {
+			byte[] row = row(source.peek()).getBytes(CHARSET);
+			if (rowsWritten > 0 && bytes + row.length + 1 > maxBytes) {
+				break;
+			}
+			source.next();
+			out.write(row);
+			out.write(NEWLINE);
+			bytes += row.length + 1;
+			rowsWritten++;
+		}
+		out.flush();
+	}
+
+	//@Override
+	public long getContentLength() {
+		//unknown up front; the body is sent chunked
+		return -1;
+	}
+
+	//@Override
+	public String getContentType() {
+		return CONTENT_TYPE;
+	}
+
+	private String row(SObject sobject) {
+		StringBuilder row = new StringBuilder();
+		for (int i = 0; i < columns.size(); i++) {
+			if (i > 0) {
+				row.append(',');
+			}
+			Object value = sobject.getField(columns.get(i));
+			if (value == null || value == JSONObject.NULL) {
+				row.append(NULL_VALUE);
+			} else {
+				appendValue(row, value.toString());
+			}
+		}
+		return row.toString();
+	}
+
+	private static String row(List<String> values) {
+		StringBuilder row = new StringBuilder();
+		for (int i = 0; i < values.size(); i++) {
+			if (i > 0) {
+				row.append(',');
+			}
+			appendValue(row, values.get(i));
+		}
+		return row.toString();
+	}
+
+	static void appendValue(StringBuilder row, String value) {
+		boolean quote = false;
+		for (int i = 0; i < value.length() && !quote; i++) {
+			char c = value.charAt(i);
+			quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+		}
+		if (!quote) {
+			row.append(value);
+			return;
+		}
+		row.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"') {
+				row.append('"');
+			}
+			row.append(c);
+		}
+		row.append('"');
+	}
+
+	/**
+	 * An iterator that can look at its next record without taking it.
+	 */
+	static class RecordSource {
+		private final Iterator<? extends SObject> records;
+		private SObject peeked;
+
+		RecordSource(Iterator<? extends SObject> records) {
+			this.records = records;
+		}
+
+		boolean hasNext() {
+			return peeked != null || records.hasNext();
+		}
+
+		SObject peek() {
+			if (peeked == null) {
+				peeked = records.next();
+			}
+			return peeked;
+		}
+
+		SObject next() {
+			SObject next = peek();
+			peeked = null;
+			return next;
+		}
+	}
+}
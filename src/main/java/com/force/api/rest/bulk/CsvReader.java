@@ -0,0 +1,110 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.bulk;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Reads RFC 4180 CSV one row at a time, so result files of any size can be consumed without holding them in memory.
+ */
+class CsvReader {
+
+	private final Reader reader;
+	private int pushedBack = -2;
+
+	CsvReader(Reader reader) {
+		this.reader = reader;
+	}
+
+	/**
+	 * @return The next row, or null at the end of the input.
+	 */
+	List<String> readRow() throws IOException {
+		int c = read();
+		if (c == -1) {
+			return null;
+		}
+		List<String> row = Lists.newArrayList();
+		StringBuilder value = new StringBuilder();
+		boolean quoted = false;
+		while (true) {
+			if (quoted) {
+				if (c == -1) {
+					throw new IOException("Unterminated quoted value in CSV");
+				} else if (c == '"') {
+					int next = read();
+					if (next == '"') {
+						value.append('"');
+					} else {
+						quoted = false;
+						c = next;
+						continue;
+					}
+				} else {
+					value.append((char) c);
+				}
+			} else if (c == '"') {
+				quoted = true;
+			} else if (c == ',') {
+				row.add(value.toString());
+				value.setLength(0);
+			} else if (c == '\r' || c == '\n' || c == -1) {
+				if (c == '\r') {
+					int next = read();
+					if (next != '\n') {
+						unread(next);
+					}
+				}
+				row.add(value.toString());
+				return row;
+			} else {
+				value.append((char) c);
+			}
+			c = read();
+		}
+	}
+
+	void close() throws IOException {
+		reader.close();
+	}
+
+	private int read() throws IOException {
+		if (pushedBack != -2) {
+			int c = pushedBack;
+			pushedBack = -2;
+			return c;
+		}
+		return reader.read();
+	}
+
+	private void unread(int c) {
+		pushedBack = c;
+	}
+}
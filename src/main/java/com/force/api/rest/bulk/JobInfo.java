@@ -0,0 +1,122 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.bulk;
+
+import org.w3c.dom.Element;
+
+/**
+ * This class represents a jobInfo response from /services/async/{version}/job/{jobId}
+ */
+public class JobInfo {
+	private String id;
+	private String object;
+	private String operation;
+	private String state;
+	private String externalIdFieldName;
+	private int numberBatchesQueued;
+	private int numberBatchesInProgress;
+	private int numberBatchesCompleted;
+	private int numberBatchesFailed;
+	private int numberBatchesTotal;
+	private int numberRecordsProcessed;
+	private int numberRecordsFailed;
+
+	static JobInfo fromXml(Element element) {
+		JobInfo job = new JobInfo();
+		job.id = XmlResponses.text(element, "id");
+		job.object = XmlResponses.text(element, "object");
+		job.operation = XmlResponses.text(element, "operation");
+		job.state = XmlResponses.text(element, "state");
+		job.externalIdFieldName = XmlResponses.text(element, "externalIdFieldName");
+		job.numberBatchesQueued = XmlResponses.number(element, "numberBatchesQueued");
+		job.numberBatchesInProgress = XmlResponses.number(element, "numberBatchesInProgress");
+		job.numberBatchesCompleted = XmlResponses.number(element, "numberBatchesCompleted");
+		job.numberBatchesFailed = XmlResponses.number(element, "numberBatchesFailed");
+		job.numberBatchesTotal = XmlResponses.number(element, "numberBatchesTotal");
+		job.numberRecordsProcessed = XmlResponses.number(element, "numberRecordsProcessed");
+		job.numberRecordsFailed = XmlResponses.number(element, "numberRecordsFailed");
+		return job;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getObject() {
+		return object;
+	}
+
+	public String getOperation() {
+		return operation;
+	}
+
+	/**
+	 * @return Open, Closed, Aborted or Failed.
+	 */
+	public String getState() {
+		return state;
+	}
+
+	public String getExternalIdFieldName() {
+		return externalIdFieldName;
+	}
+
+	public int getNumberBatchesQueued() {
+		return numberBatchesQueued;
+	}
+
+	public int getNumberBatchesInProgress() {
+		return numberBatchesInProgress;
+	}
+
+	public int getNumberBatchesCompleted() {
+		return numberBatchesCompleted;
+	}
+
+	public int getNumberBatchesFailed() {
+		return numberBatchesFailed;
+	}
+
+	public int getNumberBatchesTotal() {
+		return numberBatchesTotal;
+	}
+
+	public int getNumberRecordsProcessed() {
+		return numberRecordsProcessed;
+	}
+
+	public int getNumberRecordsFailed() {
+		return numberRecordsFailed;
+	}
+
+	/**
+	 * @return True once every batch has either completed or failed.
+	 */
+	public boolean isDone() {
+		return numberBatchesQueued == 0 && numberBatchesInProgress == 0
+				&& numberBatchesCompleted + numberBatchesFailed >= numberBatchesTotal;
+	}
+}
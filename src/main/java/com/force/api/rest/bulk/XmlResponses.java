@@ -0,0 +1,101 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.bulk;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+/**
+ * Reads and writes the small XML documents the Bulk API uses for jobs and batches.
+ */
+final class XmlResponses {
+
+	static final String NAMESPACE = "http://www.force.com/2009/06/asyncapi/dataload";
+
+	private XmlResponses() {
+	}
+
+	static Element parse(InputStream stream) throws IOException {
+		try {
+			DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+			factory.setNamespaceAware(true);
+			DocumentBuilder builder = factory.newDocumentBuilder();
+			return builder.parse(stream).getDocumentElement();
+		} catch (ParserConfigurationException e) {
+			throw new IllegalStateException(e);
+		} catch (SAXException e) {
+			IOException io = new IOException("Malformed Bulk API response: " + e.getMessage());
+			io.initCause(e);
+			throw io;
+		}
+	}
+
+	/**
+	 * @return Text of the first child element with the given local name, or null if there is none.
+	 */
+	static String text(Element element, String localName) {
+		NodeList nodes = element.getElementsByTagNameNS("*", localName);
+		if (nodes.getLength() == 0) {
+			return null;
+		}
+		return nodes.item(0).getTextContent().trim();
+	}
+
+	static int number(Element element, String localName) {
+		String text = text(element, localName);
+		if (text == null || text.isEmpty()) {
+			return 0;
+		}
+		return (int) Double.parseDouble(text);
+	}
+
+	static String jobInfo(String... namesAndValues) {
+		StringBuilder xml = new StringBuilder();
+		xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+		xml.append("<jobInfo xmlns=\"").append(NAMESPACE).append("\">");
+		for (int i = 0; i < namesAndValues.length; i += 2) {
+			if (namesAndValues[i + 1] != null) {
+				xml.append('<').append(namesAndValues[i]).append('>');
+				xml.append(escape(namesAndValues[i + 1]));
+				xml.append("</").append(namesAndValues[i]).append('>');
+			}
+		}
+		xml.append("</jobInfo>");
+		return xml.toString();
+	}
+
+	private static String escape(String value) {
+		return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+	}
+}
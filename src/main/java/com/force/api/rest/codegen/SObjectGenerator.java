@@ -0,0 +1,523 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.codegen;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.force.api.rest.sobject.DescribeLayout;
+import com.force.api.rest.sobject.RestSObjectApiClient;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Generates an {@link com.force.api.rest.sobject.model.SObject} subclass for an sObject from its describe. The
+ * generated class keeps each field in a field of its own, with booleans, ints and doubles unboxed, and reads and
+ * writes JSON directly instead of going through a map or a JSONObject. That takes far less memory per record than
+ * {@link com.force.api.rest.sobject.model.AnySObject}.
+ * 
+ * Field types map as follows: boolean to boolean; int to int; double, currency and percent to double; compound
+ * fields (address, location) and anyType are left out; everything else, dates included, to String. Whether a field
+ * was set at all, whether a primitive field is null, and whether a field was set since the record was read, is kept in
+ * bit masks. toJson only writes the fields that were set, like AnySObject, and toChangedJson only the changes.
+ * 
+ * Each class has a READER, which the client's get and queryCursor take to return records of that class, e.g.
+ * {@code client.get(Account.READER, id)} or {@code client.get(Account.class, id)}.
+ * 
+ * Run from the command line with:
+ * 
+ * <pre>
+ * java com.force.api.rest.codegen.SObjectGenerator sessionId hostname apiVersion package sourceDir SObject...
+ * </pre>
+ */
+public class SObjectGenerator {
+
+	private static final Logger logger = Logger.getLogger(SObjectGenerator.class.getName());
+
+	private static final Set<String> SKIPPED_TYPES = ImmutableSet.of("address", "location", "anyType");
+	//properties that would clash with the methods of SObject or Object
+	private static final Set<String> RESERVED_PROPERTIES = ImmutableSet.of("SObjectName", "FieldNames", "Field",
+			"Class");
+
+	/**
+	 * How a field is held in the generated class.
+	 */
+	enum Kind {
+		STRING("String", "nextString"),
+		BOOLEAN("boolean", "nextBoolean"),
+		INT("int", "nextInt"),
+		DOUBLE("double", "nextDouble");
+
+		private final String javaType;
+		private final String readMethod;
+
+		private Kind(String javaType, String readMethod) {
+			this.javaType = javaType;
+			this.readMethod = readMethod;
+		}
+
+		static Kind of(String fieldType) {
+			if ("boolean".equals(fieldType)) {
+				return BOOLEAN;
+			} else if ("int".equals(fieldType)) {
+				return INT;
+			} else if ("double".equals(fieldType) || "currency".equals(fieldType) || "percent".equals(fieldType)) {
+				return DOUBLE;
+			}
+			return STRING;
+		}
+	}
+
+	private final String packageName;
+
+	/**
+	 * @param packageName Package of the generated classes.
+	 */
+	public SObjectGenerator(String packageName) {
+		this.packageName = packageName;
+	}
+
+	/**
+	 * Writes the class for one sObject under sourceDir, in the directory of its package.
+	 * 
+	 * @return The file written.
+	 */
+	public File write(DescribeLayout describe, File sourceDir) throws IOException {
+		File dir = new File(sourceDir, packageName.replace('.', File.separatorChar));
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Can't create " + dir);
+		}
+		File file = new File(dir, describe.getName() + ".java");
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			writer.write(generate(describe));
+		} finally {
+			writer.close();
+		}
+		return file;
+	}
+
+	/**
+	 * @return The source of the class for one sObject.
+	 */
+	public String generate(DescribeLayout describe) {
+		String className = describe.getName();
+		List<DescribeLayout.Field> fields = new ArrayList<DescribeLayout.Field>();
+		for (DescribeLayout.Field field : describe.getAllFields()) {
+			if (!SKIPPED_TYPES.contains(field.getType())) {
+				fields.add(field);
+			}
+		}
+		//describe order isn't stable, so sort for reproducible output
+		Collections.sort(fields, new Comparator<DescribeLayout.Field>() {
+			public int compare(DescribeLayout.Field a, DescribeLayout.Field b) {
+				return a.getName().compareTo(b.getName());
+			}
+		});
+		int words = Math.max(1, (fields.size() + 63) / 64);
+		boolean hasId = false;
+		for (DescribeLayout.Field field : fields) {
+			hasId |= "Id".equals(field.getName());
+		}
+
+		Source src = new Source();
+		src.line("package " + packageName + ";");
+		src.line("");
+		src.line("import java.io.IOException;");
+		src.line("import java.io.StringReader;");
+		src.line("import java.util.LinkedHashSet;");
+		src.line("import java.util.Map;");
+		src.line("import java.util.Set;");
+		src.line("");
+		src.line("import org.json.JSONException;");
+		src.line("import org.json.JSONObject;");
+		src.line("");
+		src.line("import com.force.api.rest.sobject.model.SObject;");
+		src.line("import com.force.api.rest.sobject.model.SObjectReader;");
+		src.line("import com.google.common.collect.ImmutableMap;");
+		src.line("import com.google.gson.stream.JsonReader;");
+		src.line("import com.google.gson.stream.JsonToken;");
+		src.line("");
+		src.line("/**");
+		src.line(" * " + describe.getName() + ", generated by " + SObjectGenerator.class.getSimpleName()
+				+ " from its describe. Don't edit by hand.");
+		src.line(" */");
+		src.open("public class " + className + " extends SObject {");
+		src.line("");
+		src.line("public static final String SOBJECT_NAME = \"" + describe.getName() + "\";");
+		src.line("");
+		src.open("private static final String[] FIELD_NAMES = {");
+		for (DescribeLayout.Field field : fields) {
+			src.line("\"" + field.getName() + "\",");
+		}
+		src.close("};");
+		src.line("private static final Map<String, Integer> FIELD_INDEX = index();");
+		src.line("");
+		for (int word = 0; word < words; word++) {
+			src.line("private long assigned" + word + ";");
+			src.line("private long nulls" + word + ";");
+			src.line("private long changed" + word + ";");
+		}
+		for (DescribeLayout.Field field : fields) {
+			src.line("private " + Kind.of(field.getType()).javaType + " " + field.getName() + ";");
+		}
+		src.line("");
+
+		src.open("private static Map<String, Integer> index() {");
+		src.line("ImmutableMap.Builder<String, Integer> index = ImmutableMap.builder();");
+		src.open("for (int i = 0; i < FIELD_NAMES.length; i++) {");
+		src.line("index.put(FIELD_NAMES[i], Integer.valueOf(i));");
+		src.close("}");
+		src.line("return index.build();");
+		src.close("}");
+		src.line("");
+
+		writeFromJson(src, className, fields);
+		if (!hasId) {
+			src.line("@Override");
+			src.open("public String getId() {");
+			src.line("return null;");
+			src.close("}");
+			src.line("");
+		}
+		src.line("@Override");
+		src.open("public String getSObjectName() {");
+		src.line("return SOBJECT_NAME;");
+		src.close("}");
+		src.line("");
+		for (int i = 0; i < fields.size(); i++) {
+			writeAccessors(src, fields.get(i), i);
+		}
+		writeFieldNames(src);
+		writeGetField(src, fields);
+		writeToJson(src, fields, "toJson", "isAssigned");
+		writeToJson(src, fields, "toChangedJson", "isChanged");
+		writeChanges(src, words);
+		writeBits(src, "assigned", "assign", "isAssigned", words);
+		writeBits(src, "changed", "markChanged", "isChanged", words);
+		writeBits(src, "nulls", "markNull", "isNull", words);
+		src.close("}");
+		return src.toString();
+	}
+
+	private void writeFromJson(Source src, String className, List<DescribeLayout.Field> fields) {
+		src.line("/**");
+		src.line(" * Pass to the client's get and queryCursor to read records into this class.");
+		src.line(" */");
+		src.open("public static final SObjectReader<" + className + "> READER = new SObjectReader<" + className
+				+ ">() {");
+		src.open("public String getSObjectName() {");
+		src.line("return SOBJECT_NAME;");
+		src.close("}");
+		src.line("");
+		src.open("public " + className + " read(JsonReader reader) throws IOException {");
+		src.line("return fromJson(reader);");
+		src.close("}");
+		src.close("};");
+		src.line("");
+		src.open("public static " + className + " fromJson(String json) throws IOException {");
+		src.line("return fromJson(new JsonReader(new StringReader(json)));");
+		src.close("}");
+		src.line("");
+		src.line("/**");
+		src.line(" * Reads one record. Fields this class doesn't have, such as attributes, are skipped.");
+		src.line(" */");
+		src.open("public static " + className + " fromJson(JsonReader reader) throws IOException {");
+		src.line(className + " record = new " + className + "();");
+		src.line("reader.beginObject();");
+		src.open("while (reader.hasNext()) {");
+		src.line("Integer field = FIELD_INDEX.get(reader.nextName());");
+		src.open("if (field == null) {");
+		src.line("reader.skipValue();");
+		src.line("continue;");
+		src.close("}");
+		src.line("int index = field.intValue();");
+		src.line("record.assign(index);");
+		src.open("if (reader.peek() == JsonToken.NULL) {");
+		src.line("reader.nextNull();");
+		src.line("record.markNull(index);");
+		src.line("continue;");
+		src.close("}");
+		src.open("switch (index) {");
+		for (int i = 0; i < fields.size(); i++) {
+			DescribeLayout.Field field = fields.get(i);
+			src.line("case " + i + ":");
+			src.line("\trecord." + field.getName() + " = reader." + Kind.of(field.getType()).readMethod + "();");
+			src.line("\tbreak;");
+		}
+		src.close("}");
+		src.close("}");
+		src.line("reader.endObject();");
+		src.line("return record;");
+		src.close("}");
+		src.line("");
+	}
+
+	private void writeAccessors(Source src, DescribeLayout.Field field, int index) {
+		String name = field.getName();
+		String property = RESERVED_PROPERTIES.contains(name) ? name + "Value" : name;
+		Kind kind = Kind.of(field.getType());
+		src.open("public " + kind.javaType + " get" + property + "() {");
+		src.line("return " + name + ";");
+		src.close("}");
+		src.line("");
+		src.open("public void set" + property + "(" + kind.javaType + " value) {");
+		src.line("this." + name + " = value;");
+		src.line("assign(" + index + ");");
+		src.line("markChanged(" + index + ");");
+		if (kind != Kind.STRING) {
+			src.line("clearNull(" + index + ");");
+		}
+		src.close("}");
+		src.line("");
+		if (kind != Kind.STRING) {
+			src.line("/**");
+			src.line(" * @return Whether " + name + " was set to null; its getter then returns the default value.");
+			src.line(" */");
+			src.open("public boolean is" + property + "Null() {");
+			src.line("return isNull(" + index + ");");
+			src.close("}");
+			src.line("");
+			src.open("public void set" + property + "Null() {");
+			src.line("assign(" + index + ");");
+			src.line("markChanged(" + index + ");");
+			src.line("markNull(" + index + ");");
+			src.close("}");
+			src.line("");
+		}
+	}
+
+	private void writeFieldNames(Source src) {
+		src.line("/**");
+		src.line(" * @return The fields that were set or read, in alphabetical order.");
+		src.line(" */");
+		src.line("@Override");
+		src.open("public Set<String> getFieldNames() {");
+		src.line("Set<String> names = new LinkedHashSet<String>();");
+		src.open("for (int i = 0; i < FIELD_NAMES.length; i++) {");
+		src.open("if (isAssigned(i)) {");
+		src.line("names.add(FIELD_NAMES[i]);");
+		src.close("}");
+		src.close("}");
+		src.line("return names;");
+		src.close("}");
+		src.line("");
+	}
+
+	private void writeGetField(Source src, List<DescribeLayout.Field> fields) {
+		src.line("/**");
+		src.line(" * @return The value as org.json would have it, JSONObject.NULL for null, or null if the field isn't set.");
+		src.line(" */");
+		src.line("@Override");
+		src.open("public Object getField(String name) {");
+		src.line("Integer field = FIELD_INDEX.get(name);");
+		src.open("if (field == null || !isAssigned(field.intValue())) {");
+		src.line("return null;");
+		src.close("}");
+		src.open("switch (field.intValue()) {");
+		for (int i = 0; i < fields.size(); i++) {
+			String name = fields.get(i).getName();
+			src.line("case " + i + ":");
+			switch (Kind.of(fields.get(i).getType())) {
+			case STRING:
+				src.line("\treturn " + name + " == null ? JSONObject.NULL : " + name + ";");
+				break;
+			case BOOLEAN:
+				src.line("\treturn isNull(" + i + ") ? JSONObject.NULL : Boolean.valueOf(" + name + ");");
+				break;
+			case INT:
+				src.line("\treturn isNull(" + i + ") ? JSONObject.NULL : Integer.valueOf(" + name + ");");
+				break;
+			case DOUBLE:
+				src.line("\treturn isNull(" + i + ") ? JSONObject.NULL : Double.valueOf(" + name + ");");
+				break;
+			}
+		}
+		src.line("default:");
+		src.line("\treturn null;");
+		src.close("}");
+		src.close("}");
+		src.line("");
+	}
+
+	private void writeChanges(Source src, int words) {
+		StringBuilder any = new StringBuilder();
+		for (int word = 0; word < words; word++) {
+			any.append(word == 0 ? "" : " || ").append("changed").append(word).append(" != 0");
+		}
+		src.line("/**");
+		src.line(" * @return Whether fields were set since the record was read or marked clean.");
+		src.line(" */");
+		src.line("@Override");
+		src.open("public boolean hasChanges() {");
+		src.line("return " + any + ";");
+		src.close("}");
+		src.line("");
+		src.line("@Override");
+		src.open("public void markClean() {");
+		for (int word = 0; word < words; word++) {
+			src.line("changed" + word + " = 0L;");
+		}
+		src.close("}");
+		src.line("");
+	}
+
+	/**
+	 * @param test The bit mask test that picks the fields to write.
+	 */
+	private void writeToJson(Source src, List<DescribeLayout.Field> fields, String method, String test) {
+		src.line("@Override");
+		src.open("public String " + method + "() throws JSONException {");
+		src.line("StringBuilder json = new StringBuilder(" + Math.max(16, fields.size() * 16) + ");");
+		src.line("char separator = '{';");
+		for (int i = 0; i < fields.size(); i++) {
+			String name = fields.get(i).getName();
+			src.open("if (" + test + "(" + i + ")) {");
+			src.line("json.append(separator).append(\"\\\"" + name + "\\\":\");");
+			switch (Kind.of(fields.get(i).getType())) {
+			case STRING:
+				src.line("json.append(" + name + " == null ? \"null\" : JSONObject.quote(" + name + "));");
+				break;
+			case DOUBLE:
+				src.line("json.append(isNull(" + i + ") ? \"null\" : JSONObject.numberToString(Double.valueOf(" + name
+						+ ")));");
+				break;
+			default:
+				src.line("json.append(isNull(" + i + ") ? \"null\" : String.valueOf(" + name + "));");
+				break;
+			}
+			src.line("separator = ',';");
+			src.close("}");
+		}
+		src.open("if (separator == '{') {");
+		src.line("json.append('{');");
+		src.close("}");
+		src.line("return json.append('}').toString();");
+		src.close("}");
+		src.line("");
+	}
+
+	/**
+	 * Writes the setter and test of a bit mask spread over one long per 64 fields. The nulls mask also gets a
+	 * clearing method.
+	 */
+	private void writeBits(Source src, String mask, String setter, String test, int words) {
+		src.open("private void " + setter + "(int index) {");
+		src.open("switch (index >> 6) {");
+		for (int word = 0; word < words; word++) {
+			src.line("case " + word + ":");
+			src.line("\t" + mask + word + " |= 1L << index;");
+			src.line("\tbreak;");
+		}
+		src.close("}");
+		src.close("}");
+		src.line("");
+		if ("nulls".equals(mask)) {
+			src.open("private void clearNull(int index) {");
+			src.open("switch (index >> 6) {");
+			for (int word = 0; word < words; word++) {
+				src.line("case " + word + ":");
+				src.line("\t" + mask + word + " &= ~(1L << index);");
+				src.line("\tbreak;");
+			}
+			src.close("}");
+			src.close("}");
+			src.line("");
+		}
+		src.open("private boolean " + test + "(int index) {");
+		src.open("switch (index >> 6) {");
+		for (int word = 0; word < words; word++) {
+			src.line("case " + word + ":");
+			src.line("\treturn (" + mask + word + " & (1L << index)) != 0;");
+		}
+		src.line("default:");
+		src.line("\treturn false;");
+		src.close("}");
+		src.close("}");
+		if (!"nulls".equals(mask)) {
+			src.line("");
+		}
+	}
+
+	/**
+	 * A StringBuilder that indents with tabs.
+	 */
+	private static class Source {
+		private final StringBuilder text = new StringBuilder();
+		private int depth;
+
+		void line(String line) {
+			if (!line.isEmpty()) {
+				for (int i = 0; i < depth; i++) {
+					text.append('\t');
+				}
+			}
+			text.append(line).append('\n');
+		}
+
+		void open(String line) {
+			line(line);
+			depth++;
+		}
+
+		void close(String line) {
+			depth--;
+			line(line);
+		}
+
+		@Override
+		public String toString() {
+			return text.toString();
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 6) {
+			System.err.println("Usage: SObjectGenerator sessionId hostname apiVersion package sourceDir SObject...");
+			System.exit(1);
+		}
+		RestSObjectApiClient client = new RestSObjectApiClient(args[0], args[1], Double.parseDouble(args[2]));
+		try {
+			SObjectGenerator generator = new SObjectGenerator(args[3]);
+			File sourceDir = new File(args[4]);
+			for (int i = 5; i < args.length; i++) {
+				File file = generator.write(client.describeLayout(args[i]), sourceDir);
+				logger.log(Level.INFO, "Wrote " + file);
+			}
+		} finally {
+			client.shutdown();
+		}
+	}
+}
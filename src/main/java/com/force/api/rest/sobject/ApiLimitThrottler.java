@@ -0,0 +1,382 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.sobject;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps an org from exhausting its daily API allocation. Every response carries a Sforce-Limit-Info header such as
+ * api-usage=18/5000; the throttler reads it and hands out request permits from a token bucket that refills at the
+ * rate which spreads the remaining calls evenly over the rest of the limit window.
+ * 
+ * Callers are prioritised: {@link Priority#HIGH} requests may dip into a reserve below an empty bucket,
+ * {@link Priority#NORMAL} requests need a whole token, and {@link Priority#LOW} requests only run while the bucket is
+ * at least half full. Once only the reserved share of the allocation is left, only {@link Priority#HIGH} requests
+ * go out until the server reports usage dropping again. The priority is set per thread with
+ * {@link #setPriority(Priority)}. Work the client starts on other threads for a call, such as hedged attempts,
+ * collection chunks and query prefetches, runs at the priority of the thread that made the call; see
+ * {@link #withCurrentPriority(Callable)}.
+ * 
+ * The throttler only learns about usage from responses, so while everyone is held back it lets one probe request
+ * through every {@link #setProbeInterval probe interval}; its response reports the capacity the rolling window has
+ * freed since. Callers that would rather fail than wait long can set a {@link #setMaxWait maximum wait}.
+ * 
+ * Until the first header arrives nothing is throttled. One instance should be shared by every client of an org.
+ */
+public class ApiLimitThrottler {
+
+	/**
+	 * How urgently a request needs to go out when the budget is tight.
+	 */
+	public enum Priority {
+		HIGH,
+		NORMAL,
+		LOW
+	}
+
+	private static final Pattern API_USAGE = Pattern.compile("api-usage=(\\d+)/(\\d+)");
+	private static final long MAX_WAIT_MILLIS = 1000L;
+
+	private final long windowMillis;
+	private final double burst;
+	private final double reservedFraction;
+	private final ThreadLocal<Priority> priority = new ThreadLocal<Priority>() {
+		@Override
+		protected Priority initialValue() {
+			return Priority.NORMAL;
+		}
+	};
+
+	private long probeIntervalMillis = TimeUnit.MINUTES.toMillis(1);
+	private long maxWaitMillis = Long.MAX_VALUE;
+
+	private long used = -1;
+	private long limit = -1;
+	private double tokens;
+	private double tokensPerMilli;
+	private long lastRefill = System.currentTimeMillis();
+	//when usage was last reported or a probe was let through
+	private long lastHeard = System.currentTimeMillis();
+
+	private final AtomicLong throttled = new AtomicLong();
+	private final AtomicLong waitedMillis = new AtomicLong();
+	private final AtomicLong probes = new AtomicLong();
+
+	/**
+	 * Spreads the budget over a 24 hour window, allows bursts of 50 calls and keeps 5% of the limit for
+	 * {@link Priority#HIGH} callers.
+	 */
+	public ApiLimitThrottler() {
+		this(24, TimeUnit.HOURS, 50, 0.05d);
+	}
+
+	/**
+	 * @param window Length of the org's limit window.
+	 * @param unit Unit of window.
+	 * @param burst Most calls that can be made back to back after a quiet period.
+	 * @param reservedFraction Share of the limit only {@link Priority#HIGH} callers may use.
+	 */
+	public ApiLimitThrottler(long window, TimeUnit unit, int burst, double reservedFraction) {
+		if (window <= 0) {
+			throw new IllegalArgumentException("window must be positive");
+		}
+		if (burst < 1) {
+			throw new IllegalArgumentException("burst must be at least 1");
+		}
+		if (reservedFraction < 0.0d || reservedFraction >= 1.0d) {
+			throw new IllegalArgumentException("reservedFraction must be in [0, 1)");
+		}
+		this.windowMillis = unit.toMillis(window);
+		this.burst = burst;
+		this.reservedFraction = reservedFraction;
+		this.tokens = burst;
+	}
+
+	/**
+	 * Sets how long callers may all be held back before one request is let through to learn the current usage.
+	 * Defaults to one minute.
+	 */
+	public synchronized void setProbeInterval(long interval, TimeUnit unit) {
+		if (interval <= 0) {
+			throw new IllegalArgumentException("interval must be positive");
+		}
+		this.probeIntervalMillis = unit.toMillis(interval);
+		notifyAll();
+	}
+
+	/**
+	 * Sets how long {@link #acquire()} waits for a permit before giving up. Unbounded by default.
+	 * 
+	 * @param maxWait The wait, or 0 to fail right away when no permit is free.
+	 */
+	public synchronized void setMaxWait(long maxWait, TimeUnit unit) {
+		if (maxWait < 0) {
+			throw new IllegalArgumentException("maxWait can't be negative");
+		}
+		this.maxWaitMillis = unit.toMillis(maxWait);
+	}
+
+	public synchronized long getMaxWaitMillis() {
+		return maxWaitMillis;
+	}
+
+	/**
+	 * Sets the priority of requests made by the calling thread until it is changed again.
+	 */
+	public void setPriority(Priority priority) {
+		this.priority.set(priority == null ? Priority.NORMAL : priority);
+	}
+
+	public Priority getPriority() {
+		return priority.get();
+	}
+
+	/**
+	 * Wraps a task so it runs at the priority the calling thread has now, whichever thread ends up running it.
+	 */
+	public <T> Callable<T> withCurrentPriority(final Callable<T> task) {
+		final Priority captured = priority.get();
+		return new Callable<T>() {
+			public T call() throws Exception {
+				Priority previous = priority.get();
+				priority.set(captured);
+				try {
+					return task.call();
+				} finally {
+					priority.set(previous);
+				}
+			}
+		};
+	}
+
+	/**
+	 * @see #withCurrentPriority(Callable)
+	 */
+	public Runnable withCurrentPriority(final Runnable task) {
+		final Priority captured = priority.get();
+		return new Runnable() {
+			public void run() {
+				Priority previous = priority.get();
+				priority.set(captured);
+				try {
+					task.run();
+				} finally {
+					priority.set(previous);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Blocks until the calling thread may send a request, for at most the {@link #setMaxWait maximum wait}.
+	 * 
+	 * @throws RejectedExecutionException If no permit was free within the maximum wait.
+	 */
+	public void acquire() throws InterruptedException {
+		long timeout;
+		synchronized (this) {
+			timeout = maxWaitMillis;
+		}
+		if (!tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+			throw new RejectedExecutionException("No API permit within " + timeout + "ms");
+		}
+	}
+
+	/**
+	 * Waits up to the timeout for the calling thread to be allowed to send a request.
+	 * 
+	 * @return Whether a permit was granted; false if the timeout ran out first.
+	 */
+	public boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+		Priority current = priority.get();
+		long timeoutMillis = unit.toMillis(timeout);
+		long started = 0;
+		synchronized (this) {
+			while (true) {
+				if (limit < 0) {
+					return true;
+				}
+				refill();
+				long now = System.currentTimeMillis();
+				if (tokens >= threshold(current) && (current == Priority.HIGH || remaining() > reserved())) {
+					tokens -= 1.0d;
+					if (started != 0) {
+						waitedMillis.addAndGet(now - started);
+					}
+					return true;
+				}
+				if (now - lastHeard >= probeIntervalMillis) {
+					//nobody has heard from the server for a while, this request finds out what the window freed
+					lastHeard = now;
+					probes.incrementAndGet();
+					if (started != 0) {
+						waitedMillis.addAndGet(now - started);
+					}
+					return true;
+				}
+				if (started == 0) {
+					started = now;
+					throttled.incrementAndGet();
+				}
+				long left = timeoutMillis - (now - started);
+				if (left <= 0) {
+					waitedMillis.addAndGet(now - started);
+					return false;
+				}
+				long untilProbe = lastHeard + probeIntervalMillis - now;
+				wait(Math.max(1L, Math.min(left, Math.min(untilProbe, waitMillis(current)))));
+			}
+		}
+	}
+
+	/**
+	 * Feeds the Sforce-Limit-Info header of a response to the throttler.
+	 * 
+	 * @param header Something like api-usage=18/5000; null or unparseable values are ignored.
+	 */
+	public void update(String header) {
+		if (header == null) {
+			return;
+		}
+		Matcher matcher = API_USAGE.matcher(header);
+		if (matcher.find()) {
+			update(Long.parseLong(matcher.group(1)), Long.parseLong(matcher.group(2)));
+		}
+	}
+
+	/**
+	 * @param used Calls made in the current window.
+	 * @param limit Calls allowed in the window.
+	 */
+	public synchronized void update(long used, long limit) {
+		refill();
+		this.used = used;
+		this.limit = limit;
+		this.tokensPerMilli = Math.max(0L, limit - used) / (double) windowMillis;
+		this.lastHeard = System.currentTimeMillis();
+		notifyAll();
+	}
+
+	/**
+	 * @return Calls made in the current window, as last reported by the server, or -1 before the first response.
+	 */
+	public synchronized long getUsed() {
+		return used;
+	}
+
+	/**
+	 * @return Calls allowed in the window, or -1 before the first response.
+	 */
+	public synchronized long getLimit() {
+		return limit;
+	}
+
+	/**
+	 * @return Share of the allocation used so far, between 0 and 1.
+	 */
+	public synchronized double getUsageRatio() {
+		return limit <= 0 ? 0.0d : Math.min(1.0d, (double) used / limit);
+	}
+
+	/**
+	 * @return Requests that may be sent right now at normal priority.
+	 */
+	public synchronized double getAvailableTokens() {
+		refill();
+		return tokens;
+	}
+
+	/**
+	 * @return The rate the budget is currently spread at.
+	 */
+	public synchronized double getCallsPerSecond() {
+		return tokensPerMilli * 1000.0d;
+	}
+
+	/**
+	 * @return Requests that had to wait for a permit.
+	 */
+	public long getThrottledCount() {
+		return throttled.get();
+	}
+
+	/**
+	 * @return Requests let through to learn the usage while everyone else was held back.
+	 */
+	public long getProbeCount() {
+		return probes.get();
+	}
+
+	/**
+	 * @return Total time requests spent waiting for permits.
+	 */
+	public long getWaitedMillis() {
+		return waitedMillis.get();
+	}
+
+	private void refill() {
+		long now = System.currentTimeMillis();
+		tokens = Math.min(burst, tokens + (now - lastRefill) * tokensPerMilli);
+		lastRefill = now;
+	}
+
+	private long remaining() {
+		return limit - used;
+	}
+
+	private long reserved() {
+		return (long) Math.ceil(limit * reservedFraction);
+	}
+
+	private double threshold(Priority current) {
+		switch (current) {
+		case HIGH:
+			//may borrow a full burst ahead
+			return 1.0d - burst;
+		case LOW:
+			return Math.max(1.0d, burst / 2.0d);
+		default:
+			return 1.0d;
+		}
+	}
+
+	/**
+	 * @return How long until enough tokens have accrued, capped so callers recheck after limit updates.
+	 */
+	private long waitMillis(Priority current) {
+		if (tokensPerMilli <= 0.0d) {
+			return MAX_WAIT_MILLIS;
+		}
+		double missing = threshold(current) - tokens;
+		long millis = (long) Math.ceil(missing / tokensPerMilli);
+		return Math.max(1L, Math.min(MAX_WAIT_MILLIS, millis));
+	}
+}
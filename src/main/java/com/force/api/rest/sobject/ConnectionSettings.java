@@ -0,0 +1,139 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.sobject;
+
+/**
+ * Tuning knobs for the HTTP connection pool shared by every thread that calls a {@link RestSObjectApiClient}.
+ * The defaults are sized for a single client shared by a few dozen worker threads talking to one instance.
+ */
+public class ConnectionSettings {
+	private int maxTotalConnections = 100;
+	private int maxConnectionsPerHost = 64;
+	private int connectionTimeoutMillis = 30000;
+	private int socketTimeoutMillis = 120000;
+	private long idleConnectionTimeoutMillis = 60000L;
+	private long idleCheckIntervalMillis = 10000L;
+	private boolean compressResponses = true;
+	private int requestCompressionThreshold = -1;
+	private boolean prettyPrint = false;
+
+	public int getMaxTotalConnections() {
+		return maxTotalConnections;
+	}
+
+	public void setMaxTotalConnections(int maxTotalConnections) {
+		if (maxTotalConnections < 1) {
+			throw new IllegalArgumentException("maxTotalConnections must be at least 1");
+		}
+		this.maxTotalConnections = maxTotalConnections;
+	}
+
+	public int getMaxConnectionsPerHost() {
+		return maxConnectionsPerHost;
+	}
+
+	public void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+		if (maxConnectionsPerHost < 1) {
+			throw new IllegalArgumentException("maxConnectionsPerHost must be at least 1");
+		}
+		this.maxConnectionsPerHost = maxConnectionsPerHost;
+	}
+
+	public int getConnectionTimeoutMillis() {
+		return connectionTimeoutMillis;
+	}
+
+	public void setConnectionTimeoutMillis(int connectionTimeoutMillis) {
+		this.connectionTimeoutMillis = connectionTimeoutMillis;
+	}
+
+	public int getSocketTimeoutMillis() {
+		return socketTimeoutMillis;
+	}
+
+	public void setSocketTimeoutMillis(int socketTimeoutMillis) {
+		this.socketTimeoutMillis = socketTimeoutMillis;
+	}
+
+	/**
+	 * @return How long a pooled connection may sit unused before it is closed. Zero or less disables eviction.
+	 */
+	public long getIdleConnectionTimeoutMillis() {
+		return idleConnectionTimeoutMillis;
+	}
+
+	public void setIdleConnectionTimeoutMillis(long idleConnectionTimeoutMillis) {
+		this.idleConnectionTimeoutMillis = idleConnectionTimeoutMillis;
+	}
+
+	/**
+	 * @return How often the background evictor looks for idle connections.
+	 */
+	public long getIdleCheckIntervalMillis() {
+		return idleCheckIntervalMillis;
+	}
+
+	public void setIdleCheckIntervalMillis(long idleCheckIntervalMillis) {
+		if (idleCheckIntervalMillis < 1) {
+			throw new IllegalArgumentException("idleCheckIntervalMillis must be positive");
+		}
+		this.idleCheckIntervalMillis = idleCheckIntervalMillis;
+	}
+
+	/**
+	 * @return Whether responses are requested gzip compressed. On by default.
+	 */
+	public boolean isCompressResponses() {
+		return compressResponses;
+	}
+
+	public void setCompressResponses(boolean compressResponses) {
+		this.compressResponses = compressResponses;
+	}
+
+	/**
+	 * @return Request bodies of at least this many bytes are sent gzip compressed. Negative disables request
+	 *         compression, which is the default.
+	 */
+	public int getRequestCompressionThreshold() {
+		return requestCompressionThreshold;
+	}
+
+	public void setRequestCompressionThreshold(int requestCompressionThreshold) {
+		this.requestCompressionThreshold = requestCompressionThreshold;
+	}
+
+	/**
+	 * @return Whether the server is asked to indent its JSON. Off by default; only useful when reading logged bodies.
+	 */
+	public boolean isPrettyPrint() {
+		return prettyPrint;
+	}
+
+	public void setPrettyPrint(boolean prettyPrint) {
+		this.prettyPrint = prettyPrint;
+	}
+}
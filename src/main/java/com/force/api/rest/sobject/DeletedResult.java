@@ -0,0 +1,68 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.sobject;
+
+import java.util.List;
+
+/**
+ * This class represents a JSON response from /services/data/v{version}/sobjects/{sobjectName}/deleted
+ */
+public class DeletedResult {
+	private List<DeletedRecord> deletedRecords;
+	private String earliestDateAvailable;
+	private String latestDateCovered;
+
+	public List<DeletedRecord> getDeletedRecords() {
+		return deletedRecords;
+	}
+
+	/**
+	 * @return The oldest deletion the server still knows about; windows starting earlier miss deletions.
+	 */
+	public String getEarliestDateAvailable() {
+		return earliestDateAvailable;
+	}
+
+	/**
+	 * @return The end of the window the server actually covered. Start the next window here.
+	 */
+	public String getLatestDateCovered() {
+		return latestDateCovered;
+	}
+
+	public static class DeletedRecord {
+		private String id;
+		private String deletedDate;
+
+		public String getId() {
+			return id;
+		}
+
+		public String getDeletedDate() {
+			return deletedDate;
+		}
+	}
+}
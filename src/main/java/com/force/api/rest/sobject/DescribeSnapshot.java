@@ -0,0 +1,222 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.sobject;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.Lists;
+import com.google.gson.Gson;
+
+/**
+ * A file of describe results that lets a freshly started client fill its {@link MetadataCache} without downloading
+ * every describe again. There is one file per host and API version in the snapshot directory.
+ * 
+ * The file is memory-mapped when it is loaded, and each describe is only deserialized the first time it is read from
+ * the cache. Entries keep the time they were originally fetched, so entries older than the cache's TTL are treated as
+ * stale and get revalidated with If-Modified-Since.
+ */
+public class DescribeSnapshot {
+
+	private final Logger logger = Logger.getLogger(DescribeSnapshot.class.getName());
+
+	private static final int MAGIC = 0x46444553; // "FDES"
+	private static final int FORMAT_VERSION = 1;
+	private static final String CHARSET = "UTF-8";
+	private static final String SUFFIX = ".describe";
+
+	private final File directory;
+
+	/**
+	 * @param directory Where snapshot files are kept. It is created on the first save.
+	 */
+	public DescribeSnapshot(File directory) {
+		if (directory == null) {
+			throw new IllegalArgumentException("Provide a snapshot directory");
+		}
+		this.directory = directory;
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * @return The snapshot file for one host and API version, e.g. na1.salesforce.com-v24.0.describe
+	 */
+	public File fileFor(String hostname, double apiVersion) {
+		return new File(directory, hostname + "-v" + String.valueOf(apiVersion) + SUFFIX);
+	}
+
+	/**
+	 * Writes every entry of the cache to the snapshot file. The file is replaced atomically so a crash mid-write
+	 * leaves the previous snapshot intact.
+	 * 
+	 * @return Number of describes written.
+	 */
+	int save(String hostname, double apiVersion, MetadataCache cache, Gson gson) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Can't create snapshot directory " + directory);
+		}
+		File file = fileFor(hostname, apiVersion);
+		File temp = new File(directory, file.getName() + ".tmp");
+
+		Map<String, MetadataCache.CacheEntry> entries = cache.entries();
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			writeString(out, hostname);
+			out.writeDouble(apiVersion);
+			out.writeInt(entries.size());
+			for (Map.Entry<String, MetadataCache.CacheEntry> entry : entries.entrySet()) {
+				MetadataCache.CacheEntry cached = entry.getValue();
+				writeString(out, entry.getKey());
+				writeString(out, cached.getLastModified() == null ? "" : cached.getLastModified());
+				out.writeLong(cached.getFetchedAt());
+
+				ByteBuffer json = cached.getJson();
+				if (json != null) {
+					//never deserialized since it was loaded; copy it across as is
+					byte[] bytes = new byte[json.remaining()];
+					json.get(bytes);
+					out.writeInt(bytes.length);
+					out.write(bytes);
+				} else {
+					byte[] bytes = gson.toJson(cached.getValue()).getBytes(CHARSET);
+					out.writeInt(bytes.length);
+					out.write(bytes);
+				}
+			}
+		} finally {
+			out.close();
+		}
+
+		if (!temp.renameTo(file)) {
+			//renameTo won't replace an existing file on some platforms
+			if (!file.delete() || !temp.renameTo(file)) {
+				throw new IOException("Can't replace snapshot " + file);
+			}
+		}
+		return entries.size();
+	}
+
+	/**
+	 * Seeds the cache from the snapshot file. Keys the cache already holds are left alone. A missing file loads
+	 * nothing; a corrupt one is logged and ignored.
+	 * 
+	 * @return The keys that were added to the cache.
+	 */
+	List<String> load(String hostname, double apiVersion, MetadataCache cache, final Gson gson) throws IOException {
+		List<String> loaded = Lists.newArrayList();
+		File file = fileFor(hostname, apiVersion);
+		if (!file.isFile()) {
+			return loaded;
+		}
+
+		MappedByteBuffer buffer;
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		} finally {
+			//the mapping stays valid after the file is closed
+			raf.close();
+		}
+
+		try {
+			if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+				logger.log(Level.WARNING, "Ignoring snapshot with unknown format: " + file);
+				return loaded;
+			}
+			if (!hostname.equals(readString(buffer)) || buffer.getDouble() != apiVersion) {
+				logger.log(Level.WARNING, "Ignoring snapshot written for another host or API version: " + file);
+				return loaded;
+			}
+
+			int count = buffer.getInt();
+			for (int i = 0; i < count; i++) {
+				String key = readString(buffer);
+				String lastModified = readString(buffer);
+				long fetchedAt = buffer.getLong();
+				int length = buffer.getInt();
+
+				final ByteBuffer json = buffer.slice();
+				json.limit(length);
+				buffer.position(buffer.position() + length);
+
+				final Class<?> type = MetadataCache.typeOf(key);
+				Supplier<Object> value = Suppliers.memoize(new Supplier<Object>() {
+					public Object get() {
+						ByteBuffer copy = json.duplicate();
+						byte[] bytes = new byte[copy.remaining()];
+						copy.get(bytes);
+						try {
+							return gson.fromJson(new InputStreamReader(new ByteArrayInputStream(bytes), CHARSET), type);
+						} catch (IOException e) {
+							throw new IllegalStateException(e);
+						}
+					}
+				});
+				MetadataCache.CacheEntry entry = new MetadataCache.CacheEntry(value, json,
+						lastModified.isEmpty() ? null : lastModified, fetchedAt);
+				if (cache.putIfAbsent(key, entry)) {
+					loaded.add(key);
+				}
+			}
+		} catch (RuntimeException e) {
+			//BufferUnderflowException, IllegalArgumentException from a truncated or foreign file
+			logger.log(Level.WARNING, "Ignoring corrupt snapshot: " + file, e);
+		}
+		return loaded;
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes(CHARSET);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer buffer) throws IOException {
+		byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return new String(bytes, CHARSET);
+	}
+}
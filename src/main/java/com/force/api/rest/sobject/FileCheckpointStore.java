@@ -0,0 +1,99 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.sobject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
+import java.util.Properties;
+
+/**
+ * Keeps the checkpoints of an {@link IncrementalSync} in a properties file, one line per sObject. The file is
+ * rewritten to a temporary file next to it and renamed over it, so a crash leaves either the old or the new
+ * checkpoints, never a torn file.
+ */
+public class FileCheckpointStore implements IncrementalSync.CheckpointStore {
+
+	private final File file;
+	private Properties checkpoints;
+
+	public FileCheckpointStore(File file) {
+		this.file = file;
+	}
+
+	//@Override
+	public synchronized Date load(String sobjectName) throws IOException {
+		String millis = checkpoints().getProperty(sobjectName);
+		if (millis == null) {
+			return null;
+		}
+		try {
+			return new Date(Long.parseLong(millis));
+		} catch (NumberFormatException e) {
+			throw new IOException("Bad checkpoint for " + sobjectName + " in " + file + ": " + millis);
+		}
+	}
+
+	//@Override
+	public synchronized void save(String sobjectName, Date checkpoint) throws IOException {
+		Properties updated = new Properties();
+		updated.putAll(checkpoints());
+		updated.setProperty(sobjectName, Long.toString(checkpoint.getTime()));
+
+		File temp = new File(file.getPath() + ".tmp");
+		FileOutputStream out = new FileOutputStream(temp);
+		try {
+			updated.store(out, "Incremental sync checkpoints, in milliseconds since the epoch");
+			out.getFD().sync();
+		} finally {
+			out.close();
+		}
+		//renameTo won't replace an existing file everywhere
+		if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file))) {
+			throw new IOException("Could not replace " + file);
+		}
+		checkpoints = updated;
+	}
+
+	private Properties checkpoints() throws IOException {
+		if (checkpoints == null) {
+			Properties loaded = new Properties();
+			if (file.exists()) {
+				InputStream in = new FileInputStream(file);
+				try {
+					loaded.load(in);
+				} finally {
+					in.close();
+				}
+			}
+			checkpoints = loaded;
+		}
+		return checkpoints;
+	}
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.sobject;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends a second copy of a slow idempotent GET and takes whichever response arrives first, trimming the tail latency
+ * that a few straggling requests add.
+ * 
+ * The hedge goes out once the first request has been outstanding for the hedge delay. The delay is either fixed, or
+ * tracks a percentile (typically the 95th) of the latencies this policy has observed, so only the slowest few percent
+ * of requests are duplicated. Instances are thread-safe.
+ */
+public class HedgePolicy {
+
+	private final double percentile;
+	private final long minDelayMillis;
+	private final int warmupRequests;
+	private final LatencyHistogram latency = new LatencyHistogram();
+
+	private final AtomicLong hedges = new AtomicLong();
+	private final AtomicLong hedgeWins = new AtomicLong();
+
+	/**
+	 * Hedges every request still outstanding after a fixed delay.
+	 */
+	public HedgePolicy(long delay, TimeUnit unit) {
+		this(1.0d, delay, unit, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @param percentile Latency percentile to hedge at, something like 0.95
+	 * @param minDelay Lower bound of the delay, also used until enough latencies have been observed.
+	 * @param unit Unit of minDelay.
+	 * @param warmupRequests Latencies to observe before the percentile is trusted.
+	 */
+	public HedgePolicy(double percentile, long minDelay, TimeUnit unit, int warmupRequests) {
+		if (percentile <= 0.0d || percentile > 1.0d) {
+			throw new IllegalArgumentException("percentile must be in (0, 1]");
+		}
+		if (minDelay < 0) {
+			throw new IllegalArgumentException("minDelay can't be negative");
+		}
+		this.percentile = percentile;
+		this.minDelayMillis = unit.toMillis(minDelay);
+		this.warmupRequests = warmupRequests;
+	}
+
+	/**
+	 * @return How long to wait for the first request before sending a hedge.
+	 */
+	public long getDelayMillis() {
+		if (latency.getCount() < warmupRequests) {
+			return minDelayMillis;
+		}
+		return Math.max(minDelayMillis, latency.getPercentile(percentile, TimeUnit.MILLISECONDS));
+	}
+
+	/**
+	 * @return Latencies of the requests this policy has seen, hedged or not.
+	 */
+	public LatencyHistogram getLatency() {
+		return latency;
+	}
+
+	/**
+	 * @return Hedge requests sent.
+	 */
+	public long getHedgeCount() {
+		return hedges.get();
+	}
+
+	/**
+	 * @return Hedge requests that answered before the request they duplicated.
+	 */
+	public long getHedgeWinCount() {
+		return hedgeWins.get();
+	}
+
+	void record(long latencyNanos) {
+		latency.record(latencyNanos);
+	}
+
+	void hedged() {
+		hedges.incrementAndGet();
+	}
+
+	void hedgeWon() {
+		hedgeWins.incrementAndGet();
+	}
+}
@@ -0,0 +1,169 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.sobject;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps latency histograms and counters per endpoint in memory. Recording never takes a lock, so one instance can be
+ * shared by every request thread; read the numbers with {@link #getEndpoints()} or {@link #getTotal()}.
+ */
+public class InMemoryRequestMetrics implements RequestMetrics {
+
+	private final ConcurrentMap<String, EndpointStats> endpoints = new ConcurrentHashMap<String, EndpointStats>();
+	private final EndpointStats total = new EndpointStats();
+
+	/**
+	 * @return Live statistics for each endpoint that has seen a request.
+	 */
+	public Map<String, EndpointStats> getEndpoints() {
+		return Collections.unmodifiableMap(endpoints);
+	}
+
+	/**
+	 * @return Live statistics across all endpoints.
+	 */
+	public EndpointStats getTotal() {
+		return total;
+	}
+
+	//@Override
+	public void requestStarted(String endpoint) {
+		total.started();
+		stats(endpoint).started();
+	}
+
+	//@Override
+	public void requestCompleted(String endpoint, int status, long latencyNanos, long requestBytes, long responseBytes) {
+		total.completed(status, latencyNanos, requestBytes, responseBytes);
+		stats(endpoint).completed(status, latencyNanos, requestBytes, responseBytes);
+	}
+
+	//@Override
+	public void requestFailed(String endpoint, long latencyNanos, Throwable cause) {
+		total.failed(latencyNanos);
+		stats(endpoint).failed(latencyNanos);
+	}
+
+	private EndpointStats stats(String endpoint) {
+		EndpointStats stats = endpoints.get(endpoint);
+		if (stats == null) {
+			EndpointStats created = new EndpointStats();
+			stats = endpoints.putIfAbsent(endpoint, created);
+			if (stats == null) {
+				stats = created;
+			}
+		}
+		return stats;
+	}
+
+	/**
+	 * Counters for one endpoint.
+	 */
+	public static class EndpointStats {
+		private final LatencyHistogram latency = new LatencyHistogram();
+		private final AtomicInteger inFlight = new AtomicInteger();
+		private final AtomicLong requests = new AtomicLong();
+		private final AtomicLong failures = new AtomicLong();
+		private final AtomicLong requestBytes = new AtomicLong();
+		private final AtomicLong responseBytes = new AtomicLong();
+		private final ConcurrentMap<Integer, AtomicLong> statusCodes = new ConcurrentHashMap<Integer, AtomicLong>();
+
+		void started() {
+			inFlight.incrementAndGet();
+			requests.incrementAndGet();
+		}
+
+		void completed(int status, long latencyNanos, long requestBodyBytes, long responseBodyBytes) {
+			inFlight.decrementAndGet();
+			latency.record(latencyNanos);
+			if (requestBodyBytes > 0) {
+				requestBytes.addAndGet(requestBodyBytes);
+			}
+			if (responseBodyBytes > 0) {
+				responseBytes.addAndGet(responseBodyBytes);
+			}
+			Integer key = Integer.valueOf(status);
+			AtomicLong counter = statusCodes.get(key);
+			if (counter == null) {
+				AtomicLong created = new AtomicLong();
+				counter = statusCodes.putIfAbsent(key, created);
+				if (counter == null) {
+					counter = created;
+				}
+			}
+			counter.incrementAndGet();
+		}
+
+		void failed(long latencyNanos) {
+			inFlight.decrementAndGet();
+			latency.record(latencyNanos);
+			failures.incrementAndGet();
+		}
+
+		public LatencyHistogram getLatency() {
+			return latency;
+		}
+
+		/**
+		 * @return Requests sent but not yet completed or failed.
+		 */
+		public int getInFlight() {
+			return inFlight.get();
+		}
+
+		public long getRequests() {
+			return requests.get();
+		}
+
+		/**
+		 * @return Requests that got no response at all; error statuses are counted in {@link #getStatusCodes()}.
+		 */
+		public long getFailures() {
+			return failures.get();
+		}
+
+		public long getRequestBytes() {
+			return requestBytes.get();
+		}
+
+		public long getResponseBytes() {
+			return responseBytes.get();
+		}
+
+		/**
+		 * @return Number of responses per HTTP status code.
+		 */
+		public Map<Integer, AtomicLong> getStatusCodes() {
+			return Collections.unmodifiableMap(statusCodes);
+		}
+	}
+}
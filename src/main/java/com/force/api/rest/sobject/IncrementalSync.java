@@ -0,0 +1,311 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.sobject;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.json.JSONException;
+
+import com.force.api.rest.sobject.model.SObject;
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * Keeps a copy of an sObject up to date by moving only what changed since the last run. Each call to
+ * {@link #sync(String, Collection)} asks the updated and deleted resources which records changed since the object's
+ * checkpoint, fetches the changed records in batches of Ids, hands them to the {@link Handler}, and only then moves
+ * the checkpoint to the end of the window the server covered. A run that fails therefore leaves the checkpoint where
+ * it was, and the next run replays the same window: the handler sees every change at least once.
+ * 
+ * The server only keeps about 30 days of changes. An object without a checkpoint starts {@link #setInitialLookback
+ * a bit less than that} in the past; load older records with a query first. A checkpoint older than that is moved up
+ * and the result reports the gap, since changes in between may have been missed.
+ * 
+ * Instances may sync different objects from different threads, but not the same object at once.
+ */
+public class IncrementalSync {
+
+	private static final Logger logger = Logger.getLogger(IncrementalSync.class.getName());
+
+	private static final String ID = "Id";
+	private static final String IDS = "ids";
+	private static final String DATETIME_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSSZ";
+	private static final long MAX_LOOKBACK_MILLIS = TimeUnit.DAYS.toMillis(30);
+	//the server rounds windows down to whole minutes, shorter windows can't cover anything
+	private static final long MIN_WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(1);
+	//kept short enough that the query URL stays under the server's limit with 18 character Ids
+	public static final int MAX_BATCH_SIZE = 500;
+
+	/**
+	 * Receives the changes of a run. Upserts of one run come before its deletes, so a record created and deleted in
+	 * the same window ends up deleted.
+	 */
+	public interface Handler {
+		/**
+		 * @param records Current state of records created or updated in the window, with the synced fields.
+		 */
+		void upserted(String sobjectName, List<SObject> records) throws IOException;
+
+		/**
+		 * @param ids Ids of records deleted in the window.
+		 */
+		void deleted(String sobjectName, List<String> ids) throws IOException;
+	}
+
+	/**
+	 * Where the end of the last window synced for each sObject is kept between runs.
+	 */
+	public interface CheckpointStore {
+		/**
+		 * @return The checkpoint of the sObject, or null if it was never synced.
+		 */
+		Date load(String sobjectName) throws IOException;
+
+		void save(String sobjectName, Date checkpoint) throws IOException;
+	}
+
+	private final RestSObjectApiClient client;
+	private final CheckpointStore store;
+	private final Handler handler;
+
+	private int batchSize = 200;
+	private long initialLookbackMillis = TimeUnit.DAYS.toMillis(29);
+
+	public IncrementalSync(RestSObjectApiClient client, CheckpointStore store, Handler handler) {
+		this.client = client;
+		this.store = store;
+		this.handler = handler;
+	}
+
+	/**
+	 * @param batchSize Records fetched and handed to the handler at a time, at most {@link #MAX_BATCH_SIZE}.
+	 */
+	public void setBatchSize(int batchSize) {
+		if (batchSize < 1 || batchSize > MAX_BATCH_SIZE) {
+			throw new IllegalArgumentException("Batch size must be between 1 and " + MAX_BATCH_SIZE);
+		}
+		this.batchSize = batchSize;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * Sets how far back the first run of an sObject starts. Defaults to 29 days.
+	 */
+	public void setInitialLookback(long lookback, TimeUnit unit) {
+		long millis = unit.toMillis(lookback);
+		if (millis < MIN_WINDOW_MILLIS || millis > MAX_LOOKBACK_MILLIS) {
+			throw new IllegalArgumentException("Lookback must be between one minute and 30 days");
+		}
+		this.initialLookbackMillis = millis;
+	}
+
+	/**
+	 * Moves the changes of an sObject since its checkpoint to the handler, then saves the new checkpoint.
+	 * 
+	 * @param fields Fields of the upserted records. Id is added if it's missing.
+	 * @return What the run moved; the checkpoint is unchanged if the window was too short to sync.
+	 */
+	public Result sync(String sobjectName, Collection<String> fields) throws IOException, RestApiException,
+			JSONException {
+		Date now = new Date();
+		Date start = store.load(sobjectName);
+		boolean gap = false;
+		if (start == null) {
+			start = new Date(now.getTime() - initialLookbackMillis);
+		} else if (now.getTime() - start.getTime() >= MAX_LOOKBACK_MILLIS) {
+			logger.warning("Checkpoint of " + sobjectName + " at " + start
+					+ " is older than the server keeps changes, some may have been missed");
+			start = new Date(now.getTime() - MAX_LOOKBACK_MILLIS + MIN_WINDOW_MILLIS);
+			gap = true;
+		}
+		if (now.getTime() - start.getTime() < MIN_WINDOW_MILLIS) {
+			return new Result(sobjectName, start, start, 0, 0, 0, gap);
+		}
+
+		UpdatedResult updated = client.getUpdated(sobjectName, start, now);
+		DeletedResult deleted = client.getDeleted(sobjectName, start, now);
+		Date checkpoint = earliest(parse(updated.getLatestDateCovered()), parse(deleted.getLatestDateCovered()));
+		Date earliestDeletion = parse(deleted.getEarliestDateAvailable());
+		if (earliestDeletion != null && earliestDeletion.after(start)) {
+			logger.warning("Deletions of " + sobjectName + " before " + earliestDeletion + " are no longer available");
+			gap = true;
+		}
+
+		List<String> updatedIds = updated.getIds() == null ? Collections.<String> emptyList() : updated.getIds();
+		int upserted = 0;
+		if (!updatedIds.isEmpty()) {
+			PreparedQuery query = PreparedQuery.prepare("SELECT " + selectList(fields) + " FROM " + sobjectName
+					+ " WHERE Id IN :" + IDS);
+			for (List<String> batch : Lists.partition(updatedIds, batchSize)) {
+				List<SObject> records = fetch(query, batch);
+				if (!records.isEmpty()) {
+					handler.upserted(sobjectName, records);
+				}
+				upserted += records.size();
+			}
+		}
+
+		List<String> deletedIds = Lists.newArrayList();
+		if (deleted.getDeletedRecords() != null) {
+			for (DeletedResult.DeletedRecord record : deleted.getDeletedRecords()) {
+				deletedIds.add(record.getId());
+			}
+		}
+		if (!deletedIds.isEmpty()) {
+			handler.deleted(sobjectName, deletedIds);
+		}
+
+		if (checkpoint != null) {
+			store.save(sobjectName, checkpoint);
+		}
+		//records updated and then deleted before the query are left to the deletes of the next run
+		return new Result(sobjectName, start, checkpoint == null ? start : checkpoint, upserted, deletedIds.size(),
+				updatedIds.size() - upserted, gap);
+	}
+
+	private List<SObject> fetch(PreparedQuery query, List<String> ids) throws IOException, RestApiException,
+			JSONException {
+		QueryCursor cursor = client.queryCursor(query.bind().set(IDS, ids), RestSObjectApiClient.MIN_QUERY_BATCH_SIZE);
+		try {
+			List<SObject> records = Lists.newArrayListWithCapacity(ids.size());
+			while (cursor.hasNext()) {
+				records.add(cursor.next());
+			}
+			return records;
+		} finally {
+			cursor.close();
+		}
+	}
+
+	private static String selectList(Collection<String> fields) {
+		Set<String> selected = Sets.newLinkedHashSet();
+		selected.add(ID);
+		for (String field : fields) {
+			if (!ID.equalsIgnoreCase(field)) {
+				selected.add(field);
+			}
+		}
+		return Joiner.on(',').join(selected);
+	}
+
+	private static Date earliest(Date a, Date b) {
+		if (a == null || b == null) {
+			return a == null ? b : a;
+		}
+		return a.before(b) ? a : b;
+	}
+
+	private static Date parse(String datetime) throws IOException {
+		if (datetime == null) {
+			return null;
+		}
+		try {
+			return new SimpleDateFormat(DATETIME_FORMAT, Locale.ENGLISH).parse(datetime);
+		} catch (ParseException e) {
+			throw new IOException("Unexpected datetime " + datetime, e);
+		}
+	}
+
+	/**
+	 * What one run of {@link IncrementalSync#sync(String, Collection)} moved.
+	 */
+	public static class Result {
+		private final String sobjectName;
+		private final Date start;
+		private final Date checkpoint;
+		private final int upserted;
+		private final int deleted;
+		private final int vanished;
+		private final boolean gap;
+
+		Result(String sobjectName, Date start, Date checkpoint, int upserted, int deleted, int vanished, boolean gap) {
+			this.sobjectName = sobjectName;
+			this.start = start;
+			this.checkpoint = checkpoint;
+			this.upserted = upserted;
+			this.deleted = deleted;
+			this.vanished = vanished;
+			this.gap = gap;
+		}
+
+		public String getSObjectName() {
+			return sobjectName;
+		}
+
+		public Date getStart() {
+			return start;
+		}
+
+		/**
+		 * @return Where the next run starts.
+		 */
+		public Date getCheckpoint() {
+			return checkpoint;
+		}
+
+		public int getUpsertedCount() {
+			return upserted;
+		}
+
+		public int getDeletedCount() {
+			return deleted;
+		}
+
+		/**
+		 * @return Records reported as updated that the query no longer found, usually because they were deleted since.
+		 */
+		public int getVanishedCount() {
+			return vanished;
+		}
+
+		/**
+		 * @return Whether part of the window had expired on the server, so some changes may have been missed.
+		 */
+		public boolean hasGap() {
+			return gap;
+		}
+
+		@Override
+		public String toString() {
+			return sobjectName + " " + start + " - " + checkpoint + ": " + upserted + " upserted, " + deleted
+					+ " deleted, " + vanished + " vanished" + (gap ? ", with a gap" : "");
+		}
+	}
+}
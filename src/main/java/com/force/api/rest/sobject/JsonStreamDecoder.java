@@ -0,0 +1,276 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.sobject;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.force.api.rest.sobject.model.AnySObject;
+import com.force.api.rest.sobject.model.CompactSObject;
+import com.force.api.rest.sobject.model.RecordSchemas;
+import com.force.api.rest.sobject.model.SObject;
+import com.force.api.rest.sobject.model.SObjectReader;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * Reads records off a streaming JSON body into {@link AnySObject}s, or {@link CompactSObject}s, without first building
+ * a String or a JSONObject for the whole response. Field values get the same types org.json would have given them,
+ * so records decoded here behave exactly like records built from a JSONObject. Records come back marked clean, so
+ * only fields set afterwards count as changes.
+ */
+final class JsonStreamDecoder {
+
+	private static final String ATTRIBUTES = "attributes";
+	private static final String TYPE = "type";
+
+	private JsonStreamDecoder() {
+	}
+
+	/**
+	 * Reads a single record, e.g. the response of a GET on /sobjects/{sobjectName}/{id}.
+	 */
+	static AnySObject readRecord(String sobjectName, JsonReader reader) throws IOException, JSONException {
+		return readRecord(new AnySObject(sobjectName), reader);
+	}
+
+	/**
+	 * Reads a single record into an empty record of the caller's choosing.
+	 */
+	static <R extends AnySObject> R readRecord(R record, JsonReader reader) throws IOException, JSONException {
+		record.setFields(readFields(reader));
+		record.markClean();
+		return record;
+	}
+
+	/**
+	 * @param schemas Schemas to read a {@link CompactSObject} with, or null to read an AnySObject.
+	 */
+	static SObject readRecord(String sobjectName, JsonReader reader, RecordSchemas schemas)
+			throws IOException, JSONException {
+		return schemas != null ? readCompactRecord(schemas, sobjectName, reader) : readRecord(sobjectName, reader);
+	}
+
+	/**
+	 * Reads a single record's fields without building a record, for callers that build several records from them.
+	 * The map can't be modified.
+	 */
+	static Map<String, Object> readRecordFields(JsonReader reader) throws IOException, JSONException {
+		return Collections.unmodifiableMap(readFields(reader));
+	}
+
+	static QueryCursor.Page readQueryPage(JsonReader reader) throws IOException, JSONException {
+		return readQueryPage(reader, null);
+	}
+
+	/**
+	 * Reads a batch of query results. Each record's type comes from its attributes.
+	 * 
+	 * @param schemas Schemas to read {@link CompactSObject}s with, or null to read AnySObjects.
+	 */
+	static QueryCursor.Page readQueryPage(JsonReader reader, RecordSchemas schemas) throws IOException, JSONException {
+		return readQueryPage(reader, schemas, null);
+	}
+
+	/**
+	 * @param recordReader Reads each record into a class of its own, or null to read AnySObjects or CompactSObjects.
+	 */
+	static QueryCursor.Page readQueryPage(JsonReader reader, RecordSchemas schemas, SObjectReader<?> recordReader)
+			throws IOException, JSONException {
+		int totalSize = 0;
+		String nextRecordsUrl = null;
+		List<SObject> records = Lists.newArrayList();
+
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+			if ("totalSize".equals(name)) {
+				totalSize = reader.nextInt();
+			} else if ("nextRecordsUrl".equals(name) && reader.peek() != JsonToken.NULL) {
+				nextRecordsUrl = reader.nextString();
+			} else if ("records".equals(name)) {
+				reader.beginArray();
+				while (reader.hasNext()) {
+					if (recordReader != null) {
+						records.add(recordReader.read(reader));
+						continue;
+					}
+					if (schemas != null) {
+						records.add(readCompactRecord(schemas, null, reader));
+						continue;
+					}
+					Map<String, Object> fields = readFields(reader);
+					AnySObject record = new AnySObject(typeOf(fields));
+					record.setFields(fields);
+					record.markClean();
+					records.add(record);
+				}
+				reader.endArray();
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		return new QueryCursor.Page(totalSize, nextRecordsUrl, records);
+	}
+
+	private static String typeOf(Map<String, Object> fields) throws JSONException {
+		return typeOfAttributes(fields.get(ATTRIBUTES));
+	}
+
+	private static String typeOfAttributes(Object attributes) throws JSONException {
+		if (attributes instanceof JSONObject) {
+			return ((JSONObject) attributes).getString(TYPE);
+		}
+		throw new JSONException("Record has no attributes.type");
+	}
+
+	/**
+	 * Reads a record straight into the slots of a CompactSObject, so numbers and booleans are never boxed.
+	 * 
+	 * @param sobjectName The type, or null to take it from the attributes.
+	 */
+	private static CompactSObject readCompactRecord(RecordSchemas schemas, String sobjectName, JsonReader reader)
+			throws IOException, JSONException {
+		CompactSObject record = sobjectName == null ? null : new CompactSObject(schemas.forType(sobjectName));
+		//fields before the attributes, which the API sends first anyway
+		Map<String, Object> early = null;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+			if (record != null) {
+				readCompactValue(record, name, reader);
+			} else if (ATTRIBUTES.equals(name)) {
+				Object attributes = readValue(reader);
+				record = new CompactSObject(schemas.forType(typeOfAttributes(attributes)));
+				record.setField(ATTRIBUTES, attributes);
+				if (early != null) {
+					record.setFields(early);
+				}
+			} else {
+				if (early == null) {
+					early = Maps.newLinkedHashMap();
+				}
+				early.put(name, readValue(reader));
+			}
+		}
+		reader.endObject();
+		if (record == null) {
+			throw new JSONException("Record has no attributes.type");
+		}
+		record.markClean();
+		return record;
+	}
+
+	private static void readCompactValue(CompactSObject record, String name, JsonReader reader)
+			throws IOException, JSONException {
+		switch (reader.peek()) {
+		case STRING:
+			record.setString(name, reader.nextString());
+			break;
+		case NUMBER:
+			//the same types JSONObject.stringToValue picks, without boxing
+			String number = reader.nextString();
+			if (number.indexOf('.') >= 0 || number.indexOf('e') >= 0 || number.indexOf('E') >= 0) {
+				record.setDouble(name, Double.parseDouble(number));
+			} else {
+				try {
+					long value = Long.parseLong(number);
+					if ((int) value == value) {
+						record.setInt(name, (int) value);
+					} else {
+						record.setLong(name, value);
+					}
+				} catch (NumberFormatException e) {
+					record.setString(name, number);
+				}
+			}
+			break;
+		case BOOLEAN:
+			record.setBoolean(name, reader.nextBoolean());
+			break;
+		case NULL:
+			reader.nextNull();
+			record.setNull(name);
+			break;
+		default:
+			record.setField(name, readValue(reader));
+			break;
+		}
+	}
+
+	private static Map<String, Object> readFields(JsonReader reader) throws IOException, JSONException {
+		Map<String, Object> fields = Maps.newHashMap();
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+			fields.put(name, readValue(reader));
+		}
+		reader.endObject();
+		return fields;
+	}
+
+	private static Object readValue(JsonReader reader) throws IOException, JSONException {
+		switch (reader.peek()) {
+		case BEGIN_OBJECT:
+			JSONObject object = new JSONObject();
+			reader.beginObject();
+			while (reader.hasNext()) {
+				String name = reader.nextName();
+				object.put(name, readValue(reader));
+			}
+			reader.endObject();
+			return object;
+		case BEGIN_ARRAY:
+			JSONArray array = new JSONArray();
+			reader.beginArray();
+			while (reader.hasNext()) {
+				array.put(readValue(reader));
+			}
+			reader.endArray();
+			return array;
+		case STRING:
+			return reader.nextString();
+		case NUMBER:
+			return JSONObject.stringToValue(reader.nextString());
+		case BOOLEAN:
+			return Boolean.valueOf(reader.nextBoolean());
+		case NULL:
+			reader.nextNull();
+			return JSONObject.NULL;
+		default:
+			throw new JSONException("Unexpected " + reader.peek());
+		}
+	}
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.sobject;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free latency histogram with power-of-two microsecond buckets: bucket 0 counts latencies under 1us, bucket n
+ * counts latencies from 2^(n-1)us up to 2^n us, and the last bucket counts everything slower. Percentiles are accurate
+ * to within a factor of two, which is plenty to tell a 20ms call from a 2s one.
+ */
+public class LatencyHistogram {
+
+	private static final int BUCKETS = 40;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong totalNanos = new AtomicLong();
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	public void record(long latencyNanos) {
+		long nanos = Math.max(0L, latencyNanos);
+		buckets.incrementAndGet(bucketOf(nanos));
+		count.incrementAndGet();
+		totalNanos.addAndGet(nanos);
+		long max = maxNanos.get();
+		while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+			max = maxNanos.get();
+		}
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getMax(TimeUnit unit) {
+		return unit.convert(maxNanos.get(), TimeUnit.NANOSECONDS);
+	}
+
+	public long getMean(TimeUnit unit) {
+		long n = count.get();
+		return n == 0 ? 0L : unit.convert(totalNanos.get() / n, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @param percentile Something like 0.95
+	 * @return The upper bound of the bucket holding that percentile, capped at the slowest latency seen.
+	 */
+	public long getPercentile(double percentile, TimeUnit unit) {
+		if (percentile <= 0.0d || percentile > 1.0d) {
+			throw new IllegalArgumentException("Percentile must be in (0, 1]");
+		}
+		long n = count.get();
+		if (n == 0) {
+			return 0L;
+		}
+		long rank = (long) Math.ceil(percentile * n);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += buckets.get(i);
+			if (seen >= rank) {
+				if (i == BUCKETS - 1) {
+					//the last bucket has no upper bound of its own
+					return getMax(unit);
+				}
+				long upperMicros = i == 0 ? 1L : 1L << i;
+				long upperNanos = Math.min(TimeUnit.MICROSECONDS.toNanos(upperMicros), maxNanos.get());
+				return unit.convert(upperNanos, TimeUnit.NANOSECONDS);
+			}
+		}
+		return getMax(unit);
+	}
+
+	private static int bucketOf(long nanos) {
+		long micros = nanos / 1000L;
+		if (micros == 0) {
+			return 0;
+		}
+		int bucket = 64 - Long.numberOfLeadingZeros(micros);
+		return Math.min(bucket, BUCKETS - 1);
+	}
+}
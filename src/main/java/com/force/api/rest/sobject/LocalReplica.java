@@ -0,0 +1,615 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.sobject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.force.api.rest.sobject.model.SObject;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * A local copy of records, kept in a memory-mapped, append-only file, for lookups that can't wait for the network.
+ * Records get in through {@link #put(SObject)}, e.g. from a {@link QueryCursor}, or by using the replica as the
+ * {@link IncrementalSync.Handler} that keeps it current. Lookups by Id, or by a field with a secondary index, read
+ * straight from the mapped file and never call the server.
+ * 
+ * Every put or delete appends an entry to the file; the Id index points at the latest entry of each record, and the
+ * secondary indexes map field values to Ids. Only the indexes live on the heap. Opening a replica scans the file to
+ * rebuild them, and stops at the first entry whose checksum doesn't match, so an entry torn by a crash is dropped
+ * along with everything after it. Superseded entries are reclaimed by {@link #compact()}.
+ * 
+ * The file is mapped in segments of a fixed size, and an entry can't be larger than a segment. Lookups run in
+ * parallel; puts, deletes and compaction take turns with them. Records are looked up by their 18 character Id.
+ */
+public class LocalReplica implements IncrementalSync.Handler {
+
+	private static final Logger logger = Logger.getLogger(LocalReplica.class.getName());
+
+	public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	//length, checksum and kind
+	private static final int HEADER_SIZE = 9;
+	private static final byte PUT = 1;
+	private static final byte DELETE = 2;
+	//fills the rest of a segment that the next entry doesn't fit in
+	private static final byte PAD = 3;
+
+	private final File file;
+	private final int segmentSize;
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private final Map<String, Index> indexes = Maps.newLinkedHashMap();
+	private final Map<String, Long> positions = Maps.newHashMap();
+
+	private RandomAccessFile raf;
+	private List<MappedByteBuffer> segments;
+	private long end;
+	private long garbageBytes;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Opens the replica in a file, creating it if it doesn't exist.
+	 */
+	public LocalReplica(File file) throws IOException {
+		this(file, DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * @param segmentSize Bytes mapped at a time, which is also the largest entry. Must be the same every time the
+	 *            file is opened.
+	 */
+	public LocalReplica(File file, int segmentSize) throws IOException {
+		if (segmentSize < 4096) {
+			throw new IllegalArgumentException("Segment size must be at least 4096 bytes");
+		}
+		this.file = file;
+		this.segmentSize = segmentSize;
+		open();
+	}
+
+	/**
+	 * Indexes a field, so records can be found by its value. Builds the index from the records already in the replica.
+	 * 
+	 * @param caseSensitive Whether values that differ only in case are different keys.
+	 */
+	public void addIndex(String field, boolean caseSensitive) throws IOException {
+		lock.writeLock().lock();
+		try {
+			if (indexes.containsKey(field)) {
+				return;
+			}
+			Index index = new Index(field, caseSensitive);
+			for (Long position : positions.values()) {
+				index.add(read(position.longValue()));
+			}
+			indexes.put(field, index);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Indexes every external Id field of an sObject, with the case sensitivity the describe reports.
+	 */
+	public void addExternalIdIndexes(DescribeLayout describe) throws IOException {
+		for (DescribeLayout.Field field : describe.getAllFields()) {
+			if (Boolean.TRUE.equals(field.isExternalId())) {
+				addIndex(field.getName(), Boolean.TRUE.equals(field.isCaseSensitive()));
+			}
+		}
+	}
+
+	/**
+	 * @return The latest copy of the record, or null if the replica doesn't have it. Each call returns a new object.
+	 */
+	public SObject get(String id) throws IOException {
+		lock.readLock().lock();
+		try {
+			Long position = positions.get(id);
+			if (position == null) {
+				misses.incrementAndGet();
+				return null;
+			}
+			hits.incrementAndGet();
+			return read(position.longValue());
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return The records whose indexed field has the value, in no particular order.
+	 * @throws IllegalArgumentException If the field isn't indexed.
+	 */
+	public List<SObject> find(String field, Object value) throws IOException {
+		lock.readLock().lock();
+		try {
+			Index index = indexes.get(field);
+			if (index == null) {
+				throw new IllegalArgumentException(field + " isn't indexed");
+			}
+			Set<String> ids = index.ids(value);
+			if (ids.isEmpty()) {
+				misses.incrementAndGet();
+				return Collections.emptyList();
+			}
+			hits.incrementAndGet();
+			List<SObject> records = Lists.newArrayListWithCapacity(ids.size());
+			for (String id : ids) {
+				records.add(read(positions.get(id).longValue()));
+			}
+			return records;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Adds or replaces a record. The record must have an Id.
+	 */
+	public void put(SObject record) throws IOException {
+		String id = record.getId();
+		if (id == null) {
+			throw new IllegalArgumentException("Only records with an Id can be replicated");
+		}
+		String json;
+		try {
+			json = record.toJson();
+		} catch (JSONException e) {
+			throw new IOException("Could not serialize " + id, e);
+		}
+		byte[] payload = putPayload(id, record.getSObjectName(), json);
+		lock.writeLock().lock();
+		try {
+			long position = append(PUT, payload);
+			Long previous = positions.put(id, Long.valueOf(position));
+			if (previous != null) {
+				garbageBytes += entrySize(previous.longValue());
+			}
+			for (Index index : indexes.values()) {
+				index.remove(id);
+				index.add(record);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public void putAll(Iterator<? extends SObject> records) throws IOException {
+		while (records.hasNext()) {
+			put(records.next());
+		}
+	}
+
+	/**
+	 * Removes a record, if the replica has it.
+	 */
+	public void delete(String id) throws IOException {
+		lock.writeLock().lock();
+		try {
+			Long previous = positions.remove(id);
+			if (previous == null) {
+				return;
+			}
+			long position = append(DELETE, id.getBytes(UTF8));
+			garbageBytes += entrySize(previous.longValue()) + entrySize(position);
+			for (Index index : indexes.values()) {
+				index.remove(id);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	//@Override
+	public void upserted(String sobjectName, List<SObject> records) throws IOException {
+		putAll(records.iterator());
+	}
+
+	//@Override
+	public void deleted(String sobjectName, List<String> ids) throws IOException {
+		for (String id : ids) {
+			delete(id);
+		}
+	}
+
+	/**
+	 * @return Records in the replica.
+	 */
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return positions.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return Bytes of the file taken by entries, live or superseded.
+	 */
+	public long getLogBytes() {
+		lock.readLock().lock();
+		try {
+			return end;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return Bytes of superseded entries that {@link #compact()} would reclaim.
+	 */
+	public long getGarbageBytes() {
+		lock.readLock().lock();
+		try {
+			return garbageBytes;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * Writes the mapped segments through to the disk.
+	 */
+	public void flush() {
+		lock.readLock().lock();
+		try {
+			for (MappedByteBuffer segment : segments) {
+				segment.force();
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Rewrites the file with only the latest entry of each record, then swaps it in. Lookups wait until it's done.
+	 */
+	public void compact() throws IOException {
+		lock.writeLock().lock();
+		try {
+			File compacted = new File(file.getPath() + ".compact");
+			if (compacted.exists() && !compacted.delete()) {
+				throw new IOException("Could not delete " + compacted);
+			}
+			LocalReplica target = new LocalReplica(compacted, segmentSize);
+			try {
+				for (Long position : positions.values()) {
+					ByteBuffer entry = entry(position.longValue());
+					byte[] payload = new byte[entry.remaining()];
+					entry.get(payload);
+					target.append(PUT, payload);
+				}
+				target.flush();
+			} finally {
+				target.close();
+			}
+			close();
+			try {
+				//renameTo won't replace an existing file everywhere
+				if (!compacted.renameTo(file) && !(file.delete() && compacted.renameTo(file))) {
+					throw new IOException("Could not replace " + file);
+				}
+			} finally {
+				open();
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Flushes and closes the file. The mappings are released once they're garbage collected.
+	 */
+	public void close() throws IOException {
+		lock.writeLock().lock();
+		try {
+			flush();
+			segments = Collections.emptyList();
+			raf.close();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Maps the file and rebuilds the indexes from its entries.
+	 */
+	private void open() throws IOException {
+		raf = new RandomAccessFile(file, "rw");
+		segments = Lists.newArrayList();
+		long length = raf.length();
+		for (long mapped = 0; mapped < length; mapped += segmentSize) {
+			mapSegment();
+		}
+		positions.clear();
+		garbageBytes = 0;
+		end = 0;
+		CRC32 crc = new CRC32();
+		long position = 0;
+		while (position / segmentSize < segments.size()) {
+			MappedByteBuffer segment = segments.get((int) (position / segmentSize));
+			int offset = (int) (position % segmentSize);
+			if (segmentSize - offset < HEADER_SIZE) {
+				position = nextSegment(position);
+				continue;
+			}
+			int entryLength = segment.getInt(offset);
+			byte kind = segment.get(offset + 8);
+			if (kind == PAD) {
+				position = nextSegment(position);
+				continue;
+			}
+			if (entryLength == 0 && kind == 0) {
+				break;
+			}
+			if (entryLength < 0 || entryLength > segmentSize - offset - HEADER_SIZE || !intact(segment, offset, crc)) {
+				logger.warning("Dropping the torn entry at " + position + " of " + file + " and everything after it");
+				clearFrom(position);
+				break;
+			}
+			String id = idOf(entryAt(segment, offset), kind);
+			Long previous = kind == PUT ? positions.put(id, Long.valueOf(position)) : positions.remove(id);
+			if (previous != null) {
+				garbageBytes += entrySize(previous.longValue());
+			}
+			if (kind == DELETE) {
+				garbageBytes += HEADER_SIZE + entryLength;
+			}
+			position += HEADER_SIZE + entryLength;
+			end = position;
+		}
+		for (Index index : indexes.values()) {
+			index.clear();
+			for (Long live : positions.values()) {
+				index.add(read(live.longValue()));
+			}
+		}
+	}
+
+	/**
+	 * Zeroes the file from a position on, so entries after a torn one can't line up with later appends and come back
+	 * on the next open.
+	 */
+	private void clearFrom(long position) {
+		byte[] zeros = new byte[4096];
+		for (int index = (int) (position / segmentSize); index < segments.size(); index++) {
+			MappedByteBuffer segment = segments.get(index);
+			ByteBuffer rest = segment.duplicate();
+			rest.position(index == position / segmentSize ? (int) (position % segmentSize) : 0);
+			while (rest.hasRemaining()) {
+				rest.put(zeros, 0, Math.min(zeros.length, rest.remaining()));
+			}
+			segment.force();
+		}
+	}
+
+	private long nextSegment(long position) {
+		return (position / segmentSize + 1) * segmentSize;
+	}
+
+	private void mapSegment() throws IOException {
+		//mapping past the end grows the file
+		segments.add(raf.getChannel().map(FileChannel.MapMode.READ_WRITE, (long) segments.size() * segmentSize,
+				segmentSize));
+	}
+
+	/**
+	 * @return The position of the new entry.
+	 */
+	private long append(byte kind, byte[] payload) throws IOException {
+		if (payload.length > segmentSize - HEADER_SIZE) {
+			throw new IllegalArgumentException("Entry of " + payload.length + " bytes doesn't fit in a segment");
+		}
+		long position = end;
+		int offset = (int) (position % segmentSize);
+		if (offset + HEADER_SIZE + payload.length > segmentSize) {
+			if (segmentSize - offset >= HEADER_SIZE) {
+				MappedByteBuffer segment = segments.get((int) (position / segmentSize));
+				segment.put(offset + 8, PAD);
+				segment.putInt(offset, segmentSize - offset - HEADER_SIZE);
+			}
+			position = nextSegment(position);
+			offset = 0;
+		}
+		int index = (int) (position / segmentSize);
+		while (index >= segments.size()) {
+			mapSegment();
+		}
+		MappedByteBuffer segment = segments.get(index);
+		ByteBuffer body = segment.duplicate();
+		body.position(offset + HEADER_SIZE);
+		body.put(payload);
+		CRC32 crc = new CRC32();
+		crc.update(kind);
+		crc.update(payload);
+		segment.putInt(offset + 4, (int) crc.getValue());
+		segment.put(offset + 8, kind);
+		//the length goes last, an entry without it reads as the end of the file
+		segment.putInt(offset, payload.length);
+		end = position + HEADER_SIZE + payload.length;
+		return position;
+	}
+
+	private boolean intact(MappedByteBuffer segment, int offset, CRC32 crc) {
+		ByteBuffer entry = entryAt(segment, offset);
+		byte[] payload = new byte[entry.remaining()];
+		entry.get(payload);
+		crc.reset();
+		crc.update(segment.get(offset + 8));
+		crc.update(payload);
+		return (int) crc.getValue() == segment.getInt(offset + 4);
+	}
+
+	private int entrySize(long position) {
+		return HEADER_SIZE + segments.get((int) (position / segmentSize)).getInt((int) (position % segmentSize));
+	}
+
+	/**
+	 * @return The payload of the entry at a position, positioned at its start.
+	 */
+	private ByteBuffer entry(long position) {
+		return entryAt(segments.get((int) (position / segmentSize)), (int) (position % segmentSize));
+	}
+
+	private static ByteBuffer entryAt(MappedByteBuffer segment, int offset) {
+		ByteBuffer entry = segment.duplicate();
+		entry.limit(offset + HEADER_SIZE + segment.getInt(offset));
+		entry.position(offset + HEADER_SIZE);
+		return entry;
+	}
+
+	/**
+	 * Payload of a put: the Id and the sObject name, each preceded by its length, then the record's JSON.
+	 */
+	private static byte[] putPayload(String id, String sobjectName, String json) {
+		byte[] idBytes = id.getBytes(UTF8);
+		byte[] nameBytes = sobjectName.getBytes(UTF8);
+		byte[] jsonBytes = json.getBytes(UTF8);
+		ByteBuffer payload = ByteBuffer.allocate(4 + idBytes.length + nameBytes.length + jsonBytes.length);
+		payload.putShort((short) idBytes.length).put(idBytes);
+		payload.putShort((short) nameBytes.length).put(nameBytes);
+		payload.put(jsonBytes);
+		return payload.array();
+	}
+
+	private static String idOf(ByteBuffer entry, byte kind) {
+		int length = kind == PUT ? entry.getShort() : entry.remaining();
+		return string(entry, length);
+	}
+
+	private static String string(ByteBuffer entry, int length) {
+		byte[] bytes = new byte[length];
+		entry.get(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	private SObject read(long position) throws IOException {
+		ByteBuffer entry = entry(position);
+		short idLength = entry.getShort();
+		entry.position(entry.position() + idLength);
+		String sobjectName = string(entry, entry.getShort());
+		String json = string(entry, entry.remaining());
+		try {
+			return JsonStreamDecoder.readRecord(sobjectName, new JsonReader(new StringReader(json)));
+		} catch (JSONException e) {
+			throw new IOException("Corrupt entry at " + position + " of " + file, e);
+		}
+	}
+
+	/**
+	 * Ids of the records by the value of one field.
+	 */
+	private static class Index {
+		private final String field;
+		private final boolean caseSensitive;
+		private final Map<String, Set<String>> idsByValue = Maps.newHashMap();
+		private final Map<String, String> valueById = Maps.newHashMap();
+
+		Index(String field, boolean caseSensitive) {
+			this.field = field;
+			this.caseSensitive = caseSensitive;
+		}
+
+		Set<String> ids(Object value) {
+			Set<String> ids = idsByValue.get(key(value));
+			return ids == null ? Collections.<String> emptySet() : ids;
+		}
+
+		void add(SObject record) {
+			String key = key(record.getField(field));
+			if (key == null) {
+				return;
+			}
+			Set<String> ids = idsByValue.get(key);
+			if (ids == null) {
+				ids = Sets.newHashSet();
+				idsByValue.put(key, ids);
+			}
+			ids.add(record.getId());
+			valueById.put(record.getId(), key);
+		}
+
+		void remove(String id) {
+			String key = valueById.remove(id);
+			if (key != null) {
+				Set<String> ids = idsByValue.get(key);
+				ids.remove(id);
+				if (ids.isEmpty()) {
+					idsByValue.remove(key);
+				}
+			}
+		}
+
+		void clear() {
+			idsByValue.clear();
+			valueById.clear();
+		}
+
+		private String key(Object value) {
+			if (value == null || JSONObject.NULL.equals(value)) {
+				return null;
+			}
+			String key = value.toString();
+			return caseSensitive ? key : key.toLowerCase(Locale.ENGLISH);
+		}
+	}
+}
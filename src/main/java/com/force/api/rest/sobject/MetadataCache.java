@@ -0,0 +1,274 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.sobject;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+
+/**
+ * Keeps the results of describeGlobal, describeSobject and describeLayout so repeated describes of the same object
+ * don't each cost a round trip.
+ * 
+ * Entries are fresh for a fixed time after they were fetched. Once an entry goes stale the client revalidates it with
+ * an If-Modified-Since request, and keeps the cached copy if the server answers 304 Not Modified. When the cache is
+ * full the least recently used entry is evicted. Instances are thread-safe and can be shared between clients that talk
+ * to the same org.
+ */
+public class MetadataCache {
+
+	private static final String GLOBAL_KEY = "global";
+	private static final String SOBJECT_KEY_PREFIX = "sobject:";
+	private static final String LAYOUT_KEY_PREFIX = "layout:";
+
+	private final long ttlMillis;
+	private final int maxEntries;
+	private final Map<String, CacheEntry> entries;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong revalidations = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * @param ttl How long an entry is served without asking the server.
+	 * @param unit Unit of ttl.
+	 * @param maxEntries Most describes kept at once.
+	 */
+	public MetadataCache(long ttl, TimeUnit unit, int maxEntries) {
+		if (ttl < 0) {
+			throw new IllegalArgumentException("ttl can't be negative");
+		}
+		if (maxEntries < 1) {
+			throw new IllegalArgumentException("maxEntries must be at least 1");
+		}
+		this.ttlMillis = unit.toMillis(ttl);
+		this.maxEntries = maxEntries;
+		this.entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+				if (size() > MetadataCache.this.maxEntries) {
+					evictions.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	public long getTtlMillis() {
+		return ttlMillis;
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	/**
+	 * @return Lookups answered from the cache without a request.
+	 */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * @return Lookups that needed a request, whether or not the server then answered 304.
+	 */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * @return Stale entries the server confirmed were still current.
+	 */
+	public long getRevalidationCount() {
+		return revalidations.get();
+	}
+
+	public long getEvictionCount() {
+		return evictions.get();
+	}
+
+	/**
+	 * @return Share of lookups answered without downloading a describe, counting 304 revalidations as hits.
+	 */
+	public double getHitRatio() {
+		long hitCount = hits.get();
+		long total = hitCount + misses.get();
+		return total == 0 ? 0.0d : (double) (hitCount + revalidations.get()) / total;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Drops the describeSobject and describeLayout entries of one object, and the describeGlobal entry.
+	 */
+	public synchronized void invalidate(String sobjectName) {
+		entries.remove(GLOBAL_KEY);
+		entries.remove(SOBJECT_KEY_PREFIX + sobjectName);
+		entries.remove(LAYOUT_KEY_PREFIX + sobjectName);
+	}
+
+	public synchronized void invalidateAll() {
+		entries.clear();
+	}
+
+	static String globalKey() {
+		return GLOBAL_KEY;
+	}
+
+	static String sobjectKey(String sobjectName) {
+		return SOBJECT_KEY_PREFIX + sobjectName;
+	}
+
+	static String layoutKey(String sobjectName) {
+		return LAYOUT_KEY_PREFIX + sobjectName;
+	}
+
+	/**
+	 * Looks up an entry and counts the lookup as a hit if the entry is fresh, or a miss otherwise. Stale entries are
+	 * still returned so the caller can revalidate them.
+	 */
+	synchronized CacheEntry lookup(String key, long now) {
+		CacheEntry entry = entries.get(key);
+		if (entry != null && entry.isFresh(now, ttlMillis)) {
+			hits.incrementAndGet();
+		} else {
+			misses.incrementAndGet();
+		}
+		return entry;
+	}
+
+	synchronized void put(String key, Object value, String lastModified) {
+		entries.put(key, new CacheEntry(value, lastModified, System.currentTimeMillis()));
+	}
+
+	/**
+	 * Restarts the time to live of an entry the server reported as unchanged.
+	 */
+	synchronized void revalidated(String key, CacheEntry entry) {
+		revalidations.incrementAndGet();
+		entries.put(key, new CacheEntry(entry.value, entry.json, entry.getLastModified(), System.currentTimeMillis()));
+	}
+
+	/**
+	 * Adds an entry unless the key is already cached; used to seed the cache from a snapshot.
+	 */
+	synchronized boolean putIfAbsent(String key, CacheEntry entry) {
+		if (entries.containsKey(key)) {
+			return false;
+		}
+		entries.put(key, entry);
+		return true;
+	}
+
+	/**
+	 * @return A copy of every entry, from least to most recently used.
+	 */
+	synchronized Map<String, CacheEntry> entries() {
+		return new LinkedHashMap<String, CacheEntry>(entries);
+	}
+
+	/**
+	 * @return The type a describe key caches: DescribeGlobal, DescribeSobject or DescribeLayout.
+	 */
+	static Class<?> typeOf(String key) {
+		if (GLOBAL_KEY.equals(key)) {
+			return DescribeGlobal.class;
+		} else if (key.startsWith(SOBJECT_KEY_PREFIX)) {
+			return DescribeSobject.class;
+		} else if (key.startsWith(LAYOUT_KEY_PREFIX)) {
+			return DescribeLayout.class;
+		}
+		throw new IllegalArgumentException("Not a describe key: " + key);
+	}
+
+	/**
+	 * @return The sobject a describeSobject or describeLayout key belongs to, or null for describeGlobal.
+	 */
+	static String sobjectNameOf(String key) {
+		if (key.startsWith(SOBJECT_KEY_PREFIX)) {
+			return key.substring(SOBJECT_KEY_PREFIX.length());
+		} else if (key.startsWith(LAYOUT_KEY_PREFIX)) {
+			return key.substring(LAYOUT_KEY_PREFIX.length());
+		}
+		return null;
+	}
+
+	/**
+	 * A cached describe and the Last-Modified value the server sent with it. Entries loaded from a
+	 * {@link DescribeSnapshot} keep the snapshot's JSON and only deserialize it the first time the value is read.
+	 */
+	static class CacheEntry {
+		private final Supplier<Object> value;
+		private final ByteBuffer json;
+		private final String lastModified;
+		private final long fetchedAt;
+
+		CacheEntry(Object value, String lastModified, long fetchedAt) {
+			this(Suppliers.ofInstance(value), null, lastModified, fetchedAt);
+		}
+
+		CacheEntry(Supplier<Object> value, ByteBuffer json, String lastModified, long fetchedAt) {
+			this.value = value;
+			this.json = json;
+			this.lastModified = lastModified;
+			this.fetchedAt = fetchedAt;
+		}
+
+		Object getValue() {
+			return value.get();
+		}
+
+		/**
+		 * @return The JSON the value was loaded from, or null if it came from the server.
+		 */
+		ByteBuffer getJson() {
+			return json == null ? null : json.duplicate();
+		}
+
+		String getLastModified() {
+			return lastModified;
+		}
+
+		long getFetchedAt() {
+			return fetchedAt;
+		}
+
+		boolean isFresh(long now, long ttlMillis) {
+			return now - fetchedAt < ttlMillis;
+		}
+	}
+}
@@ -0,0 +1,689 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.sobject;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.json.JSONException;
+
+import com.force.api.rest.sobject.model.SObject;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Runs one SOQL query as several slices over disjoint ranges of Id or CreatedDate, a few at a time, and merges their
+ * records into one stream. The first and last slices are open ended, so together the slices cover every record the
+ * query matches exactly once.
+ * 
+ * Each slice is ordered by its key. A slice that fails is retried after the last record it fetched, up to a few
+ * attempts. If a slice still fails, or the stream is closed, calling {@link #start()} again resumes every unfinished
+ * slice after the last record the stream handed over from it, and skips the finished ones, so no record is lost or
+ * returned twice.
+ * 
+ * The statement must select Id (and CreatedDate, to slice by date), must not use bind variables, and can't have ORDER
+ * BY, GROUP BY, LIMIT, OFFSET or WITH clauses. A WHERE clause is kept and combined with the range of each slice.
+ */
+public class PartitionedQuery {
+
+	private static final Logger logger = Logger.getLogger(PartitionedQuery.class.getName());
+
+	private static final String ID = "Id";
+	private static final String CREATED_DATE = "CreatedDate";
+	private static final Set<String> UNSUPPORTED_CLAUSES = ImmutableSet.of("ORDER", "GROUP", "LIMIT", "OFFSET",
+			"HAVING", "WITH", "FOR");
+	private static final String DATETIME_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSSZ";
+	private static final String ID_DIGITS = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
+	private static final BigInteger ID_BASE = BigInteger.valueOf(ID_DIGITS.length());
+	private static final int KEY_PREFIX_LENGTH = 3;
+	private static final int SHORT_ID_LENGTH = 15;
+
+	public enum SliceState {
+		PENDING, RUNNING, RETRYING, DONE, FAILED
+	}
+
+	private final RestSObjectApiClient client;
+	private final String key;
+	private final String sobjectName;
+	private final String selectFrom;
+	private final String condition;
+	private final List<Slice> slices = Lists.newArrayList();
+
+	private int parallelism = 4;
+	private int batchSize = RestSObjectApiClient.DEFAULT_QUERY_BATCH_SIZE;
+	private int bufferSize = RestSObjectApiClient.DEFAULT_QUERY_BATCH_SIZE;
+	private int maxSliceAttempts = 3;
+	private boolean ordered;
+	private Results running;
+
+	private PartitionedQuery(RestSObjectApiClient client, String soql, String key) {
+		this.client = client;
+		this.key = key;
+
+		//find the top level clauses, outside strings and subqueries
+		int depth = 0;
+		int from = -1;
+		int where = -1;
+		List<String> selected = Lists.newArrayList();
+		int selectItemStart = -1;
+		String sobject = null;
+		for (int i = 0; i < soql.length();) {
+			char c = soql.charAt(i);
+			if (c == '\'') {
+				i = endOfString(soql, i);
+			} else if (c == '(' || c == ')') {
+				depth += c == '(' ? 1 : -1;
+				i++;
+			} else if (c == ',' && depth == 0 && from < 0 && selectItemStart >= 0) {
+				selected.add(soql.substring(selectItemStart, i).trim());
+				selectItemStart = i + 1;
+				i++;
+			} else if (Character.isLetter(c) || c == '_') {
+				int end = i;
+				while (end < soql.length() && (Character.isLetterOrDigit(soql.charAt(end)) || soql.charAt(end) == '_')) {
+					end++;
+				}
+				String word = soql.substring(i, end).toUpperCase(Locale.ENGLISH);
+				if (depth == 0) {
+					if (selectItemStart < 0 && "SELECT".equals(word)) {
+						selectItemStart = end;
+					} else if (from < 0 && "FROM".equals(word)) {
+						selected.add(soql.substring(selectItemStart, i).trim());
+						from = i;
+					} else if (from >= 0 && sobject == null) {
+						sobject = soql.substring(i, end);
+					} else if (from >= 0 && where < 0 && "WHERE".equals(word)) {
+						where = i;
+					} else if (from >= 0 && UNSUPPORTED_CLAUSES.contains(word)) {
+						throw new IllegalArgumentException(word + " isn't supported in a partitioned query");
+					}
+				}
+				i = end;
+			} else {
+				i++;
+			}
+		}
+		if (selectItemStart < 0 || from < 0 || sobject == null) {
+			throw new IllegalArgumentException("Query must be in the form: SELECT Id FROM sobject WHERE something");
+		}
+		if (!containsIgnoreCase(selected, ID) || (CREATED_DATE.equals(key) && !containsIgnoreCase(selected, key))) {
+			throw new IllegalArgumentException("A query partitioned by " + key + " must select Id and " + key);
+		}
+		this.sobjectName = sobject;
+		this.selectFrom = (where < 0 ? soql : soql.substring(0, where)).trim();
+		this.condition = where < 0 ? null : soql.substring(where + "WHERE".length()).trim();
+	}
+
+	/**
+	 * Slices a query into Id ranges of about equal width between the lowest and highest Id it matches, which are
+	 * looked up first.
+	 */
+	public static PartitionedQuery byId(RestSObjectApiClient client, String soql, int slices)
+			throws IOException, RestApiException, JSONException {
+		PartitionedQuery query = new PartitionedQuery(client, soql, ID);
+		String lowest = query.edgeId("ASC");
+		String highest = query.edgeId("DESC");
+		List<Object> boundaries = Lists.newArrayList();
+		if (lowest != null) {
+			boundaries.addAll(idBoundaries(lowest, highest, slices));
+		}
+		query.slice(boundaries);
+		return query;
+	}
+
+	/**
+	 * Slices a query into CreatedDate ranges of equal length between from and to. Records created before from or after
+	 * to fall into the first and last slices.
+	 */
+	public static PartitionedQuery byCreatedDate(RestSObjectApiClient client, String soql, Date from, Date to,
+			int slices) {
+		if (slices < 1 || !from.before(to)) {
+			throw new IllegalArgumentException("Provide at least one slice and a from date before the to date");
+		}
+		PartitionedQuery query = new PartitionedQuery(client, soql, CREATED_DATE);
+		List<Object> boundaries = Lists.newArrayList();
+		long span = to.getTime() - from.getTime();
+		for (int i = 1; i < slices; i++) {
+			boundaries.add(new Date(from.getTime() + span * i / slices));
+		}
+		query.slice(boundaries);
+		return query;
+	}
+
+	/**
+	 * @return Boundaries that split the Ids between lowest and highest into ranges of about equal width, compared as
+	 *         base 62 numbers after the key prefix.
+	 */
+	static List<String> idBoundaries(String lowest, String highest, int slices) {
+		if (slices < 1) {
+			throw new IllegalArgumentException("Provide at least one slice");
+		}
+		String prefix = lowest.substring(0, KEY_PREFIX_LENGTH);
+		if (!highest.startsWith(prefix)) {
+			throw new IllegalArgumentException("Ids of different objects: " + lowest + ", " + highest);
+		}
+		BigInteger low = decodeId(lowest.substring(KEY_PREFIX_LENGTH, SHORT_ID_LENGTH));
+		BigInteger width = decodeId(highest.substring(KEY_PREFIX_LENGTH, SHORT_ID_LENGTH)).subtract(low);
+		List<String> boundaries = Lists.newArrayList();
+		String previous = null;
+		for (int i = 1; i < slices; i++) {
+			BigInteger boundary = low.add(width.multiply(BigInteger.valueOf(i)).divide(BigInteger.valueOf(slices)));
+			String id = prefix + encodeId(boundary, SHORT_ID_LENGTH - KEY_PREFIX_LENGTH);
+			//narrow ranges can't be split as finely as asked
+			if (!id.equals(previous) && id.compareTo(lowest.substring(0, SHORT_ID_LENGTH)) > 0) {
+				boundaries.add(id);
+				previous = id;
+			}
+		}
+		return boundaries;
+	}
+
+	private static BigInteger decodeId(String digits) {
+		BigInteger value = BigInteger.ZERO;
+		for (int i = 0; i < digits.length(); i++) {
+			int digit = ID_DIGITS.indexOf(digits.charAt(i));
+			if (digit < 0) {
+				throw new IllegalArgumentException("Not an Id: " + digits);
+			}
+			value = value.multiply(ID_BASE).add(BigInteger.valueOf(digit));
+		}
+		return value;
+	}
+
+	private static String encodeId(BigInteger value, int length) {
+		char[] digits = new char[length];
+		for (int i = length - 1; i >= 0; i--) {
+			BigInteger[] quotientAndDigit = value.divideAndRemainder(ID_BASE);
+			digits[i] = ID_DIGITS.charAt(quotientAndDigit[1].intValue());
+			value = quotientAndDigit[0];
+		}
+		return new String(digits);
+	}
+
+	private String edgeId(String direction) throws IOException, RestApiException, JSONException {
+		String soql = "SELECT Id FROM " + sobjectName + (condition == null ? "" : " WHERE " + condition)
+				+ " ORDER BY Id " + direction + " LIMIT 1";
+		QueryCursor cursor = client.queryCursor(PreparedQuery.prepare(soql).bind(),
+				RestSObjectApiClient.MIN_QUERY_BATCH_SIZE);
+		try {
+			return cursor.hasNext() ? (String) cursor.next().getField(ID) : null;
+		} finally {
+			cursor.close();
+		}
+	}
+
+	private void slice(List<Object> boundaries) {
+		Object lower = null;
+		for (Object boundary : boundaries) {
+			slices.add(new Slice(slices.size(), lower, boundary));
+			lower = boundary;
+		}
+		slices.add(new Slice(slices.size(), lower, null));
+	}
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * @param parallelism How many slices run at once. Defaults to 4.
+	 */
+	public void setParallelism(int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("parallelism must be at least 1");
+		}
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * @param batchSize Records per batch of each slice, as for {@link RestSObjectApiClient#queryCursor(String, int)}.
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * @param bufferSize Records fetched ahead of the consumer, per slice when ordered, or overall when not.
+	 */
+	public void setBufferSize(int bufferSize) {
+		if (bufferSize < 1) {
+			throw new IllegalArgumentException("bufferSize must be at least 1");
+		}
+		this.bufferSize = bufferSize;
+	}
+
+	/**
+	 * @param maxSliceAttempts Attempts per slice, including the first, before the stream fails. Defaults to 3.
+	 */
+	public void setMaxSliceAttempts(int maxSliceAttempts) {
+		if (maxSliceAttempts < 1) {
+			throw new IllegalArgumentException("maxSliceAttempts must be at least 1");
+		}
+		this.maxSliceAttempts = maxSliceAttempts;
+	}
+
+	public boolean isOrdered() {
+		return ordered;
+	}
+
+	/**
+	 * @param ordered If true, the stream returns the slices one after another, so records come in key order. If false,
+	 *        the default, records come in whatever order the slices return them.
+	 */
+	public void setOrdered(boolean ordered) {
+		this.ordered = ordered;
+	}
+
+	/**
+	 * @return The slices, in key order, with their progress.
+	 */
+	public List<Slice> getSlices() {
+		return Collections.unmodifiableList(slices);
+	}
+
+	/**
+	 * @return Records handed over by all slices so far.
+	 */
+	public long getRecordsFetched() {
+		long records = 0;
+		for (Slice slice : slices) {
+			records += slice.getRecordsFetched();
+		}
+		return records;
+	}
+
+	/**
+	 * Starts running the slices that haven't finished yet.
+	 * 
+	 * @throws IllegalStateException If the results of a previous start are still being read.
+	 */
+	public synchronized Results start() {
+		if (running != null && !running.finished) {
+			throw new IllegalStateException("The query is already running");
+		}
+		List<Slice> remaining = Lists.newArrayList();
+		for (Slice slice : slices) {
+			if (slice.state != SliceState.DONE) {
+				slice.state = SliceState.PENDING;
+				slice.attempts = 0;
+				remaining.add(slice);
+			}
+		}
+		running = new Results(remaining);
+		return running;
+	}
+
+	private String sliceSoql(Slice slice, String lastId) {
+		List<String> predicates = Lists.newArrayList();
+		if (condition != null) {
+			predicates.add("(" + condition + ")");
+		}
+		if (slice.lowerBound != null) {
+			predicates.add(key + " >= :lower");
+		}
+		if (slice.upperBound != null) {
+			predicates.add(key + " < :upper");
+		}
+		if (lastId != null) {
+			predicates.add(ID.equals(key) ? "Id > :lastId"
+					: "(CreatedDate > :lastDate OR (CreatedDate = :lastDate AND Id > :lastId))");
+		}
+		return selectFrom + (predicates.isEmpty() ? "" : " WHERE " + Joiner.on(" AND ").join(predicates))
+				+ (ID.equals(key) ? " ORDER BY Id" : " ORDER BY CreatedDate, Id");
+	}
+
+	/**
+	 * @param lastId Id of the last record already fetched, or null to start at the beginning of the slice.
+	 * @param lastDate CreatedDate of that record, when slicing by CreatedDate.
+	 */
+	private PreparedQuery.Bindings sliceQuery(Slice slice, String lastId, Date lastDate) {
+		PreparedQuery.Bindings bindings = PreparedQuery.prepare(sliceSoql(slice, lastId)).bind();
+		if (slice.lowerBound != null) {
+			bindings.set("lower", slice.lowerBound);
+		}
+		if (slice.upperBound != null) {
+			bindings.set("upper", slice.upperBound);
+		}
+		if (lastId != null) {
+			bindings.set("lastId", lastId);
+			if (CREATED_DATE.equals(key)) {
+				bindings.set("lastDate", lastDate);
+			}
+		}
+		return bindings;
+	}
+
+	private static boolean containsIgnoreCase(List<String> values, String value) {
+		for (String candidate : values) {
+			if (candidate.equalsIgnoreCase(value)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static int endOfString(String soql, int start) {
+		for (int i = start + 1; i < soql.length(); i++) {
+			char c = soql.charAt(i);
+			if (c == '\\') {
+				i++;
+			} else if (c == '\'') {
+				return i + 1;
+			}
+		}
+		throw new IllegalArgumentException("Unterminated string in " + soql);
+	}
+
+	/**
+	 * One range of the query and its progress.
+	 */
+	public static class Slice {
+		private final int index;
+		private final Object lowerBound;
+		private final Object upperBound;
+		private final AtomicLong recordsFetched = new AtomicLong();
+		private volatile SliceState state = SliceState.PENDING;
+		private volatile int attempts;
+		private volatile String checkpointId;
+		private volatile Date checkpointDate;
+		private volatile Throwable failure;
+
+		Slice(int index, Object lowerBound, Object upperBound) {
+			this.index = index;
+			this.lowerBound = lowerBound;
+			this.upperBound = upperBound;
+		}
+
+		public int getIndex() {
+			return index;
+		}
+
+		/**
+		 * @return The lowest Id or CreatedDate in the slice, or null for the first slice.
+		 */
+		public Object getLowerBound() {
+			return lowerBound;
+		}
+
+		/**
+		 * @return The Id or CreatedDate just past the slice, or null for the last slice.
+		 */
+		public Object getUpperBound() {
+			return upperBound;
+		}
+
+		public SliceState getState() {
+			return state;
+		}
+
+		public long getRecordsFetched() {
+			return recordsFetched.get();
+		}
+
+		public int getAttempts() {
+			return attempts;
+		}
+
+		/**
+		 * @return The Id of the last record handed over, where a retry resumes; null before the first.
+		 */
+		public String getCheckpointId() {
+			return checkpointId;
+		}
+
+		/**
+		 * @return Why the slice failed, if it did.
+		 */
+		public Throwable getFailure() {
+			return failure;
+		}
+
+		@Override
+		public String toString() {
+			return "Slice " + index + " [" + lowerBound + ", " + upperBound + ") " + state + ", "
+					+ recordsFetched.get() + " records";
+		}
+	}
+
+	/**
+	 * What a slice puts on its queue: a record, or, with a null record, the marker that the slice is done or has
+	 * failed. The slice only moves forward when the consumer takes the item, so records still queued when the stream
+	 * is closed are fetched again on the next run.
+	 */
+	private static class Item {
+		private final Slice slice;
+		private final SObject record;
+		private final Throwable failure;
+
+		Item(Slice slice, SObject record, Throwable failure) {
+			this.slice = slice;
+			this.record = record;
+			this.failure = failure;
+		}
+	}
+
+	/**
+	 * The merged records of one run. Meant to be consumed by a single thread; call {@link #close()} to abandon it
+	 * before the end.
+	 */
+	public class Results implements Iterator<SObject> {
+		private final ExecutorService executor;
+		private final List<BlockingQueue<Item>> queues = Lists.newArrayList();
+		private final int sliceCount;
+		private final SimpleDateFormat dateFormat = new SimpleDateFormat(DATETIME_FORMAT, Locale.ENGLISH);
+		private int slicesEnded;
+		private Item nextItem;
+		private volatile boolean finished;
+
+		Results(List<Slice> remaining) {
+			this.sliceCount = remaining.size();
+			this.executor = Executors.newFixedThreadPool(parallelism, new ThreadFactoryBuilder().setDaemon(true)
+					.setNameFormat("partitioned-query-%d").build());
+			BlockingQueue<Item> shared = new ArrayBlockingQueue<Item>(bufferSize);
+			//slices are submitted in key order, so the slice the ordered stream waits on has always started
+			for (Slice slice : remaining) {
+				BlockingQueue<Item> queue = ordered ? new ArrayBlockingQueue<Item>(bufferSize) : shared;
+				queues.add(queue);
+				executor.execute(client.withThrottlerPriority(new SliceTask(slice, queue)));
+			}
+			if (remaining.isEmpty()) {
+				close();
+			}
+		}
+
+		/**
+		 * @throws PartitionedQueryException If a slice failed on every attempt.
+		 */
+		//@Override
+		public boolean hasNext() {
+			while (nextItem == null && !finished) {
+				Item item = take();
+				if (item.record != null) {
+					nextItem = item;
+				} else if (item.failure != null) {
+					item.slice.failure = item.failure;
+					item.slice.state = SliceState.FAILED;
+					close();
+					throw new PartitionedQueryException("A slice of the query failed", item.failure);
+				} else {
+					item.slice.state = SliceState.DONE;
+					if (++slicesEnded == sliceCount) {
+						close();
+					}
+				}
+			}
+			return nextItem != null;
+		}
+
+		/**
+		 * Hands over the next record, and only then moves its slice's checkpoint past it.
+		 */
+		//@Override
+		public SObject next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			Item item = nextItem;
+			nextItem = null;
+			Slice slice = item.slice;
+			if (CREATED_DATE.equals(key)) {
+				slice.checkpointDate = createdDate(item.record, dateFormat);
+			}
+			slice.checkpointId = (String) item.record.getField(ID);
+			slice.recordsFetched.incrementAndGet();
+			return item.record;
+		}
+
+		//@Override
+		public void remove() {
+			throw new UnsupportedOperationException("Query results are read-only");
+		}
+
+		/**
+		 * Stops the slices still running. Slices that didn't finish resume after the last record handed over on the
+		 * next {@link PartitionedQuery#start()}; records fetched but not yet handed over are fetched again.
+		 */
+		public void close() {
+			finished = true;
+			executor.shutdownNow();
+		}
+
+		private Item take() {
+			try {
+				return queues.get(ordered ? slicesEnded : 0).take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				close();
+				throw new PartitionedQueryException("Interrupted while waiting for records", e);
+			}
+		}
+
+		/**
+		 * Runs one slice into its queue. A failed attempt is retried after the last record it queued, which may be
+		 * ahead of the slice's checkpoint.
+		 */
+		private class SliceTask implements Runnable {
+			private final Slice slice;
+			private final BlockingQueue<Item> queue;
+			private final SimpleDateFormat dateFormat = new SimpleDateFormat(DATETIME_FORMAT, Locale.ENGLISH);
+			private String queuedId;
+			private Date queuedDate;
+
+			SliceTask(Slice slice, BlockingQueue<Item> queue) {
+				this.slice = slice;
+				this.queue = queue;
+				this.queuedId = slice.checkpointId;
+				this.queuedDate = slice.checkpointDate;
+			}
+
+			//@Override
+			public void run() {
+				try {
+					while (!finished) {
+						slice.attempts++;
+						slice.state = SliceState.RUNNING;
+						try {
+							runOnce();
+							//done once the consumer takes the marker
+							queue.put(new Item(slice, null, null));
+							return;
+						} catch (InterruptedException e) {
+							throw e;
+						} catch (Exception e) {
+							if (finished) {
+								slice.state = SliceState.PENDING;
+								return;
+							}
+							if (slice.attempts >= maxSliceAttempts) {
+								queue.put(new Item(slice, null, e));
+								return;
+							}
+							logger.log(Level.WARNING, "Retrying " + slice + " from " + queuedId, e);
+							slice.state = SliceState.RETRYING;
+						}
+					}
+				} catch (InterruptedException e) {
+					//closed
+					slice.state = SliceState.PENDING;
+				}
+			}
+
+			private void runOnce() throws Exception {
+				QueryCursor cursor = client.queryCursor(sliceQuery(slice, queuedId, queuedDate), batchSize);
+				try {
+					while (cursor.hasNext()) {
+						SObject record = cursor.next();
+						queue.put(new Item(slice, record, null));
+						if (CREATED_DATE.equals(key)) {
+							queuedDate = createdDate(record, dateFormat);
+						}
+						queuedId = (String) record.getField(ID);
+					}
+				} finally {
+					cursor.close();
+				}
+			}
+		}
+	}
+
+	private static Date createdDate(SObject record, SimpleDateFormat dateFormat) {
+		try {
+			return dateFormat.parse((String) record.getField(CREATED_DATE));
+		} catch (ParseException e) {
+			throw new PartitionedQueryException("Unexpected CreatedDate on " + record.getId(), e);
+		}
+	}
+
+	/**
+	 * Thrown from {@link Results#hasNext()} and {@link Results#next()} when a slice failed on every attempt, or the
+	 * consumer was interrupted.
+	 */
+	public static class PartitionedQueryException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		public PartitionedQueryException(String message, Throwable cause) {
+			super(message, cause);
+		}
+	}
+}
@@ -0,0 +1,298 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.sobject;
+
+import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
+import java.net.URLEncoder;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * A SOQL statement with named bind variables, e.g. SELECT Id FROM Contact WHERE AccountId = :accountId, that is parsed,
+ * validated and URL encoded once and can then be run many times with different values.
+ * 
+ * Values are turned into SOQL literals on each execution: strings are quoted and escaped, numbers and booleans are
+ * written as they are, Dates become UTC dateTime literals, null becomes null, and collections and arrays become
+ * parenthesized lists for IN. LIKE wildcards in strings are not escaped. Instances are immutable and thread-safe.
+ */
+public final class PreparedQuery {
+
+	private static final String CHARSET = "UTF-8";
+	private static final String DATETIME_FORMAT = "yyyy-MM-dd'T'HH:mm:ss'Z'";
+
+	private final String soql;
+	//encoded static text around each bind: segments.length == binds.length + 1
+	private final String[] segments;
+	private final String[] binds;
+	private final List<String> bindNames;
+	private final int staticLength;
+
+	private PreparedQuery(String soql, List<String> segments, List<String> binds) {
+		this.soql = soql;
+		this.segments = new String[segments.size()];
+		int length = 0;
+		for (int i = 0; i < segments.size(); i++) {
+			this.segments[i] = encode(segments.get(i));
+			length += this.segments[i].length();
+		}
+		this.binds = binds.toArray(new String[binds.size()]);
+		this.bindNames = ImmutableList.copyOf(new LinkedHashSet<String>(binds));
+		this.staticLength = length;
+	}
+
+	/**
+	 * Parses and validates a statement.
+	 * 
+	 * @param soql Plain, not URL encoded, SOQL with binds written as :name.
+	 * @throws IllegalArgumentException If the statement isn't a SELECT ... FROM query or has an unterminated string.
+	 */
+	public static PreparedQuery prepare(String soql) {
+		if (soql == null) {
+			throw new IllegalArgumentException("Provide a query");
+		}
+		List<String> segments = Lists.newArrayList();
+		List<String> binds = Lists.newArrayList();
+		List<String> words = Lists.newArrayList();
+		StringBuilder segment = new StringBuilder();
+		int i = 0;
+		while (i < soql.length()) {
+			char c = soql.charAt(i);
+			if (c == '\'') {
+				int end = endOfString(soql, i);
+				segment.append(soql, i, end);
+				i = end;
+			} else if (c == ':' && i + 1 < soql.length() && isNameStart(soql.charAt(i + 1))) {
+				int end = endOfName(soql, i + 1);
+				segments.add(segment.toString());
+				segment.setLength(0);
+				binds.add(soql.substring(i + 1, end));
+				i = end;
+			} else if (isNameStart(c)) {
+				int end = endOfName(soql, i);
+				words.add(soql.substring(i, end).toUpperCase(Locale.ENGLISH));
+				segment.append(soql, i, end);
+				i = end;
+			} else {
+				segment.append(c);
+				i++;
+			}
+		}
+		segments.add(segment.toString());
+		if (words.isEmpty() || !"SELECT".equals(words.get(0)) || !words.contains("FROM")) {
+			throw new IllegalArgumentException("Query must be in the form: SELECT Id FROM sobject WHERE something = :value");
+		}
+		return new PreparedQuery(soql, segments, binds);
+	}
+
+	public String getSoql() {
+		return soql;
+	}
+
+	/**
+	 * @return The names of the bind variables, in order of first appearance.
+	 */
+	public List<String> getBindNames() {
+		return bindNames;
+	}
+
+	/**
+	 * @return Empty bindings to set the values of one execution on.
+	 */
+	public Bindings bind() {
+		return new Bindings();
+	}
+
+	@Override
+	public String toString() {
+		return soql;
+	}
+
+	/**
+	 * The values of the bind variables for one execution. Each variable must be set, even if to null.
+	 */
+	public final class Bindings {
+		private final Map<String, String> literals = Maps.newHashMap();
+
+		private Bindings() {
+		}
+
+		/**
+		 * @throws IllegalArgumentException If the query has no such variable or the value has no SOQL literal.
+		 */
+		public Bindings set(String name, Object value) {
+			if (!bindNames.contains(name)) {
+				throw new IllegalArgumentException("Query has no bind variable :" + name);
+			}
+			literals.put(name, encode(literal(value)));
+			return this;
+		}
+
+		public PreparedQuery getQuery() {
+			return PreparedQuery.this;
+		}
+
+		/**
+		 * @return The statement with the values filled in, URL encoded for the q parameter.
+		 * @throws IllegalStateException If a variable wasn't set.
+		 */
+		public String toUrlParameter() {
+			int length = staticLength;
+			for (String literal : literals.values()) {
+				length += literal.length();
+			}
+			StringBuilder encoded = new StringBuilder(length + binds.length);
+			encoded.append(segments[0]);
+			for (int i = 0; i < binds.length; i++) {
+				String literal = literals.get(binds[i]);
+				if (literal == null) {
+					throw new IllegalStateException("Bind variable :" + binds[i] + " isn't set");
+				}
+				encoded.append(literal).append(segments[i + 1]);
+			}
+			return encoded.toString();
+		}
+	}
+
+	/**
+	 * @return The SOQL literal for a value.
+	 */
+	static String literal(Object value) {
+		if (value == null) {
+			return "null";
+		} else if (value instanceof String) {
+			return quote((String) value);
+		} else if (value instanceof Boolean) {
+			return value.toString();
+		} else if (value instanceof Double || value instanceof Float) {
+			double number = ((Number) value).doubleValue();
+			if (Double.isNaN(number) || Double.isInfinite(number)) {
+				throw new IllegalArgumentException("SOQL has no literal for " + value);
+			}
+			//from the value's own digits, so a float isn't widened to the double nearest it
+			return new BigDecimal(value.toString()).toPlainString();
+		} else if (value instanceof BigDecimal) {
+			return ((BigDecimal) value).toPlainString();
+		} else if (value instanceof Number) {
+			return value.toString();
+		} else if (value instanceof Date) {
+			SimpleDateFormat format = new SimpleDateFormat(DATETIME_FORMAT, Locale.ENGLISH);
+			format.setTimeZone(TimeZone.getTimeZone("UTC"));
+			return format.format((Date) value);
+		} else if (value instanceof Iterable || value instanceof Object[]) {
+			Iterator<?> values = value instanceof Object[] ? Arrays.asList((Object[]) value).iterator()
+					: ((Iterable<?>) value).iterator();
+			if (!values.hasNext()) {
+				throw new IllegalArgumentException("SOQL has no literal for an empty list");
+			}
+			StringBuilder list = new StringBuilder("(");
+			while (values.hasNext()) {
+				list.append(literal(values.next()));
+				if (values.hasNext()) {
+					list.append(',');
+				}
+			}
+			return list.append(')').toString();
+		}
+		throw new IllegalArgumentException("SOQL has no literal for " + value.getClass().getName());
+	}
+
+	private static String quote(String value) {
+		StringBuilder quoted = new StringBuilder(value.length() + 2).append('\'');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '\\':
+			case '\'':
+			case '"':
+				quoted.append('\\').append(c);
+				break;
+			case '\n':
+				quoted.append("\\n");
+				break;
+			case '\r':
+				quoted.append("\\r");
+				break;
+			case '\t':
+				quoted.append("\\t");
+				break;
+			case '\b':
+				quoted.append("\\b");
+				break;
+			case '\f':
+				quoted.append("\\f");
+				break;
+			default:
+				quoted.append(c);
+				break;
+			}
+		}
+		return quoted.append('\'').toString();
+	}
+
+	private static int endOfString(String soql, int start) {
+		for (int i = start + 1; i < soql.length(); i++) {
+			char c = soql.charAt(i);
+			if (c == '\\') {
+				i++;
+			} else if (c == '\'') {
+				return i + 1;
+			}
+		}
+		throw new IllegalArgumentException("Unterminated string in " + soql);
+	}
+
+	private static boolean isNameStart(char c) {
+		return Character.isLetter(c) || c == '_';
+	}
+
+	private static int endOfName(String soql, int start) {
+		int end = start;
+		while (end < soql.length() && (Character.isLetterOrDigit(soql.charAt(end)) || soql.charAt(end) == '_')) {
+			end++;
+		}
+		return end;
+	}
+
+	private static String encode(String text) {
+		try {
+			return URLEncoder.encode(text, CHARSET);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,191 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.sobject;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.force.api.rest.sobject.model.SObject;
+import com.force.api.rest.sobject.model.SObjectReader;
+
+/**
+ * Iterates over every record of a SOQL query, following nextRecordsUrl one batch at a time. While the records of one
+ * batch are being consumed the next batch is downloaded in the background, so at most two batches are held in memory.
+ * 
+ * A cursor is meant to be consumed by a single thread. Call {@link #close()} to abandon it before the end.
+ */
+public class QueryCursor implements Iterator<SObject> {
+
+	private final RestSObjectApiClient client;
+	private final ExecutorService prefetchExecutor;
+	private final int batchSize;
+	private final SObjectReader<?> recordReader;
+	private final int totalSize;
+
+	private Iterator<SObject> current;
+	private Future<Page> next;
+	private int pagesFetched;
+	private int recordsReturned;
+	private boolean closed;
+
+	/**
+	 * @param recordReader Reads the records of the following batches, or null for the client's default records.
+	 */
+	QueryCursor(RestSObjectApiClient client, ExecutorService prefetchExecutor, Page first, int batchSize,
+			SObjectReader<?> recordReader) {
+		this.client = client;
+		this.prefetchExecutor = prefetchExecutor;
+		this.batchSize = batchSize;
+		this.recordReader = recordReader;
+		this.totalSize = first.getTotalSize();
+		advanceTo(first);
+	}
+
+	/**
+	 * @return Number of records the query matched, as reported with the first batch.
+	 */
+	public int getTotalSize() {
+		return totalSize;
+	}
+
+	public int getPagesFetched() {
+		return pagesFetched;
+	}
+
+	public int getRecordsReturned() {
+		return recordsReturned;
+	}
+
+	/**
+	 * @throws QueryCursorException if the next batch could not be fetched.
+	 */
+	//@Override
+	public boolean hasNext() {
+		while (!closed && !current.hasNext()) {
+			if (next == null) {
+				return false;
+			}
+			advanceTo(awaitNext());
+		}
+		return !closed;
+	}
+
+	//@Override
+	public SObject next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		recordsReturned++;
+		return current.next();
+	}
+
+	//@Override
+	public void remove() {
+		throw new UnsupportedOperationException("Query results are read-only");
+	}
+
+	/**
+	 * Stops iterating and cancels the background fetch of the next batch, if any.
+	 */
+	public void close() {
+		closed = true;
+		if (next != null) {
+			next.cancel(true);
+			next = null;
+		}
+	}
+
+	private void advanceTo(Page page) {
+		pagesFetched++;
+		current = page.getRecords().iterator();
+		next = null;
+		final String nextRecordsUrl = page.getNextRecordsUrl();
+		if (nextRecordsUrl != null) {
+			next = prefetchExecutor.submit(client.withThrottlerPriority(new Callable<Page>() {
+				public Page call() throws Exception {
+					return client.fetchQueryPage(client.getInstanceUrl() + nextRecordsUrl, batchSize, recordReader);
+				}
+			}));
+		}
+	}
+
+	private Page awaitNext() {
+		try {
+			return next.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			close();
+			throw new QueryCursorException("Interrupted while waiting for the next batch", e);
+		} catch (ExecutionException e) {
+			close();
+			throw new QueryCursorException("Could not fetch the next batch", e.getCause());
+		}
+	}
+
+	/**
+	 * One batch of query results.
+	 */
+	static class Page {
+		private final int totalSize;
+		private final String nextRecordsUrl;
+		private final List<SObject> records;
+
+		Page(int totalSize, String nextRecordsUrl, List<SObject> records) {
+			this.totalSize = totalSize;
+			this.nextRecordsUrl = nextRecordsUrl;
+			this.records = records;
+		}
+
+		int getTotalSize() {
+			return totalSize;
+		}
+
+		String getNextRecordsUrl() {
+			return nextRecordsUrl;
+		}
+
+		List<SObject> getRecords() {
+			return records;
+		}
+	}
+
+	/**
+	 * Thrown from {@link QueryCursor#hasNext()} and {@link QueryCursor#next()} when a batch can't be fetched. The
+	 * cause is the {@link RestApiException} or IOException raised by the request.
+	 */
+	public static class QueryCursorException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		public QueryCursorException(String message, Throwable cause) {
+			super(message, cause);
+		}
+	}
+}
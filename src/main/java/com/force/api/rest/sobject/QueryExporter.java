@@ -0,0 +1,433 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.sobject;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.force.api.rest.sobject.model.SObject;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.CountingOutputStream;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Streams every record of an sObject to NDJSON or CSV files, without ever holding more than a few batches in memory.
+ * A background thread runs the query and hands batches to the writing thread through a bounded queue; when the files
+ * can't keep up, the query waits. Memory is bounded by (queue capacity + 3) batches, whatever the number of rows.
+ * 
+ * Columns follow the order of the fields in the sObject's describe. Files are named after the sObject and numbered,
+ * e.g. Account-00000.csv.gz, and a new file is started once the current one reaches the maximum size; each CSV file
+ * starts with a header row. Nulls are empty in CSV and null in NDJSON.
+ * 
+ * An exporter can run one export at a time.
+ */
+public class QueryExporter {
+
+	private static final Logger logger = Logger.getLogger(QueryExporter.class.getName());
+
+	private static final String CSV_LINE_END = "\r\n";
+	//compound fields repeat their component fields and can't be filtered in bulk
+	private static final Collection<String> COMPOUND_TYPES = ImmutableSet.of("address", "location");
+	private static final List<SObject> END = Collections.emptyList();
+
+	public enum Format {
+		NDJSON(".ndjson"), CSV(".csv");
+
+		private final String extension;
+
+		private Format(String extension) {
+			this.extension = extension;
+		}
+	}
+
+	private final RestSObjectApiClient client;
+	private final File directory;
+	private final Format format;
+
+	private long maxFileBytes = 256L * 1024 * 1024;
+	private boolean gzip;
+	private int queueCapacity = 2;
+	private int batchSize = RestSObjectApiClient.DEFAULT_QUERY_BATCH_SIZE;
+
+	public QueryExporter(RestSObjectApiClient client, File directory, Format format) {
+		this.client = client;
+		this.directory = directory;
+		this.format = format;
+	}
+
+	/**
+	 * Sets the size after which a new file is started, 256MB by default. Counts bytes on disk, after compression, so
+	 * files may run over by what is still buffered, some tens of kilobytes.
+	 */
+	public void setMaxFileBytes(long maxFileBytes) {
+		if (maxFileBytes < 1) {
+			throw new IllegalArgumentException("Max file size must be positive");
+		}
+		this.maxFileBytes = maxFileBytes;
+	}
+
+	public void setGzip(boolean gzip) {
+		this.gzip = gzip;
+	}
+
+	/**
+	 * Sets how many batches can wait between the query and the files, 2 by default.
+	 */
+	public void setQueueCapacity(int queueCapacity) {
+		if (queueCapacity < 1) {
+			throw new IllegalArgumentException("Queue capacity must be at least 1");
+		}
+		this.queueCapacity = queueCapacity;
+	}
+
+	/**
+	 * @param batchSize Records per query batch, between 200 and 2000.
+	 */
+	public void setBatchSize(int batchSize) {
+		if (batchSize < RestSObjectApiClient.MIN_QUERY_BATCH_SIZE || batchSize > RestSObjectApiClient.MAX_QUERY_BATCH_SIZE) {
+			throw new IllegalArgumentException("Batch size must be between " + RestSObjectApiClient.MIN_QUERY_BATCH_SIZE
+					+ " and " + RestSObjectApiClient.MAX_QUERY_BATCH_SIZE);
+		}
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Exports every field of an sObject, except compound address and location fields.
+	 * 
+	 * @param where SOQL condition without the WHERE keyword, or null for every record.
+	 */
+	public Result export(String sobjectName, String where) throws IOException, RestApiException, JSONException {
+		return export(sobjectName, null, where);
+	}
+
+	/**
+	 * Exports some fields of an sObject.
+	 * 
+	 * @param fields Fields to export, in any order and case, or null for every field.
+	 * @param where SOQL condition without the WHERE keyword, or null for every record.
+	 * @throws IllegalArgumentException If the sObject has no such field.
+	 */
+	public Result export(String sobjectName, Collection<String> fields, String where) throws IOException,
+			RestApiException, JSONException {
+		List<String> columns = columns(client.describeLayout(sobjectName), fields);
+		String soql = "SELECT " + Joiner.on(',').join(columns) + " FROM " + sobjectName
+				+ (where == null ? "" : " WHERE " + where);
+		final QueryCursor cursor = client.queryCursor(PreparedQuery.prepare(soql).bind(), batchSize);
+
+		final BlockingQueue<List<SObject>> queue = new ArrayBlockingQueue<List<SObject>>(queueCapacity);
+		ExecutorService fetcher = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+				.setNameFormat("rest-sdk-export-%d").setDaemon(true).build());
+		Future<Void> fetched = fetcher.submit(client.withThrottlerPriority(new Callable<Void>() {
+			public Void call() throws InterruptedException {
+				boolean interrupted = false;
+				try {
+					List<SObject> batch = Lists.newArrayListWithCapacity(batchSize);
+					while (cursor.hasNext()) {
+						batch.add(cursor.next());
+						if (batch.size() == batchSize) {
+							queue.put(batch);
+							batch = Lists.newArrayListWithCapacity(batchSize);
+						}
+					}
+					if (!batch.isEmpty()) {
+						queue.put(batch);
+					}
+					return null;
+				} catch (InterruptedException e) {
+					//the writer gave up, nobody will take the end marker
+					interrupted = true;
+					throw e;
+				} finally {
+					cursor.close();
+					if (!interrupted) {
+						queue.put(END);
+					}
+				}
+			}
+		}));
+		fetcher.shutdown();
+
+		FileSeries files = new FileSeries(sobjectName, columns);
+		boolean done = false;
+		try {
+			for (List<SObject> batch = take(queue); batch != END; batch = take(queue)) {
+				for (SObject record : batch) {
+					files.write(record);
+				}
+			}
+			files.close();
+			done = true;
+		} finally {
+			if (!done) {
+				fetched.cancel(true);
+				files.abandon();
+			}
+		}
+		try {
+			fetched.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while exporting " + sobjectName, e);
+		} catch (ExecutionException e) {
+			//the cursor wraps the RestApiException or IOException of the failed batch
+			Throwable cause = e.getCause() instanceof QueryCursor.QueryCursorException ? e.getCause().getCause()
+					: e.getCause();
+			if (cause instanceof RestApiException) {
+				throw (RestApiException) cause;
+			}
+			throw new IOException("Could not export " + sobjectName, cause);
+		}
+		logger.info("Exported " + files.records + " " + sobjectName + " records to " + files.written.size() + " files");
+		return new Result(files.written, files.records, files.bytes);
+	}
+
+	private static List<SObject> take(BlockingQueue<List<SObject>> queue) throws IOException {
+		try {
+			return queue.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while exporting", e);
+		}
+	}
+
+	/**
+	 * @return The fields to export, in describe order.
+	 */
+	static List<String> columns(DescribeLayout describe, Collection<String> fields) {
+		Map<String, String> requested = null;
+		if (fields != null) {
+			requested = Maps.newHashMap();
+			for (String field : fields) {
+				requested.put(field.toLowerCase(Locale.ENGLISH), field);
+			}
+		}
+		List<String> columns = Lists.newArrayList();
+		for (DescribeLayout.Field field : describe.getAllFields()) {
+			if (requested == null ? !COMPOUND_TYPES.contains(field.getType())
+					: requested.remove(field.getName().toLowerCase(Locale.ENGLISH)) != null) {
+				columns.add(field.getName());
+			}
+		}
+		if (requested != null && !requested.isEmpty()) {
+			throw new IllegalArgumentException(describe.getName() + " has no fields " + requested.values());
+		}
+		return columns;
+	}
+
+	/**
+	 * The numbered files of one export, with the current one open.
+	 */
+	private class FileSeries {
+		private final String sobjectName;
+		private final List<String> columns;
+		private final List<File> written = Lists.newArrayList();
+		private long records;
+		private long bytes;
+
+		private CountingOutputStream counted;
+		private Writer writer;
+
+		FileSeries(String sobjectName, List<String> columns) {
+			this.sobjectName = sobjectName;
+			this.columns = columns;
+		}
+
+		void write(SObject record) throws IOException {
+			if (writer == null) {
+				open();
+			}
+			if (format == Format.CSV) {
+				writeCsv(record);
+			} else {
+				writeNdjson(record);
+			}
+			records++;
+			if (counted.getCount() >= maxFileBytes) {
+				closeCurrent();
+			}
+		}
+
+		void close() throws IOException {
+			if (writer != null) {
+				closeCurrent();
+			}
+		}
+
+		/**
+		 * Closes the current file after a failure, keeping the files already written.
+		 */
+		void abandon() {
+			if (writer != null) {
+				try {
+					writer.close();
+				} catch (IOException e) {
+					logger.warning("Could not close " + written.get(written.size() - 1) + ": " + e);
+				}
+				writer = null;
+			}
+		}
+
+		private void open() throws IOException {
+			File file = new File(directory, String.format("%s-%05d%s%s", sobjectName, written.size(), format.extension,
+					gzip ? ".gz" : ""));
+			counted = new CountingOutputStream(new FileOutputStream(file));
+			OutputStream out = gzip ? new GZIPOutputStream(counted) : counted;
+			writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+			written.add(file);
+			if (format == Format.CSV) {
+				for (int i = 0; i < columns.size(); i++) {
+					if (i > 0) {
+						writer.write(',');
+					}
+					writer.write(csvValue(columns.get(i)));
+				}
+				writer.write(CSV_LINE_END);
+			}
+		}
+
+		private void closeCurrent() throws IOException {
+			writer.close();
+			writer = null;
+			bytes += counted.getCount();
+		}
+
+		private void writeCsv(SObject record) throws IOException {
+			for (int i = 0; i < columns.size(); i++) {
+				if (i > 0) {
+					writer.write(',');
+				}
+				Object value = record.getField(columns.get(i));
+				if (value != null && !JSONObject.NULL.equals(value)) {
+					writer.write(csvValue(value.toString()));
+				}
+			}
+			writer.write(CSV_LINE_END);
+		}
+
+		private void writeNdjson(SObject record) throws IOException {
+			writer.write('{');
+			for (int i = 0; i < columns.size(); i++) {
+				if (i > 0) {
+					writer.write(',');
+				}
+				writer.write(JSONObject.quote(columns.get(i)));
+				writer.write(':');
+				writer.write(jsonValue(record.getField(columns.get(i))));
+			}
+			writer.write("}\n");
+		}
+	}
+
+	/**
+	 * @return The value, quoted as RFC 4180 asks if it has a comma, quote or line break.
+	 */
+	static String csvValue(String value) {
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == ',' || c == '"' || c == '\r' || c == '\n') {
+				return '"' + value.replace("\"", "\"\"") + '"';
+			}
+		}
+		return value;
+	}
+
+	private static String jsonValue(Object value) throws IOException {
+		if (value == null || JSONObject.NULL.equals(value)) {
+			return "null";
+		} else if (value instanceof Boolean) {
+			return value.toString();
+		} else if (value instanceof Number) {
+			try {
+				return JSONObject.numberToString((Number) value);
+			} catch (JSONException e) {
+				//NaN and infinities have no JSON form
+				return "null";
+			}
+		} else if (value instanceof String) {
+			return JSONObject.quote((String) value);
+		} else {
+			//nested records and arrays write themselves
+			String json = value.toString();
+			return json.startsWith("{") || json.startsWith("[") ? json : JSONObject.quote(json);
+		}
+	}
+
+	/**
+	 * What one export wrote.
+	 */
+	public static class Result {
+		private final List<File> files;
+		private final long records;
+		private final long bytes;
+
+		Result(List<File> files, long records, long bytes) {
+			this.files = ImmutableList.copyOf(files);
+			this.records = records;
+			this.bytes = bytes;
+		}
+
+		public List<File> getFiles() {
+			return files;
+		}
+
+		public long getRecordCount() {
+			return records;
+		}
+
+		/**
+		 * @return Bytes written to disk, after compression.
+		 */
+		public long getByteCount() {
+			return bytes;
+		}
+	}
+}
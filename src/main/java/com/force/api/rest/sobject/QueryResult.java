@@ -34,6 +34,7 @@ import java.util.List;
 public class QueryResult {
 	private Integer totalSize;
 	private Boolean done;
+	private String nextRecordsUrl;
 	private List<SearchResult> records;
 
 	public Integer getTotalSize() {
@@ -42,6 +43,12 @@ public class QueryResult {
 	public Boolean getDone() {
 		return this.done;
 	}
+	/**
+	 * @return Relative URL of the next batch of records, or null when this is the last batch.
+	 */
+	public String getNextRecordsUrl() {
+		return this.nextRecordsUrl;
+	}
 	public List<SearchResult> getRecords() {
 		return this.records;
 	}
@@ -0,0 +1,396 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.sobject;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.force.api.rest.sobject.model.AnySObject;
+import com.force.api.rest.sobject.model.SObject;
+import com.google.common.collect.Maps;
+
+/**
+ * Keeps records returned by get so that reads of rarely changing records, such as Products or Users, don't each cost
+ * a round trip. Records are cached per sObject type, and every type has its own policy: how long a record is served
+ * without asking the server, and how many records of that type are kept before the least recently used is evicted.
+ * Types without a policy of their own get the default one.
+ * 
+ * Once a record goes stale the client revalidates it with an If-Modified-Since request, and keeps the cached copy if
+ * the server answers 304 Not Modified. Records updated or deleted through the client are dropped. Changes made by
+ * anyone else are only seen once the record goes stale, so keep the time to live short for records that change.
+ * 
+ * Callers get a copy of the cached record and may modify it. Instances are thread-safe and can be shared between
+ * clients that talk to the same org.
+ */
+public class RecordCache {
+
+	//rough sizes on a 64 bit JVM, for the footprint estimate
+	private static final int RECORD_OVERHEAD_BYTES = 128;
+	private static final int FIELD_OVERHEAD_BYTES = 48;
+	private static final int STRING_OVERHEAD_BYTES = 40;
+	private static final int BOXED_VALUE_BYTES = 16;
+	//invalidated Ids remembered for fills in flight; past this many they are forgotten and every fill in flight dropped
+	private static final int MAX_TRACKED_INVALIDATIONS = 1024;
+
+	private final Policy defaultPolicy;
+	private final Map<String, Policy> policies = Maps.newHashMap();
+	private final Map<String, Segment> segments = Maps.newHashMap();
+	private long version;
+	private final Map<String, Long> invalidatedAt = Maps.newHashMap();
+	private long allInvalidatedAt;
+	private long estimatedBytes;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong revalidations = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong invalidations = new AtomicLong();
+
+	/**
+	 * @param ttl Default time a record is served without asking the server; 0 to only cache types with a policy.
+	 * @param unit Unit of ttl.
+	 * @param maxEntriesPerType Default number of records kept per type.
+	 */
+	public RecordCache(long ttl, TimeUnit unit, int maxEntriesPerType) {
+		this.defaultPolicy = new Policy(unit.toMillis(ttl), maxEntriesPerType);
+	}
+
+	/**
+	 * Sets the policy of one type. Records of the type cached so far are dropped.
+	 * 
+	 * @param ttl Time a record is served without asking the server; 0 to not cache the type.
+	 */
+	public synchronized void setPolicy(String sobjectName, long ttl, TimeUnit unit, int maxEntries) {
+		policies.put(sobjectName, new Policy(unit.toMillis(ttl), maxEntries));
+		Segment segment = segments.remove(sobjectName);
+		if (segment != null) {
+			estimatedBytes -= segment.bytes;
+		}
+	}
+
+	/**
+	 * @return Lookups answered from the cache without a request.
+	 */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * @return Lookups that needed a request, whether or not the server then answered 304.
+	 */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * @return Stale records the server confirmed were still current.
+	 */
+	public long getRevalidationCount() {
+		return revalidations.get();
+	}
+
+	public long getEvictionCount() {
+		return evictions.get();
+	}
+
+	/**
+	 * @return Records dropped because they were updated or deleted.
+	 */
+	public long getInvalidationCount() {
+		return invalidations.get();
+	}
+
+	/**
+	 * @return Share of lookups answered without downloading a record, counting 304 revalidations as hits.
+	 */
+	public double getHitRatio() {
+		long hitCount = hits.get();
+		long total = hitCount + misses.get();
+		return total == 0 ? 0.0d : (double) (hitCount + revalidations.get()) / total;
+	}
+
+	public synchronized int size() {
+		int size = 0;
+		for (Segment segment : segments.values()) {
+			size += segment.entries.size();
+		}
+		return size;
+	}
+
+	/**
+	 * @return An estimate of the heap taken by the cached records, in bytes.
+	 */
+	public synchronized long getEstimatedBytes() {
+		return estimatedBytes;
+	}
+
+	public synchronized void invalidate(String sobjectName, String id) {
+		invalidated(id);
+		Segment segment = segments.get(sobjectName);
+		if (segment != null) {
+			segment.remove(id);
+		}
+	}
+
+	/**
+	 * Drops a record whatever its type; Ids are unique across types.
+	 */
+	public synchronized void invalidate(String id) {
+		invalidated(id);
+		for (Segment segment : segments.values()) {
+			if (segment.remove(id)) {
+				return;
+			}
+		}
+	}
+
+	public synchronized void invalidateAll() {
+		forgetInvalidations();
+		segments.clear();
+		estimatedBytes = 0;
+	}
+
+	/**
+	 * @return Whether records of the type are cached at all.
+	 */
+	synchronized boolean isCached(String sobjectName) {
+		return policyOf(sobjectName).ttlMillis > 0;
+	}
+
+	/**
+	 * @return The version to pass to {@link #put} or {@link #revalidated} for a request sent now. A record fetched
+	 *         while it was invalidated may predate the change, so put drops it; invalidations of other records don't
+	 *         matter.
+	 */
+	synchronized long version() {
+		return version;
+	}
+
+	/**
+	 * Ids are unique across types, so invalidations are tracked by Id alone.
+	 */
+	private void invalidated(String id) {
+		if (invalidatedAt.size() >= MAX_TRACKED_INVALIDATIONS) {
+			forgetInvalidations();
+		} else {
+			invalidatedAt.put(id, Long.valueOf(++version));
+		}
+	}
+
+	private void forgetInvalidations() {
+		invalidatedAt.clear();
+		allInvalidatedAt = ++version;
+	}
+
+	/**
+	 * @return Whether the record was invalidated since the request for it was sent.
+	 */
+	private boolean invalidatedSince(String id, long requestedAt) {
+		if (requestedAt < allInvalidatedAt) {
+			return true;
+		}
+		Long at = invalidatedAt.get(id);
+		return at != null && at.longValue() > requestedAt;
+	}
+
+	/**
+	 * Looks up a record and counts the lookup as a hit if it is fresh, or a miss otherwise. Stale records are still
+	 * returned so the caller can revalidate them.
+	 */
+	synchronized CachedRecord lookup(String sobjectName, String id, long now) {
+		Segment segment = segments.get(sobjectName);
+		CachedRecord record = segment == null ? null : segment.entries.get(id);
+		if (record != null && record.isFresh(now)) {
+			hits.incrementAndGet();
+		} else {
+			misses.incrementAndGet();
+		}
+		return record;
+	}
+
+	/**
+	 * Caches a record fetched from the server, unless it was invalidated since it was requested.
+	 * 
+	 * @param requestedAt The {@link #version()} when the request was sent.
+	 */
+	synchronized void put(SObject record, String lastModified, long requestedAt) {
+		if (record.getId() == null || invalidatedSince(record.getId(), requestedAt)) {
+			return;
+		}
+		Policy policy = policyOf(record.getSObjectName());
+		if (policy.ttlMillis <= 0) {
+			return;
+		}
+		Map<String, Object> fields = Maps.newHashMapWithExpectedSize(record.getFieldNames().size());
+		for (String field : record.getFieldNames()) {
+			fields.put(field, record.getField(field));
+		}
+		segmentOf(record.getSObjectName(), policy).put(record.getId(), new CachedRecord(record.getSObjectName(),
+				Collections.unmodifiableMap(fields), lastModified, System.currentTimeMillis() + policy.ttlMillis));
+	}
+
+	/**
+	 * Restarts the time to live of a record the server reported as unchanged.
+	 */
+	synchronized void revalidated(CachedRecord record, long requestedAt) {
+		revalidations.incrementAndGet();
+		String id = (String) record.fields.get("Id");
+		if (id == null || invalidatedSince(id, requestedAt)) {
+			return;
+		}
+		Policy policy = policyOf(record.sobjectName);
+		segmentOf(record.sobjectName, policy).put(id, new CachedRecord(record.sobjectName, record.fields,
+				record.lastModified, System.currentTimeMillis() + policy.ttlMillis));
+	}
+
+	private Policy policyOf(String sobjectName) {
+		Policy policy = policies.get(sobjectName);
+		return policy == null ? defaultPolicy : policy;
+	}
+
+	private Segment segmentOf(String sobjectName, Policy policy) {
+		Segment segment = segments.get(sobjectName);
+		if (segment == null) {
+			segment = new Segment(policy.maxEntries);
+			segments.put(sobjectName, segment);
+		}
+		return segment;
+	}
+
+	static long estimateBytes(Map<String, Object> fields) {
+		long bytes = RECORD_OVERHEAD_BYTES;
+		for (Map.Entry<String, Object> field : fields.entrySet()) {
+			bytes += FIELD_OVERHEAD_BYTES + STRING_OVERHEAD_BYTES + 2L * field.getKey().length();
+			Object value = field.getValue();
+			if (value instanceof String) {
+				bytes += STRING_OVERHEAD_BYTES + 2L * ((String) value).length();
+			} else if (value != null) {
+				bytes += BOXED_VALUE_BYTES;
+			}
+		}
+		return bytes;
+	}
+
+	private static class Policy {
+		private final long ttlMillis;
+		private final int maxEntries;
+
+		Policy(long ttlMillis, int maxEntries) {
+			if (ttlMillis < 0) {
+				throw new IllegalArgumentException("ttl can't be negative");
+			}
+			if (maxEntries < 1) {
+				throw new IllegalArgumentException("maxEntries must be at least 1");
+			}
+			this.ttlMillis = ttlMillis;
+			this.maxEntries = maxEntries;
+		}
+	}
+
+	/**
+	 * The records of one type, least recently used first. Guarded by the cache.
+	 */
+	private class Segment {
+		private final LinkedHashMap<String, CachedRecord> entries;
+		private final int maxEntries;
+		private long bytes;
+
+		Segment(int maxEntries) {
+			this.entries = new LinkedHashMap<String, CachedRecord>(16, 0.75f, true);
+			this.maxEntries = maxEntries;
+		}
+
+		void put(String id, CachedRecord record) {
+			CachedRecord previous = entries.put(id, record);
+			if (previous != null) {
+				account(-previous.bytes);
+			}
+			account(record.bytes);
+			Iterator<CachedRecord> eldest = entries.values().iterator();
+			while (entries.size() > maxEntries) {
+				account(-eldest.next().bytes);
+				eldest.remove();
+				evictions.incrementAndGet();
+			}
+		}
+
+		boolean remove(String id) {
+			CachedRecord record = entries.remove(id);
+			if (record == null) {
+				return false;
+			}
+			account(-record.bytes);
+			invalidations.incrementAndGet();
+			return true;
+		}
+
+		private void account(long delta) {
+			bytes += delta;
+			estimatedBytes += delta;
+		}
+	}
+
+	/**
+	 * A cached record and the Last-Modified value the server sent with it.
+	 */
+	static class CachedRecord {
+		private final String sobjectName;
+		private final Map<String, Object> fields;
+		private final String lastModified;
+		private final long expiresAt;
+		private final long bytes;
+
+		CachedRecord(String sobjectName, Map<String, Object> fields, String lastModified, long expiresAt) {
+			this.sobjectName = sobjectName;
+			this.fields = fields;
+			this.lastModified = lastModified;
+			this.expiresAt = expiresAt;
+			this.bytes = estimateBytes(fields);
+		}
+
+		/**
+		 * @return A copy of the record the caller is free to modify.
+		 */
+		SObject toSObject() {
+			AnySObject record = new AnySObject(sobjectName);
+			record.setFields(fields);
+			record.markClean();
+			return record;
+		}
+
+		String getLastModified() {
+			return lastModified;
+		}
+
+		boolean isFresh(long now) {
+			return now < expiresAt;
+		}
+	}
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.sobject;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.NameValuePair;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.io.IOUtils;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+/**
+ * Gets new sessions with the OAuth 2.0 refresh token flow, i.e. a grant_type=refresh_token POST to the token
+ * endpoint of the login server.
+ */
+public class RefreshTokenCredentialProvider implements CredentialProvider {
+
+	public static final String DEFAULT_TOKEN_URL = "https://login.salesforce.com/services/oauth2/token";
+
+	private static final String CHARSET = "UTF-8";
+
+	private final String tokenUrl;
+	private final String clientId;
+	private final String clientSecret;
+	private final String refreshToken;
+	private final HttpClient client;
+	private final Gson parser = new Gson();
+	private volatile String instanceUrl;
+
+	/**
+	 * @param clientId Consumer key of the connected app.
+	 * @param clientSecret Consumer secret of the connected app, or null if the app doesn't need one.
+	 * @param refreshToken Refresh token issued to the app for the user.
+	 */
+	public RefreshTokenCredentialProvider(String clientId, String clientSecret, String refreshToken) {
+		this(DEFAULT_TOKEN_URL, clientId, clientSecret, refreshToken);
+	}
+
+	/**
+	 * @param tokenUrl Something like https://test.salesforce.com/services/oauth2/token
+	 */
+	public RefreshTokenCredentialProvider(String tokenUrl, String clientId, String clientSecret, String refreshToken) {
+		if (tokenUrl == null || tokenUrl.isEmpty()) {
+			throw new IllegalArgumentException("Provide a token URL");
+		}
+		if (clientId == null || clientId.isEmpty()) {
+			throw new IllegalArgumentException("Provide a client ID");
+		}
+		if (refreshToken == null || refreshToken.isEmpty()) {
+			throw new IllegalArgumentException("Provide a refresh token");
+		}
+		this.tokenUrl = tokenUrl;
+		this.clientId = clientId;
+		this.clientSecret = clientSecret;
+		this.refreshToken = refreshToken;
+		this.client = new HttpClient(new MultiThreadedHttpConnectionManager());
+	}
+
+	/**
+	 * @return The instance URL returned with the last session, or null before the first refresh.
+	 */
+	public String getInstanceUrl() {
+		return instanceUrl;
+	}
+
+	//@Override
+	public String refreshSessionId(String expiredSessionId) throws IOException, RestApiException {
+		PostMethod method = new PostMethod(tokenUrl);
+		method.addParameter(new NameValuePair("grant_type", "refresh_token"));
+		method.addParameter(new NameValuePair("client_id", clientId));
+		if (clientSecret != null) {
+			method.addParameter(new NameValuePair("client_secret", clientSecret));
+		}
+		method.addParameter(new NameValuePair("refresh_token", refreshToken));
+		method.addParameter(new NameValuePair("format", "json"));
+		try {
+			int status = client.executeMethod(method);
+			if (status >= 400) {
+				throw new RestApiException(IOUtils.toString(method.getResponseBodyAsStream(), CHARSET), status);
+			}
+			TokenResponse token;
+			try {
+				token = parser.fromJson(new InputStreamReader(method.getResponseBodyAsStream(), CHARSET),
+						TokenResponse.class);
+			} catch (JsonParseException e) {
+				throw new RestApiException("Malformed token response", status, e);
+			}
+			if (token == null || token.access_token == null) {
+				throw new RestApiException("Token response has no access_token", status);
+			}
+			instanceUrl = token.instance_url;
+			return token.access_token;
+		} finally {
+			method.releaseConnection();
+		}
+	}
+
+	/**
+	 * The parts of the token endpoint response we use.
+	 */
+	private static class TokenResponse {
+		private String access_token;
+		private String instance_url;
+	}
+}
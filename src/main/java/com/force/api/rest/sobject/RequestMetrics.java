@@ -0,0 +1,56 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.sobject;
+
+/**
+ * Receives a callback for every HTTP request a {@link RestSObjectApiClient} makes. Implementations are called on the
+ * request threads, so they must be thread-safe and cheap.
+ * 
+ * Endpoints are the names of the client operations, e.g. describeLayout, get or query, so that requests for
+ * different records are counted together.
+ */
+public interface RequestMetrics {
+
+	/**
+	 * Called just before a request is sent.
+	 */
+	public void requestStarted(String endpoint);
+
+	/**
+	 * Called once the response has been read, whatever its status.
+	 * 
+	 * @param status HTTP status code.
+	 * @param latencyNanos Time from sending the request until the response was decoded.
+	 * @param requestBytes Size of the request body, or -1 if it wasn't known up front.
+	 * @param responseBytes Bytes read from the response body, as sent on the wire.
+	 */
+	public void requestCompleted(String endpoint, int status, long latencyNanos, long requestBytes, long responseBytes);
+
+	/**
+	 * Called when a request fails without a response, e.g. on a connection error or a malformed body.
+	 */
+	public void requestFailed(String endpoint, long latencyNanos, Throwable cause);
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.sobject;
+
+import java.util.Set;
+
+import com.force.api.rest.sobject.model.SObject;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Non-blocking companion to {@link RestSObjectApi}. Every call returns immediately with a future that completes
+ * with the result of the round trip, or fails with the exception the blocking call would have thrown.
+ */
+public interface RestSObjectApiAsync {
+
+	public ListenableFuture<DescribeGlobal> describeGlobal();
+
+	public ListenableFuture<DescribeSobject> describeSobject(String sobjectName);
+
+	public ListenableFuture<DescribeLayout> describeLayout(String sobjectName);
+
+	public ListenableFuture<SObjectResult> create(SObject sobject);
+
+	public ListenableFuture<SObjectResult> update(SObject sobject);
+
+	public ListenableFuture<SObjectResult> delete(String sobjectName, String id);
+
+	public ListenableFuture<SObject> get(String sobjectName, String id);
+
+	public ListenableFuture<QueryResult> query(String query);
+
+	public ListenableFuture<Set<SearchResult>> search(String search);
+
+	public ListenableFuture<Set<SearchResult>> recent();
+}
@@ -0,0 +1,239 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.sobject;
+
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.force.api.rest.sobject.model.SObject;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Runs the calls of a blocking {@link RestSObjectApi} on a bounded pool of worker threads.
+ * 
+ * At most maxInFlight calls are outstanding at any time. Once the limit is reached, calls don't block the caller; they
+ * return a future that has already failed with a {@link RejectedExecutionException}, so callers can back off or retry.
+ * 
+ * The wrapped client is still blocking, so every running call holds a worker thread for the whole request; how many
+ * requests are on the wire at once is limited by the number of threads, not by maxInFlight. Size the wrapped client's
+ * {@link ConnectionSettings} so it has at least as many connections per host as this client has worker threads.
+ * 
+ * When the wrapped client is a {@link RestSObjectApiClient} with an {@link ApiLimitThrottler}, each call runs at the
+ * throttler priority the submitting thread had.
+ */
+public class RestSObjectApiAsyncClient implements RestSObjectApiAsync {
+
+	private final RestSObjectApi api;
+	private final ListeningExecutorService executor;
+	private final Semaphore inFlight;
+	private final int maxInFlight;
+
+	/**
+	 * @param api The blocking client that performs the requests, usually a {@link RestSObjectApiClient}.
+	 * @param threads Number of worker threads, i.e. how many requests are on the wire at once.
+	 * @param maxInFlight Number of calls that may be queued or running before further calls are rejected.
+	 */
+	public RestSObjectApiAsyncClient(RestSObjectApi api, int threads, int maxInFlight) {
+		this(api, Executors.newFixedThreadPool(threads,
+				new ThreadFactoryBuilder().setNameFormat("rest-sdk-async-%d").setDaemon(true).build()), maxInFlight);
+	}
+
+	/**
+	 * @param api The blocking client that performs the requests, usually a {@link RestSObjectApiClient}.
+	 * @param executor Executor the requests run on; it is shut down by {@link #shutdown()}.
+	 * @param maxInFlight Number of calls that may be queued or running before further calls are rejected.
+	 */
+	public RestSObjectApiAsyncClient(RestSObjectApi api, ExecutorService executor, int maxInFlight) {
+		if (api == null) {
+			throw new IllegalArgumentException("Provide a RestSObjectApi to delegate to");
+		}
+		if (executor == null) {
+			throw new IllegalArgumentException("Provide an executor");
+		}
+		if (maxInFlight < 1) {
+			throw new IllegalArgumentException("maxInFlight must be at least 1");
+		}
+		this.api = api;
+		this.executor = MoreExecutors.listeningDecorator(executor);
+		this.maxInFlight = maxInFlight;
+		this.inFlight = new Semaphore(maxInFlight);
+	}
+
+	/**
+	 * @return Number of calls that are queued or running right now.
+	 */
+	public int getInFlight() {
+		return maxInFlight - inFlight.availablePermits();
+	}
+
+	public int getMaxInFlight() {
+		return maxInFlight;
+	}
+
+	/**
+	 * Stops accepting new calls. Calls already submitted still complete.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return executor.awaitTermination(timeout, unit);
+	}
+
+	//@Override
+	public ListenableFuture<DescribeGlobal> describeGlobal() {
+		return submit(new Callable<DescribeGlobal>() {
+			public DescribeGlobal call() throws Exception {
+				return api.describeGlobal();
+			}
+		});
+	}
+
+	//@Override
+	public ListenableFuture<DescribeSobject> describeSobject(final String sobjectName) {
+		return submit(new Callable<DescribeSobject>() {
+			public DescribeSobject call() throws Exception {
+				return api.describeSobject(sobjectName);
+			}
+		});
+	}
+
+	//@Override
+	public ListenableFuture<DescribeLayout> describeLayout(final String sobjectName) {
+		return submit(new Callable<DescribeLayout>() {
+			public DescribeLayout call() throws Exception {
+				return api.describeLayout(sobjectName);
+			}
+		});
+	}
+
+	//@Override
+	public ListenableFuture<SObjectResult> create(final SObject sobject) {
+		return submit(new Callable<SObjectResult>() {
+			public SObjectResult call() throws Exception {
+				return api.create(sobject);
+			}
+		});
+	}
+
+	//@Override
+	public ListenableFuture<SObjectResult> update(final SObject sobject) {
+		return submit(new Callable<SObjectResult>() {
+			public SObjectResult call() throws Exception {
+				return api.update(sobject);
+			}
+		});
+	}
+
+	//@Override
+	public ListenableFuture<SObjectResult> delete(final String sobjectName, final String id) {
+		return submit(new Callable<SObjectResult>() {
+			public SObjectResult call() throws Exception {
+				return api.delete(sobjectName, id);
+			}
+		});
+	}
+
+	//@Override
+	public ListenableFuture<SObject> get(final String sobjectName, final String id) {
+		return submit(new Callable<SObject>() {
+			public SObject call() throws Exception {
+				return api.get(sobjectName, id);
+			}
+		});
+	}
+
+	//@Override
+	public ListenableFuture<QueryResult> query(final String query) {
+		return submit(new Callable<QueryResult>() {
+			public QueryResult call() throws Exception {
+				return api.query(query);
+			}
+		});
+	}
+
+	//@Override
+	public ListenableFuture<Set<SearchResult>> search(final String search) {
+		return submit(new Callable<Set<SearchResult>>() {
+			public Set<SearchResult> call() throws Exception {
+				return api.search(search);
+			}
+		});
+	}
+
+	//@Override
+	public ListenableFuture<Set<SearchResult>> recent() {
+		return submit(new Callable<Set<SearchResult>>() {
+			public Set<SearchResult> call() throws Exception {
+				return api.recent();
+			}
+		});
+	}
+
+	/**
+	 * Takes an in-flight permit and hands the call to the executor, or fails the call right away if the limit has been
+	 * reached. The permit is returned when the future completes, whether the call succeeded, failed or was cancelled.
+	 */
+	private <T> ListenableFuture<T> submit(Callable<T> call) {
+		if (api instanceof RestSObjectApiClient) {
+			call = ((RestSObjectApiClient) api).withThrottlerPriority(call);
+		}
+		if (!inFlight.tryAcquire()) {
+			return failed(new RejectedExecutionException(maxInFlight + " calls are already in flight"));
+		}
+
+		ListenableFuture<T> future;
+		try {
+			future = executor.submit(call);
+		} catch (RuntimeException e) {
+			//rejected, e.g. after shutdown(); the call will never run so give the permit back here
+			inFlight.release();
+			return failed(e);
+		}
+		future.addListener(new Runnable() {
+			public void run() {
+				inFlight.release();
+			}
+		}, MoreExecutors.sameThreadExecutor());
+		return future;
+	}
+
+	private static <T> ListenableFuture<T> failed(Throwable t) {
+		SettableFuture<T> future = SettableFuture.create();
+		future.setException(t);
+		return future;
+	}
+}
@@ -25,40 +25,121 @@
  */
 package com.force.api.rest.sobject;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.net.URLEncoder;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 import java.util.logging.Logger;
 
+import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.methods.ByteArrayRequestEntity;
 import org.apache.commons.httpclient.methods.DeleteMethod;
+import org.apache.commons.httpclient.methods.EntityEnclosingMethod;
 import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.methods.RequestEntity;
 import org.apache.commons.httpclient.methods.StringRequestEntity;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.util.IdleConnectionTimeoutThread;
 import org.apache.commons.io.IOUtils;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import com.force.api.rest.sobject.model.AnySObject;
+import com.force.api.rest.sobject.model.CompactSObject;
+import com.force.api.rest.sobject.model.RecordSchemas;
+import com.force.api.rest.sobject.model.LazySObject;
 import com.force.api.rest.sobject.model.SObject;
+import com.force.api.rest.sobject.model.SObjectReader;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.google.common.io.CountingInputStream;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
 
 /**
  * RestConnection
  * 
+ * Instances are thread-safe: requests are served from a pool of keep-alive connections, so a single client should be
+ * shared by all request threads. Call {@link #shutdown()} when the client is no longer needed.
+ * 
  * @author gwester
  */
 public class RestSObjectApiClient implements RestSObjectApi {
 
 	private final Logger logger = Logger.getLogger(RestSObjectApiClient.class.getName());
 
-	private String sessionId;
+	private volatile String sessionId;
+	private final String hostname;
+	private final double apiVersion;
+	private final String instanceUrl;
 	private final String baseUrl;
 	private final Gson parser;
 	private final HttpClient client;
+	private final MultiThreadedHttpConnectionManager connectionManager;
+	private final IdleConnectionTimeoutThread idleConnectionEvictor;
+	private final ExecutorService backgroundExecutor;
+	private final boolean compressResponses;
+	private final int requestCompressionThreshold;
+	private final boolean prettyPrint;
+	private volatile MetadataCache metadataCache;
+	private volatile RecordCache recordCache;
+	private volatile int batchParallelism = DEFAULT_BATCH_PARALLELISM;
+	private volatile RequestMetrics metrics = NoopRequestMetrics.INSTANCE;
+	private volatile boolean logResponseBodies;
+	private volatile ApiLimitThrottler throttler;
+	private volatile RetryPolicy retryPolicy;
+	private volatile CredentialProvider credentialProvider;
+	private volatile boolean coalesceReads;
+	private volatile boolean compactRecords;
+	private final RecordSchemas recordSchemas = new RecordSchemas();
+	private final ConcurrentMap<String, SettableFuture<Object>> inFlightReads =
+			new ConcurrentHashMap<String, SettableFuture<Object>>();
+	private final AtomicLong coalescedReads = new AtomicLong();
+	private final Object sessionLock = new Object();
+	//the last failed refresh, guarded by sessionLock
+	private String failedRefreshSession;
+	private Exception refreshFailure;
+	private long refreshRetryAt;
+	private volatile HedgePolicy hedgePolicy;
 
 	private static final String AUTH_HEADER = "Authorization";
 	private static final String AUTH_VALUE_PREFIX = "OAuth ";
@@ -68,13 +149,41 @@ public class RestSObjectApiClient implements RestSObjectApi {
 	private static final String CONTENT_VALUE = "application/json";
 	private static final String PRETTY_HEADER = "X-Pretty-Print";
 	private static final String PRETTY_VALUE = "1";
+	private static final String ACCEPT_ENCODING_HEADER = "Accept-Encoding";
+	private static final String CONTENT_ENCODING_HEADER = "Content-Encoding";
+	private static final String GZIP = "gzip";
+	private static final String LIMIT_INFO_HEADER = "Sforce-Limit-Info";
+	private static final Map<String, String> NO_HEADERS = ImmutableMap.of();
+	private static final String IF_MODIFIED_SINCE_HEADER = "If-Modified-Since";
+	private static final String LAST_MODIFIED_HEADER = "Last-Modified";
+	private static final String DATE_HEADER = "Date";
+	private static final String QUERY_OPTIONS_HEADER = "Sforce-Query-Options";
+	private static final String QUERY_OPTIONS_BATCH_SIZE = "batchSize=";
+	private static final long REFRESH_FAILURE_BACKOFF_MILLIS = 5000L;
+
+	/** Batch sizes the server accepts in the Sforce-Query-Options header. */
+	public static final int MIN_QUERY_BATCH_SIZE = 200;
+	public static final int MAX_QUERY_BATCH_SIZE = 2000;
+	/** Batch size used when none is given; it's also the server default. */
+	public static final int DEFAULT_QUERY_BATCH_SIZE = 2000;
+
+	/** Most records the server accepts in one sObject collections request. */
+	public static final int MAX_COLLECTION_SIZE = 200;
+	/** First API version with sObject collections. */
+	public static final double MIN_COLLECTIONS_API_VERSION = 42.0d;
+	public static final int DEFAULT_BATCH_PARALLELISM = 4;
+	private static final String NOT_PROCESSED = "NOT_PROCESSED: an earlier chunk failed and allOrNone was set";
+	private static final String REQUEST_FAILED = "REQUEST_FAILED: ";
 
 	private static final String SEPARATOR = "/";
 
 	private static final String SOBJECTS_ENDPOINT = "sobjects" + SEPARATOR;
 	private static final String QUERY_ENDPOINT = "query?q=";
+	private static final String FIELDS_PARAMETER = "?fields=";
+	private static final String WINDOW_DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ss'+00:00'";
 	private static final String SEARCH_ENDPOINT = "search?q=";
 	private static final String RECENT_ENDPOINT = "recent" + SEPARATOR;
+	private static final String COLLECTIONS_ENDPOINT = "composite" + SEPARATOR + "sobjects";
 
 	private static final String DESCRIBE_SUBENDPOINT = "describe" + SEPARATOR;
 
@@ -99,6 +208,19 @@ public class RestSObjectApiClient implements RestSObjectApi {
 	 * @throws RestApiException
 	 */
 	public RestSObjectApiClient(String sessionId, String hostname, double apiVersion) throws RestApiException {
+		this(sessionId, hostname, apiVersion, new ConnectionSettings());
+	}
+
+	/**
+	 * 
+	 * @param sessionId Something like CAFEQERXogDBv.PuvKpbdGkn2RYJ8whjq.Ht2b3QHFNL3AWm.nKwsFNn8dit3v7rC_HMw0yaiEduJMCHZA0Y8UBFUIpr2wLr
+	 * @param hostname Something like na1.salesforce.com
+	 * @param apiVersion Something like 24.0
+	 * @param settings Connection pool sizing and timeouts.
+	 * @throws RestApiException
+	 */
+	public RestSObjectApiClient(String sessionId, String hostname, double apiVersion, ConnectionSettings settings)
+			throws RestApiException {
 		if (sessionId == null || sessionId.isEmpty() || sessionId.length() < 20) {
 			throw new IllegalArgumentException("Provide a sessionId");
 		}
@@ -108,11 +230,70 @@ public class RestSObjectApiClient implements RestSObjectApi {
 		if (apiVersion < 22.0d) {
 			throw new IllegalArgumentException("Provide an API Version 22.0 or higher");
 		}
+		if (settings == null) {
+			throw new IllegalArgumentException("Provide connection settings");
+		}
 
-		this.baseUrl = "https://" + hostname + "/services/data/v" + String.valueOf(apiVersion) + SEPARATOR;
+		this.hostname = hostname;
+		this.apiVersion = apiVersion;
+		this.instanceUrl = "https://" + hostname;
+		this.baseUrl = instanceUrl + "/services/data/v" + String.valueOf(apiVersion) + SEPARATOR;
 		this.sessionId = sessionId;
 		this.parser = new Gson();
-		this.client = new HttpClient();
+		this.compressResponses = settings.isCompressResponses();
+		this.requestCompressionThreshold = settings.getRequestCompressionThreshold();
+		this.prettyPrint = settings.isPrettyPrint();
+
+		HttpConnectionManagerParams params = new HttpConnectionManagerParams();
+		params.setMaxTotalConnections(settings.getMaxTotalConnections());
+		params.setDefaultMaxConnectionsPerHost(settings.getMaxConnectionsPerHost());
+		params.setConnectionTimeout(settings.getConnectionTimeoutMillis());
+		params.setSoTimeout(settings.getSocketTimeoutMillis());
+		params.setStaleCheckingEnabled(true);
+		params.setTcpNoDelay(true);
+		this.connectionManager = new MultiThreadedHttpConnectionManager();
+		this.connectionManager.setParams(params);
+		this.client = new HttpClient(connectionManager);
+
+		if (settings.getIdleConnectionTimeoutMillis() > 0) {
+			this.idleConnectionEvictor = new IdleConnectionTimeoutThread();
+			this.idleConnectionEvictor.setName("rest-sdk-idle-connection-evictor");
+			this.idleConnectionEvictor.setConnectionTimeout(settings.getIdleConnectionTimeoutMillis());
+			this.idleConnectionEvictor.setTimeoutInterval(settings.getIdleCheckIntervalMillis());
+			this.idleConnectionEvictor.addConnectionManager(connectionManager);
+			this.idleConnectionEvictor.start();
+		} else {
+			this.idleConnectionEvictor = null;
+		}
+
+		this.backgroundExecutor = Executors.newCachedThreadPool(
+				new ThreadFactoryBuilder().setNameFormat("rest-sdk-background-%d").setDaemon(true).build());
+	}
+
+	/**
+	 * Stops the idle connection evictor and closes every pooled connection. The client can't be used afterwards.
+	 */
+	public void shutdown() {
+		backgroundExecutor.shutdownNow();
+		if (idleConnectionEvictor != null) {
+			idleConnectionEvictor.shutdown();
+		}
+		connectionManager.shutdown();
+	}
+
+	public String getHostname() {
+		return hostname;
+	}
+
+	public double getApiVersion() {
+		return apiVersion;
+	}
+
+	/**
+	 * @return Something like https://na1.salesforce.com
+	 */
+	public String getInstanceUrl() {
+		return instanceUrl;
 	}
 
 	public String getSessionId() {
@@ -120,7 +301,7 @@ public class RestSObjectApiClient implements RestSObjectApi {
 	}
 
 	/**
-	 * Re-set the session ID if the session expires.
+	 * Re-set the session ID if the session expires. Requests already in flight keep the session they started with.
 	 * 
 	 * @param sessionId
 	 */
@@ -128,59 +309,837 @@ public class RestSObjectApiClient implements RestSObjectApi {
 		this.sessionId = sessionId;
 	}
 
+	public CredentialProvider getCredentialProvider() {
+		return credentialProvider;
+	}
+
+	/**
+	 * Refresh the session automatically when a request comes back with 401 Unauthorized, then replay the request.
+	 * Concurrent requests that hit the expired session share a single refresh.
+	 * 
+	 * @param credentialProvider The provider, or null to surface 401s as exceptions.
+	 */
+	public void setCredentialProvider(CredentialProvider credentialProvider) {
+		this.credentialProvider = credentialProvider;
+	}
+
+	public boolean isCoalesceReads() {
+		return coalesceReads;
+	}
+
+	/**
+	 * Share one HTTP request between concurrent identical reads: describes, query, queryMore, search, recent, updated
+	 * and deleted with the same URL, headers and session. Callers that join a request in flight get the same decoded
+	 * object, so they must not modify it. Reads that return records (get and query cursors) are never shared, since
+	 * every caller gets records of its own to modify. Off by default.
+	 */
+	public void setCoalesceReads(boolean coalesceReads) {
+		this.coalesceReads = coalesceReads;
+	}
+
+	/**
+	 * @return Reads that were answered by joining a request already in flight.
+	 */
+	public long getCoalescedReadCount() {
+		return coalescedReads.get();
+	}
+
+	public boolean isCompactRecords() {
+		return compactRecords;
+	}
+
+	/**
+	 * Decode the records returned by get and queryCursor as {@link CompactSObject}s, which share their field names
+	 * with every record of their type this client reads and keep values unboxed, instead of AnySObjects. Off by
+	 * default.
+	 */
+	public void setCompactRecords(boolean compactRecords) {
+		this.compactRecords = compactRecords;
+	}
+
+	/**
+	 * @return The schemas compact records are read with, or null to read AnySObjects.
+	 */
+	private RecordSchemas compactSchemas() {
+		return compactRecords ? recordSchemas : null;
+	}
+
+	public RequestMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Report every request to a metrics implementation, such as {@link InMemoryRequestMetrics}.
+	 * 
+	 * @param metrics The metrics to report to, or null to stop reporting.
+	 */
+	public void setMetrics(RequestMetrics metrics) {
+		this.metrics = metrics == null ? NoopRequestMetrics.INSTANCE : metrics;
+	}
+
+	public boolean isLogResponseBodies() {
+		return logResponseBodies;
+	}
+
+	/**
+	 * Log every response body at FINE. Bodies are only buffered for logging while this is on and FINE is enabled for
+	 * this class, so leave it off in production.
+	 */
+	public void setLogResponseBodies(boolean logResponseBodies) {
+		this.logResponseBodies = logResponseBodies;
+	}
+
+	public ApiLimitThrottler getThrottler() {
+		return throttler;
+	}
+
+	/**
+	 * Hold every request until the throttler grants a permit, and feed it the API usage the server reports. A request
+	 * that gets no permit within the throttler's maximum wait fails with a RejectedExecutionException.
+	 * 
+	 * @param throttler The throttler, usually shared by all clients of an org, or null to send requests right away.
+	 */
+	public void setThrottler(ApiLimitThrottler throttler) {
+		this.throttler = throttler;
+	}
+
+	/**
+	 * Wraps a task handed to another thread so its requests keep the throttler priority of the calling thread.
+	 */
+	<T> Callable<T> withThrottlerPriority(Callable<T> task) {
+		ApiLimitThrottler throttler = this.throttler;
+		return throttler == null ? task : throttler.withCurrentPriority(task);
+	}
+
+	/**
+	 * @see #withThrottlerPriority(Callable)
+	 */
+	Runnable withThrottlerPriority(Runnable task) {
+		ApiLimitThrottler throttler = this.throttler;
+		return throttler == null ? task : throttler.withCurrentPriority(task);
+	}
+
+	public RetryPolicy getRetryPolicy() {
+		return retryPolicy;
+	}
+
+	/**
+	 * Retry describes, get, query, search and recent when they fail with a connection error or a retryable status.
+	 * Writes are never retried.
+	 * 
+	 * @param retryPolicy The policy, or null to fail on the first error.
+	 */
+	public void setRetryPolicy(RetryPolicy retryPolicy) {
+		this.retryPolicy = retryPolicy;
+	}
+
+	public HedgePolicy getHedgePolicy() {
+		return hedgePolicy;
+	}
+
+	/**
+	 * Send a second copy of describes, get, query, search and recent requests that are slower than the hedge delay.
+	 * 
+	 * @param hedgePolicy The policy, or null to never hedge.
+	 */
+	public void setHedgePolicy(HedgePolicy hedgePolicy) {
+		this.hedgePolicy = hedgePolicy;
+	}
+
+	public RecordCache getRecordCache() {
+		return recordCache;
+	}
+
+	/**
+	 * Serve get from a record cache. update, delete, updateAll and deleteAll drop the records they touch from it.
+	 * 
+	 * @param recordCache The cache, or null to always fetch records.
+	 */
+	public void setRecordCache(RecordCache recordCache) {
+		this.recordCache = recordCache;
+	}
+
+	public MetadataCache getMetadataCache() {
+		return metadataCache;
+	}
+
+	/**
+	 * Serve describeGlobal, describeSobject and describeLayout from a cache.
+	 * 
+	 * @param metadataCache The cache to use, or null to always ask the server.
+	 */
+	public void setMetadataCache(MetadataCache metadataCache) {
+		this.metadataCache = metadataCache;
+	}
+
+	/**
+	 * Fills the metadata cache from a snapshot written by an earlier run against the same host and API version.
+	 * Entries older than the cache's TTL are revalidated in the background, so describes that haven't changed cost
+	 * a 304 instead of a full download.
+	 * 
+	 * @return Number of describes loaded.
+	 * @throws IllegalStateException If no metadata cache is set.
+	 */
+	public int loadDescribeSnapshot(DescribeSnapshot snapshot) throws IOException {
+		MetadataCache cache = requireMetadataCache();
+		List<String> keys = snapshot.load(hostname, apiVersion, cache, parser);
+
+		long now = System.currentTimeMillis();
+		Map<String, MetadataCache.CacheEntry> entries = cache.entries();
+		for (String key : keys) {
+			MetadataCache.CacheEntry entry = entries.get(key);
+			if (entry != null && !entry.isFresh(now, cache.getTtlMillis())) {
+				revalidateInBackground(key);
+			}
+		}
+		return keys.size();
+	}
+
+	/**
+	 * Writes the metadata cache to a snapshot so the next run can start from it.
+	 * 
+	 * @return Number of describes written.
+	 * @throws IllegalStateException If no metadata cache is set.
+	 */
+	public int saveDescribeSnapshot(DescribeSnapshot snapshot) throws IOException {
+		return snapshot.save(hostname, apiVersion, requireMetadataCache(), parser);
+	}
+
+	private MetadataCache requireMetadataCache() {
+		MetadataCache cache = metadataCache;
+		if (cache == null) {
+			throw new IllegalStateException("Set a MetadataCache before using describe snapshots");
+		}
+		return cache;
+	}
+
+	private void revalidateInBackground(final String cacheKey) {
+		backgroundExecutor.submit(withThrottlerPriority(new Runnable() {
+			public void run() {
+				String sobjectName = MetadataCache.sobjectNameOf(cacheKey);
+				try {
+					if (sobjectName == null) {
+						describeGlobal();
+					} else if (MetadataCache.typeOf(cacheKey) == DescribeSobject.class) {
+						describeSobject(sobjectName);
+					} else {
+						describeLayout(sobjectName);
+					}
+				} catch (Exception e) {
+					//the stale entry stays in the cache and the next describe retries synchronously
+					logger.log(Level.WARNING, "Could not revalidate " + cacheKey, e);
+				}
+			}
+		}));
+	}
+
 	//@Override
 	public DescribeGlobal describeGlobal() throws IOException, RestApiException {
-		GetMethod method = new GetMethod(baseUrl + SOBJECTS_ENDPOINT);
-		String response = executeHttpRequest(method);
-		return parser.fromJson(response, DescribeGlobal.class);
+		return describe("describeGlobal", MetadataCache.globalKey(), baseUrl + SOBJECTS_ENDPOINT, DescribeGlobal.class);
 	}
 
 	//@Override
 	public DescribeSobject describeSobject(String sobjectName) throws IOException, RestApiException {
-		GetMethod method = new GetMethod(baseUrl + SOBJECTS_ENDPOINT + sobjectName + SEPARATOR);
-		String response = executeHttpRequest(method);
-		return parser.fromJson(response, DescribeSobject.class);
+		return describe("describeSobject", MetadataCache.sobjectKey(sobjectName),
+				baseUrl + SOBJECTS_ENDPOINT + sobjectName + SEPARATOR, DescribeSobject.class);
 	}
 
 	//@Override
 	public DescribeLayout describeLayout(String sobjectName) throws IOException, RestApiException {
-		GetMethod method = new GetMethod(baseUrl + SOBJECTS_ENDPOINT + sobjectName + SEPARATOR + DESCRIBE_SUBENDPOINT);
-		String response = executeHttpRequest(method);
-		return parser.fromJson(response, DescribeLayout.class);
+		return describe("describeLayout", MetadataCache.layoutKey(sobjectName),
+				baseUrl + SOBJECTS_ENDPOINT + sobjectName + SEPARATOR + DESCRIBE_SUBENDPOINT, DescribeLayout.class);
+	}
+
+	/**
+	 * Fetches a describe, going through the metadata cache if there is one. A stale cache entry is revalidated with
+	 * If-Modified-Since and kept when the server answers 304.
+	 */
+	private <T> T describe(String endpoint, String cacheKey, String url, final Class<T> type)
+			throws IOException, RestApiException {
+		MetadataCache cache = metadataCache;
+		if (cache == null) {
+			return executeGet(endpoint, url, NO_HEADERS, gsonDecoder(type));
+		}
+
+		long now = System.currentTimeMillis();
+		MetadataCache.CacheEntry entry = cache.lookup(cacheKey, now);
+		if (entry != null && entry.isFresh(now, cache.getTtlMillis())) {
+			return type.cast(entry.getValue());
+		}
+
+		Map<String, String> headers = NO_HEADERS;
+		if (entry != null && entry.getLastModified() != null) {
+			headers = ImmutableMap.of(IF_MODIFIED_SINCE_HEADER, entry.getLastModified());
+		}
+		Conditional<T> described = executeGet(endpoint, url, headers,
+				new ResponseDecoder<Conditional<T>, RuntimeException>() {
+					public Conditional<T> decode(HttpMethod method, Reader body) {
+						if (method.getStatusCode() == HttpStatus.SC_NOT_MODIFIED) {
+							return new Conditional<T>(null, null, true);
+						}
+						return new Conditional<T>(parser.fromJson(body, type), lastModified(method), false);
+					}
+				});
+		if (described.notModified && entry != null) {
+			cache.revalidated(cacheKey, entry);
+			return type.cast(entry.getValue());
+		}
+		cache.put(cacheKey, described.value, described.lastModified);
+		return described.value;
+	}
+
+	/**
+	 * A response to a conditional GET, or the news that the cached copy is still current.
+	 */
+	private static class Conditional<T> {
+		private final T value;
+		private final String lastModified;
+		private final boolean notModified;
+
+		Conditional(T value, String lastModified, boolean notModified) {
+			this.value = value;
+			this.lastModified = lastModified;
+			this.notModified = notModified;
+		}
+	}
+
+	/**
+	 * @return The Last-Modified header of a response, falling back to its Date header.
+	 */
+	private static String lastModified(HttpMethod method) {
+		Header header = method.getResponseHeader(LAST_MODIFIED_HEADER);
+		if (header == null) {
+			header = method.getResponseHeader(DATE_HEADER);
+		}
+		return header == null ? null : header.getValue();
 	}
 
 	//@Override
 	public SObject get(String sobjectName, String id) throws IOException, RestApiException, JSONException {
-		GetMethod method = new GetMethod(baseUrl + SOBJECTS_ENDPOINT + sobjectName + SEPARATOR + id.toString() + SEPARATOR);
-		String response = executeHttpRequest(method);
-		JSONObject json = new JSONObject(response);
-		return new AnySObject(sobjectName, json);
+		String url = recordUrl(sobjectName, id);
+		RecordCache cache = recordCache;
+		if (cache == null || !cache.isCached(sobjectName)) {
+			//coalesced callers share the decoded fields, never a record
+			return newRecord(sobjectName, executeGet("get", url, NO_HEADERS, recordFieldsDecoder()));
+		}
+
+		long now = System.currentTimeMillis();
+		long version = cache.version();
+		RecordCache.CachedRecord cached = cache.lookup(sobjectName, id, now);
+		if (cached != null && cached.isFresh(now)) {
+			return cached.toSObject();
+		}
+
+		Map<String, String> headers = NO_HEADERS;
+		if (cached != null && cached.getLastModified() != null) {
+			headers = ImmutableMap.of(IF_MODIFIED_SINCE_HEADER, cached.getLastModified());
+		}
+		Conditional<Map<String, Object>> fetched = executeGet("get", url, headers, conditionalRecordFieldsDecoder());
+		if (fetched.notModified && cached != null) {
+			cache.revalidated(cached, version);
+			return cached.toSObject();
+		}
+		SObject record = newRecord(sobjectName, fetched.value);
+		cache.put(record, fetched.lastModified, version);
+		return record;
+	}
+
+	/**
+	 * Builds a clean record from decoded fields, compact when compact records are on.
+	 */
+	private SObject newRecord(String sobjectName, Map<String, Object> fields) {
+		RecordSchemas schemas = compactSchemas();
+		if (schemas != null) {
+			CompactSObject record = new CompactSObject(schemas.forType(sobjectName));
+			record.setFields(fields);
+			record.markClean();
+			return record;
+		}
+		AnySObject record = new AnySObject(sobjectName);
+		record.setFields(fields);
+		record.markClean();
+		return record;
+	}
+
+	private static ResponseDecoder<Map<String, Object>, JSONException> recordFieldsDecoder() {
+		return new ResponseDecoder<Map<String, Object>, JSONException>() {
+			public Map<String, Object> decode(HttpMethod method, Reader body) throws IOException, JSONException {
+				return JsonStreamDecoder.readRecordFields(new JsonReader(body));
+			}
+		};
+	}
+
+	private static ResponseDecoder<Conditional<Map<String, Object>>, JSONException> conditionalRecordFieldsDecoder() {
+		return new ResponseDecoder<Conditional<Map<String, Object>>, JSONException>() {
+			public Conditional<Map<String, Object>> decode(HttpMethod method, Reader body)
+					throws IOException, JSONException {
+				if (method.getStatusCode() == HttpStatus.SC_NOT_MODIFIED) {
+					return new Conditional<Map<String, Object>>(null, null, true);
+				}
+				return new Conditional<Map<String, Object>>(JsonStreamDecoder.readRecordFields(new JsonReader(body)),
+						lastModified(method), false);
+			}
+		};
+	}
+
+	/**
+	 * Gets a record into a class of its own, e.g. one generated by {@link com.force.api.rest.codegen.SObjectGenerator}.
+	 * Typed records don't go through the record cache.
+	 * 
+	 * @param recordReader Reads the record and names its sObject, e.g. Account.READER.
+	 */
+	public <T extends SObject> T get(final SObjectReader<T> recordReader, String id) throws IOException,
+			RestApiException {
+		return executeWithRetry("get", recordUrl(recordReader.getSObjectName(), id), NO_HEADERS,
+				new ResponseDecoder<T, RuntimeException>() {
+					public T decode(HttpMethod method, Reader body) throws IOException {
+						return recordReader.read(new JsonReader(body));
+					}
+				});
+	}
+
+	/**
+	 * Gets a record into a generated class, through the READER the class declares.
+	 * 
+	 * @throws IllegalArgumentException If the class has no public static READER.
+	 * @see #get(SObjectReader, String)
+	 */
+	public <T extends SObject> T get(Class<T> type, String id) throws IOException, RestApiException {
+		return get(readerOf(type), id);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T extends SObject> SObjectReader<T> readerOf(Class<T> type) {
+		try {
+			return (SObjectReader<T>) type.getField("READER").get(null);
+		} catch (NoSuchFieldException e) {
+			throw new IllegalArgumentException(type.getName() + " has no public static READER", e);
+		} catch (IllegalAccessException e) {
+			throw new IllegalArgumentException(type.getName() + " has no public static READER", e);
+		}
+	}
+
+	/**
+	 * Gets only some fields of a record, with the ?fields= parameter. When a metadata cache is set, the fields are
+	 * checked against the cached describe first. Projected records don't go through the record cache.
+	 * 
+	 * @param fields Field names, e.g. Name and OwnerId.
+	 * @param lazy If true, the record is a {@link LazySObject} that fetches the rest of its fields the first time
+	 *        getField asks for one it doesn't have.
+	 * @throws IllegalArgumentException If a field isn't on the sObject's describe.
+	 */
+	public SObject get(final String sobjectName, final String id, Collection<String> fields, boolean lazy)
+			throws IOException, RestApiException, JSONException {
+		if (fields == null || fields.isEmpty()) {
+			throw new IllegalArgumentException("Provide at least one field");
+		}
+		if (metadataCache != null) {
+			validateFields(sobjectName, fields);
+		}
+		String url = baseUrl + SOBJECTS_ENDPOINT + sobjectName + SEPARATOR + id + SEPARATOR + FIELDS_PARAMETER
+				+ Joiner.on(',').join(fields);
+
+		if (!lazy) {
+			return executeWithRetry("get", url, NO_HEADERS, new ResponseDecoder<SObject, JSONException>() {
+				public SObject decode(HttpMethod method, Reader body) throws IOException, JSONException {
+					return JsonStreamDecoder.readRecord(sobjectName, new JsonReader(body), compactSchemas());
+				}
+			});
+		}
+		final LazySObject.Loader loader = new LazySObject.Loader() {
+			public SObject load() throws Exception {
+				return get(sobjectName, id);
+			}
+		};
+		return executeWithRetry("get", url, NO_HEADERS, new ResponseDecoder<SObject, JSONException>() {
+			public SObject decode(HttpMethod method, Reader body) throws IOException, JSONException {
+				return JsonStreamDecoder.readRecord(new LazySObject(sobjectName, loader), new JsonReader(body));
+			}
+		});
+	}
+
+	/**
+	 * Checks field names against the describe of the sObject, ignoring case like the API does.
+	 */
+	private void validateFields(String sobjectName, Collection<String> fields) throws IOException, RestApiException {
+		Set<String> known = Sets.newHashSet();
+		for (DescribeLayout.Field field : describeLayout(sobjectName).getAllFields()) {
+			known.add(field.getName().toLowerCase(Locale.ENGLISH));
+		}
+		List<String> unknown = Lists.newArrayList();
+		for (String field : fields) {
+			if (!known.contains(field.toLowerCase(Locale.ENGLISH))) {
+				unknown.add(field);
+			}
+		}
+		if (!unknown.isEmpty()) {
+			throw new IllegalArgumentException(sobjectName + " has no field " + Joiner.on(", ").join(unknown));
+		}
 	}
 
 	//@Override
 	public SObjectResult create(SObject sobject) throws IOException, RestApiException, JSONException {
-		PostMethod method = new PostMethod(baseUrl + SOBJECTS_ENDPOINT + sobject.getSObjectName() + SEPARATOR);
-		method.setRequestEntity(new StringRequestEntity(sobject.toJson(), CONTENT_VALUE, CHARSET_VALUE));
-		String response = executeHttpRequest(method);
-		return parser.fromJson(response, SObjectResult.class);
+		return executeHttpRequest("create",
+				postRequest(baseUrl + SOBJECTS_ENDPOINT + sobject.getSObjectName() + SEPARATOR, sobject.toJson()),
+				gsonDecoder(SObjectResult.class));
 	}
 
+	/**
+	 * Sends only the fields changed since the record was loaded, and nothing at all if none were. The record is marked
+	 * clean once the update succeeds.
+	 */
 	//@Override
 	public SObjectResult update(SObject sobject) throws IOException, RestApiException, JSONException {
-		String url = baseUrl + SOBJECTS_ENDPOINT + sobject.getSObjectName() + SEPARATOR + sobject.getId() + SEPARATOR;
+		if (!sobject.hasChanges()) {
+			return unchanged(sobject);
+		}
+		String url = recordUrl(sobject.getSObjectName(), sobject.getId());
 		//override POST by setting paramter on end of URL; Salesforce will route this to doPatch in the servlet
-		PostMethod method = new PostMethod(url + PATCH_PARAMETER);
-		method.setRequestEntity(new StringRequestEntity(sobject.toJson(), CONTENT_VALUE, CHARSET_VALUE));
+		RequestFactory request = postRequest(url + PATCH_PARAMETER, sobject.toChangedJson());
 
-		String response = executeHttpRequest(method);
-		return parser.fromJson(response, SObjectResult.class);
+		try {
+			SObjectResult result = executeHttpRequest("update", request, gsonDecoder(SObjectResult.class));
+			sobject.markClean();
+			return result;
+		} finally {
+			//even a failed request may have changed the record
+			invalidateRecord(sobject.getSObjectName(), sobject.getId());
+		}
 	}
 
 	//@Override
 	public SObjectResult delete(String sobjectName, String id) throws IOException, RestApiException {
-		DeleteMethod method = new DeleteMethod(baseUrl + SOBJECTS_ENDPOINT + sobjectName + SEPARATOR + id + SEPARATOR);
-		String json = executeHttpRequest(method);
-		return parser.fromJson(json, SObjectResult.class);
+		try {
+			return executeHttpRequest("delete", deleteRequest(recordUrl(sobjectName, id)),
+					gsonDecoder(SObjectResult.class));
+		} finally {
+			invalidateRecord(sobjectName, id);
+		}
+	}
+
+	private void invalidateRecord(String sobjectName, String id) {
+		RecordCache cache = recordCache;
+		if (cache != null) {
+			cache.invalidate(sobjectName, id);
+		}
+	}
+
+	public int getBatchParallelism() {
+		return batchParallelism;
+	}
+
+	/**
+	 * @param batchParallelism How many sObject collection requests createAll, updateAll and deleteAll send at once.
+	 */
+	public void setBatchParallelism(int batchParallelism) {
+		if (batchParallelism < 1) {
+			throw new IllegalArgumentException("batchParallelism must be at least 1");
+		}
+		this.batchParallelism = batchParallelism;
+	}
+
+	/**
+	 * Creates many records with sObject collections, up to {@link #MAX_COLLECTION_SIZE} records per request.
+	 * 
+	 * @param sobjects Records to create; they may be of different types.
+	 * @param allOrNone If true, chunks are sent one at a time and a chunk with any failure is rolled back. Chunks after
+	 *        a failed chunk aren't sent and their records are reported as failed. If false, chunks are sent
+	 *        concurrently and every record succeeds or fails on its own.
+	 * @return One result per record, in the order of the input. If the request for a chunk fails outright, e.g. with
+	 *         an I/O error or an error status, each of its records gets a failed result carrying the error; the
+	 *         results of the other chunks, which may already be committed, are still returned.
+	 */
+	public List<SObjectResult> createAll(Collection<? extends SObject> sobjects, final boolean allOrNone)
+			throws IOException, RestApiException, JSONException {
+		return sendCollections(sobjects, allOrNone, new ChunkRequest<SObject>() {
+			public List<SObjectResult> send(List<SObject> chunk) throws Exception {
+				return executeHttpRequest("createAll",
+						postRequest(baseUrl + COLLECTIONS_ENDPOINT, collectionJson(chunk, allOrNone)),
+						collectionResultsDecoder());
+			}
+		});
+	}
+
+	/**
+	 * Updates many records with sObject collections, up to {@link #MAX_COLLECTION_SIZE} records per request. Every
+	 * record must have an Id. Only changed fields are sent, and records without changes aren't sent at all; they get a
+	 * successful result. Records that were updated are marked clean.
+	 * 
+	 * @see #createAll(Collection, boolean)
+	 */
+	public List<SObjectResult> updateAll(Collection<? extends SObject> sobjects, final boolean allOrNone)
+			throws IOException, RestApiException, JSONException {
+		//which records were sent is decided once, so records marked clean or edited meanwhile can't shift the results
+		List<SObject> records = Lists.<SObject>newArrayList(sobjects);
+		boolean[] sentMask = new boolean[records.size()];
+		List<SObject> changed = Lists.newArrayListWithCapacity(records.size());
+		for (int i = 0; i < records.size(); i++) {
+			SObject sobject = records.get(i);
+			if (sobject.getId() == null) {
+				throw new IllegalArgumentException("Every record needs an Id to be updated");
+			}
+			if (sobject.hasChanges()) {
+				sentMask[i] = true;
+				changed.add(sobject);
+			}
+		}
+		List<SObjectResult> sent = sendCollections(changed, allOrNone, new ChunkRequest<SObject>() {
+			public List<SObjectResult> send(List<SObject> chunk) throws Exception {
+				RequestFactory request = postRequest(baseUrl + COLLECTIONS_ENDPOINT + PATCH_PARAMETER,
+						collectionJson(chunk, allOrNone, true));
+				try {
+					return executeHttpRequest("updateAll", request, collectionResultsDecoder());
+				} finally {
+					for (SObject sobject : chunk) {
+						invalidateRecord(sobject.getSObjectName(), sobject.getId());
+					}
+				}
+			}
+		});
+
+		//merge the results back into the order of the input
+		List<SObjectResult> results = Lists.newArrayListWithCapacity(records.size());
+		Iterator<SObjectResult> sentResults = sent.iterator();
+		for (int i = 0; i < records.size(); i++) {
+			SObject sobject = records.get(i);
+			if (!sentMask[i]) {
+				results.add(unchanged(sobject));
+				continue;
+			}
+			SObjectResult result = sentResults.next();
+			if (Boolean.TRUE.equals(result.getSuccess())) {
+				sobject.markClean();
+			}
+			results.add(result);
+		}
+		return results;
+	}
+
+	/**
+	 * @return The result of an update that had nothing to send.
+	 */
+	private static SObjectResult unchanged(SObject sobject) {
+		SObjectResult result = new SObjectResult();
+		result.setId(sobject.getId());
+		result.setSuccess(Boolean.TRUE);
+		result.setErrors(Collections.<String>emptySet());
+		return result;
+	}
+
+	/**
+	 * Deletes many records with sObject collections, up to {@link #MAX_COLLECTION_SIZE} records per request.
+	 * 
+	 * @see #createAll(Collection, boolean)
+	 */
+	public List<SObjectResult> deleteAll(Collection<String> ids, final boolean allOrNone)
+			throws IOException, RestApiException, JSONException {
+		return sendCollections(ids, allOrNone, new ChunkRequest<String>() {
+			public List<SObjectResult> send(List<String> chunk) throws Exception {
+				RequestFactory request = deleteRequest(baseUrl + COLLECTIONS_ENDPOINT + "?ids="
+						+ Joiner.on(',').join(chunk) + "&allOrNone=" + allOrNone);
+				try {
+					return executeHttpRequest("deleteAll", request, collectionResultsDecoder());
+				} finally {
+					RecordCache cache = recordCache;
+					if (cache != null) {
+						for (String id : chunk) {
+							cache.invalidate(id);
+						}
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Sends one sObject collections request for a chunk of records.
+	 */
+	private interface ChunkRequest<R> {
+		public List<SObjectResult> send(List<R> chunk) throws Exception;
+	}
+
+	/**
+	 * Splits the records into chunks and sends them, concurrently unless allOrNone is set.
+	 */
+	private <R> List<SObjectResult> sendCollections(Collection<? extends R> records, boolean allOrNone,
+			final ChunkRequest<R> request) throws IOException, RestApiException, JSONException {
+		if (apiVersion < MIN_COLLECTIONS_API_VERSION) {
+			throw new IllegalStateException("sObject collections need API version " + MIN_COLLECTIONS_API_VERSION
+					+ " or higher");
+		}
+		List<SObjectResult> results = Lists.newArrayListWithCapacity(records.size());
+		if (records.isEmpty()) {
+			return results;
+		}
+		List<List<R>> chunks = Lists.partition(Lists.<R>newArrayList(records), collectionChunkSize());
+
+		if (allOrNone) {
+			boolean failed = false;
+			for (List<R> chunk : chunks) {
+				if (failed) {
+					results.addAll(failedResults(chunk.size(), NOT_PROCESSED));
+					continue;
+				}
+				List<SObjectResult> chunkResults = sendChunk(request, chunk);
+				results.addAll(chunkResults);
+				for (SObjectResult result : chunkResults) {
+					if (!Boolean.TRUE.equals(result.getSuccess())) {
+						failed = true;
+					}
+				}
+			}
+			return results;
+		}
+
+		//keep at most batchParallelism chunks on the wire; results are collected in input order
+		int parallelism = batchParallelism;
+		List<Future<List<SObjectResult>>> futures = Lists.newArrayListWithCapacity(chunks.size());
+		try {
+			for (int i = 0; i < chunks.size(); i++) {
+				if (i >= parallelism) {
+					results.addAll(futures.get(i - parallelism).get());
+				}
+				final List<R> chunk = chunks.get(i);
+				futures.add(backgroundExecutor.submit(withThrottlerPriority(new Callable<List<SObjectResult>>() {
+					public List<SObjectResult> call() throws Exception {
+						return sendChunk(request, chunk);
+					}
+				})));
+			}
+			for (int i = Math.max(0, chunks.size() - parallelism); i < chunks.size(); i++) {
+				results.addAll(futures.get(i).get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while sending sObject collections");
+		} catch (ExecutionException e) {
+			rethrow(e.getCause());
+		} finally {
+			for (Future<List<SObjectResult>> future : futures) {
+				future.cancel(true);
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Sends one chunk. A failed request doesn't throw, because earlier chunks may already be committed; its records
+	 * get failed results instead. Only an interrupt is thrown.
+	 */
+	private <R> List<SObjectResult> sendChunk(ChunkRequest<R> request, List<R> chunk) throws InterruptedIOException {
+		try {
+			return request.send(chunk);
+		} catch (InterruptedIOException e) {
+			throw e;
+		} catch (Exception e) {
+			logger.log(Level.WARNING, "sObject collections request for " + chunk.size() + " records failed", e);
+			return failedResults(chunk.size(), REQUEST_FAILED + e.getMessage());
+		}
+	}
+
+	/**
+	 * Rethrows the failure of a request as the checked exception it was, or wraps it if it's something else.
+	 */
+	private static void rethrow(Throwable t) throws IOException, RestApiException, JSONException {
+		if (t instanceof IOException) {
+			throw (IOException) t;
+		} else if (t instanceof RestApiException) {
+			throw (RestApiException) t;
+		} else if (t instanceof JSONException) {
+			throw (JSONException) t;
+		} else if (t instanceof RuntimeException) {
+			throw (RuntimeException) t;
+		} else if (t instanceof Error) {
+			throw (Error) t;
+		}
+		throw new IllegalStateException(t);
+	}
+
+	/**
+	 * @return The composite limit, or the org's maxBatchSize if it is smaller and a cached global describe has it.
+	 */
+	private int collectionChunkSize() throws IOException, RestApiException {
+		int size = MAX_COLLECTION_SIZE;
+		if (metadataCache != null) {
+			Integer maxBatchSize = describeGlobal().getMaxBatchSize();
+			if (maxBatchSize != null && maxBatchSize.intValue() > 0) {
+				size = Math.min(size, maxBatchSize.intValue());
+			}
+		}
+		return size;
+	}
+
+	private static List<SObjectResult> failedResults(int count, String error) {
+		List<SObjectResult> results = Lists.newArrayListWithCapacity(count);
+		for (int i = 0; i < count; i++) {
+			SObjectResult result = new SObjectResult();
+			result.setSuccess(Boolean.FALSE);
+			result.setErrors(Sets.newHashSet(error));
+			results.add(result);
+		}
+		return results;
+	}
+
+	private static String collectionJson(List<SObject> chunk, boolean allOrNone) throws JSONException {
+		return collectionJson(chunk, allOrNone, false);
+	}
+
+	/**
+	 * @param changesOnly Whether to send just the Id and the changed fields of each record.
+	 */
+	private static String collectionJson(List<SObject> chunk, boolean allOrNone, boolean changesOnly)
+			throws JSONException {
+		JSONArray records = new JSONArray();
+		for (SObject sobject : chunk) {
+			JSONObject record = new JSONObject(changesOnly ? sobject.toChangedJson() : sobject.toJson());
+			if (changesOnly) {
+				record.put("Id", sobject.getId());
+			}
+			record.put("attributes", new JSONObject().put("type", sobject.getSObjectName()));
+			records.put(record);
+		}
+		return new JSONObject().put("allOrNone", allOrNone).put("records", records).toString();
+	}
+
+	private ResponseDecoder<List<SObjectResult>, RuntimeException> collectionResultsDecoder() {
+		return new ResponseDecoder<List<SObjectResult>, RuntimeException>() {
+			public List<SObjectResult> decode(HttpMethod method, Reader body) {
+				CollectionResult[] collectionResults = parser.fromJson(body, CollectionResult[].class);
+				List<SObjectResult> results = Lists.newArrayListWithCapacity(collectionResults.length);
+				for (CollectionResult collectionResult : collectionResults) {
+					results.add(collectionResult.toSObjectResult());
+				}
+				return results;
+			}
+		};
+	}
+
+	/**
+	 * One element of an sObject collections response. Unlike single record calls, errors are objects.
+	 */
+	private static class CollectionResult {
+		private String id;
+		private Boolean success;
+		private List<CollectionError> errors;
+
+		SObjectResult toSObjectResult() {
+			SObjectResult result = new SObjectResult();
+			result.setId(id);
+			result.setSuccess(success);
+			Set<String> messages = Sets.newLinkedHashSet();
+			if (errors != null) {
+				for (CollectionError error : errors) {
+					messages.add(error.statusCode + ": " + error.message);
+				}
+			}
+			result.setErrors(messages);
+			return result;
+		}
+	}
+
+	private static class CollectionError {
+		private String statusCode;
+		private String message;
 	}
 
 	//@Override
@@ -189,9 +1148,109 @@ public class RestSObjectApiClient implements RestSObjectApi {
 			throw new IllegalArgumentException("Query must be in the form: SELECT+id+FROM+sobject+WHERE+something=else");
 		}
 
-		GetMethod method = new GetMethod(baseUrl + QUERY_ENDPOINT + query);
-		String response = executeHttpRequest(method);
-		return parser.fromJson(response, QueryResult.class);
+		return executeGet("query", baseUrl + QUERY_ENDPOINT + query, NO_HEADERS, gsonDecoder(QueryResult.class));
+	}
+
+	/**
+	 * Runs a prepared query; the statement was validated and encoded when it was prepared.
+	 */
+	public QueryResult query(PreparedQuery.Bindings query) throws IOException, RestApiException {
+		return executeGet("query", baseUrl + QUERY_ENDPOINT + query.toUrlParameter(), NO_HEADERS,
+				gsonDecoder(QueryResult.class));
+	}
+
+	/**
+	 * Fetches the batch of records that follows a previous {@link #query(String)} or queryMore call.
+	 * 
+	 * @param nextRecordsUrl The value of {@link QueryResult#getNextRecordsUrl()}.
+	 */
+	public QueryResult queryMore(String nextRecordsUrl) throws IOException, RestApiException {
+		if(nextRecordsUrl == null || nextRecordsUrl.isEmpty()) {
+			throw new IllegalArgumentException("Provide the nextRecordsUrl of a previous query result");
+		}
+
+		return executeGet("queryMore", instanceUrl + nextRecordsUrl, NO_HEADERS, gsonDecoder(QueryResult.class));
+	}
+
+	/**
+	 * Same as {@link #queryCursor(String, int)} with the default batch size.
+	 */
+	public QueryCursor queryCursor(String query) throws IOException, RestApiException, JSONException {
+		return queryCursor(query, DEFAULT_QUERY_BATCH_SIZE);
+	}
+
+	/**
+	 * Runs a query and returns a cursor over all of its records, however many batches they span. The first batch is
+	 * fetched before this method returns; the rest are fetched as the cursor advances.
+	 * 
+	 * @param query URL encoded SOQL, as for {@link #query(String)}.
+	 * @param batchSize Records per batch, between 200 and 2000. The server may return smaller batches.
+	 */
+	public QueryCursor queryCursor(String query, int batchSize) throws IOException, RestApiException, JSONException {
+		return queryCursor(query, batchSize, null);
+	}
+
+	/**
+	 * Runs a query and returns a cursor whose records are read by recordReader, e.g. the READER of a class generated
+	 * by {@link com.force.api.rest.codegen.SObjectGenerator}. Cast the records the cursor returns to that class.
+	 * 
+	 * @param recordReader Reads each record, or null for AnySObjects or CompactSObjects.
+	 * @see #queryCursor(String, int)
+	 */
+	public QueryCursor queryCursor(String query, int batchSize, SObjectReader<?> recordReader)
+			throws IOException, RestApiException, JSONException {
+		if(query == null || query.isEmpty() || !query.contains("SELECT") || !query.contains("FROM")) {
+			throw new IllegalArgumentException("Query must be in the form: SELECT+id+FROM+sobject+WHERE+something=else");
+		}
+		checkQueryBatchSize(batchSize);
+
+		QueryCursor.Page first = fetchQueryPage(baseUrl + QUERY_ENDPOINT + query, batchSize, recordReader);
+		return new QueryCursor(this, backgroundExecutor, first, batchSize, recordReader);
+	}
+
+	/**
+	 * Runs a prepared query and returns a cursor over all of its records.
+	 * 
+	 * @see #queryCursor(String, int)
+	 */
+	public QueryCursor queryCursor(PreparedQuery.Bindings query, int batchSize)
+			throws IOException, RestApiException, JSONException {
+		return queryCursor(query, batchSize, null);
+	}
+
+	/**
+	 * Runs a prepared query and returns a cursor whose records are read by recordReader.
+	 * 
+	 * @see #queryCursor(String, int, SObjectReader)
+	 */
+	public QueryCursor queryCursor(PreparedQuery.Bindings query, int batchSize, SObjectReader<?> recordReader)
+			throws IOException, RestApiException, JSONException {
+		checkQueryBatchSize(batchSize);
+		QueryCursor.Page first = fetchQueryPage(baseUrl + QUERY_ENDPOINT + query.toUrlParameter(), batchSize,
+				recordReader);
+		return new QueryCursor(this, backgroundExecutor, first, batchSize, recordReader);
+	}
+
+	private static void checkQueryBatchSize(int batchSize) {
+		if(batchSize < MIN_QUERY_BATCH_SIZE || batchSize > MAX_QUERY_BATCH_SIZE) {
+			throw new IllegalArgumentException("Batch size must be between " + MIN_QUERY_BATCH_SIZE + " and "
+					+ MAX_QUERY_BATCH_SIZE);
+		}
+	}
+
+	/**
+	 * Fetches one batch of query results, keeping every field of every record.
+	 * 
+	 * @param recordReader Reads each record, or null for AnySObjects or CompactSObjects.
+	 */
+	QueryCursor.Page fetchQueryPage(String url, int batchSize, final SObjectReader<?> recordReader)
+			throws IOException, RestApiException, JSONException {
+		Map<String, String> headers = ImmutableMap.of(QUERY_OPTIONS_HEADER, QUERY_OPTIONS_BATCH_SIZE + batchSize);
+		return executeWithRetry("queryCursor", url, headers, new ResponseDecoder<QueryCursor.Page, JSONException>() {
+			public QueryCursor.Page decode(HttpMethod method, Reader body) throws IOException, JSONException {
+				return JsonStreamDecoder.readQueryPage(new JsonReader(body), compactSchemas(), recordReader);
+			}
+		});
 	}
 
 	//@Override
@@ -200,50 +1259,538 @@ public class RestSObjectApiClient implements RestSObjectApi {
 			throw new IllegalArgumentException("Search must be in the form: FIND+{myTerm}");
 		}
 
-		GetMethod method = new GetMethod(baseUrl + SEARCH_ENDPOINT + search);
-		String response = executeHttpRequest(method);
-		return getResultsFromJsonArray(response);
+		return executeGet("search", baseUrl + SEARCH_ENDPOINT + search, NO_HEADERS, searchResultsDecoder());
 	}
 
 	//@Override
 	public Set<SearchResult> recent() throws IOException, RestApiException, JSONException {
-		GetMethod method = new GetMethod(baseUrl + RECENT_ENDPOINT);
-		String response = executeHttpRequest(method);
-		return getResultsFromJsonArray(response);
+		return executeGet("recent", baseUrl + RECENT_ENDPOINT, NO_HEADERS, searchResultsDecoder());
+	}
+
+	/**
+	 * Lists the records of an sObject created or updated between start and end. The server rounds the window to whole
+	 * minutes and only looks back 30 days.
+	 */
+	public UpdatedResult getUpdated(String sobjectName, Date start, Date end) throws IOException, RestApiException {
+		String url = baseUrl + SOBJECTS_ENDPOINT + sobjectName + SEPARATOR + "updated" + SEPARATOR + window(start, end);
+		return executeGet("updated", url, NO_HEADERS, gsonDecoder(UpdatedResult.class));
+	}
+
+	/**
+	 * Lists the records of an sObject deleted between start and end.
+	 * 
+	 * @see #getUpdated(String, Date, Date)
+	 */
+	public DeletedResult getDeleted(String sobjectName, Date start, Date end) throws IOException, RestApiException {
+		String url = baseUrl + SOBJECTS_ENDPOINT + sobjectName + SEPARATOR + "deleted" + SEPARATOR + window(start, end);
+		return executeGet("deleted", url, NO_HEADERS, gsonDecoder(DeletedResult.class));
 	}
 
-	private Set<SearchResult> getResultsFromJsonArray(String jsonArray) throws JSONException {
-		JSONArray jsonResults = new JSONArray(jsonArray);
+	/**
+	 * @return The start and end parameters of the updated and deleted resources.
+	 */
+	private static String window(Date start, Date end) throws IOException {
+		if (!start.before(end)) {
+			throw new IllegalArgumentException("start must be before end");
+		}
+		SimpleDateFormat format = new SimpleDateFormat(WINDOW_DATE_FORMAT, Locale.ENGLISH);
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return "?start=" + URLEncoder.encode(format.format(start), CHARSET_VALUE) + "&end="
+				+ URLEncoder.encode(format.format(end), CHARSET_VALUE);
+	}
+
+	private ResponseDecoder<Set<SearchResult>, RuntimeException> searchResultsDecoder() {
+		return new ResponseDecoder<Set<SearchResult>, RuntimeException>() {
+			public Set<SearchResult> decode(HttpMethod method, Reader body) {
+				return getResultsFromJsonArray(body);
+			}
+		};
+	}
+
+	Set<SearchResult> getResultsFromJsonArray(Reader jsonArray) {
+		SearchResult[] jsonResults = parser.fromJson(jsonArray, SearchResult[].class);
 
 		Set<SearchResult> results = Sets.<SearchResult>newHashSet();
-		for(int i = 0; i < jsonResults.length(); i++) {
-			String json = jsonResults.getJSONObject(i).toString();
-			SearchResult result = parser.fromJson(json, SearchResult.class);
-			results.add(result);
+		if(jsonResults != null) {
+			results.addAll(Arrays.asList(jsonResults));
 		}
 		return results;
 	}
 
+	private <T> ResponseDecoder<T, RuntimeException> gsonDecoder(final Class<T> type) {
+		return new ResponseDecoder<T, RuntimeException>() {
+			public T decode(HttpMethod method, Reader body) {
+				return parser.fromJson(body, type);
+			}
+		};
+	}
+
+	/**
+	 * Executes an idempotent GET. With read coalescing on, a caller that finds the same request already in flight
+	 * waits for it and gets its result instead of sending another. Only for reads whose result callers don't modify;
+	 * reads that return records share what they decoded and build each caller a record of its own.
+	 * 
+	 * @param headers Request headers besides the ones every request gets.
+	 */
+	@SuppressWarnings("unchecked")
+	private <T, E extends Exception> T executeGet(String endpoint, String url, Map<String, String> headers,
+			ResponseDecoder<T, E> decoder) throws IOException, RestApiException, E {
+		if (!coalesceReads) {
+			return executeWithRetry(endpoint, url, headers, decoder);
+		}
+
+		//each call site decodes with a class of its own, so only calls that decode alike share a result
+		String key = endpoint + ' ' + decoder.getClass().getName() + ' ' + url + ' ' + headers + ' ' + sessionId;
+		SettableFuture<Object> call = SettableFuture.create();
+		SettableFuture<Object> inFlight = inFlightReads.putIfAbsent(key, call);
+		if (inFlight != null) {
+			coalescedReads.incrementAndGet();
+			try {
+				return (T) inFlight.get();
+			} catch (ExecutionException e) {
+				throw RestSObjectApiClient.<E>requestFailure(e.getCause());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for " + endpoint);
+			}
+		}
+
+		try {
+			T result = executeWithRetry(endpoint, url, headers, decoder);
+			call.set(result);
+			return result;
+		} catch (Throwable t) {
+			call.setException(t);
+			throw RestSObjectApiClient.<E>requestFailure(t);
+		} finally {
+			inFlightReads.remove(key, call);
+		}
+	}
+
+	/**
+	 * Rethrows the failure of a request run elsewhere. Anything that isn't an IOException, RestApiException or
+	 * unchecked can only have come from the decoder, and is returned for the caller to throw.
+	 */
+	@SuppressWarnings("unchecked")
+	private static <E extends Exception> E requestFailure(Throwable t) throws IOException, RestApiException {
+		if (t instanceof IOException) {
+			throw (IOException) t;
+		} else if (t instanceof RestApiException) {
+			throw (RestApiException) t;
+		} else if (t instanceof RuntimeException) {
+			throw (RuntimeException) t;
+		} else if (t instanceof Error) {
+			throw (Error) t;
+		}
+		return (E) t;
+	}
+
+	/**
+	 * Executes a GET, retrying it according to the retry policy and hedging it according to the hedge policy. Each
+	 * attempt is a fresh request.
+	 */
+	private <T, E extends Exception> T executeWithRetry(String endpoint, String url, Map<String, String> headers,
+			ResponseDecoder<T, E> decoder) throws IOException, RestApiException, E {
+		RetryPolicy retryPolicy = this.retryPolicy;
+		for (int attempt = 1; ; attempt++) {
+			try {
+				T result = executeHedged(endpoint, url, headers, decoder);
+				if (attempt > 1) {
+					retryPolicy.recovered();
+				}
+				return result;
+			} catch (IOException e) {
+				if (!shouldRetry(retryPolicy, e, attempt)) {
+					throw e;
+				}
+			} catch (RestApiException e) {
+				if (!shouldRetry(retryPolicy, e, attempt)) {
+					throw e;
+				}
+			}
+
+			long backoff = retryPolicy.backoffMillis(attempt);
+			if (logger.isLoggable(Level.FINE)) {
+				logger.log(Level.FINE, "Retrying " + endpoint + " in " + backoff + "ms");
+			}
+			try {
+				Thread.sleep(backoff);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while backing off to retry " + endpoint);
+			}
+			retryPolicy.retried();
+		}
+	}
+
+	private static boolean shouldRetry(RetryPolicy retryPolicy, Exception failure, int attempt) {
+		if (retryPolicy == null || !retryPolicy.isRetryable(failure)) {
+			return false;
+		}
+		if (attempt >= retryPolicy.getMaxAttempts()) {
+			retryPolicy.exhausted();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Sends the GET and, if it hasn't answered within the hedge delay, a second copy of it. The first successful
+	 * response wins and the other request is aborted. Without a hedge policy this is a plain request.
+	 */
+	private <T, E extends Exception> T executeHedged(String endpoint, String url, Map<String, String> headers,
+			ResponseDecoder<T, E> decoder) throws IOException, RestApiException, E {
+		HedgePolicy hedgePolicy = this.hedgePolicy;
+		if (hedgePolicy == null) {
+			return executeHttpRequest(endpoint, getRequest(url, headers), decoder);
+		}
+
+		long start = System.nanoTime();
+		CompletionService<T> completion = new ExecutorCompletionService<T>(backgroundExecutor);
+		Attempt<T, E> primary = new Attempt<T, E>(endpoint, url, headers, decoder);
+		Attempt<T, E> hedge = null;
+		Future<T> hedgeFuture = null;
+		Future<T> primaryFuture = completion.submit(withThrottlerPriority(primary));
+		Throwable failure = null;
+		try {
+			Future<T> done = completion.poll(hedgePolicy.getDelayMillis(), TimeUnit.MILLISECONDS);
+			int outstanding = 1;
+			if (done == null) {
+				hedgePolicy.hedged();
+				hedge = new Attempt<T, E>(endpoint, url, headers, decoder);
+				hedgeFuture = completion.submit(withThrottlerPriority(hedge));
+				outstanding = 2;
+				done = completion.take();
+			}
+			while (true) {
+				outstanding--;
+				try {
+					T result = done.get();
+					hedgePolicy.record(System.nanoTime() - start);
+					if (done == hedgeFuture) {
+						hedgePolicy.hedgeWon();
+					}
+					return result;
+				} catch (ExecutionException e) {
+					if (failure == null) {
+						failure = e.getCause();
+					}
+					if (outstanding == 0) {
+						break;
+					}
+					done = completion.take();
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for " + endpoint);
+		} finally {
+			//whichever request is still running lost the race
+			primaryFuture.cancel(true);
+			primary.abort();
+			if (hedge != null) {
+				hedgeFuture.cancel(true);
+				hedge.abort();
+			}
+		}
+
+		throw RestSObjectApiClient.<E>requestFailure(failure);
+	}
+
+	/**
+	 * @return The URL of one record, e.g. /services/data/v{version}/sobjects/{sobjectName}/{id}/
+	 */
+	String recordUrl(String sobjectName, String id) {
+		return baseUrl + SOBJECTS_ENDPOINT + sobjectName + SEPARATOR + id + SEPARATOR;
+	}
+
+	static GetMethod newGet(String url, Map<String, String> headers) {
+		GetMethod method = new GetMethod(url);
+		for (Map.Entry<String, String> header : headers.entrySet()) {
+			method.setRequestHeader(header.getKey(), header.getValue());
+		}
+		return method;
+	}
+
+	private static RequestFactory getRequest(final String url, final Map<String, String> headers) {
+		return new RequestFactory() {
+			public HttpMethod newRequest() {
+				return newGet(url, headers);
+			}
+		};
+	}
+
+	private static RequestFactory deleteRequest(final String url) {
+		return new RequestFactory() {
+			public HttpMethod newRequest() {
+				return new DeleteMethod(url);
+			}
+		};
+	}
+
+	/**
+	 * @param json The body, rendered once and set on every request the factory builds.
+	 */
+	private RequestFactory postRequest(final String url, final String json) {
+		return new RequestFactory() {
+			public HttpMethod newRequest() throws IOException {
+				PostMethod method = new PostMethod(url);
+				setJsonBody(method, json);
+				return method;
+			}
+		};
+	}
+
 	/**
-	 * HTTP GET
-	 * @param url
-	 * @return
+	 * One copy of a hedged request, run on the background executor.
+	 */
+	private class Attempt<T, E extends Exception> implements Callable<T>, RequestFactory {
+		private final String endpoint;
+		private final String url;
+		private final Map<String, String> headers;
+		private final ResponseDecoder<T, E> decoder;
+		private HttpMethod method;
+		private boolean aborted;
+
+		Attempt(String endpoint, String url, Map<String, String> headers, ResponseDecoder<T, E> decoder) {
+			this.endpoint = endpoint;
+			this.url = url;
+			this.headers = headers;
+			this.decoder = decoder;
+		}
+
+		public T call() throws Exception {
+			return executeHttpRequest(endpoint, this, decoder);
+		}
+
+		public synchronized HttpMethod newRequest() throws IOException {
+			if (aborted) {
+				throw new InterruptedIOException("The other copy of " + endpoint + " already answered");
+			}
+			method = newGet(url, headers);
+			return method;
+		}
+
+		/**
+		 * Closes the connection of a request still in progress; does nothing once it has completed.
+		 */
+		synchronized void abort() {
+			aborted = true;
+			if (method != null) {
+				method.abort();
+			}
+		}
+	}
+
+	/**
+	 * Executes the request and decodes the response body straight off the connection. The connection goes back to
+	 * the pool as soon as decoding finishes.
+	 * 
+	 * @param endpoint Name of the operation, for metrics.
+	 * @param request Builds the request; a request rejected for an expired session is built again to be replayed.
+	 * @param decoder Turns a successful response body into the result.
+	 * @return The decoded response.
 	 * @throws IOException
-	 * @throws RestApiException
+	 * @throws RestApiException If the server responds with an error status; the message is the error body.
 	 */
-	private String executeHttpRequest(HttpMethod method) throws IOException, RestApiException {
-		method.setRequestHeader(AUTH_HEADER, AUTH_VALUE_PREFIX + sessionId);
+	private <T, E extends Exception> T executeHttpRequest(String endpoint, RequestFactory request,
+			ResponseDecoder<T, E> decoder) throws IOException, RestApiException, E {
+		String session = sessionId;
+		try {
+			return executeHttpRequest(endpoint, request.newRequest(), decoder, session);
+		} catch (RestApiException e) {
+			CredentialProvider credentialProvider = this.credentialProvider;
+			if (e.getExceptionCode() != HttpStatus.SC_UNAUTHORIZED || credentialProvider == null) {
+				throw e;
+			}
+			//a method can't be executed twice, so the replay gets a fresh one
+			String refreshed = refreshSession(credentialProvider, session);
+			return executeHttpRequest(endpoint, request.newRequest(), decoder, refreshed);
+		}
+	}
+
+	/**
+	 * Replaces an expired session. Only one thread refreshes at a time; the others wait, then pick up the session it
+	 * got rather than refreshing again. If the refresh fails, callers with the same expired session get the same
+	 * failure for a few seconds instead of each asking the provider again.
+	 * 
+	 * @param expired The session that was rejected.
+	 * @return The session to replay with.
+	 */
+	private String refreshSession(CredentialProvider credentialProvider, String expired)
+			throws IOException, RestApiException {
+		synchronized (sessionLock) {
+			String current = sessionId;
+			if (!current.equals(expired)) {
+				//somebody refreshed while this request was in flight
+				return current;
+			}
+			if (refreshFailure != null && expired.equals(failedRefreshSession)
+					&& System.currentTimeMillis() < refreshRetryAt) {
+				throw RestSObjectApiClient.<RuntimeException>requestFailure(refreshFailure);
+			}
+			logger.log(Level.INFO, "Session expired, refreshing it");
+			try {
+				String refreshed = credentialProvider.refreshSessionId(expired);
+				if (refreshed == null || refreshed.isEmpty()) {
+					throw new RestApiException("Credential provider returned no session", HttpStatus.SC_UNAUTHORIZED);
+				}
+				sessionId = refreshed;
+				refreshFailure = null;
+				failedRefreshSession = null;
+				return refreshed;
+			} catch (IOException e) {
+				throw refreshFailed(expired, e);
+			} catch (RestApiException e) {
+				throw refreshFailed(expired, e);
+			} catch (RuntimeException e) {
+				throw refreshFailed(expired, e);
+			}
+		}
+	}
+
+	/**
+	 * Remembers a failed refresh for callers that arrive with the same expired session. Guarded by sessionLock.
+	 * 
+	 * @return The failure, for the caller to throw.
+	 */
+	private <X extends Exception> X refreshFailed(String expired, X failure) {
+		logger.log(Level.WARNING, "Session refresh failed", failure);
+		failedRefreshSession = expired;
+		refreshFailure = failure;
+		refreshRetryAt = System.currentTimeMillis() + REFRESH_FAILURE_BACKOFF_MILLIS;
+		return failure;
+	}
+
+	/**
+	 * Sets the headers every request carries: the session, content type and charset, and the optional ones.
+	 */
+	void setRequestHeaders(HttpMethod method, String session) {
+		method.setRequestHeader(AUTH_HEADER, AUTH_VALUE_PREFIX + session);
 		method.setRequestHeader(CONTENT_HEADER, CONTENT_VALUE);
 		method.setRequestHeader(CHARSET_HEADER, CHARSET_VALUE);
-		method.setRequestHeader(PRETTY_HEADER, PRETTY_VALUE);
+		if(prettyPrint) {
+			method.setRequestHeader(PRETTY_HEADER, PRETTY_VALUE);
+		}
+		if(compressResponses) {
+			method.setRequestHeader(ACCEPT_ENCODING_HEADER, GZIP);
+		}
+	}
+
+	private <T, E extends Exception> T executeHttpRequest(String endpoint, HttpMethod method,
+			ResponseDecoder<T, E> decoder, String session) throws IOException, RestApiException, E {
+		setRequestHeaders(method, session);
+
+		if(logger.isLoggable(Level.FINE)) {
+			logger.log(Level.FINE, method.getName() + " " + method.getURI().toString());
+		}
+		RequestMetrics metrics = this.metrics;
+		ApiLimitThrottler throttler = this.throttler;
+		if(throttler != null) {
+			try {
+				throttler.acquire();
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for the API limit throttler");
+			}
+		}
+		long requestBytes = requestBytes(method);
+		long start = System.nanoTime();
+		boolean reported = false;
+		CountingInputStream stream = null;
+		metrics.requestStarted(endpoint);
+		try {
+			int status = client.executeMethod(method);
+			if(throttler != null) {
+				Header limitInfo = method.getResponseHeader(LIMIT_INFO_HEADER);
+				throttler.update(limitInfo == null ? null : limitInfo.getValue());
+			}
+			InputStream responseStream = method.getResponseBodyAsStream();
+			stream = responseStream == null ? null : new CountingInputStream(responseStream);
+			InputStream decoded = stream == null ? null : decompress(method, stream);
+			if(status >= 400) {
+				String responseBody = decoded == null ? "" : IOUtils.toString(decoded, CHARSET_VALUE);
+				reported = true;
+				metrics.requestCompleted(endpoint, status, System.nanoTime() - start, requestBytes, count(stream));
+				throw new RestApiException(responseBody, status);
+			}
+
+			Reader body = decoded == null ? new StringReader("") : new InputStreamReader(decoded, CHARSET_VALUE);
+			if(logResponseBodies && logger.isLoggable(Level.FINE)) {
+				//only buffer the body when somebody is going to read it
+				String responseBody = IOUtils.toString(body);
+				logger.log(Level.FINE, responseBody);
+				body = new StringReader(responseBody);
+			}
+			T result = decoder.decode(method, body);
+			reported = true;
+			metrics.requestCompleted(endpoint, status, System.nanoTime() - start, requestBytes, count(stream));
+			return result;
+		} catch(IOException e) {
+			reported = reportFailure(reported, metrics, endpoint, start, e);
+			throw e;
+		} catch(RuntimeException e) {
+			reported = reportFailure(reported, metrics, endpoint, start, e);
+			throw e;
+		} finally {
+			//decoder exceptions don't reach the catch blocks above
+			reportFailure(reported, metrics, endpoint, start, null);
+			//hand the connection back to the pool so it can be reused with keep-alive
+			method.releaseConnection();
+		}
+	}
+
+	/**
+	 * Sets a JSON request body, gzip compressed if it reaches the request compression threshold.
+	 */
+	private void setJsonBody(EntityEnclosingMethod method, String json) throws IOException {
+		if(requestCompressionThreshold < 0) {
+			method.setRequestEntity(new StringRequestEntity(json, CONTENT_VALUE, CHARSET_VALUE));
+			return;
+		}
+		//the threshold is in bytes on the wire, and non-ASCII characters take more than one
+		byte[] bytes = json.getBytes(CHARSET_VALUE);
+		if(bytes.length < requestCompressionThreshold) {
+			method.setRequestEntity(new ByteArrayRequestEntity(bytes, CONTENT_VALUE + "; charset=" + CHARSET_VALUE));
+			return;
+		}
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 4);
+		GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+		gzip.write(bytes);
+		gzip.close();
+		method.setRequestHeader(CONTENT_ENCODING_HEADER, GZIP);
+		method.setRequestEntity(new ByteArrayRequestEntity(compressed.toByteArray(),
+				CONTENT_VALUE + "; charset=" + CHARSET_VALUE));
+	}
+
+	/**
+	 * @return The response body, gunzipped on the fly if the server compressed it.
+	 */
+	private static InputStream decompress(HttpMethod method, InputStream stream) throws IOException {
+		Header encoding = method.getResponseHeader(CONTENT_ENCODING_HEADER);
+		if(encoding != null && GZIP.equalsIgnoreCase(encoding.getValue().trim())) {
+			return new GZIPInputStream(stream);
+		}
+		return stream;
+	}
 
-		logger.log(Level.INFO, method.getURI().toString());
-		int status = client.executeMethod(method);
-		String responseBody = IOUtils.toString(method.getResponseBodyAsStream());
-		logger.log(Level.INFO, responseBody);
-		if(status >= 400) {
-			throw new RestApiException(responseBody, status);
+	private static boolean reportFailure(boolean reported, RequestMetrics metrics, String endpoint, long start,
+			Throwable cause) {
+		if(!reported) {
+			metrics.requestFailed(endpoint, System.nanoTime() - start, cause);
 		}
-		return responseBody;
+		return true;
+	}
+
+	private static long requestBytes(HttpMethod method) {
+		if(method instanceof EntityEnclosingMethod) {
+			RequestEntity entity = ((EntityEnclosingMethod) method).getRequestEntity();
+			return entity == null ? 0L : entity.getContentLength();
+		}
+		return 0L;
+	}
+
+	private static long count(CountingInputStream stream) {
+		return stream == null ? 0L : stream.getCount();
 	}
 }
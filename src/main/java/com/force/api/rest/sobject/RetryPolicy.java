@@ -0,0 +1,151 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.sobject;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Decides whether a failed idempotent request (describes, get, query, search, recent) is tried again, and how long
+ * to wait first. Waits grow exponentially from the base delay up to the max delay, with full jitter so that clients
+ * that failed together don't retry together.
+ * 
+ * Connection failures are retried, as are responses whose status is in the retryable set (by default 500, 502, 503
+ * and 504). Other error statuses, such as 400 or 404, are returned right away. Instances are thread-safe.
+ */
+public class RetryPolicy {
+
+	public static final Set<Integer> DEFAULT_RETRYABLE_STATUSES = ImmutableSet.of(500, 502, 503, 504);
+
+	private final int maxAttempts;
+	private final long baseDelayMillis;
+	private final long maxDelayMillis;
+	private final Set<Integer> retryableStatuses;
+	private final Random random = new Random();
+
+	private final AtomicLong retries = new AtomicLong();
+	private final AtomicLong recovered = new AtomicLong();
+	private final AtomicLong exhausted = new AtomicLong();
+
+	/**
+	 * Three attempts, starting at 100ms and waiting at most 2s, on the default statuses.
+	 */
+	public RetryPolicy() {
+		this(3, 100, 2000, TimeUnit.MILLISECONDS, DEFAULT_RETRYABLE_STATUSES);
+	}
+
+	/**
+	 * @param maxAttempts Attempts in total, including the first.
+	 * @param baseDelay Upper bound of the wait before the first retry.
+	 * @param maxDelay Upper bound of any wait.
+	 * @param unit Unit of the delays.
+	 * @param retryableStatuses HTTP statuses worth retrying.
+	 */
+	public RetryPolicy(int maxAttempts, long baseDelay, long maxDelay, TimeUnit unit, Set<Integer> retryableStatuses) {
+		if (maxAttempts < 1) {
+			throw new IllegalArgumentException("maxAttempts must be at least 1");
+		}
+		if (baseDelay < 0 || maxDelay < baseDelay) {
+			throw new IllegalArgumentException("Delays must be non-negative and base <= max");
+		}
+		this.maxAttempts = maxAttempts;
+		this.baseDelayMillis = unit.toMillis(baseDelay);
+		this.maxDelayMillis = unit.toMillis(maxDelay);
+		this.retryableStatuses = ImmutableSet.copyOf(retryableStatuses);
+	}
+
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	/**
+	 * @return Retries sent, across all requests.
+	 */
+	public long getRetryCount() {
+		return retries.get();
+	}
+
+	/**
+	 * @return Requests that failed at first and then succeeded on a retry.
+	 */
+	public long getRecoveredCount() {
+		return recovered.get();
+	}
+
+	/**
+	 * @return Requests that still failed after the last attempt.
+	 */
+	public long getExhaustedCount() {
+		return exhausted.get();
+	}
+
+	/**
+	 * @return Whether a request that failed this way is worth another attempt.
+	 */
+	public boolean isRetryable(Throwable failure) {
+		if (failure instanceof RestApiException) {
+			return retryableStatuses.contains(((RestApiException) failure).getExceptionCode());
+		}
+		//an interrupt means the caller wants out, not another try
+		return failure instanceof IOException && !(failure instanceof InterruptedIOException);
+	}
+
+	/**
+	 * @param retry 1 for the first retry, 2 for the second, and so on.
+	 * @return A random wait between zero and the exponential ceiling for this retry.
+	 */
+	public long backoffMillis(int retry) {
+		long ceiling = baseDelayMillis;
+		for (int i = 1; i < retry && ceiling < maxDelayMillis; i++) {
+			ceiling *= 2;
+		}
+		ceiling = Math.min(ceiling, maxDelayMillis);
+		if (ceiling <= 0) {
+			return 0L;
+		}
+		synchronized (random) {
+			return (long) (random.nextDouble() * ceiling);
+		}
+	}
+
+	void retried() {
+		retries.incrementAndGet();
+	}
+
+	void recovered() {
+		recovered.incrementAndGet();
+	}
+
+	void exhausted() {
+		exhausted.incrementAndGet();
+	}
+}
@@ -8,6 +8,7 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 /**
  * 
@@ -17,6 +18,8 @@ public class AnySObject extends SObject {
 	
 	private final String name;
 	private final Map<String, Object> fields;
+	//null until the record is marked clean; every field is a change until then
+	private Set<String> changedFields;
 	
 	public AnySObject(String sobjectName) {
 		name = sobjectName;
@@ -40,18 +43,39 @@ public class AnySObject extends SObject {
 	
 	public void setFields(Map<String, Object> fieldNameValuePairs) {
 		fields.putAll(fieldNameValuePairs);
+		if(changedFields != null) {
+			changedFields.addAll(fieldNameValuePairs.keySet());
+		}
 	}
 	
 	public void setDouble(String fieldName, double value) {
-		fields.put(fieldName, Double.valueOf(value));
+		setField(fieldName, Double.valueOf(value));
 	}
 	
 	public void setBoolean(String fieldName, boolean value) {
-		fields.put(fieldName, Boolean.valueOf(value));
+		setField(fieldName, Boolean.valueOf(value));
 	}
 	
 	public void setString(String fieldName, String value) {
+		setField(fieldName, value);
+	}
+
+	/**
+	 * Adds fields loaded from the server without counting them as changes. Fields the record already has win.
+	 */
+	void putLoaded(SObject loaded) {
+		for(String field : loaded.getFieldNames()) {
+			if(!fields.containsKey(field)) {
+				fields.put(field, loaded.getField(field));
+			}
+		}
+	}
+
+	private void setField(String fieldName, Object value) {
 		fields.put(fieldName, value);
+		if(changedFields != null) {
+			changedFields.add(fieldName);
+		}
 	}
 
 	@Override
@@ -64,9 +88,13 @@ public class AnySObject extends SObject {
 		return fields.get(name);
 	}
 	
+	/**
+	 * @return The field as a String, or null if the record has no such field.
+	 */
 	public String getFieldAsString(String name) {
-		Object fieldValue = fields.get(name);
-		if(fieldValue instanceof String) {
+		//through getField, so subclasses that load fields on demand get the chance to
+		Object fieldValue = getField(name);
+		if(fieldValue == null || fieldValue instanceof String) {
 			return (String) fieldValue;
 		} else {
 			return fieldValue.toString();
@@ -82,6 +110,28 @@ public class AnySObject extends SObject {
 		return json.toString();
 	}
 
+	@Override
+	public boolean hasChanges() {
+		return changedFields == null || !changedFields.isEmpty();
+	}
+
+	@Override
+	public String toChangedJson() throws JSONException {
+		if(changedFields == null) {
+			return toJson();
+		}
+		JSONObject json = new JSONObject();
+		for(String field : changedFields) {
+			json.put(field, fields.get(field));
+		}
+		return json.toString();
+	}
+
+	@Override
+	public void markClean() {
+		changedFields = Sets.newHashSet();
+	}
+
 	@Override
 	public String getId() {
 		return (String)fields.get("Id");
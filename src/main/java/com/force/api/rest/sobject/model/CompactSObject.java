@@ -0,0 +1,302 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.sobject.model;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A record that keeps its values in flat arrays indexed by the slots of a {@link RecordSchema} shared by all records
+ * of its type, instead of a HashMap of its own. Strings and nested objects sit in an Object array; ints, longs,
+ * doubles and booleans sit unboxed in a long array; a byte per slot says which, or that the value is null or not set.
+ * The two value arrays are only allocated once a value of their kind is set, and only reach as far as the highest
+ * slot that has one.
+ * 
+ * getField returns the same types AnySObject would: Integer, Long, Double, Boolean, String, JSONObject.NULL for null,
+ * and JSONObject or JSONArray for nested values. Primitives are boxed on the way out.
+ */
+public class CompactSObject extends SObject {
+
+	private static final byte ABSENT = 0;
+	private static final byte NULL = 1;
+	private static final byte REFERENCE = 2;
+	private static final byte INT = 3;
+	private static final byte LONG = 4;
+	private static final byte DOUBLE = 5;
+	private static final byte BOOLEAN = 6;
+
+	private static final Object[] NO_REFERENCES = new Object[0];
+	private static final long[] NO_PRIMITIVES = new long[0];
+
+	private final RecordSchema schema;
+	private byte[] kinds;
+	private Object[] references = NO_REFERENCES;
+	private long[] primitives = NO_PRIMITIVES;
+	//null until the record is marked clean; every field is a change until then
+	private BitSet changed;
+
+	/**
+	 * Makes a record with a schema of its own. Use {@link RecordSchemas#forType(String)} to share one between the
+	 * records of a type.
+	 */
+	public CompactSObject(String sobjectName) {
+		this(new RecordSchema(sobjectName));
+	}
+
+	public CompactSObject(RecordSchema schema) {
+		this.schema = schema;
+		this.kinds = new byte[schema.size()];
+	}
+
+	public RecordSchema getSchema() {
+		return schema;
+	}
+
+	@Override
+	public String getSObjectName() {
+		return schema.getSObjectName();
+	}
+
+	@Override
+	public String getId() {
+		Object id = getField("Id");
+		return id instanceof String ? (String) id : null;
+	}
+
+	public void setFields(Map<String, Object> fieldNameValuePairs) {
+		for (Map.Entry<String, Object> field : fieldNameValuePairs.entrySet()) {
+			setField(field.getKey(), field.getValue());
+		}
+	}
+
+	/**
+	 * Sets a field from an org.json style value, unboxing numbers and booleans.
+	 */
+	public void setField(String fieldName, Object value) {
+		if (value == null || value == JSONObject.NULL) {
+			setNull(fieldName);
+		} else if (value instanceof Integer) {
+			setInt(fieldName, ((Integer) value).intValue());
+		} else if (value instanceof Long) {
+			setLong(fieldName, ((Long) value).longValue());
+		} else if (value instanceof Double || value instanceof Float) {
+			setDouble(fieldName, ((Number) value).doubleValue());
+		} else if (value instanceof Boolean) {
+			setBoolean(fieldName, ((Boolean) value).booleanValue());
+		} else {
+			setReference(slotFor(fieldName), value);
+		}
+	}
+
+	public void setString(String fieldName, String value) {
+		if (value == null) {
+			setNull(fieldName);
+		} else {
+			setReference(slotFor(fieldName), value);
+		}
+	}
+
+	public void setInt(String fieldName, int value) {
+		setPrimitive(slotFor(fieldName), INT, value);
+	}
+
+	public void setLong(String fieldName, long value) {
+		setPrimitive(slotFor(fieldName), LONG, value);
+	}
+
+	public void setDouble(String fieldName, double value) {
+		setPrimitive(slotFor(fieldName), DOUBLE, Double.doubleToRawLongBits(value));
+	}
+
+	public void setBoolean(String fieldName, boolean value) {
+		setPrimitive(slotFor(fieldName), BOOLEAN, value ? 1L : 0L);
+	}
+
+	public void setNull(String fieldName) {
+		int slot = slotFor(fieldName);
+		kinds[slot] = NULL;
+		if (slot < references.length) {
+			references[slot] = null;
+		}
+		changed(slot);
+	}
+
+	@Override
+	public Set<String> getFieldNames() {
+		Set<String> names = new LinkedHashSet<String>();
+		for (int slot = 0; slot < kinds.length; slot++) {
+			if (kinds[slot] != ABSENT) {
+				names.add(schema.nameOf(slot));
+			}
+		}
+		return names;
+	}
+
+	@Override
+	public Object getField(String name) {
+		int slot = schema.slotOf(name);
+		if (slot < 0 || slot >= kinds.length) {
+			return null;
+		}
+		switch (kinds[slot]) {
+		case NULL:
+			return JSONObject.NULL;
+		case REFERENCE:
+			return references[slot];
+		case INT:
+			return Integer.valueOf((int) primitives[slot]);
+		case LONG:
+			return Long.valueOf(primitives[slot]);
+		case DOUBLE:
+			return Double.valueOf(Double.longBitsToDouble(primitives[slot]));
+		case BOOLEAN:
+			return Boolean.valueOf(primitives[slot] != 0L);
+		default:
+			return null;
+		}
+	}
+
+	public String getFieldAsString(String name) {
+		Object fieldValue = getField(name);
+		return fieldValue instanceof String ? (String) fieldValue : String.valueOf(fieldValue);
+	}
+
+	@Override
+	public String toJson() throws JSONException {
+		return toJson(false);
+	}
+
+	@Override
+	public boolean hasChanges() {
+		return changed == null || !changed.isEmpty();
+	}
+
+	@Override
+	public String toChangedJson() throws JSONException {
+		return toJson(changed != null);
+	}
+
+	@Override
+	public void markClean() {
+		changed = new BitSet();
+	}
+
+	private String toJson(boolean changedOnly) throws JSONException {
+		StringBuilder json = new StringBuilder(16 * kinds.length + 2);
+		char separator = '{';
+		for (int slot = 0; slot < kinds.length; slot++) {
+			if (kinds[slot] == ABSENT || (changedOnly && !changed.get(slot))) {
+				continue;
+			}
+			json.append(separator).append(JSONObject.quote(schema.nameOf(slot))).append(':');
+			appendValue(json, slot);
+			separator = ',';
+		}
+		if (separator == '{') {
+			json.append('{');
+		}
+		return json.append('}').toString();
+	}
+
+	private void appendValue(StringBuilder json, int slot) throws JSONException {
+		switch (kinds[slot]) {
+		case REFERENCE:
+			Object value = references[slot];
+			if (value instanceof String) {
+				json.append(JSONObject.quote((String) value));
+			} else if (value instanceof Number) {
+				json.append(JSONObject.numberToString((Number) value));
+			} else {
+				//JSONObject and JSONArray write themselves
+				json.append(value.toString());
+			}
+			break;
+		case INT:
+		case LONG:
+			json.append(primitives[slot]);
+			break;
+		case DOUBLE:
+			json.append(JSONObject.numberToString(Double.valueOf(Double.longBitsToDouble(primitives[slot]))));
+			break;
+		case BOOLEAN:
+			json.append(primitives[slot] != 0L);
+			break;
+		default:
+			json.append("null");
+			break;
+		}
+	}
+
+	private int slotFor(String fieldName) {
+		int slot = schema.addField(fieldName);
+		if (slot >= kinds.length) {
+			//the schema grew since this record was made
+			kinds = Arrays.copyOf(kinds, schema.size());
+		}
+		return slot;
+	}
+
+	private void setReference(int slot, Object value) {
+		if (slot >= references.length) {
+			references = Arrays.copyOf(references, grownLength(references.length, slot));
+		}
+		references[slot] = value;
+		kinds[slot] = REFERENCE;
+		changed(slot);
+	}
+
+	private void setPrimitive(int slot, byte kind, long bits) {
+		if (slot >= primitives.length) {
+			primitives = Arrays.copyOf(primitives, grownLength(primitives.length, slot));
+		}
+		primitives[slot] = bits;
+		kinds[slot] = kind;
+		if (slot < references.length) {
+			references[slot] = null;
+		}
+		changed(slot);
+	}
+
+	/**
+	 * Sizes a value array to the highest slot set in it rather than to the whole schema, doubling so that records
+	 * filled in slot order copy it only a few times.
+	 */
+	private int grownLength(int length, int slot) {
+		return Math.min(kinds.length, Math.max(slot + 1, length * 2));
+	}
+
+	private void changed(int slot) {
+		if (changed != null) {
+			changed.set(slot);
+		}
+	}
+}
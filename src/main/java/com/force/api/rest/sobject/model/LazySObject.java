@@ -0,0 +1,94 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.sobject.model;
+
+/**
+ * A record fetched with only some of its fields, which fetches the rest the first time getField asks for a field it
+ * doesn't have. Fields already on the record, including ones changed since, are kept over the fetched values, and
+ * fetched fields don't count as changes. getFieldNames and toJson only cover the fields loaded so far.
+ */
+public class LazySObject extends AnySObject {
+
+	/**
+	 * Fetches the whole record.
+	 */
+	public interface Loader {
+		public SObject load() throws Exception;
+	}
+
+	/**
+	 * Thrown by getField when fetching the rest of the record failed.
+	 */
+	public static class LazyLoadException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		public LazyLoadException(String message, Throwable cause) {
+			super(message, cause);
+		}
+	}
+
+	private final Loader loader;
+	private boolean loaded;
+
+	public LazySObject(String sobjectName, Loader loader) {
+		super(sobjectName);
+		this.loader = loader;
+	}
+
+	@Override
+	public Object getField(String name) {
+		Object value = super.getField(name);
+		if (value == null && !loaded) {
+			load();
+			value = super.getField(name);
+		}
+		return value;
+	}
+
+	/**
+	 * @return Whether the rest of the record has been fetched.
+	 */
+	public boolean isLoaded() {
+		return loaded;
+	}
+
+	/**
+	 * Fetches the rest of the record now, unless it already was.
+	 * 
+	 * @throws LazyLoadException If the fetch fails; a later call tries again.
+	 */
+	public void load() {
+		if (loaded) {
+			return;
+		}
+		try {
+			putLoaded(loader.load());
+		} catch (Exception e) {
+			throw new LazyLoadException("Can't load " + getSObjectName() + " " + getId(), e);
+		}
+		loaded = true;
+	}
+}
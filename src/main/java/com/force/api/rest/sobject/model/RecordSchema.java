@@ -0,0 +1,94 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.sobject.model;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The field names of one sObject type, each mapped to a slot, shared by the {@link CompactSObject}s of the type that
+ * come from one {@link RecordSchemas}. A schema only grows; fields are added the first time any record of the type
+ * sees them. Lookups don't lock.
+ */
+public final class RecordSchema {
+
+	private final String sobjectName;
+	private final ConcurrentMap<String, Integer> slots = new ConcurrentHashMap<String, Integer>();
+	private volatile String[] names = new String[0];
+
+	RecordSchema(String sobjectName) {
+		this.sobjectName = sobjectName;
+	}
+
+	public String getSObjectName() {
+		return sobjectName;
+	}
+
+	/**
+	 * @return The number of fields seen so far.
+	 */
+	public int size() {
+		return names.length;
+	}
+
+	/**
+	 * @return The slot of a field, or -1 if no record of the type has had it.
+	 */
+	public int slotOf(String fieldName) {
+		Integer slot = slots.get(fieldName);
+		return slot == null ? -1 : slot.intValue();
+	}
+
+	/**
+	 * @return The field in a slot.
+	 */
+	public String nameOf(int slot) {
+		return names[slot];
+	}
+
+	/**
+	 * @return The slot of a field, which is added if it is new.
+	 */
+	int addField(String fieldName) {
+		Integer slot = slots.get(fieldName);
+		if (slot != null) {
+			return slot.intValue();
+		}
+		synchronized (this) {
+			slot = slots.get(fieldName);
+			if (slot != null) {
+				return slot.intValue();
+			}
+			String[] grown = Arrays.copyOf(names, names.length + 1);
+			grown[names.length] = fieldName;
+			//publish the name before the slot, so a slot found without the lock always has one
+			names = grown;
+			slots.put(fieldName, Integer.valueOf(names.length - 1));
+			return names.length - 1;
+		}
+	}
+}
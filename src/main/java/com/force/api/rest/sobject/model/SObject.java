@@ -45,4 +45,27 @@ public abstract class SObject {
 	public abstract Object getField(String name);
 	
 	public abstract String toJson() throws JSONException;
+
+	/**
+	 * @return Whether fields were set since the record was loaded or last saved. Records that don't track changes
+	 *         always have changes.
+	 */
+	public boolean hasChanges() {
+		return true;
+	}
+
+	/**
+	 * @return JSON of the fields set since the record was loaded or last saved; all fields for records that don't
+	 *         track changes.
+	 */
+	public String toChangedJson() throws JSONException {
+		return toJson();
+	}
+
+	/**
+	 * Starts tracking changes from the current state. Called by the client once a record is loaded or saved; does
+	 * nothing for records that don't track changes.
+	 */
+	public void markClean() {
+	}
 }
@@ -0,0 +1,198 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.bulk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.force.api.rest.sobject.ConnectionSettings;
+import com.force.api.rest.sobject.model.AnySObject;
+import com.force.api.rest.sobject.model.SObject;
+import com.google.common.collect.Lists;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Runs the Bulk API client against a stub server on localhost.
+ */
+public class BulkApiClientTest {
+
+	private static final String JOB_ID = "750x0000000005LAAQ";
+
+	private HttpServer server;
+	private BulkApiClient client;
+	private final List<String> uploadedBatches = Lists.newArrayList();
+	private String lastJobState;
+
+	@Before
+	public void setUp() throws Exception {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/services/async/24.0/job", new StubHandler());
+		server.start();
+
+		String instanceUrl = "http://localhost:" + server.getAddress().getPort();
+		client = new BulkApiClient("00Dx0000000ABCD!AQ4AQFakeSession", instanceUrl, 24.0d, new ConnectionSettings());
+		client.setPollInterval(1, 10);
+	}
+
+	@After
+	public void tearDown() {
+		client.shutdown();
+		server.stop(0);
+	}
+
+	@Test
+	public void testLoadStreamsRecordsInBatches() throws Exception {
+		client.setBatchRows(2);
+		List<SObject> records = Lists.newArrayList();
+		for (int i = 0; i < 5; i++) {
+			AnySObject account = new AnySObject("Account");
+			account.setString("Name", "Acme, \"" + i + "\"");
+			records.add(account);
+		}
+
+		JobInfo job = client.load("Account", BulkOperation.INSERT, null, records.iterator(), Arrays.asList("Name"));
+
+		assertEquals(JOB_ID, job.getId());
+		assertEquals("Closed", lastJobState);
+		assertEquals(3, uploadedBatches.size());
+		assertEquals("Name\n\"Acme, \"\"0\"\"\"\n\"Acme, \"\"1\"\"\"\n", uploadedBatches.get(0));
+		assertEquals("Name\n\"Acme, \"\"4\"\"\"\n", uploadedBatches.get(2));
+	}
+
+	@Test
+	public void testLoadWritesNullFieldsAsNotApplicable() throws Exception {
+		AnySObject account = new AnySObject("Account");
+		account.setString("Name", "Acme");
+		account.setFields(Collections.<String, Object> singletonMap("Description", JSONObject.NULL));
+
+		client.load("Account", BulkOperation.UPDATE, null, Arrays.asList(account).iterator(),
+				Arrays.asList("Name", "Description", "Phone"));
+
+		assertEquals(1, uploadedBatches.size());
+		assertEquals("Name,Description,Phone\nAcme,#N/A,#N/A\n", uploadedBatches.get(0));
+	}
+
+	@Test
+	public void testAwaitCompletionAndResults() throws Exception {
+		JobInfo job = client.awaitCompletion(JOB_ID, 5000);
+		assertTrue(job.isDone());
+		assertEquals(3, job.getNumberRecordsProcessed());
+
+		List<BatchInfo> batches = client.getBatches(JOB_ID);
+		assertEquals(1, batches.size());
+
+		Iterator<BulkResult> results = client.getBatchResults(JOB_ID, batches.get(0).getId());
+		BulkResult first = results.next();
+		assertEquals("001x0000001", first.getId());
+		assertTrue(first.isSuccess());
+		assertTrue(first.isCreated());
+		assertNull(first.getError());
+		BulkResult second = results.next();
+		assertFalse(second.isSuccess());
+		assertEquals("REQUIRED_FIELD_MISSING:Required fields are missing: [Name, Type]:Name --", second.getError());
+		assertTrue(results.hasNext());
+		results.next();
+		assertFalse(results.hasNext());
+	}
+
+	private class StubHandler implements HttpHandler {
+		private int polls;
+
+		public void handle(HttpExchange exchange) throws IOException {
+			String path = exchange.getRequestURI().getPath();
+			String body = read(exchange.getRequestBody());
+			String base = "/services/async/24.0/job";
+
+			if (path.equals(base)) {
+				respond(exchange, "text/xml", jobInfo("Open", 0, 0));
+			} else if (path.equals(base + "/" + JOB_ID + "/batch") && "POST".equals(exchange.getRequestMethod())) {
+				uploadedBatches.add(body);
+				respond(exchange, "text/xml", "<batchInfo xmlns=\"" + XmlResponses.NAMESPACE + "\"><id>751x"
+						+ uploadedBatches.size() + "</id><jobId>" + JOB_ID + "</jobId><state>Queued</state></batchInfo>");
+			} else if (path.equals(base + "/" + JOB_ID + "/batch")) {
+				respond(exchange, "text/xml", "<batchInfoList xmlns=\"" + XmlResponses.NAMESPACE + "\"><batchInfo>"
+						+ "<id>751x1</id><jobId>" + JOB_ID + "</jobId><state>Completed</state>"
+						+ "<numberRecordsProcessed>3</numberRecordsProcessed></batchInfo></batchInfoList>");
+			} else if (path.equals(base + "/" + JOB_ID + "/batch/751x1/result")) {
+				respond(exchange, "text/csv", "\"Id\",\"Success\",\"Created\",\"Error\"\n"
+						+ "\"001x0000001\",\"true\",\"true\",\"\"\n"
+						+ "\"\",\"false\",\"false\",\"REQUIRED_FIELD_MISSING:Required fields are missing: [Name, Type]:Name --\"\n"
+						+ "\"001x0000003\",\"true\",\"true\",\"\"\n");
+			} else if (path.equals(base + "/" + JOB_ID) && "POST".equals(exchange.getRequestMethod())) {
+				lastJobState = body.replaceAll(".*<state>(.*)</state>.*", "$1");
+				respond(exchange, "text/xml", jobInfo(lastJobState, 0, 0));
+			} else if (path.equals(base + "/" + JOB_ID)) {
+				//in progress for the first two polls
+				polls++;
+				respond(exchange, "text/xml", polls < 3 ? jobInfo("Closed", 1, 0) : jobInfo("Closed", 0, 1));
+			} else {
+				exchange.sendResponseHeaders(404, -1);
+				exchange.close();
+			}
+		}
+
+		private String jobInfo(String state, int inProgress, int completed) {
+			return "<jobInfo xmlns=\"" + XmlResponses.NAMESPACE + "\"><id>" + JOB_ID + "</id><object>Account</object>"
+					+ "<operation>insert</operation><state>" + state + "</state>"
+					+ "<numberBatchesQueued>0</numberBatchesQueued><numberBatchesInProgress>" + inProgress
+					+ "</numberBatchesInProgress><numberBatchesCompleted>" + completed + "</numberBatchesCompleted>"
+					+ "<numberBatchesFailed>0</numberBatchesFailed><numberBatchesTotal>1</numberBatchesTotal>"
+					+ "<numberRecordsProcessed>" + (completed * 3) + "</numberRecordsProcessed></jobInfo>";
+		}
+
+		private String read(InputStream stream) throws IOException {
+			return IOUtils.toString(stream, "UTF-8");
+		}
+
+		private void respond(HttpExchange exchange, String contentType, String body) throws IOException {
+			byte[] bytes = body.getBytes("UTF-8");
+			exchange.getResponseHeaders().set("Content-Type", contentType);
+			exchange.sendResponseHeaders(200, bytes.length);
+			OutputStream out = exchange.getResponseBody();
+			out.write(bytes);
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,337 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.sobject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.force.api.rest.sobject.ApiLimitThrottler.Priority;
+import com.google.common.collect.ImmutableList;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+public class ApiLimitThrottlerTest {
+
+	private final ExecutorService worker = Executors.newSingleThreadExecutor();
+	private final RecordingThrottler throttler = new RecordingThrottler();
+	private StubServer server;
+	private RestSObjectApiClient client;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new StubServer(new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				String query = exchange.getRequestURI().getQuery();
+				if (exchange.getRequestURI().getPath().endsWith("/query/01gx-2000")) {
+					StubServer.respond(exchange, 200, "{\"totalSize\":2,\"done\":true,\"records\":["
+							+ "{\"attributes\":{\"type\":\"Account\"},\"Id\":\"001x2\"}]}");
+				} else if (query != null && query.startsWith("q=")) {
+					StubServer.respond(exchange, 200, "{\"totalSize\":2,\"done\":false,"
+							+ "\"nextRecordsUrl\":\"" + StubServer.BASE_PATH + "query/01gx-2000\",\"records\":["
+							+ "{\"attributes\":{\"type\":\"Account\"},\"Id\":\"001x1\"}]}");
+				} else {
+					StubServer.respond(exchange, 200, "{\"encoding\":\"UTF-8\",\"maxBatchSize\":200,\"sobjects\":[]}");
+				}
+			}
+		});
+		client = server.newClient();
+		client.setThrottler(throttler);
+	}
+
+	@After
+	public void tearDown() {
+		throttler.setPriority(Priority.NORMAL);
+		worker.shutdownNow();
+		server.stop();
+		client.shutdown();
+	}
+
+	@Test
+	public void wrappedTasksRunAtTheSubmittersPriority() throws Exception {
+		throttler.setPriority(Priority.LOW);
+		Callable<Priority> task = throttler.withCurrentPriority(new Callable<Priority>() {
+			public Priority call() {
+				return throttler.getPriority();
+			}
+		});
+		throttler.setPriority(Priority.HIGH);
+
+		assertEquals(Priority.LOW, worker.submit(task).get());
+		//the worker's own priority is left as it was
+		assertEquals(Priority.NORMAL, worker.submit(new Callable<Priority>() {
+			public Priority call() {
+				return throttler.getPriority();
+			}
+		}).get());
+	}
+
+	@Test
+	public void asyncCallsRunAtTheSubmittersPriority() throws Exception {
+		RestSObjectApiAsyncClient async = new RestSObjectApiAsyncClient(client, 1, 4);
+		try {
+			throttler.setPriority(Priority.LOW);
+			async.describeGlobal().get(5, TimeUnit.SECONDS);
+			throttler.setPriority(Priority.HIGH);
+			async.describeGlobal().get(5, TimeUnit.SECONDS);
+		} finally {
+			async.shutdown();
+		}
+
+		assertEquals(ImmutableList.of(Priority.LOW, Priority.HIGH), throttler.acquired);
+	}
+
+	@Test
+	public void cursorPrefetchRunsAtTheCallersPriority() throws Exception {
+		throttler.setPriority(Priority.LOW);
+		QueryCursor cursor = client.queryCursor("SELECT+Id+FROM+Account", 200);
+		try {
+			cursor.next();
+			cursor.next();
+		} finally {
+			cursor.close();
+		}
+
+		assertEquals(ImmutableList.of(Priority.LOW, Priority.LOW), throttler.acquired);
+	}
+
+	@Test
+	public void nothingIsThrottledBeforeTheFirstHeader() throws Exception {
+		ApiLimitThrottler fresh = new ApiLimitThrottler(24, TimeUnit.HOURS, 1, 0.05d);
+		for (int i = 0; i < 10; i++) {
+			fresh.acquire();
+		}
+
+		assertEquals(-1L, fresh.getUsed());
+		assertEquals(-1L, fresh.getLimit());
+		assertEquals(0L, fresh.getThrottledCount());
+	}
+
+	@Test
+	public void limitInfoHeadersAreParsed() {
+		ApiLimitThrottler limits = new ApiLimitThrottler();
+		limits.update("api-usage=1250/5000");
+
+		assertEquals(1250L, limits.getUsed());
+		assertEquals(5000L, limits.getLimit());
+		assertEquals(0.25d, limits.getUsageRatio(), 0.0001d);
+
+		limits.update((String) null);
+		limits.update("per-app-api-usage=unknown");
+		assertEquals(1250L, limits.getUsed());
+	}
+
+	@Test
+	public void remainingCallsAreSpreadOverTheWindow() {
+		ApiLimitThrottler limits = new ApiLimitThrottler(1000, TimeUnit.SECONDS, 50, 0.05d);
+		limits.update(1000, 4000);
+
+		assertEquals(3.0d, limits.getCallsPerSecond(), 0.0001d);
+
+		limits.update(4500, 4000);
+		assertEquals(0.0d, limits.getCallsPerSecond(), 0.0d);
+		assertEquals(1.0d, limits.getUsageRatio(), 0.0d);
+	}
+
+	@Test
+	public void normalCallersWaitForAnEmptyBucketButHighOnesBorrow() throws Exception {
+		ApiLimitThrottler limits = new ApiLimitThrottler(24, TimeUnit.HOURS, 2, 0.05d);
+		limits.update(0, 1000);
+		limits.acquire();
+		limits.acquire();
+
+		assertBlocked(limits, Priority.NORMAL);
+		assertGoesThrough(limits, Priority.HIGH);
+		assertEquals(1L, limits.getThrottledCount());
+	}
+
+	@Test
+	public void lowCallersNeedAHalfFullBucket() throws Exception {
+		ApiLimitThrottler limits = new ApiLimitThrottler(24, TimeUnit.HOURS, 10, 0.05d);
+		limits.update(0, 1000);
+		for (int i = 0; i < 6; i++) {
+			limits.acquire();
+		}
+
+		assertBlocked(limits, Priority.LOW);
+		assertGoesThrough(limits, Priority.NORMAL);
+	}
+
+	@Test
+	public void theReserveIsKeptForHighCallers() throws Exception {
+		ApiLimitThrottler limits = new ApiLimitThrottler(24, TimeUnit.HOURS, 50, 0.05d);
+		limits.update(95, 100);
+
+		assertBlocked(limits, Priority.NORMAL);
+		assertGoesThrough(limits, Priority.HIGH);
+	}
+
+	@Test
+	public void waitingCallersResumeWhenUsageDrops() throws Exception {
+		ApiLimitThrottler limits = new ApiLimitThrottler(24, TimeUnit.HOURS, 50, 0.05d);
+		limits.update(95, 100);
+		Future<?> waiting = worker.submit(acquireAt(limits, Priority.NORMAL));
+		try {
+			waiting.get(200, TimeUnit.MILLISECONDS);
+			fail("expected the call to wait for the reserve to free up");
+		} catch (TimeoutException expected) {
+		}
+
+		limits.update(10, 100);
+		waiting.get(5, TimeUnit.SECONDS);
+		assertTrue(limits.getWaitedMillis() > 0L);
+	}
+
+	@Test
+	public void aProbeGoesOutWhenEveryoneIsHeldBack() throws Exception {
+		ApiLimitThrottler limits = new ApiLimitThrottler(24, TimeUnit.HOURS, 50, 0.05d);
+		limits.setProbeInterval(200, TimeUnit.MILLISECONDS);
+		limits.update(95, 100);
+
+		long start = System.currentTimeMillis();
+		assertGoesThrough(limits, Priority.LOW);
+		assertTrue(System.currentTimeMillis() - start >= 150L);
+		assertEquals(1L, limits.getProbeCount());
+		//only one probe per interval
+		assertFalse(limits.tryAcquire(50, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void anExhaustedLimitIsProbedToo() throws Exception {
+		ApiLimitThrottler limits = new ApiLimitThrottler(24, TimeUnit.HOURS, 1, 0.05d);
+		limits.setProbeInterval(200, TimeUnit.MILLISECONDS);
+		limits.update(100, 100);
+		limits.acquire();
+
+		assertGoesThrough(limits, Priority.HIGH);
+		assertEquals(1L, limits.getProbeCount());
+	}
+
+	@Test
+	public void waitsCanBeBounded() throws Exception {
+		ApiLimitThrottler limits = new ApiLimitThrottler(24, TimeUnit.HOURS, 50, 0.05d);
+		limits.update(95, 100);
+
+		assertFalse(limits.tryAcquire(0, TimeUnit.MILLISECONDS));
+		limits.setMaxWait(50, TimeUnit.MILLISECONDS);
+		try {
+			limits.acquire();
+			fail("expected the wait to give up");
+		} catch (RejectedExecutionException expected) {
+		}
+		assertEquals(2L, limits.getThrottledCount());
+	}
+
+	@Test
+	public void clientsRecoverOnceTheWindowFreesCapacity() throws Exception {
+		final AtomicInteger responses = new AtomicInteger();
+		StubServer limited = new StubServer(new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				//the first response reaches the reserve, later ones report the window has moved on
+				exchange.getResponseHeaders().set("Sforce-Limit-Info",
+						responses.getAndIncrement() == 0 ? "api-usage=95/100" : "api-usage=10/100");
+				StubServer.respond(exchange, 200, "{\"encoding\":\"UTF-8\",\"maxBatchSize\":200,\"sobjects\":[]}");
+			}
+		});
+		RestSObjectApiClient limitedClient = limited.newClient();
+		ApiLimitThrottler limits = new ApiLimitThrottler(24, TimeUnit.HOURS, 50, 0.05d);
+		limits.setProbeInterval(200, TimeUnit.MILLISECONDS);
+		limitedClient.setThrottler(limits);
+		try {
+			limitedClient.describeGlobal();
+			assertFalse(limits.tryAcquire(0, TimeUnit.MILLISECONDS));
+
+			limitedClient.describeGlobal();
+			limitedClient.describeGlobal();
+		} finally {
+			limitedClient.shutdown();
+			limited.stop();
+		}
+
+		assertEquals(1L, limits.getProbeCount());
+		assertEquals(10L, limits.getUsed());
+		assertEquals(3, limited.getRequests().size());
+	}
+
+	private void assertBlocked(ApiLimitThrottler limits, Priority priority) throws Exception {
+		Future<?> waiting = worker.submit(acquireAt(limits, priority));
+		try {
+			waiting.get(200, TimeUnit.MILLISECONDS);
+			fail("expected a " + priority + " call to wait");
+		} catch (TimeoutException expected) {
+			waiting.cancel(true);
+		}
+	}
+
+	private static void assertGoesThrough(ApiLimitThrottler limits, Priority priority) throws Exception {
+		ExecutorService other = Executors.newSingleThreadExecutor();
+		try {
+			other.submit(acquireAt(limits, priority)).get(5, TimeUnit.SECONDS);
+		} finally {
+			other.shutdownNow();
+		}
+	}
+
+	private static Callable<Void> acquireAt(final ApiLimitThrottler limits, final Priority priority) {
+		return new Callable<Void>() {
+			public Void call() throws InterruptedException {
+				limits.setPriority(priority);
+				limits.acquire();
+				return null;
+			}
+		};
+	}
+
+	/**
+	 * Never throttles, but remembers the priority of every permit it hands out.
+	 */
+	private static class RecordingThrottler extends ApiLimitThrottler {
+		final List<Priority> acquired = new CopyOnWriteArrayList<Priority>();
+
+		@Override
+		public void acquire() throws InterruptedException {
+			acquired.add(getPriority());
+			super.acquire();
+		}
+	}
+}
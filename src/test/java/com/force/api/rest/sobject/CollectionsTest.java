@@ -0,0 +1,294 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.sobject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.commons.io.IOUtils;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.force.api.rest.sobject.model.AnySObject;
+import com.force.api.rest.sobject.model.SObject;
+import com.google.common.collect.Lists;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+/**
+ * Sends sObject collections to a stub server that fails the chunk holding a marked record.
+ */
+public class CollectionsTest {
+
+	private static final String FAILING = "Fail 250";
+
+	private final List<String> bodies = new CopyOnWriteArrayList<String>();
+	private volatile Runnable whileSending;
+	private StubServer server;
+	private RestSObjectApiClient client;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new StubServer(new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				String body = IOUtils.toString(exchange.getRequestBody(), "UTF-8");
+				if (body.contains(FAILING)) {
+					StubServer.respond(exchange, 500, "[{\"errorCode\":\"UNKNOWN_EXCEPTION\",\"message\":\"boom\"}]");
+					return;
+				}
+				bodies.add(body);
+				Runnable edit = whileSending;
+				if (edit != null) {
+					edit.run();
+				}
+				try {
+					JSONArray results = new JSONArray();
+					if ("DELETE".equals(exchange.getRequestMethod())) {
+						String ids = exchange.getRequestURI().getQuery().replaceAll("ids=([^&]*).*", "$1");
+						for (String id : ids.split(",")) {
+							results.put(new JSONObject().put("id", id).put("success", true)
+									.put("errors", new JSONArray()));
+						}
+					} else {
+						JSONArray records = new JSONObject(body).getJSONArray("records");
+						for (int i = 0; i < records.length(); i++) {
+							results.put(result(records.getJSONObject(i)));
+						}
+					}
+					StubServer.respond(exchange, 200, results.toString());
+				} catch (JSONException e) {
+					StubServer.respond(exchange, 400, "[]");
+				}
+			}
+		});
+		client = server.newClient();
+	}
+
+	@After
+	public void tearDown() {
+		server.stop();
+		client.shutdown();
+	}
+
+	@Test
+	public void failedChunkKeepsTheResultsOfTheOthers() throws Exception {
+		List<SObjectResult> results = client.createAll(withFailing(accounts(450)), false);
+
+		assertEquals(450, results.size());
+		assertEquals(3, server.getRequests().size());
+		for (int i = 0; i < 450; i++) {
+			SObjectResult result = results.get(i);
+			if (i >= 200 && i < 400) {
+				assertFalse(result.getSuccess());
+				assertTrue(result.getErrors().iterator().next().startsWith("REQUEST_FAILED: "));
+			} else {
+				assertTrue(result.getSuccess());
+				assertEquals("001x" + i, result.getId());
+			}
+		}
+	}
+
+	@Test
+	public void allOrNoneStopsAfterTheFailedChunk() throws Exception {
+		List<SObjectResult> results = client.createAll(withFailing(accounts(450)), true);
+
+		assertEquals(450, results.size());
+		assertEquals(2, server.getRequests().size());
+		assertTrue(results.get(199).getSuccess());
+		assertTrue(results.get(200).getErrors().iterator().next().startsWith("REQUEST_FAILED: "));
+		assertTrue(results.get(449).getErrors().iterator().next().startsWith("NOT_PROCESSED: "));
+	}
+
+	@Test
+	public void resultsKeepTheOrderOfTheInput() throws Exception {
+		client.setBatchParallelism(3);
+		List<SObjectResult> results = client.createAll(accounts(1000), false);
+
+		assertEquals(5, server.getRequests().size());
+		for (int i = 0; i < 1000; i++) {
+			assertEquals("001x" + i, results.get(i).getId());
+		}
+	}
+
+	@Test
+	public void recordErrorsAreReported() throws Exception {
+		List<SObject> accounts = accounts(2);
+		((AnySObject) accounts.get(1)).setString("Name", "Bad 1");
+
+		List<SObjectResult> results = client.createAll(accounts, false);
+
+		assertTrue(results.get(0).getSuccess());
+		assertFalse(results.get(1).getSuccess());
+		assertEquals("FIELD_CUSTOM_VALIDATION_EXCEPTION: bad name", results.get(1).getErrors().iterator().next());
+	}
+
+	@Test
+	public void updateAllSendsOnlyChangedRecordsAndFields() throws Exception {
+		List<AnySObject> accounts = Lists.newArrayList();
+		for (int i = 0; i < 3; i++) {
+			AnySObject account = new AnySObject("Account", new JSONObject().put("Id", "001x" + i)
+					.put("Name", "Acme " + i).put("Phone", "555"));
+			account.markClean();
+			accounts.add(account);
+		}
+		accounts.get(1).setString("Name", "Acme 1b");
+
+		List<SObjectResult> results = client.updateAll(accounts, false);
+
+		assertEquals(1, server.getRequests().size());
+		assertTrue(server.getRequests().get(0).endsWith("/composite/sobjects?_HttpMethod=PATCH"));
+		JSONObject sent = new JSONObject(bodies.get(0)).getJSONArray("records").getJSONObject(0);
+		assertEquals("001x1", sent.getString("Id"));
+		assertEquals("Acme 1b", sent.getString("Name"));
+		assertFalse(sent.has("Phone"));
+		assertEquals(3, results.size());
+		for (int i = 0; i < 3; i++) {
+			assertTrue(results.get(i).getSuccess());
+			assertEquals("001x" + i, results.get(i).getId());
+			assertFalse(accounts.get(i).hasChanges());
+		}
+	}
+
+	@Test
+	public void updateAllWithNothingChangedSendsNothing() throws Exception {
+		AnySObject account = new AnySObject("Account", new JSONObject().put("Id", "001x1"));
+		account.markClean();
+
+		assertTrue(client.updateAll(Lists.newArrayList(account), true).get(0).getSuccess());
+		assertTrue(server.getRequests().isEmpty());
+	}
+
+	@Test
+	public void updateAllMatchesResultsToADuplicatedRecord() throws Exception {
+		AnySObject first = account("001x1");
+		AnySObject second = account("001x2");
+		first.setString("Name", "Acme 1b");
+		second.setString("Name", "Acme 2b");
+
+		List<SObjectResult> results = client.updateAll(Lists.newArrayList(first, first, second), false);
+
+		assertEquals(3, new JSONObject(bodies.get(0)).getJSONArray("records").length());
+		assertEquals(3, results.size());
+		assertEquals("001x1", results.get(0).getId());
+		assertEquals("001x1", results.get(1).getId());
+		assertEquals("001x2", results.get(2).getId());
+		assertFalse(second.hasChanges());
+	}
+
+	@Test
+	public void updateAllIgnoresEditsMadeWhileSending() throws Exception {
+		AnySObject changed = account("001x1");
+		final AnySObject unchanged = account("001x2");
+		changed.setString("Name", "Acme 1b");
+		whileSending = new Runnable() {
+			public void run() {
+				unchanged.setString("Name", "Acme 2b");
+			}
+		};
+
+		List<SObjectResult> results = client.updateAll(Lists.newArrayList(changed, unchanged), false);
+
+		assertEquals(2, results.size());
+		assertEquals("001x1", results.get(0).getId());
+		assertEquals("001x2", results.get(1).getId());
+		assertTrue(results.get(1).getSuccess());
+		//the edit wasn't sent, so it is still pending
+		assertTrue(unchanged.hasChanges());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void updateAllNeedsIds() throws Exception {
+		client.updateAll(accounts(1), false);
+	}
+
+	@Test
+	public void deleteAllSendsIdsInTheUrl() throws Exception {
+		List<SObjectResult> results = client.deleteAll(Lists.newArrayList("001x1", "001x2"), true);
+
+		assertEquals(1, server.getRequests().size());
+		assertTrue(server.getRequests().get(0).startsWith("DELETE "));
+		assertTrue(server.getRequests().get(0).endsWith("/composite/sobjects?ids=001x1,001x2&allOrNone=true"));
+		assertEquals("001x2", results.get(1).getId());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void collectionsNeedApiVersion42() throws Exception {
+		RestSObjectApiClient old = new RestSObjectApiClient(StubServer.SESSION_ID, server.getHostname(), 41.0d,
+				new ConnectionSettings());
+		try {
+			old.createAll(accounts(1), false);
+		} finally {
+			old.shutdown();
+		}
+	}
+
+	private static JSONObject result(JSONObject record) throws JSONException {
+		if (record.has("Id")) {
+			return new JSONObject().put("id", record.getString("Id")).put("success", true)
+					.put("errors", new JSONArray());
+		}
+		String name = record.getString("Name");
+		if (name.startsWith("Bad")) {
+			return new JSONObject().put("success", false).put("errors", new JSONArray().put(new JSONObject()
+					.put("statusCode", "FIELD_CUSTOM_VALIDATION_EXCEPTION").put("message", "bad name")));
+		}
+		return new JSONObject().put("id", "001x" + name.substring(5)).put("success", true)
+				.put("errors", new JSONArray());
+	}
+
+	/**
+	 * Marks record 250, so the request of the second chunk fails.
+	 */
+	private static List<SObject> withFailing(List<SObject> accounts) {
+		((AnySObject) accounts.get(250)).setString("Name", FAILING);
+		return accounts;
+	}
+
+	private static AnySObject account(String id) throws JSONException {
+		AnySObject account = new AnySObject("Account", new JSONObject().put("Id", id).put("Name", "Acme"));
+		account.markClean();
+		return account;
+	}
+
+	private static List<SObject> accounts(int count) {
+		List<SObject> accounts = Lists.newArrayList();
+		for (int i = 0; i < count; i++) {
+			AnySObject account = new AnySObject("Account");
+			account.setString("Name", "Acme " + i);
+			accounts.add(account);
+		}
+		return accounts;
+	}
+}
@@ -0,0 +1,170 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.sobject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+import com.google.gson.Gson;
+
+public class DescribeSnapshotTest {
+
+	private static final String HOST = "na1.salesforce.com";
+	private static final double VERSION = 42.0d;
+	private static final String LAST_MODIFIED = "Tue, 01 May 2018 10:00:00 GMT";
+
+	private final Gson gson = new Gson();
+	private File dir;
+	private DescribeSnapshot snapshot;
+
+	@Before
+	public void setUp() {
+		dir = Files.createTempDir();
+		snapshot = new DescribeSnapshot(new File(dir, "snapshots"));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		FileUtils.deleteDirectory(dir);
+	}
+
+	@Test
+	public void entriesRoundTrip() throws Exception {
+		MetadataCache saved = filledCache();
+		long fetchedAt = saved.entries().get(MetadataCache.globalKey()).getFetchedAt();
+		assertEquals(2, snapshot.save(HOST, VERSION, saved, gson));
+		assertTrue(snapshot.fileFor(HOST, VERSION).isFile());
+
+		MetadataCache loaded = new MetadataCache(1, TimeUnit.HOURS, 10);
+		List<String> keys = snapshot.load(HOST, VERSION, loaded, gson);
+
+		assertEquals(ImmutableSet.of(MetadataCache.globalKey(), MetadataCache.layoutKey("Account")),
+				ImmutableSet.copyOf(keys));
+		Map<String, MetadataCache.CacheEntry> entries = loaded.entries();
+		MetadataCache.CacheEntry global = entries.get(MetadataCache.globalKey());
+		assertEquals(LAST_MODIFIED, global.getLastModified());
+		assertEquals(fetchedAt, global.getFetchedAt());
+		assertNotNull(global.getJson());
+		assertEquals(Integer.valueOf(150), ((DescribeGlobal) global.getValue()).getMaxBatchSize());
+		MetadataCache.CacheEntry layout = entries.get(MetadataCache.layoutKey("Account"));
+		assertEquals(null, layout.getLastModified());
+		assertEquals("Account", ((DescribeLayout) layout.getValue()).getName());
+	}
+
+	@Test
+	public void loadedEntriesCanBeSavedAgainWithoutDecoding() throws Exception {
+		snapshot.save(HOST, VERSION, filledCache(), gson);
+		MetadataCache loaded = new MetadataCache(1, TimeUnit.HOURS, 10);
+		snapshot.load(HOST, VERSION, loaded, gson);
+
+		assertEquals(2, snapshot.save(HOST, VERSION, loaded, gson));
+		MetadataCache reloaded = new MetadataCache(1, TimeUnit.HOURS, 10);
+		assertEquals(2, snapshot.load(HOST, VERSION, reloaded, gson).size());
+		DescribeGlobal global = (DescribeGlobal) reloaded.entries().get(MetadataCache.globalKey()).getValue();
+		assertEquals(Integer.valueOf(150), global.getMaxBatchSize());
+	}
+
+	@Test
+	public void cachedKeysAreNotReplaced() throws Exception {
+		snapshot.save(HOST, VERSION, filledCache(), gson);
+		MetadataCache cache = new MetadataCache(1, TimeUnit.HOURS, 10);
+		cache.put(MetadataCache.globalKey(), "live", null);
+
+		List<String> keys = snapshot.load(HOST, VERSION, cache, gson);
+
+		assertEquals(1, keys.size());
+		assertEquals("live", cache.entries().get(MetadataCache.globalKey()).getValue());
+	}
+
+	@Test
+	public void missingFileLoadsNothing() throws Exception {
+		MetadataCache cache = new MetadataCache(1, TimeUnit.HOURS, 10);
+		assertTrue(snapshot.load(HOST, VERSION, cache, gson).isEmpty());
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void truncatedFileIsIgnored() throws Exception {
+		snapshot.save(HOST, VERSION, filledCache(), gson);
+		File file = snapshot.fileFor(HOST, VERSION);
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(raf.length() - 20);
+		} finally {
+			raf.close();
+		}
+
+		MetadataCache cache = new MetadataCache(1, TimeUnit.HOURS, 10);
+		List<String> keys = snapshot.load(HOST, VERSION, cache, gson);
+
+		//whole entries before the cut may load, the cut one never does
+		assertTrue(keys.size() < 2);
+	}
+
+	@Test
+	public void foreignFileIsIgnored() throws Exception {
+		File file = snapshot.fileFor(HOST, VERSION);
+		file.getParentFile().mkdirs();
+		Files.write("not a snapshot at all".getBytes("UTF-8"), file);
+
+		assertTrue(snapshot.load(HOST, VERSION, new MetadataCache(1, TimeUnit.HOURS, 10), gson).isEmpty());
+	}
+
+	@Test
+	public void snapshotOfAnotherHostIsIgnored() throws Exception {
+		snapshot.save(HOST, VERSION, filledCache(), gson);
+		Files.copy(snapshot.fileFor(HOST, VERSION), snapshot.fileFor("na2.salesforce.com", VERSION));
+
+		MetadataCache cache = new MetadataCache(1, TimeUnit.HOURS, 10);
+		assertTrue(snapshot.load("na2.salesforce.com", VERSION, cache, gson).isEmpty());
+		assertFalse(snapshot.fileFor(HOST, 43.0d).exists());
+		assertTrue(snapshot.load(HOST, 43.0d, cache, gson).isEmpty());
+	}
+
+	private MetadataCache filledCache() {
+		MetadataCache cache = new MetadataCache(1, TimeUnit.HOURS, 10);
+		cache.put(MetadataCache.globalKey(), gson.fromJson("{\"encoding\":\"UTF-8\",\"maxBatchSize\":150,"
+				+ "\"sobjects\":[]}", DescribeGlobal.class), LAST_MODIFIED);
+		cache.put(MetadataCache.layoutKey("Account"), gson.fromJson("{\"name\":\"Account\",\"fields\":"
+				+ "[{\"name\":\"Id\",\"type\":\"id\"}]}", DescribeLayout.class), null);
+		return cache;
+	}
+}
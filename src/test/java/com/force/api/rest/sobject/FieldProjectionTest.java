@@ -0,0 +1,174 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.sobject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.force.api.rest.sobject.model.LazySObject;
+import com.force.api.rest.sobject.model.SObject;
+import com.google.common.collect.ImmutableList;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+/**
+ * Checks gets with the ?fields= parameter, field validation against the cached describe, and lazy loading.
+ */
+public class FieldProjectionTest {
+
+	private StubServer server;
+	private RestSObjectApiClient client;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new StubServer(new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				String path = exchange.getRequestURI().getPath();
+				String query = exchange.getRequestURI().getQuery();
+				if (path.endsWith("/describe/")) {
+					StubServer.respond(exchange, 200, "{\"name\":\"Account\",\"fields\":["
+							+ "{\"name\":\"Id\"},{\"name\":\"Name\"},{\"name\":\"Phone\"},{\"name\":\"Industry\"}]}");
+				} else if (query != null && query.startsWith("fields=")) {
+					StubServer.respond(exchange, 200, "{\"attributes\":{\"type\":\"Account\"},"
+							+ "\"Id\":\"001x1\",\"Name\":\"Acme\"}");
+				} else {
+					StubServer.respond(exchange, 200, "{\"attributes\":{\"type\":\"Account\"},\"Id\":\"001x1\","
+							+ "\"Name\":\"Acme (full)\",\"Phone\":\"555-0100\",\"Industry\":\"Energy\"}");
+				}
+			}
+		});
+		client = server.newClient();
+	}
+
+	@After
+	public void tearDown() {
+		server.stop();
+		client.shutdown();
+	}
+
+	@Test
+	public void onlyTheRequestedFieldsAreAskedFor() throws Exception {
+		SObject account = client.get("Account", "001x1", ImmutableList.of("Id", "Name"), false);
+
+		assertEquals("Acme", account.getField("Name"));
+		assertNull(account.getField("Phone"));
+		assertEquals(ImmutableList.of("GET " + StubServer.BASE_PATH + "sobjects/Account/001x1/?fields=Id,Name"),
+				server.getRequests());
+	}
+
+	@Test
+	public void fieldsAreCheckedAgainstTheCachedDescribe() throws Exception {
+		client.setMetadataCache(new MetadataCache(1, TimeUnit.HOURS, 10));
+
+		try {
+			client.get("Account", "001x1", ImmutableList.of("Name", "Revenue__c"), false);
+			fail("expected the unknown field to be rejected");
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage().contains("Revenue__c"));
+		}
+		//case doesn't matter, and the describe is only fetched once
+		client.get("Account", "001x1", ImmutableList.of("name", "PHONE"), false);
+		assertEquals(2, server.getRequests().size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void someFieldMustBeRequested() throws Exception {
+		client.get("Account", "001x1", ImmutableList.<String>of(), false);
+	}
+
+	@Test
+	public void lazyRecordsLoadTheRestOnFirstMiss() throws Exception {
+		LazySObject account = (LazySObject) client.get("Account", "001x1", ImmutableList.of("Id", "Name"), true);
+
+		assertEquals("Acme", account.getField("Name"));
+		assertFalse(account.isLoaded());
+		assertEquals(1, server.getRequests().size());
+
+		assertEquals("555-0100", account.getField("Phone"));
+		assertTrue(account.isLoaded());
+		//the projected value is kept over the fetched one
+		assertEquals("Acme", account.getField("Name"));
+		assertEquals("Energy", account.getField("Industry"));
+		assertNull(account.getField("NoSuchField__c"));
+		assertEquals(2, server.getRequests().size());
+	}
+
+	@Test
+	public void fieldsAsStringsAreLoadedLazilyToo() throws Exception {
+		LazySObject account = (LazySObject) client.get("Account", "001x1", ImmutableList.of("Id", "Name"), true);
+
+		assertEquals("Acme", account.getFieldAsString("Name"));
+		assertFalse(account.isLoaded());
+		assertEquals("555-0100", account.getFieldAsString("Phone"));
+		assertTrue(account.isLoaded());
+		assertNull(account.getFieldAsString("NoSuchField__c"));
+		assertEquals(2, server.getRequests().size());
+	}
+
+	@Test
+	public void changesSurviveLazyLoading() throws Exception {
+		LazySObject account = (LazySObject) client.get("Account", "001x1", ImmutableList.of("Id", "Name"), true);
+		account.setString("Name", "Acme Corp");
+
+		account.load();
+
+		assertEquals("Acme Corp", account.getField("Name"));
+		assertEquals("{\"Name\":\"Acme Corp\"}", account.toChangedJson());
+	}
+
+	@Test
+	public void failedLoadsCanBeRetried() throws Exception {
+		LazySObject account = new LazySObject("Account", new LazySObject.Loader() {
+			private int calls;
+
+			public SObject load() throws Exception {
+				if (calls++ == 0) {
+					throw new IOException("connection reset");
+				}
+				return client.get("Account", "001x1");
+			}
+		});
+
+		try {
+			account.getField("Phone");
+			fail("expected the failed load to be thrown");
+		} catch (LazySObject.LazyLoadException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+		assertFalse(account.isLoaded());
+		assertEquals("555-0100", account.getField("Phone"));
+	}
+}
@@ -0,0 +1,176 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.sobject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.apache.commons.io.FileUtils;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.force.api.rest.codegen.SObjectGenerator;
+import com.force.api.rest.sobject.model.AnySObject;
+import com.force.api.rest.sobject.model.SObject;
+import com.force.api.rest.sobject.model.SObjectReader;
+import com.google.common.io.Files;
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+/**
+ * Generates a class with {@link SObjectGenerator}, compiles it, and reads records into it through the client.
+ */
+public class GeneratedRecordTest {
+
+	private static final String DESCRIBE = "{\"name\":\"Widget__c\",\"fields\":["
+			+ "{\"name\":\"Id\",\"type\":\"id\"},"
+			+ "{\"name\":\"Name\",\"type\":\"string\"},"
+			+ "{\"name\":\"Count__c\",\"type\":\"int\"},"
+			+ "{\"name\":\"Price__c\",\"type\":\"currency\"},"
+			+ "{\"name\":\"Active__c\",\"type\":\"boolean\"},"
+			+ "{\"name\":\"Address__c\",\"type\":\"address\"}]}";
+
+	private static final String RECORD = "{\"attributes\":{\"type\":\"Widget__c\"},\"Id\":\"a00x0000000001AAA\","
+			+ "\"Name\":\"Sprocket \\\"1\\\"\",\"Count__c\":3,\"Price__c\":12.5,\"Active__c\":true,"
+			+ "\"Address__c\":{\"city\":\"Paris\"}}";
+
+	private File dir;
+	private Class<? extends SObject> type;
+	private StubServer server;
+	private RestSObjectApiClient client;
+
+	@Before
+	public void setUp() throws Exception {
+		dir = Files.createTempDir();
+		DescribeLayout describe = new Gson().fromJson(DESCRIBE, DescribeLayout.class);
+		File source = new SObjectGenerator("test.generated").write(describe, dir);
+
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		assertNotNull("Needs a JDK to compile the generated class", compiler);
+		int status = compiler.run(null, null, null, "-classpath", System.getProperty("java.class.path"), "-d",
+				dir.getPath(), source.getPath());
+		assertEquals(0, status);
+		ClassLoader loader = new URLClassLoader(new URL[] { dir.toURI().toURL() }, getClass().getClassLoader());
+		type = Class.forName("test.generated.Widget__c", true, loader).asSubclass(SObject.class);
+
+		server = new StubServer(new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				String path = exchange.getRequestURI().getPath();
+				if (path.endsWith("/sobjects/Widget__c/a00x0000000001AAA/")) {
+					StubServer.respond(exchange, 200, RECORD);
+				} else if (path.endsWith("/query")) {
+					StubServer.respond(exchange, 200, "{\"totalSize\":2,\"done\":true,\"records\":[" + RECORD + ","
+							+ RECORD.replace("0001AAA", "0002AAA") + "]}");
+				} else {
+					StubServer.respond(exchange, 404, "[{\"errorCode\":\"NOT_FOUND\",\"message\":\"nope\"}]");
+				}
+			}
+		});
+		client = server.newClient();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		server.stop();
+		client.shutdown();
+		FileUtils.deleteDirectory(dir);
+	}
+
+	@Test
+	public void getByClassReadsTheGeneratedType() throws Exception {
+		SObject record = client.get(type, "a00x0000000001AAA");
+
+		assertEquals(type, record.getClass());
+		assertEquals("Widget__c", record.getSObjectName());
+		assertEquals("a00x0000000001AAA", record.getId());
+		assertEquals("Sprocket \"1\"", type.getMethod("getName").invoke(record));
+		assertEquals(Integer.valueOf(3), type.getMethod("getCount__c").invoke(record));
+		assertEquals(Double.valueOf(12.5), type.getMethod("getPrice__c").invoke(record));
+		assertEquals(Boolean.TRUE, type.getMethod("getActive__c").invoke(record));
+		assertEquals("GET " + StubServer.BASE_PATH + "sobjects/Widget__c/a00x0000000001AAA/",
+				server.getRequests().get(0));
+	}
+
+	@Test
+	public void toJsonRoundTripsThroughTheReader() throws Exception {
+		SObject record = client.get(type, "a00x0000000001AAA");
+		SObjectReader<?> reader = (SObjectReader<?>) type.getField("READER").get(null);
+
+		SObject copy = reader.read(new JsonReader(new StringReader(record.toJson())));
+
+		JSONObject expected = new JSONObject(record.toJson());
+		JSONObject actual = new JSONObject(copy.toJson());
+		assertEquals(expected.toString(), actual.toString());
+		assertEquals("Sprocket \"1\"", actual.getString("Name"));
+		assertFalse(actual.has("Address__c"));
+		assertFalse(copy.hasChanges());
+	}
+
+	@Test
+	public void changesAreTrackedOnGeneratedRecords() throws Exception {
+		SObject record = client.get(type, "a00x0000000001AAA");
+		type.getMethod("setCount__c", int.class).invoke(record, Integer.valueOf(4));
+
+		assertTrue(record.hasChanges());
+		assertEquals("{\"Count__c\":4}", record.toChangedJson());
+	}
+
+	@Test
+	public void queryCursorReadsRecordsWithTheReader() throws Exception {
+		SObjectReader<?> reader = (SObjectReader<?>) type.getField("READER").get(null);
+		QueryCursor cursor = client.queryCursor("SELECT+Id+FROM+Widget__c", 200, reader);
+		try {
+			SObject first = cursor.next();
+			SObject second = cursor.next();
+			assertFalse(cursor.hasNext());
+			assertEquals(type, first.getClass());
+			assertEquals("a00x0000000001AAA", first.getId());
+			assertEquals("a00x0000000002AAA", second.getId());
+		} finally {
+			cursor.close();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void getByClassWithoutReaderFails() throws Exception {
+		client.get(AnySObject.class, "a00x0000000001AAA");
+	}
+}
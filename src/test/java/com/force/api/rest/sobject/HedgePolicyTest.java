@@ -0,0 +1,139 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.sobject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+/**
+ * Checks the hedge delay, and that a slow GET is raced by a second copy whose answer is taken.
+ */
+public class HedgePolicyTest {
+
+	private final AtomicInteger received = new AtomicInteger();
+	private final CountDownLatch release = new CountDownLatch(1);
+	private volatile boolean firstIsSlow;
+	private StubServer server;
+	private RestSObjectApiClient client;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new StubServer(new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				String id = "001x" + received.incrementAndGet();
+				if (firstIsSlow && "001x1".equals(id)) {
+					try {
+						release.await(5, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				StubServer.respond(exchange, 200, "{\"attributes\":{\"type\":\"Account\"},\"Id\":\"" + id + "\"}");
+			}
+		});
+		client = server.newClient();
+	}
+
+	@After
+	public void tearDown() {
+		release.countDown();
+		server.stop();
+		client.shutdown();
+	}
+
+	@Test
+	public void aFixedDelayIsUsedAsIs() {
+		assertEquals(40L, new HedgePolicy(40, TimeUnit.MILLISECONDS).getDelayMillis());
+	}
+
+	@Test
+	public void theDelayFollowsThePercentileAfterWarmup() {
+		HedgePolicy policy = new HedgePolicy(0.95d, 5, TimeUnit.MILLISECONDS, 10);
+		for (int i = 0; i < 9; i++) {
+			policy.record(TimeUnit.MILLISECONDS.toNanos(50));
+		}
+		assertEquals(5L, policy.getDelayMillis());
+
+		policy.record(TimeUnit.MILLISECONDS.toNanos(50));
+		assertEquals(50L, policy.getDelayMillis());
+	}
+
+	@Test
+	public void theDelayNeverDropsBelowTheMinimum() {
+		HedgePolicy policy = new HedgePolicy(0.95d, 20, TimeUnit.MILLISECONDS, 1);
+		policy.record(TimeUnit.MICROSECONDS.toNanos(300));
+
+		assertEquals(20L, policy.getDelayMillis());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void percentileMustBeAFraction() {
+		new HedgePolicy(95, 5, TimeUnit.MILLISECONDS, 10);
+	}
+
+	@Test
+	public void aSlowRequestIsAnsweredByItsHedge() throws Exception {
+		//opens the connection first, so the primary reaches the server well before its hedge
+		client.get("Account", "001x1");
+		received.set(0);
+		firstIsSlow = true;
+		HedgePolicy policy = new HedgePolicy(200, TimeUnit.MILLISECONDS);
+		client.setHedgePolicy(policy);
+
+		long start = System.currentTimeMillis();
+		assertEquals("001x2", client.get("Account", "001x1").getId());
+
+		assertTrue(System.currentTimeMillis() - start < 4000L);
+		assertEquals(1L, policy.getHedgeCount());
+		assertEquals(1L, policy.getHedgeWinCount());
+		assertEquals(1L, policy.getLatency().getCount());
+	}
+
+	@Test
+	public void fastRequestsAreNotHedged() throws Exception {
+		HedgePolicy policy = new HedgePolicy(2, TimeUnit.SECONDS);
+		client.setHedgePolicy(policy);
+
+		assertEquals("001x1", client.get("Account", "001x1").getId());
+		assertEquals("001x2", client.get("Account", "001x1").getId());
+
+		assertEquals(0L, policy.getHedgeCount());
+		assertEquals(2, server.getRequests().size());
+		assertEquals(2L, policy.getLatency().getCount());
+	}
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.sobject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.force.api.rest.sobject.InMemoryRequestMetrics.EndpointStats;
+import com.force.api.rest.sobject.model.AnySObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+/**
+ * Records the requests of a client talking to a stub server.
+ */
+public class InMemoryRequestMetricsTest {
+
+	private static final String RECORD = "{\"attributes\":{\"type\":\"Account\"},\"Id\":\"001x1\"}";
+
+	private final InMemoryRequestMetrics metrics = new InMemoryRequestMetrics();
+	private StubServer server;
+	private RestSObjectApiClient client;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new StubServer(new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				if (exchange.getRequestURI().getPath().contains("/001xMissing")) {
+					StubServer.respond(exchange, 404, "[{\"errorCode\":\"NOT_FOUND\"}]");
+				} else if ("POST".equals(exchange.getRequestMethod())) {
+					StubServer.respond(exchange, 201, "{\"id\":\"001x1\",\"success\":true,\"errors\":[]}");
+				} else {
+					StubServer.respond(exchange, 200, RECORD);
+				}
+			}
+		});
+		client = server.newClient();
+		client.setMetrics(metrics);
+	}
+
+	@After
+	public void tearDown() {
+		server.stop();
+		client.shutdown();
+	}
+
+	@Test
+	public void completedRequestsAreCountedPerEndpoint() throws Exception {
+		client.get("Account", "001x1");
+		client.get("Account", "001x2");
+		AnySObject account = new AnySObject("Account");
+		account.setString("Name", "Acme");
+		client.create(account);
+
+		EndpointStats get = metrics.getEndpoints().get("get");
+		assertEquals(2L, get.getRequests());
+		assertEquals(0, get.getInFlight());
+		assertEquals(2L, get.getStatusCodes().get(Integer.valueOf(200)).get());
+		assertEquals(2L * RECORD.length(), get.getResponseBytes());
+		assertEquals(2L, get.getLatency().getCount());
+
+		EndpointStats create = metrics.getEndpoints().get("create");
+		assertEquals("{\"Name\":\"Acme\"}".length(), create.getRequestBytes());
+		assertEquals(1L, create.getStatusCodes().get(Integer.valueOf(201)).get());
+		assertEquals(3L, metrics.getTotal().getRequests());
+	}
+
+	@Test
+	public void errorStatusesAreResponsesNotFailures() throws Exception {
+		try {
+			client.get("Account", "001xMissing");
+			fail("Expected a 404");
+		} catch (RestApiException e) {
+			assertEquals(404, e.getExceptionCode());
+		}
+
+		EndpointStats get = metrics.getEndpoints().get("get");
+		assertEquals(1L, get.getStatusCodes().get(Integer.valueOf(404)).get());
+		assertEquals(0L, get.getFailures());
+		assertEquals(0, get.getInFlight());
+	}
+
+	@Test
+	public void requestsWithoutAResponseAreFailures() throws Exception {
+		server.stop();
+		try {
+			client.get("Account", "001x1");
+			fail("Expected the connection to be refused");
+		} catch (IOException e) {
+			//expected
+		}
+
+		EndpointStats get = metrics.getEndpoints().get("get");
+		assertEquals(1L, get.getFailures());
+		assertEquals(0, get.getInFlight());
+		assertTrue(get.getStatusCodes().isEmpty());
+	}
+}
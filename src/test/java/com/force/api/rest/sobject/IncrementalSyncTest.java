@@ -0,0 +1,260 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.sobject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.force.api.rest.sobject.model.SObject;
+import com.google.common.collect.ImmutableList;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+/**
+ * Syncs against a stub server whose updated resource reports 001x1, 001x2 and 001x3, of which the query only finds
+ * the first two, and whose deleted resource reports 001x9.
+ */
+public class IncrementalSyncTest {
+
+	private static final Pattern ID = Pattern.compile("001x\\d");
+
+	private final Date updatedCovered = minutesAgo(3);
+	private final Date deletedCovered = minutesAgo(2);
+	private volatile Date earliestDeletion = minutesAgo(60 * 24 * 30);
+	private final List<String> events = new CopyOnWriteArrayList<String>();
+	private final MemoryStore store = new MemoryStore();
+	private volatile boolean failUpserts;
+	private StubServer server;
+	private RestSObjectApiClient client;
+	private IncrementalSync sync;
+	private File dir;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new StubServer(new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				String path = exchange.getRequestURI().getPath();
+				if (path.contains("/updated/")) {
+					StubServer.respond(exchange, 200, "{\"ids\":[\"001x1\",\"001x2\",\"001x3\"],"
+							+ "\"latestDateCovered\":\"" + format(updatedCovered) + "\"}");
+				} else if (path.contains("/deleted/")) {
+					StubServer.respond(exchange, 200, "{\"deletedRecords\":[{\"id\":\"001x9\",\"deletedDate\":\""
+							+ format(deletedCovered) + "\"}],\"earliestDateAvailable\":\"" + format(earliestDeletion)
+							+ "\",\"latestDateCovered\":\"" + format(deletedCovered) + "\"}");
+				} else {
+					StringBuilder records = new StringBuilder();
+					int found = 0;
+					Matcher ids = ID.matcher(URLDecoder.decode(exchange.getRequestURI().getRawQuery(), "UTF-8"));
+					while (ids.find()) {
+						if (!"001x3".equals(ids.group())) {
+							records.append(found++ == 0 ? "" : ",").append("{\"attributes\":{\"type\":\"Account\"},"
+									+ "\"Id\":\"" + ids.group() + "\",\"Name\":\"Acme\"}");
+						}
+					}
+					StubServer.respond(exchange, 200, "{\"totalSize\":" + found + ",\"done\":true,\"records\":["
+							+ records + "]}");
+				}
+			}
+		});
+		client = server.newClient();
+		sync = new IncrementalSync(client, store, new IncrementalSync.Handler() {
+			public void upserted(String sobjectName, List<SObject> records) throws IOException {
+				if (failUpserts) {
+					throw new IOException("replica is offline");
+				}
+				for (SObject record : records) {
+					events.add("upsert " + record.getId());
+				}
+			}
+
+			public void deleted(String sobjectName, List<String> ids) {
+				for (String id : ids) {
+					events.add("delete " + id);
+				}
+			}
+		});
+		dir = new File(System.getProperty("java.io.tmpdir"), "sync-" + System.nanoTime());
+		assertTrue(dir.mkdirs());
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		server.stop();
+		client.shutdown();
+		FileUtils.deleteDirectory(dir);
+	}
+
+	@Test
+	public void firstRunMovesTheLastDaysAndSavesTheCheckpoint() throws Exception {
+		IncrementalSync.Result result = sync.sync("Account", ImmutableList.of("Name"));
+
+		assertEquals(ImmutableList.of("upsert 001x1", "upsert 001x2", "delete 001x9"), events);
+		assertEquals(2, result.getUpsertedCount());
+		assertEquals(1, result.getDeletedCount());
+		assertEquals(1, result.getVanishedCount());
+		assertFalse(result.hasGap());
+		long lookback = System.currentTimeMillis() - result.getStart().getTime();
+		assertTrue(Math.abs(lookback - TimeUnit.DAYS.toMillis(29)) < TimeUnit.MINUTES.toMillis(1));
+		//the earlier of the two windows, so neither resource skips anything next time
+		assertEquals(updatedCovered, store.load("Account"));
+		assertEquals(updatedCovered, result.getCheckpoint());
+		assertTrue(URLDecoder.decode(server.getRequests().get(2), "UTF-8").contains("SELECT Id,Name FROM Account"));
+	}
+
+	@Test
+	public void failedRunsLeaveTheCheckpoint() throws Exception {
+		Date checkpoint = minutesAgo(60);
+		store.save("Account", checkpoint);
+		failUpserts = true;
+
+		try {
+			sync.sync("Account", ImmutableList.of("Name"));
+			fail("expected the handler failure to be thrown");
+		} catch (IOException expected) {
+		}
+
+		assertEquals(checkpoint, store.load("Account"));
+	}
+
+	@Test
+	public void recordsAreFetchedInBatches() throws Exception {
+		sync.setBatchSize(1);
+
+		sync.sync("Account", ImmutableList.of("Id", "Name"));
+
+		//one query per updated Id
+		assertEquals(5, server.getRequests().size());
+		assertEquals(ImmutableList.of("upsert 001x1", "upsert 001x2", "delete 001x9"), events);
+	}
+
+	@Test
+	public void recentCheckpointsAreLeftAlone() throws Exception {
+		Date checkpoint = new Date(System.currentTimeMillis() - 1000L);
+		store.save("Account", checkpoint);
+
+		IncrementalSync.Result result = sync.sync("Account", ImmutableList.of("Name"));
+
+		assertEquals(checkpoint, result.getCheckpoint());
+		assertTrue(server.getRequests().isEmpty());
+	}
+
+	@Test
+	public void expiredCheckpointsAreMovedUpAndReportAGap() throws Exception {
+		store.save("Account", minutesAgo(60 * 24 * 40));
+
+		IncrementalSync.Result result = sync.sync("Account", ImmutableList.of("Name"));
+
+		assertTrue(result.hasGap());
+		assertTrue(System.currentTimeMillis() - result.getStart().getTime() < TimeUnit.DAYS.toMillis(30));
+	}
+
+	@Test
+	public void expiredDeletionsReportAGap() throws Exception {
+		store.save("Account", minutesAgo(120));
+		earliestDeletion = minutesAgo(60);
+
+		assertTrue(sync.sync("Account", ImmutableList.of("Name")).hasGap());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void batchesStayUnderTheUrlLimit() {
+		sync.setBatchSize(IncrementalSync.MAX_BATCH_SIZE + 1);
+	}
+
+	@Test
+	public void fileCheckpointsSurviveARestart() throws Exception {
+		File file = new File(dir, "checkpoints.properties");
+		Date checkpoint = minutesAgo(5);
+		Date contactCheckpoint = minutesAgo(10);
+		FileCheckpointStore first = new FileCheckpointStore(file);
+		assertNull(first.load("Account"));
+		first.save("Account", checkpoint);
+		first.save("Contact", contactCheckpoint);
+
+		FileCheckpointStore second = new FileCheckpointStore(file);
+		assertEquals(checkpoint, second.load("Account"));
+		assertEquals(contactCheckpoint, second.load("Contact"));
+		assertFalse(new File(dir, "checkpoints.properties.tmp").exists());
+	}
+
+	@Test(expected = IOException.class)
+	public void corruptFileCheckpointsAreReported() throws Exception {
+		File file = new File(dir, "checkpoints.properties");
+		FileWriter writer = new FileWriter(file);
+		writer.write("Account=yesterday\n");
+		writer.close();
+
+		new FileCheckpointStore(file).load("Account");
+	}
+
+	private static Date minutesAgo(long minutes) {
+		//whole seconds, as the server reports them
+		long millis = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(minutes);
+		return new Date(millis - millis % 1000L);
+	}
+
+	private static String format(Date date) {
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ", Locale.ENGLISH);
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return format.format(date);
+	}
+
+	private static class MemoryStore implements IncrementalSync.CheckpointStore {
+		private final Map<String, Date> checkpoints = new ConcurrentHashMap<String, Date>();
+
+		public Date load(String sobjectName) {
+			return checkpoints.get(sobjectName);
+		}
+
+		public void save(String sobjectName, Date checkpoint) {
+			checkpoints.put(sobjectName, checkpoint);
+		}
+	}
+}
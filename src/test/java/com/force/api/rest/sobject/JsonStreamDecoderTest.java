@@ -0,0 +1,139 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.sobject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import com.force.api.rest.sobject.model.AnySObject;
+import com.force.api.rest.sobject.model.CompactSObject;
+import com.force.api.rest.sobject.model.RecordSchemas;
+import com.force.api.rest.sobject.model.SObject;
+import com.google.gson.stream.JsonReader;
+
+public class JsonStreamDecoderTest {
+
+	private static final String RECORD = "{\"attributes\":{\"type\":\"Account\",\"url\":\"/x\"},\"Id\":\"001x1\","
+			+ "\"Name\":\"Acme\",\"NumberOfEmployees\":12,\"Big__c\":12345678901,\"AnnualRevenue\":1.5,"
+			+ "\"Exp__c\":1e3,\"IsActive__c\":true,\"Description\":null,\"Tags__c\":[\"a\",1],"
+			+ "\"Owner\":{\"Name\":\"Bob\"}}";
+
+	@Test
+	public void recordValuesHaveTheTypesOrgJsonGives() throws Exception {
+		AnySObject decoded = JsonStreamDecoder.readRecord("Account", reader(RECORD));
+		AnySObject expected = new AnySObject("Account", new JSONObject(RECORD));
+
+		assertEquals(expected.getFieldNames(), decoded.getFieldNames());
+		for (String field : new String[] { "Id", "Name", "NumberOfEmployees", "Big__c", "AnnualRevenue", "Exp__c",
+				"IsActive__c" }) {
+			assertEquals(field, expected.getField(field), decoded.getField(field));
+			assertEquals(field, expected.getField(field).getClass(), decoded.getField(field).getClass());
+		}
+		assertSame(JSONObject.NULL, decoded.getField("Description"));
+		assertEquals("Bob", ((JSONObject) decoded.getField("Owner")).getString("Name"));
+		assertEquals(2, ((JSONArray) decoded.getField("Tags__c")).length());
+		assertFalse(decoded.hasChanges());
+	}
+
+	@Test
+	public void compactRecordsMatchAnySObjects() throws Exception {
+		SObject any = JsonStreamDecoder.readRecord("Account", reader(RECORD), null);
+		SObject compact = JsonStreamDecoder.readRecord("Account", reader(RECORD), new RecordSchemas());
+
+		assertTrue(compact instanceof CompactSObject);
+		assertEquals(any.getFieldNames(), compact.getFieldNames());
+		for (String field : new String[] { "Id", "Name", "NumberOfEmployees", "Big__c", "AnnualRevenue", "Exp__c",
+				"IsActive__c", "Description" }) {
+			assertEquals(field, any.getField(field), compact.getField(field));
+		}
+		assertFalse(compact.hasChanges());
+	}
+
+	@Test
+	public void queryPageReadsTypesFromAttributes() throws Exception {
+		QueryCursor.Page page = JsonStreamDecoder.readQueryPage(reader("{\"totalSize\":2,\"done\":false,"
+				+ "\"nextRecordsUrl\":\"/services/data/v42.0/query/01gx-2\",\"records\":["
+				+ "{\"attributes\":{\"type\":\"Account\"},\"Id\":\"001x1\"},"
+				+ "{\"attributes\":{\"type\":\"Contact\"},\"Id\":\"003x1\"}],\"extra\":{\"skipped\":[1,2]}}"));
+
+		assertEquals(2, page.getTotalSize());
+		assertEquals("/services/data/v42.0/query/01gx-2", page.getNextRecordsUrl());
+		assertEquals(2, page.getRecords().size());
+		assertEquals("Account", page.getRecords().get(0).getSObjectName());
+		assertEquals("Contact", page.getRecords().get(1).getSObjectName());
+		assertEquals("003x1", page.getRecords().get(1).getId());
+	}
+
+	@Test
+	public void lastPageHasNoNextRecordsUrl() throws Exception {
+		QueryCursor.Page page = JsonStreamDecoder.readQueryPage(reader("{\"totalSize\":0,\"done\":true,"
+				+ "\"nextRecordsUrl\":null,\"records\":[]}"));
+
+		assertNull(page.getNextRecordsUrl());
+		assertTrue(page.getRecords().isEmpty());
+	}
+
+	@Test
+	public void compactPageSharesOneSchemaPerType() throws Exception {
+		RecordSchemas schemas = new RecordSchemas();
+		//the first record has a field before its attributes
+		QueryCursor.Page page = JsonStreamDecoder.readQueryPage(reader("{\"totalSize\":2,\"records\":["
+				+ "{\"Id\":\"001x1\",\"attributes\":{\"type\":\"Account\"},\"Name\":\"A\"},"
+				+ "{\"attributes\":{\"type\":\"Account\"},\"Id\":\"001x2\",\"Name\":\"B\"}]}"), schemas);
+
+		CompactSObject first = (CompactSObject) page.getRecords().get(0);
+		CompactSObject second = (CompactSObject) page.getRecords().get(1);
+		assertSame(first.getSchema(), second.getSchema());
+		assertSame(schemas.forType("Account"), first.getSchema());
+		assertEquals("001x1", first.getId());
+		assertEquals("B", second.getField("Name"));
+	}
+
+	@Test(expected = JSONException.class)
+	public void queryRecordWithoutAttributesIsRejected() throws Exception {
+		JsonStreamDecoder.readQueryPage(reader("{\"totalSize\":1,\"records\":[{\"Id\":\"001x1\"}]}"));
+	}
+
+	@Test(expected = JSONException.class)
+	public void compactRecordWithoutAttributesIsRejected() throws Exception {
+		JsonStreamDecoder.readQueryPage(reader("{\"totalSize\":1,\"records\":[{\"Id\":\"001x1\"}]}"),
+				new RecordSchemas());
+	}
+
+	private static JsonReader reader(String json) {
+		return new JsonReader(new StringReader(json));
+	}
+}
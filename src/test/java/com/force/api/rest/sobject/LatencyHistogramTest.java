@@ -0,0 +1,87 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.sobject;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void emptyHistogramReportsZero() {
+		LatencyHistogram histogram = new LatencyHistogram();
+
+		assertEquals(0L, histogram.getCount());
+		assertEquals(0L, histogram.getMean(TimeUnit.MILLISECONDS));
+		assertEquals(0L, histogram.getPercentile(0.99d, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void percentilesAreBucketUpperBounds() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 0; i < 90; i++) {
+			//3ms falls in the 2048us..4096us bucket
+			histogram.record(TimeUnit.MILLISECONDS.toNanos(3));
+		}
+		for (int i = 0; i < 10; i++) {
+			histogram.record(TimeUnit.MILLISECONDS.toNanos(100));
+		}
+
+		assertEquals(100L, histogram.getCount());
+		assertEquals(4096L, histogram.getPercentile(0.5d, TimeUnit.MICROSECONDS));
+		assertEquals(4096L, histogram.getPercentile(0.9d, TimeUnit.MICROSECONDS));
+		//capped at the slowest latency rather than the 131072us bucket bound
+		assertEquals(100L, histogram.getPercentile(0.91d, TimeUnit.MILLISECONDS));
+		assertEquals(100L, histogram.getMax(TimeUnit.MILLISECONDS));
+		assertEquals(12L, histogram.getMean(TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void subMicrosecondAndNegativeLatenciesLandInTheFirstBucket() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(500L);
+		histogram.record(-5L);
+
+		assertEquals(500L, histogram.getPercentile(1.0d, TimeUnit.NANOSECONDS));
+		assertEquals(250L, histogram.getMean(TimeUnit.NANOSECONDS));
+	}
+
+	@Test
+	public void verySlowLatenciesShareTheLastBucket() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(TimeUnit.DAYS.toNanos(400));
+
+		assertEquals(400L, histogram.getPercentile(1.0d, TimeUnit.DAYS));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void percentileMustBeAFraction() {
+		new LatencyHistogram().getPercentile(95, TimeUnit.MILLISECONDS);
+	}
+}
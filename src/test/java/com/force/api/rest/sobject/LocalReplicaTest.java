@@ -0,0 +1,223 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.sobject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.force.api.rest.sobject.model.AnySObject;
+import com.force.api.rest.sobject.model.SObject;
+import com.google.common.collect.ImmutableList;
+
+public class LocalReplicaTest {
+
+	private File dir;
+	private File file;
+	private LocalReplica replica;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = new File(System.getProperty("java.io.tmpdir"), "replica-" + System.nanoTime());
+		assertTrue(dir.mkdirs());
+		file = new File(dir, "accounts.replica");
+		replica = new LocalReplica(file, 4096);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		replica.close();
+		FileUtils.deleteDirectory(dir);
+	}
+
+	@Test
+	public void recordsAreReadBackFromTheFile() throws Exception {
+		replica.put(account("001x1", "Acme", "A-1"));
+
+		SObject first = replica.get("001x1");
+		assertEquals("Account", first.getSObjectName());
+		assertEquals("Acme", first.getField("Name"));
+		assertNotSame(first, replica.get("001x1"));
+		assertNull(replica.get("001x2"));
+		assertEquals(2L, replica.getHitCount());
+		assertEquals(1L, replica.getMissCount());
+	}
+
+	@Test
+	public void latestPutWinsAndDeletesRemove() throws Exception {
+		replica.put(account("001x1", "Acme", "A-1"));
+		replica.put(account("001x1", "Acme Corp", "A-1"));
+		replica.put(account("001x2", "Globex", "G-1"));
+		replica.delete("001x2");
+		replica.delete("001x3");
+
+		assertEquals("Acme Corp", replica.get("001x1").getField("Name"));
+		assertNull(replica.get("001x2"));
+		assertEquals(1, replica.size());
+		assertTrue(replica.getGarbageBytes() > 0L);
+	}
+
+	@Test
+	public void reopeningRebuildsTheIndexes() throws Exception {
+		replica.put(account("001x1", "Acme", "A-1"));
+		replica.put(account("001x2", "Globex", "G-1"));
+		replica.delete("001x2");
+		replica.close();
+
+		replica = new LocalReplica(file, 4096);
+		replica.addIndex("Number__c", true);
+
+		assertEquals(1, replica.size());
+		assertEquals("Acme", replica.get("001x1").getField("Name"));
+		assertEquals(1, replica.find("Number__c", "A-1").size());
+	}
+
+	@Test
+	public void aTornEntryAndEverythingAfterItIsDropped() throws Exception {
+		replica.put(account("001x1", "Acme", "A-1"));
+		long torn = replica.getLogBytes();
+		replica.put(account("001x2", "Globex", "G-1"));
+		replica.put(account("001x3", "Initech", "I-1"));
+		replica.close();
+		RandomAccessFile raw = new RandomAccessFile(file, "rw");
+		try {
+			//a byte of the second entry's payload, past its 9 byte header
+			raw.seek(torn + 12);
+			int value = raw.read();
+			raw.seek(torn + 12);
+			raw.write(value ^ 0xff);
+		} finally {
+			raw.close();
+		}
+
+		replica = new LocalReplica(file, 4096);
+
+		assertEquals(1, replica.size());
+		assertEquals("Acme", replica.get("001x1").getField("Name"));
+		assertEquals(torn, replica.getLogBytes());
+		//new entries overwrite the torn one
+		replica.put(account("001x2", "Globex", "G-1"));
+		replica.close();
+		replica = new LocalReplica(file, 4096);
+		assertEquals(2, replica.size());
+	}
+
+	@Test
+	public void entriesRollOverToTheNextSegment() throws Exception {
+		for (int i = 0; i < 10; i++) {
+			replica.put(account("001x" + i, padded(1000, i), "N-" + i));
+		}
+		assertTrue(replica.getLogBytes() > 2 * 4096);
+		replica.close();
+
+		replica = new LocalReplica(file, 4096);
+		for (int i = 0; i < 10; i++) {
+			assertEquals(padded(1000, i), replica.get("001x" + i).getField("Name"));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void entriesLargerThanASegmentAreRejected() throws Exception {
+		replica.put(account("001x1", padded(5000, 0), "A-1"));
+	}
+
+	@Test
+	public void compactionKeepsOnlyLiveRecords() throws Exception {
+		replica.addIndex("Number__c", true);
+		for (int i = 0; i < 20; i++) {
+			replica.put(account("001x1", "Acme " + i, "A-1"));
+		}
+		replica.put(account("001x2", "Globex", "G-1"));
+		replica.delete("001x2");
+		long before = replica.getLogBytes();
+
+		replica.compact();
+
+		assertEquals(0L, replica.getGarbageBytes());
+		assertTrue(replica.getLogBytes() < before / 10);
+		assertEquals("Acme 19", replica.get("001x1").getField("Name"));
+		assertEquals(1, replica.find("Number__c", "A-1").size());
+		assertTrue(replica.find("Number__c", "G-1").isEmpty());
+		assertTrue(!new File(file.getPath() + ".compact").exists());
+	}
+
+	@Test
+	public void secondaryIndexesFollowPutsAndDeletes() throws Exception {
+		replica.put(account("001x1", "Acme", "A-1"));
+		replica.addIndex("Number__c", false);
+		replica.put(account("001x2", "Acme West", "a-1"));
+
+		assertEquals(2, replica.find("Number__c", "A-1").size());
+
+		replica.put(account("001x2", "Acme West", "W-1"));
+		replica.delete("001x1");
+		assertTrue(replica.find("Number__c", "a-1").isEmpty());
+		List<SObject> found = replica.find("Number__c", "w-1");
+		assertEquals("001x2", found.get(0).getId());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void onlyIndexedFieldsCanBeSearched() throws Exception {
+		replica.find("Name", "Acme");
+	}
+
+	@Test
+	public void syncChangesAreApplied() throws Exception {
+		replica.upserted("Account", ImmutableList.<SObject>of(account("001x1", "Acme", "A-1"),
+				account("001x2", "Globex", "G-1")));
+		replica.deleted("Account", ImmutableList.of("001x1"));
+
+		assertNull(replica.get("001x1"));
+		assertEquals("Globex", replica.get("001x2").getField("Name"));
+	}
+
+	private static AnySObject account(String id, String name, String number) {
+		AnySObject account = new AnySObject("Account");
+		account.setString("Id", id);
+		account.setString("Name", name);
+		account.setString("Number__c", number);
+		return account;
+	}
+
+	private static String padded(int length, int seed) {
+		StringBuilder name = new StringBuilder(length);
+		while (name.length() < length) {
+			name.append((char) ('a' + (name.length() + seed) % 26));
+		}
+		return name.toString();
+	}
+}
@@ -0,0 +1,172 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.sobject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+public class MetadataCacheTest {
+
+	private static final String LAST_MODIFIED = "Tue, 01 May 2018 10:00:00 GMT";
+
+	@Test
+	public void entriesAreFreshForTheTtl() {
+		MetadataCache cache = new MetadataCache(1, TimeUnit.SECONDS, 10);
+		cache.put(MetadataCache.globalKey(), "global", LAST_MODIFIED);
+		long fetchedAt = cache.entries().get(MetadataCache.globalKey()).getFetchedAt();
+
+		assertTrue(cache.lookup(MetadataCache.globalKey(), fetchedAt + 999).isFresh(fetchedAt + 999, 1000));
+		MetadataCache.CacheEntry stale = cache.lookup(MetadataCache.globalKey(), fetchedAt + 1000);
+		assertFalse(stale.isFresh(fetchedAt + 1000, 1000));
+		assertEquals(LAST_MODIFIED, stale.getLastModified());
+		assertNull(cache.lookup(MetadataCache.sobjectKey("Account"), fetchedAt));
+
+		assertEquals(1, cache.getHitCount());
+		assertEquals(2, cache.getMissCount());
+	}
+
+	@Test
+	public void revalidationRestartsTheTtl() {
+		MetadataCache cache = new MetadataCache(1, TimeUnit.SECONDS, 10);
+		String key = MetadataCache.layoutKey("Account");
+		cache.putIfAbsent(key, new MetadataCache.CacheEntry("layout", LAST_MODIFIED, 0L));
+		MetadataCache.CacheEntry stale = cache.lookup(key, System.currentTimeMillis());
+
+		cache.revalidated(key, stale);
+
+		long now = System.currentTimeMillis();
+		MetadataCache.CacheEntry fresh = cache.lookup(key, now);
+		assertTrue(fresh.isFresh(now, cache.getTtlMillis()));
+		assertEquals("layout", fresh.getValue());
+		assertEquals(LAST_MODIFIED, fresh.getLastModified());
+		assertEquals(1, cache.getRevalidationCount());
+		//one hit plus one revalidation out of two lookups
+		assertEquals(1.0d, cache.getHitRatio(), 0.0d);
+	}
+
+	@Test
+	public void leastRecentlyUsedEntryIsEvicted() {
+		MetadataCache cache = new MetadataCache(1, TimeUnit.HOURS, 2);
+		cache.put(MetadataCache.sobjectKey("Account"), "a", null);
+		cache.put(MetadataCache.sobjectKey("Contact"), "c", null);
+		cache.lookup(MetadataCache.sobjectKey("Account"), System.currentTimeMillis());
+		cache.put(MetadataCache.sobjectKey("Lead"), "l", null);
+
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.getEvictionCount());
+		assertFalse(cache.entries().containsKey(MetadataCache.sobjectKey("Contact")));
+		assertTrue(cache.entries().containsKey(MetadataCache.sobjectKey("Account")));
+	}
+
+	@Test
+	public void putIfAbsentKeepsTheExistingEntry() {
+		MetadataCache cache = new MetadataCache(1, TimeUnit.HOURS, 10);
+		cache.put(MetadataCache.globalKey(), "live", null);
+
+		assertFalse(cache.putIfAbsent(MetadataCache.globalKey(), new MetadataCache.CacheEntry("old", null, 0L)));
+		assertEquals("live", cache.entries().get(MetadataCache.globalKey()).getValue());
+	}
+
+	@Test
+	public void invalidateDropsTheObjectAndTheGlobalDescribe() {
+		MetadataCache cache = new MetadataCache(1, TimeUnit.HOURS, 10);
+		cache.put(MetadataCache.globalKey(), "g", null);
+		cache.put(MetadataCache.sobjectKey("Account"), "a", null);
+		cache.put(MetadataCache.layoutKey("Account"), "al", null);
+		cache.put(MetadataCache.layoutKey("Contact"), "cl", null);
+
+		cache.invalidate("Account");
+		assertEquals(1, cache.size());
+		assertTrue(cache.entries().containsKey(MetadataCache.layoutKey("Contact")));
+
+		cache.invalidateAll();
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void keysNameTheirTypeAndObject() {
+		assertEquals(DescribeGlobal.class, MetadataCache.typeOf(MetadataCache.globalKey()));
+		assertEquals(DescribeSobject.class, MetadataCache.typeOf(MetadataCache.sobjectKey("Account")));
+		assertEquals(DescribeLayout.class, MetadataCache.typeOf(MetadataCache.layoutKey("Account")));
+		assertEquals("Account", MetadataCache.sobjectNameOf(MetadataCache.layoutKey("Account")));
+		assertNull(MetadataCache.sobjectNameOf(MetadataCache.globalKey()));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void maxEntriesMustBePositive() {
+		new MetadataCache(1, TimeUnit.HOURS, 0);
+	}
+
+	@Test
+	public void clientServesFreshEntriesAndRevalidatesStaleOnes() throws Exception {
+		final List<String> ifModifiedSince = new CopyOnWriteArrayList<String>();
+		StubServer server = new StubServer(new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				String since = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+				ifModifiedSince.add(String.valueOf(since));
+				if (since != null) {
+					StubServer.respond(exchange, 304, "");
+				} else {
+					exchange.getResponseHeaders().set("Last-Modified", LAST_MODIFIED);
+					StubServer.respond(exchange, 200, "{\"encoding\":\"UTF-8\",\"maxBatchSize\":200,\"sobjects\":[]}");
+				}
+			}
+		});
+		RestSObjectApiClient client = server.newClient();
+		try {
+			client.setMetadataCache(new MetadataCache(1, TimeUnit.HOURS, 10));
+			DescribeGlobal first = client.describeGlobal();
+			assertSame(first, client.describeGlobal());
+			assertEquals(1, ifModifiedSince.size());
+
+			//a zero ttl makes every entry stale, so each describe asks the server
+			MetadataCache stale = new MetadataCache(0, TimeUnit.SECONDS, 10);
+			client.setMetadataCache(stale);
+			DescribeGlobal fetched = client.describeGlobal();
+			assertNotNull(fetched);
+			assertSame(fetched, client.describeGlobal());
+			assertEquals(1, stale.getRevalidationCount());
+			assertEquals("[null, null, " + LAST_MODIFIED + "]", ifModifiedSince.toString());
+		} finally {
+			server.stop();
+			client.shutdown();
+		}
+	}
+}
@@ -0,0 +1,271 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.sobject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+public class PartitionedQueryTest {
+
+	private static final int RECORDS = 1000;
+	private static final int PAGE_SIZE = 200;
+	private static final String DIGITS = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
+
+	private final List<String> ids = Lists.newArrayList();
+	private final Map<String, List<String>> cursors = new ConcurrentHashMap<String, List<String>>();
+	private final AtomicInteger cursorCount = new AtomicInteger();
+	private final AtomicInteger failuresLeft = new AtomicInteger();
+	private StubServer server;
+	private RestSObjectApiClient client;
+
+	@Before
+	public void setUp() throws Exception {
+		for (int i = 0; i < RECORDS; i++) {
+			ids.add("001" + encode(i * 7919L + 1, 12) + "AAA");
+		}
+		Collections.sort(ids);
+		server = new StubServer(new QueryHandler());
+		client = server.newClient();
+	}
+
+	@After
+	public void tearDown() {
+		client.shutdown();
+		server.stop();
+	}
+
+	@Test
+	public void testIdBoundariesSplitEvenly() {
+		List<String> boundaries = PartitionedQuery.idBoundaries("001000000000000AAA", "00100000000000zAAA", 2);
+		assertEquals(Arrays.asList("00100000000000U"), boundaries);
+
+		boundaries = PartitionedQuery.idBoundaries("001000000000000", "001000000100000", 4);
+		assertEquals(3, boundaries.size());
+		for (int i = 1; i < boundaries.size(); i++) {
+			assertTrue(boundaries.get(i - 1).compareTo(boundaries.get(i)) < 0);
+		}
+	}
+
+	@Test
+	public void testIdBoundariesOfNarrowRange() {
+		//two adjacent Ids can't be split at all
+		assertTrue(PartitionedQuery.idBoundaries("001000000000000AAA", "001000000000001AAA", 10).isEmpty());
+		assertEquals(1, PartitionedQuery.idBoundaries("001000000000000AAA", "001000000000002AAA", 10).size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testIdBoundariesOfDifferentObjects() {
+		PartitionedQuery.idBoundaries("001000000000000", "003000000000001", 2);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testOrderByIsRejected() throws Exception {
+		PartitionedQuery.byId(client, "SELECT Id FROM Account ORDER BY Name", 2);
+	}
+
+	@Test
+	public void testSlicesCoverEveryRecord() throws Exception {
+		PartitionedQuery query = PartitionedQuery.byId(client, "SELECT Id, Name FROM Account", 4);
+		assertEquals(4, query.getSlices().size());
+
+		List<String> returned = drain(query.start(), Integer.MAX_VALUE);
+		assertEquals(RECORDS, returned.size());
+		assertEquals(Sets.newHashSet(ids), Sets.newHashSet(returned));
+		for (PartitionedQuery.Slice slice : query.getSlices()) {
+			assertEquals(PartitionedQuery.SliceState.DONE, slice.getState());
+		}
+	}
+
+	@Test
+	public void testOrderedResultsComeInIdOrder() throws Exception {
+		PartitionedQuery query = PartitionedQuery.byId(client, "SELECT Id, Name FROM Account", 4);
+		query.setOrdered(true);
+		assertEquals(ids, drain(query.start(), Integer.MAX_VALUE));
+	}
+
+	@Test
+	public void testCloseAndRestartReturnsEveryIdOnce() throws Exception {
+		closeAndRestart(false);
+	}
+
+	@Test
+	public void testOrderedCloseAndRestartReturnsEveryIdOnce() throws Exception {
+		closeAndRestart(true);
+	}
+
+	@Test
+	public void testFailedSliceIsRetried() throws Exception {
+		PartitionedQuery query = PartitionedQuery.byId(client, "SELECT Id, Name FROM Account", 2);
+		failuresLeft.set(1);
+
+		List<String> returned = drain(query.start(), Integer.MAX_VALUE);
+		assertEquals(0, failuresLeft.get());
+		assertEquals(ids, sorted(returned));
+		int attempts = 0;
+		for (PartitionedQuery.Slice slice : query.getSlices()) {
+			attempts += slice.getAttempts();
+		}
+		assertEquals(3, attempts);
+	}
+
+	private void closeAndRestart(boolean ordered) throws Exception {
+		PartitionedQuery query = PartitionedQuery.byId(client, "SELECT Id, Name FROM Account", 4);
+		query.setOrdered(ordered);
+		query.setBufferSize(50);
+
+		//slices are mid-way, with records fetched but not yet taken
+		PartitionedQuery.Results results = query.start();
+		List<String> returned = drain(results, 300);
+		Thread.sleep(100);
+		results.close();
+		assertEquals(300, query.getRecordsFetched());
+
+		returned.addAll(drain(query.start(), Integer.MAX_VALUE));
+		assertEquals(RECORDS, returned.size());
+		assertEquals(ids, sorted(returned));
+		if (ordered) {
+			assertEquals(ids, returned);
+		}
+		assertEquals(RECORDS, query.getRecordsFetched());
+	}
+
+	private static List<String> drain(PartitionedQuery.Results results, int max) {
+		List<String> returned = Lists.newArrayList();
+		while (returned.size() < max && results.hasNext()) {
+			returned.add(results.next().getId());
+		}
+		if (max == Integer.MAX_VALUE) {
+			assertFalse(results.hasNext());
+		}
+		return returned;
+	}
+
+	private static List<String> sorted(List<String> values) {
+		List<String> sorted = Lists.newArrayList(values);
+		Collections.sort(sorted);
+		return sorted;
+	}
+
+	private static String encode(long value, int length) {
+		char[] digits = new char[length];
+		for (int i = length - 1; i >= 0; i--) {
+			digits[i] = DIGITS.charAt((int) (value % DIGITS.length()));
+			value /= DIGITS.length();
+		}
+		return new String(digits);
+	}
+
+	/**
+	 * Answers the queries a partitioned query sends: Id ranges ordered by Id, and the edge Id lookups.
+	 */
+	private class QueryHandler implements HttpHandler {
+		private final Pattern atLeast = Pattern.compile("Id >= '(\\w+)'");
+		private final Pattern below = Pattern.compile("Id < '(\\w+)'");
+		private final Pattern after = Pattern.compile("Id > '(\\w+)'");
+
+		public void handle(HttpExchange exchange) throws IOException {
+			String uri = exchange.getRequestURI().toString();
+			List<String> matched;
+			if (uri.startsWith(StubServer.BASE_PATH + "query?q=")) {
+				String soql = URLDecoder.decode(uri.substring(uri.indexOf("q=") + 2), "UTF-8");
+				matched = Lists.newArrayList();
+				for (String id : ids) {
+					if (matches(atLeast, soql, id, 1) && matches(below, soql, id, -1) && matches(after, soql, id, 2)) {
+						matched.add(id);
+					}
+				}
+				if (soql.endsWith("DESC LIMIT 1")) {
+					matched = matched.subList(matched.size() - 1, matched.size());
+				} else if (soql.endsWith("LIMIT 1")) {
+					matched = matched.subList(0, 1);
+				}
+			} else if (uri.startsWith(StubServer.BASE_PATH + "query/")) {
+				int left = failuresLeft.get();
+				if (left > 0 && failuresLeft.compareAndSet(left, left - 1)) {
+					StubServer.respond(exchange, 503, "[{\"message\":\"Try again\",\"errorCode\":\"SERVER_UNAVAILABLE\"}]");
+					return;
+				}
+				matched = cursors.remove(uri.substring(uri.lastIndexOf('/') + 1));
+			} else {
+				StubServer.respond(exchange, 404, "[]");
+				return;
+			}
+			StubServer.respond(exchange, 200, page(matched));
+		}
+
+		/**
+		 * @param sign 1 for at least, -1 for below, 2 for after the bound in the query, if it has one.
+		 */
+		private boolean matches(Pattern pattern, String soql, String id, int sign) {
+			Matcher matcher = pattern.matcher(soql);
+			if (!matcher.find()) {
+				return true;
+			}
+			int comparison = id.compareTo(matcher.group(1));
+			return sign == 1 ? comparison >= 0 : sign == -1 ? comparison < 0 : comparison > 0;
+		}
+
+		private String page(List<String> matched) {
+			List<String> records = matched.subList(0, Math.min(PAGE_SIZE, matched.size()));
+			StringBuilder page = new StringBuilder("{\"totalSize\":").append(matched.size());
+			if (records.size() < matched.size()) {
+				String cursor = "01gx-" + cursorCount.incrementAndGet();
+				cursors.put(cursor, Lists.newArrayList(matched.subList(records.size(), matched.size())));
+				page.append(",\"done\":false,\"nextRecordsUrl\":\"").append(StubServer.BASE_PATH).append("query/")
+						.append(cursor).append('"');
+			} else {
+				page.append(",\"done\":true");
+			}
+			page.append(",\"records\":[");
+			for (int i = 0; i < records.size(); i++) {
+				page.append(i == 0 ? "" : ",").append("{\"attributes\":{\"type\":\"Account\"},\"Id\":\"")
+						.append(records.get(i)).append("\",\"Name\":\"Account ").append(i).append("\"}");
+			}
+			return page.append("]}").toString();
+		}
+	}
+}
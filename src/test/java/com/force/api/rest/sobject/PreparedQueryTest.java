@@ -0,0 +1,142 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.sobject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.net.URLDecoder;
+import java.util.Date;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+public class PreparedQueryTest {
+
+	@Test
+	public void bindsAreFoundInOrderOfFirstUse() {
+		PreparedQuery query = PreparedQuery.prepare("SELECT Id FROM Contact WHERE AccountId = :accountId "
+				+ "AND (Email = :email OR Secondary_Email__c = :email) LIMIT :max");
+
+		assertEquals(ImmutableList.of("accountId", "email", "max"), query.getBindNames());
+	}
+
+	@Test
+	public void colonsInStringsAreNotBinds() throws Exception {
+		PreparedQuery query = PreparedQuery.prepare("SELECT Id FROM Case WHERE Subject = 'Re: :ticket \\' :x' "
+				+ "AND OwnerId = :owner");
+
+		assertEquals(ImmutableList.of("owner"), query.getBindNames());
+		assertEquals("SELECT Id FROM Case WHERE Subject = 'Re: :ticket \\' :x' AND OwnerId = '005x1'",
+				decode(query.bind().set("owner", "005x1").toUrlParameter()));
+	}
+
+	@Test
+	public void valuesAreTurnedIntoLiterals() {
+		assertEquals("null", PreparedQuery.literal(null));
+		assertEquals("true", PreparedQuery.literal(Boolean.TRUE));
+		assertEquals("42", PreparedQuery.literal(42));
+		assertEquals("10000000", PreparedQuery.literal(1.0e7d));
+		assertEquals("0.1", PreparedQuery.literal(0.1f));
+		assertEquals("12345678901234567890.5", PreparedQuery.literal(new BigDecimal("12345678901234567890.5")));
+		assertEquals("1970-01-02T00:00:00Z", PreparedQuery.literal(new Date(86400000L)));
+		assertEquals("('a','b')", PreparedQuery.literal(ImmutableSet.of("a", "b")));
+		assertEquals("(1,2,3)", PreparedQuery.literal(new Integer[] { 1, 2, 3 }));
+	}
+
+	@Test
+	public void stringsAreQuotedAndEscaped() {
+		assertEquals("'O\\'Brien'", PreparedQuery.literal("O'Brien"));
+		assertEquals("'a\\\\b \\\"c\\\"'", PreparedQuery.literal("a\\b \"c\""));
+		assertEquals("'line\\nbreak\\ttab'", PreparedQuery.literal("line\nbreak\ttab"));
+		//LIKE wildcards pass through
+		assertEquals("'50%_'", PreparedQuery.literal("50%_"));
+	}
+
+	@Test
+	public void injectionStaysInsideTheLiteral() throws Exception {
+		PreparedQuery query = PreparedQuery.prepare("SELECT Id FROM Account WHERE Name = :name");
+
+		String soql = decode(query.bind().set("name", "x' OR Name != '").toUrlParameter());
+
+		assertEquals("SELECT Id FROM Account WHERE Name = 'x\\' OR Name != \\''", soql);
+	}
+
+	@Test
+	public void executionsDontShareValues() throws Exception {
+		PreparedQuery query = PreparedQuery.prepare("SELECT Id FROM Account WHERE Industry IN :industries");
+		PreparedQuery.Bindings energy = query.bind().set("industries", ImmutableList.of("Energy"));
+		PreparedQuery.Bindings both = query.bind().set("industries", ImmutableList.of("Energy", "Retail"));
+
+		assertEquals("SELECT Id FROM Account WHERE Industry IN ('Energy')", decode(energy.toUrlParameter()));
+		assertEquals("SELECT Id FROM Account WHERE Industry IN ('Energy','Retail')", decode(both.toUrlParameter()));
+		assertEquals("SELECT+Id+FROM+Account+WHERE+Industry+IN+%28%27Energy%27%29", energy.toUrlParameter());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void everyBindMustBeSet() {
+		PreparedQuery.prepare("SELECT Id FROM Account WHERE Name = :name AND Type = :type").bind()
+				.set("name", "Acme").toUrlParameter();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void unknownBindsAreRejected() {
+		PreparedQuery.prepare("SELECT Id FROM Account WHERE Name = :name").bind().set("nmae", "Acme");
+	}
+
+	@Test
+	public void valuesWithoutLiteralsAreRejected() {
+		PreparedQuery query = PreparedQuery.prepare("SELECT Id FROM Account WHERE Name = :name");
+		Object[] values = { Double.NaN, ImmutableList.of(), new Object() };
+		for (Object value : values) {
+			try {
+				query.bind().set("name", value);
+				fail("expected " + value + " to be rejected");
+			} catch (IllegalArgumentException expected) {
+			}
+		}
+	}
+
+	@Test
+	public void onlySelectStatementsArePrepared() {
+		String[] statements = { "DELETE FROM Account", "SELECT Id", "Id FROM Account",
+				"SELECT Id FROM Account WHERE Name = 'open" };
+		for (String statement : statements) {
+			try {
+				PreparedQuery.prepare(statement);
+				fail("expected " + statement + " to be rejected");
+			} catch (IllegalArgumentException expected) {
+			}
+		}
+	}
+
+	private static String decode(String parameter) throws Exception {
+		return URLDecoder.decode(parameter, "UTF-8");
+	}
+}
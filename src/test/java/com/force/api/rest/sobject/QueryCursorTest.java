@@ -0,0 +1,170 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.sobject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.force.api.rest.sobject.QueryCursor.QueryCursorException;
+import com.google.common.collect.Lists;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+/**
+ * Follows a three batch query on a stub server.
+ */
+public class QueryCursorTest {
+
+	private final List<String> batchSizes = new CopyOnWriteArrayList<String>();
+	private volatile boolean failLastBatch;
+	private StubServer server;
+	private RestSObjectApiClient client;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new StubServer(new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				batchSizes.add(exchange.getRequestHeaders().getFirst("Sforce-Query-Options"));
+				String path = exchange.getRequestURI().getPath();
+				if (path.endsWith("/query")) {
+					StubServer.respond(exchange, 200, page("query/01gx-2", "001x1", "001x2"));
+				} else if (path.endsWith("/query/01gx-2")) {
+					StubServer.respond(exchange, 200, page("query/01gx-4", "001x3", "001x4"));
+				} else if (failLastBatch) {
+					StubServer.respond(exchange, 400, "[{\"errorCode\":\"INVALID_QUERY_LOCATOR\"}]");
+				} else {
+					StubServer.respond(exchange, 200, page(null, "001x5"));
+				}
+			}
+		});
+		client = server.newClient();
+	}
+
+	@After
+	public void tearDown() {
+		server.stop();
+		client.shutdown();
+	}
+
+	@Test
+	public void followsEveryBatch() throws Exception {
+		QueryCursor cursor = client.queryCursor("SELECT+Id+FROM+Account", 200);
+		List<String> ids = Lists.newArrayList();
+		while (cursor.hasNext()) {
+			ids.add(cursor.next().getId());
+		}
+
+		assertEquals(Lists.newArrayList("001x1", "001x2", "001x3", "001x4", "001x5"), ids);
+		assertEquals(5, cursor.getTotalSize());
+		assertEquals(3, cursor.getPagesFetched());
+		assertEquals(5, cursor.getRecordsReturned());
+		assertEquals(3, batchSizes.size());
+		for (String batchSize : batchSizes) {
+			assertEquals("batchSize=200", batchSize);
+		}
+	}
+
+	@Test
+	public void nextBatchIsFetchedWhileTheCurrentOneIsRead() throws Exception {
+		QueryCursor cursor = client.queryCursor("SELECT+Id+FROM+Account", 200);
+		try {
+			//nothing has been read yet, but the second batch is on its way
+			for (int i = 0; i < 200 && server.getRequests().size() < 2; i++) {
+				Thread.sleep(10);
+			}
+			assertEquals(2, server.getRequests().size());
+			assertTrue(server.getRequests().get(1).endsWith("/query/01gx-2"));
+		} finally {
+			cursor.close();
+		}
+	}
+
+	@Test
+	public void failedBatchIsThrownFromHasNext() throws Exception {
+		failLastBatch = true;
+		QueryCursor cursor = client.queryCursor("SELECT+Id+FROM+Account", 200);
+		for (int i = 0; i < 4; i++) {
+			cursor.next();
+		}
+		try {
+			cursor.hasNext();
+			fail("Expected the third batch to fail");
+		} catch (QueryCursorException e) {
+			assertTrue(e.getCause() instanceof RestApiException);
+			assertEquals(400, ((RestApiException) e.getCause()).getExceptionCode());
+		}
+		assertFalse(cursor.hasNext());
+	}
+
+	@Test
+	public void closedCursorHasNoMoreRecords() throws Exception {
+		QueryCursor cursor = client.queryCursor("SELECT+Id+FROM+Account", 200);
+		cursor.next();
+		cursor.close();
+
+		assertFalse(cursor.hasNext());
+		assertEquals(1, cursor.getRecordsReturned());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void batchSizeMustBeInRange() throws Exception {
+		client.queryCursor("SELECT+Id+FROM+Account", 199);
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void recordsCantBeRemoved() throws Exception {
+		QueryCursor cursor = client.queryCursor("SELECT+Id+FROM+Account", 200);
+		try {
+			cursor.next();
+			cursor.remove();
+		} finally {
+			cursor.close();
+		}
+	}
+
+	private static String page(String next, String... ids) {
+		StringBuilder json = new StringBuilder("{\"totalSize\":5,\"done\":").append(next == null);
+		if (next != null) {
+			json.append(",\"nextRecordsUrl\":\"").append(StubServer.BASE_PATH).append(next).append('"');
+		}
+		json.append(",\"records\":[");
+		for (int i = 0; i < ids.length; i++) {
+			json.append(i == 0 ? "" : ",").append("{\"attributes\":{\"type\":\"Account\"},\"Id\":\"")
+					.append(ids[i]).append("\"}");
+		}
+		return json.append("]}").toString();
+	}
+}
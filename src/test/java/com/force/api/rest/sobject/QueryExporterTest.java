@@ -0,0 +1,223 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.sobject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gson.Gson;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+/**
+ * Exports from a stub server that returns 1200 Accounts in two pages, every tenth one without a Phone.
+ */
+public class QueryExporterTest {
+
+	private static final String DESCRIBE = "{\"name\":\"Account\",\"fields\":[{\"name\":\"Id\",\"type\":\"id\"},"
+			+ "{\"name\":\"Name\",\"type\":\"string\"},{\"name\":\"BillingAddress\",\"type\":\"address\"},"
+			+ "{\"name\":\"Phone\",\"type\":\"phone\"},{\"name\":\"NumberOfEmployees\",\"type\":\"int\"}]}";
+
+	private volatile boolean failSecondPage;
+	private StubServer server;
+	private RestSObjectApiClient client;
+	private File dir;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new StubServer(new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				String path = exchange.getRequestURI().getPath();
+				if (path.endsWith("/describe/")) {
+					StubServer.respond(exchange, 200, DESCRIBE);
+				} else if (path.endsWith("/query/01gx-1000")) {
+					if (failSecondPage) {
+						StubServer.respond(exchange, 500, "[{\"message\":\"boom\",\"errorCode\":\"UNKNOWN_EXCEPTION\"}]");
+					} else {
+						StubServer.respond(exchange, 200, page(1000, 1200, null));
+					}
+				} else {
+					StubServer.respond(exchange, 200, page(0, 1000, StubServer.BASE_PATH + "query/01gx-1000"));
+				}
+			}
+		});
+		client = server.newClient();
+		dir = new File(System.getProperty("java.io.tmpdir"), "export-" + System.nanoTime());
+		assertTrue(dir.mkdirs());
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		server.stop();
+		client.shutdown();
+		FileUtils.deleteDirectory(dir);
+	}
+
+	@Test
+	public void everyFieldButCompoundOnesIsExportedInDescribeOrder() {
+		DescribeLayout describe = new Gson().fromJson(DESCRIBE, DescribeLayout.class);
+
+		assertEquals(ImmutableList.of("Id", "Name", "Phone", "NumberOfEmployees"), QueryExporter.columns(describe, null));
+		assertEquals(ImmutableList.of("Name", "Phone"),
+				QueryExporter.columns(describe, ImmutableList.of("phone", "NAME")));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void unknownFieldsAreRejected() {
+		QueryExporter.columns(new Gson().fromJson(DESCRIBE, DescribeLayout.class), ImmutableList.of("Name", "Revenue"));
+	}
+
+	@Test
+	public void csvValuesAreQuotedOnlyWhenNeeded() {
+		assertEquals("Acme", QueryExporter.csvValue("Acme"));
+		assertEquals("\"Acme, Inc.\"", QueryExporter.csvValue("Acme, Inc."));
+		assertEquals("\"The \"\"Acme\"\" Co\"", QueryExporter.csvValue("The \"Acme\" Co"));
+		assertEquals("\"two\nlines\"", QueryExporter.csvValue("two\nlines"));
+	}
+
+	@Test
+	public void csvExportsHaveAHeaderAndEmptyNulls() throws Exception {
+		QueryExporter exporter = new QueryExporter(client, dir, QueryExporter.Format.CSV);
+
+		QueryExporter.Result result = exporter.export("Account", "Name != null");
+
+		assertEquals(1200L, result.getRecordCount());
+		assertEquals(ImmutableList.of(new File(dir, "Account-00000.csv")), result.getFiles());
+		List<String> lines = lines(result.getFiles().get(0));
+		assertEquals(1201, lines.size());
+		assertEquals("Id,Name,Phone,NumberOfEmployees", lines.get(0));
+		assertEquals("001x0,\"Acme, 0\",,0", lines.get(1));
+		assertEquals("001x1,\"Acme, 1\",555-0001,10", lines.get(2));
+		assertEquals(result.getFiles().get(0).length(), result.getByteCount());
+		assertTrue(server.getRequests().get(1).contains("WHERE+Name+%21%3D+null"));
+	}
+
+	@Test
+	public void ndjsonExportsKeepTypesAndNulls() throws Exception {
+		QueryExporter exporter = new QueryExporter(client, dir, QueryExporter.Format.NDJSON);
+
+		QueryExporter.Result result = exporter.export("Account", ImmutableList.of("Name", "Phone", "NumberOfEmployees"),
+				null);
+
+		List<String> lines = lines(result.getFiles().get(0));
+		assertEquals(1200, lines.size());
+		JSONObject first = new JSONObject(lines.get(0));
+		assertEquals(JSONObject.NULL, first.get("Phone"));
+		assertEquals(0, first.getInt("NumberOfEmployees"));
+		assertEquals("{\"Name\":\"Acme, 1\",\"Phone\":\"555-0001\",\"NumberOfEmployees\":10}", lines.get(1));
+	}
+
+	@Test
+	public void largeExportsRollOverToNumberedFiles() throws Exception {
+		QueryExporter exporter = new QueryExporter(client, dir, QueryExporter.Format.CSV);
+		exporter.setMaxFileBytes(10000);
+
+		QueryExporter.Result result = exporter.export("Account", null);
+
+		assertTrue(result.getFiles().size() > 1);
+		assertEquals(new File(dir, "Account-00001.csv"), result.getFiles().get(1));
+		int rows = 0;
+		long bytes = 0;
+		for (File file : result.getFiles()) {
+			List<String> lines = lines(file);
+			assertEquals("Id,Name,Phone,NumberOfEmployees", lines.get(0));
+			rows += lines.size() - 1;
+			bytes += file.length();
+		}
+		assertEquals(1200, rows);
+		assertEquals(bytes, result.getByteCount());
+	}
+
+	@Test
+	public void gzippedExportsAreReadable() throws Exception {
+		QueryExporter exporter = new QueryExporter(client, dir, QueryExporter.Format.NDJSON);
+		exporter.setGzip(true);
+
+		QueryExporter.Result result = exporter.export("Account", null);
+
+		assertEquals(ImmutableList.of(new File(dir, "Account-00000.ndjson.gz")), result.getFiles());
+		assertEquals(1200, lines(result.getFiles().get(0)).size());
+		assertEquals(result.getFiles().get(0).length(), result.getByteCount());
+	}
+
+	@Test
+	public void aFailedPageStopsTheExport() throws Exception {
+		failSecondPage = true;
+		QueryExporter exporter = new QueryExporter(client, dir, QueryExporter.Format.CSV);
+		//the first page is handed over as a whole batch before the second one fails
+		exporter.setBatchSize(1000);
+
+		try {
+			exporter.export("Account", null);
+			fail("expected the failed page to be thrown");
+		} catch (RestApiException e) {
+			assertEquals(500, e.getExceptionCode());
+		}
+		//the rows written before the failure are kept
+		assertEquals(1001, lines(new File(dir, "Account-00000.csv")).size());
+	}
+
+	private static String page(int from, int to, String next) {
+		StringBuilder records = new StringBuilder();
+		for (int i = from; i < to; i++) {
+			records.append(i == from ? "" : ",").append("{\"attributes\":{\"type\":\"Account\"},\"Id\":\"001x")
+					.append(i).append("\",\"Name\":\"Acme, ").append(i).append("\",\"Phone\":")
+					.append(i % 10 == 0 ? "null" : String.format("\"555-%04d\"", i))
+					.append(",\"NumberOfEmployees\":").append(i * 10).append('}');
+		}
+		return "{\"totalSize\":1200,\"done\":" + (next == null) + ","
+				+ (next == null ? "" : "\"nextRecordsUrl\":\"" + next + "\",") + "\"records\":[" + records + "]}";
+	}
+
+	@SuppressWarnings("unchecked")
+	private static List<String> lines(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			if (file.getName().endsWith(".gz")) {
+				in = new GZIPInputStream(in);
+			}
+			return IOUtils.readLines(in, "UTF-8");
+		} finally {
+			in.close();
+		}
+	}
+}
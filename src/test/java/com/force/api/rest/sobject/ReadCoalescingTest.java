@@ -0,0 +1,224 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.sobject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.force.api.rest.sobject.model.AnySObject;
+import com.force.api.rest.sobject.model.CompactSObject;
+import com.force.api.rest.sobject.model.SObject;
+import com.google.common.collect.Lists;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+public class ReadCoalescingTest {
+
+	private static final int CALLERS = 5;
+
+	private final CountDownLatch release = new CountDownLatch(1);
+	private volatile boolean failing;
+	private StubServer server;
+	private RestSObjectApiClient client;
+	private ExecutorService callers;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new StubServer(new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					//hold every response until all callers have asked
+					release.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				String path = exchange.getRequestURI().getPath();
+				if (failing) {
+					StubServer.respond(exchange, 503, "[{\"message\":\"busy\",\"errorCode\":\"SERVER_UNAVAILABLE\"}]");
+				} else if (path.endsWith("/sobjects/")) {
+					StubServer.respond(exchange, 200, "{\"encoding\":\"UTF-8\",\"maxBatchSize\":200,\"sobjects\":[]}");
+				} else {
+					StubServer.respond(exchange, 200, "{\"attributes\":{\"type\":\"Account\"},\"Id\":\"001x\",\"Name\":\"Acme\"}");
+				}
+			}
+		});
+		client = server.newClient();
+		client.setCoalesceReads(true);
+		callers = Executors.newFixedThreadPool(CALLERS);
+	}
+
+	@After
+	public void tearDown() {
+		callers.shutdownNow();
+		client.shutdown();
+		server.stop();
+	}
+
+	@Test
+	public void testConcurrentDescribesShareOneRequest() throws Exception {
+		List<Object> results = callConcurrently(new Callable<Object>() {
+			public Object call() throws Exception {
+				return client.describeGlobal();
+			}
+		});
+		assertEquals(1, server.getRequests().size());
+		assertEquals(CALLERS - 1, client.getCoalescedReadCount());
+		for (Object result : results) {
+			assertSame(results.get(0), result);
+		}
+	}
+
+	@Test
+	public void testRecordGetsShareOneRequestButNotTheRecord() throws Exception {
+		List<Object> results = callConcurrently(new Callable<Object>() {
+			public Object call() throws Exception {
+				return client.get("Account", "001x");
+			}
+		});
+		assertEquals(1, server.getRequests().size());
+		assertEquals(CALLERS - 1, client.getCoalescedReadCount());
+		for (int i = 1; i < results.size(); i++) {
+			assertNotSame(results.get(0), results.get(i));
+			assertEquals("Acme", ((SObject) results.get(i)).getField("Name"));
+		}
+
+		//each caller can change its own copy
+		AnySObject first = (AnySObject) results.get(0);
+		first.setString("Name", "Changed");
+		assertEquals("Acme", ((SObject) results.get(1)).getField("Name"));
+		assertTrue(first.hasChanges());
+		assertFalse(((SObject) results.get(1)).hasChanges());
+	}
+
+	@Test
+	public void testCompactRecordGetsAreBuiltPerCaller() throws Exception {
+		client.setCompactRecords(true);
+		List<Object> results = callConcurrently(new Callable<Object>() {
+			public Object call() throws Exception {
+				return client.get("Account", "001x");
+			}
+		});
+		assertEquals(1, server.getRequests().size());
+		for (int i = 1; i < results.size(); i++) {
+			assertTrue(results.get(i) instanceof CompactSObject);
+			assertNotSame(results.get(0), results.get(i));
+			assertEquals("Acme", ((SObject) results.get(i)).getField("Name"));
+		}
+	}
+
+	@Test
+	public void testDifferentUrlsAreNotShared() throws Exception {
+		final AtomicInteger calls = new AtomicInteger();
+		List<Object> results = callConcurrently(new Callable<Object>() {
+			public Object call() throws Exception {
+				return client.describeLayout(calls.getAndIncrement() % 2 == 0 ? "Account" : "Contact");
+			}
+		});
+		assertEquals(2, server.getRequests().size());
+		assertEquals(CALLERS - 2, client.getCoalescedReadCount());
+		assertEquals(CALLERS, results.size());
+	}
+
+	@Test
+	public void testFailuresReachEveryCaller() throws Exception {
+		failing = true;
+		List<Future<Object>> futures = submitConcurrently(new Callable<Object>() {
+			public Object call() throws Exception {
+				return client.describeGlobal();
+			}
+		});
+		for (Future<Object> future : futures) {
+			try {
+				future.get(5, TimeUnit.SECONDS);
+				fail("expected the 503 to be thrown");
+			} catch (ExecutionException e) {
+				assertEquals(503, ((RestApiException) e.getCause()).getExceptionCode());
+			}
+		}
+		assertEquals(1, server.getRequests().size());
+	}
+
+	@Test
+	public void testFinishedRequestsAreNotReused() throws Exception {
+		release.countDown();
+		DescribeGlobal first = client.describeGlobal();
+		DescribeGlobal second = client.describeGlobal();
+
+		assertNotSame(first, second);
+		assertEquals(2, server.getRequests().size());
+		assertEquals(0, client.getCoalescedReadCount());
+	}
+
+	@Test
+	public void testNothingIsSharedWhenCoalescingIsOff() throws Exception {
+		client.setCoalesceReads(false);
+		callConcurrently(new Callable<Object>() {
+			public Object call() throws Exception {
+				return client.describeGlobal();
+			}
+		});
+		assertEquals(CALLERS, server.getRequests().size());
+		assertEquals(0, client.getCoalescedReadCount());
+	}
+
+	private List<Object> callConcurrently(Callable<Object> call) throws Exception {
+		List<Object> results = Lists.newArrayList();
+		for (Future<Object> future : submitConcurrently(call)) {
+			results.add(future.get(5, TimeUnit.SECONDS));
+		}
+		return results;
+	}
+
+	private List<Future<Object>> submitConcurrently(Callable<Object> call) throws Exception {
+		List<Future<Object>> futures = Lists.newArrayList();
+		for (int i = 0; i < CALLERS; i++) {
+			futures.add(callers.submit(call));
+		}
+		//give every caller time to send or join a request
+		Thread.sleep(300);
+		release.countDown();
+		return futures;
+	}
+}
@@ -0,0 +1,273 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.sobject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.force.api.rest.sobject.model.AnySObject;
+import com.force.api.rest.sobject.model.SObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+/**
+ * Checks per-type policies, eviction and invalidation of the record cache, and how the client reads through it.
+ */
+public class RecordCacheTest {
+
+	private static final String LAST_MODIFIED = "Tue, 13 Oct 2026 08:00:00 GMT";
+
+	private final List<String> ifModifiedSince = new CopyOnWriteArrayList<String>();
+	private StubServer server;
+	private RestSObjectApiClient client;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new StubServer(new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				if (!"GET".equals(exchange.getRequestMethod())) {
+					StubServer.respond(exchange, 204, "");
+					return;
+				}
+				String since = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+				ifModifiedSince.add(String.valueOf(since));
+				if (LAST_MODIFIED.equals(since)) {
+					StubServer.respond(exchange, 304, "");
+				} else {
+					exchange.getResponseHeaders().set("Last-Modified", LAST_MODIFIED);
+					StubServer.respond(exchange, 200, "{\"attributes\":{\"type\":\"Product2\"},"
+							+ "\"Id\":\"01tx1\",\"Name\":\"Widget\"}");
+				}
+			}
+		});
+		client = server.newClient();
+	}
+
+	@After
+	public void tearDown() {
+		server.stop();
+		client.shutdown();
+	}
+
+	@Test
+	public void freshRecordsAreHitsAndCopiesAreIndependent() {
+		RecordCache cache = new RecordCache(1, TimeUnit.MINUTES, 10);
+		cache.put(product("01tx1", "Widget"), LAST_MODIFIED, cache.version());
+
+		RecordCache.CachedRecord cached = cache.lookup("Product2", "01tx1", System.currentTimeMillis());
+		AnySObject copy = (AnySObject) cached.toSObject();
+		copy.setString("Name", "Gadget");
+
+		assertEquals("Widget", cached.toSObject().getField("Name"));
+		assertFalse(cached.toSObject().hasChanges());
+		assertEquals(1L, cache.getHitCount());
+		assertEquals(0L, cache.getMissCount());
+	}
+
+	@Test
+	public void staleRecordsAreMissesButStillReturned() {
+		RecordCache cache = new RecordCache(1, TimeUnit.MINUTES, 10);
+		cache.put(product("01tx1", "Widget"), LAST_MODIFIED, cache.version());
+
+		long later = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(2);
+		RecordCache.CachedRecord cached = cache.lookup("Product2", "01tx1", later);
+
+		assertNotNull(cached);
+		assertFalse(cached.isFresh(later));
+		assertEquals(LAST_MODIFIED, cached.getLastModified());
+		assertEquals(1L, cache.getMissCount());
+	}
+
+	@Test
+	public void recordsFetchedAcrossAnInvalidationAreDropped() {
+		RecordCache cache = new RecordCache(1, TimeUnit.MINUTES, 10);
+		long requestedAt = cache.version();
+		cache.invalidate("Product2", "01tx1");
+		cache.put(product("01tx1", "Widget"), LAST_MODIFIED, requestedAt);
+
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void invalidationsOfOtherRecordsDontDropAFill() {
+		RecordCache cache = new RecordCache(1, TimeUnit.MINUTES, 10);
+		cache.put(product("01tx2", "Other"), null, cache.version());
+		long requestedAt = cache.version();
+		cache.invalidate("Product2", "01tx2");
+		cache.invalidate("001x1");
+		cache.put(product("01tx1", "Widget"), LAST_MODIFIED, requestedAt);
+
+		assertEquals(1, cache.size());
+		assertNotNull(cache.lookup("Product2", "01tx1", System.currentTimeMillis()));
+	}
+
+	@Test
+	public void invalidatingEverythingDropsEveryFill() {
+		RecordCache cache = new RecordCache(1, TimeUnit.MINUTES, 10);
+		long requestedAt = cache.version();
+		cache.invalidateAll();
+		cache.put(product("01tx1", "Widget"), LAST_MODIFIED, requestedAt);
+		assertEquals(0, cache.size());
+
+		//fills sent afterwards are kept
+		cache.put(product("01tx1", "Widget"), LAST_MODIFIED, cache.version());
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void manyInvalidationsAreForgottenByDroppingFillsInFlight() {
+		RecordCache cache = new RecordCache(1, TimeUnit.MINUTES, 10);
+		long requestedAt = cache.version();
+		for (int i = 0; i < 2000; i++) {
+			cache.invalidate("01ty" + i);
+		}
+		cache.put(product("01tx1", "Widget"), LAST_MODIFIED, requestedAt);
+
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void revalidationsAcrossAnInvalidationAreDropped() {
+		RecordCache cache = new RecordCache(1, TimeUnit.MINUTES, 10);
+		cache.put(product("01tx1", "Widget"), LAST_MODIFIED, cache.version());
+		long later = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(2);
+		RecordCache.CachedRecord stale = cache.lookup("Product2", "01tx1", later);
+		long requestedAt = cache.version();
+		cache.invalidate("01tx1");
+		cache.revalidated(stale, requestedAt);
+
+		assertEquals(0, cache.size());
+		assertEquals(1L, cache.getRevalidationCount());
+	}
+
+	@Test
+	public void theLeastRecentlyUsedRecordOfATypeIsEvicted() {
+		RecordCache cache = new RecordCache(1, TimeUnit.MINUTES, 2);
+		cache.put(product("01tx1", "One"), null, cache.version());
+		cache.put(product("01tx2", "Two"), null, cache.version());
+		cache.lookup("Product2", "01tx1", System.currentTimeMillis());
+		cache.put(product("01tx3", "Three"), null, cache.version());
+
+		long now = System.currentTimeMillis();
+		assertNotNull(cache.lookup("Product2", "01tx1", now));
+		assertNull(cache.lookup("Product2", "01tx2", now));
+		assertNotNull(cache.lookup("Product2", "01tx3", now));
+		assertEquals(1L, cache.getEvictionCount());
+	}
+
+	@Test
+	public void typesFollowTheirOwnPolicy() {
+		RecordCache cache = new RecordCache(0, TimeUnit.MINUTES, 10);
+		cache.setPolicy("Product2", 1, TimeUnit.MINUTES, 10);
+		cache.put(product("01tx1", "Widget"), null, cache.version());
+		AnySObject account = new AnySObject("Account");
+		account.setString("Id", "001x1");
+		cache.put(account, null, cache.version());
+
+		assertTrue(cache.isCached("Product2"));
+		assertFalse(cache.isCached("Account"));
+		assertEquals(1, cache.size());
+
+		//a new policy starts the type afresh
+		cache.setPolicy("Product2", 5, TimeUnit.MINUTES, 10);
+		assertEquals(0, cache.size());
+		assertEquals(0L, cache.getEstimatedBytes());
+	}
+
+	@Test
+	public void invalidationByIdFindsTheRecordInAnyType() {
+		RecordCache cache = new RecordCache(1, TimeUnit.MINUTES, 10);
+		cache.put(product("01tx1", "Widget"), null, cache.version());
+		assertTrue(cache.getEstimatedBytes() > 0L);
+
+		cache.invalidate("01tx1");
+
+		assertEquals(0, cache.size());
+		assertEquals(0L, cache.getEstimatedBytes());
+		assertEquals(1L, cache.getInvalidationCount());
+	}
+
+	@Test
+	public void getReadsThroughTheCache() throws Exception {
+		RecordCache cache = new RecordCache(1, TimeUnit.MINUTES, 10);
+		client.setRecordCache(cache);
+
+		assertEquals("Widget", client.get("Product2", "01tx1").getField("Name"));
+		assertEquals("Widget", client.get("Product2", "01tx1").getField("Name"));
+
+		assertEquals(1, server.getRequests().size());
+		assertEquals(0.5d, cache.getHitRatio(), 0.0001d);
+	}
+
+	@Test
+	public void staleRecordsAreRevalidated() throws Exception {
+		RecordCache cache = new RecordCache(20, TimeUnit.MILLISECONDS, 10);
+		client.setRecordCache(cache);
+		client.get("Product2", "01tx1");
+		Thread.sleep(50);
+
+		SObject revalidated = client.get("Product2", "01tx1");
+
+		assertEquals("Widget", revalidated.getField("Name"));
+		assertEquals(LAST_MODIFIED, ifModifiedSince.get(1));
+		assertEquals(1L, cache.getRevalidationCount());
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void updatesDropTheCachedRecord() throws Exception {
+		RecordCache cache = new RecordCache(1, TimeUnit.MINUTES, 10);
+		client.setRecordCache(cache);
+		SObject product = client.get("Product2", "01tx1");
+		((AnySObject) product).setString("Name", "Gadget");
+
+		client.update(product);
+		client.get("Product2", "01tx1");
+
+		assertEquals(1L, cache.getInvalidationCount());
+		assertEquals(3, server.getRequests().size());
+		assertEquals("null", ifModifiedSince.get(1));
+	}
+
+	private static AnySObject product(String id, String name) {
+		AnySObject product = new AnySObject("Product2");
+		product.setString("Id", id);
+		product.setString("Name", name);
+		return product;
+	}
+}
@@ -0,0 +1,178 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.sobject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.force.api.rest.sobject.model.AnySObject;
+import com.force.api.rest.sobject.model.SObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+/**
+ * Sends requests to a stub server that reads gzip request bodies and gzips its responses when asked to.
+ */
+public class RequestCompressionTest {
+
+	private final List<String> encodings = new CopyOnWriteArrayList<String>();
+	private final List<String> bodies = new CopyOnWriteArrayList<String>();
+	private final List<String> acceptEncodings = new CopyOnWriteArrayList<String>();
+	private final List<String> prettyPrints = new CopyOnWriteArrayList<String>();
+	private StubServer server;
+	private RestSObjectApiClient client;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new StubServer(new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				if ("GET".equals(exchange.getRequestMethod())) {
+					respondToGet(exchange);
+					return;
+				}
+				String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+				encodings.add(encoding);
+				InputStream body = exchange.getRequestBody();
+				if ("gzip".equals(encoding)) {
+					body = new GZIPInputStream(body);
+				}
+				bodies.add(IOUtils.toString(body, "UTF-8"));
+				StubServer.respond(exchange, 201, "{\"id\":\"001x1\",\"success\":true,\"errors\":[]}");
+			}
+		});
+		ConnectionSettings settings = new ConnectionSettings();
+		//{"Name":"xxxxx"} is 16 characters
+		settings.setRequestCompressionThreshold(20);
+		client = new RestSObjectApiClient(StubServer.SESSION_ID, server.getHostname(), StubServer.API_VERSION,
+				settings);
+	}
+
+	@After
+	public void tearDown() {
+		server.stop();
+		client.shutdown();
+	}
+
+	@Test
+	public void asciiBodyUnderTheThresholdIsSentPlain() throws Exception {
+		client.create(account("Acmes"));
+
+		assertNull(encodings.get(0));
+		assertEquals("{\"Name\":\"Acmes\"}", bodies.get(0));
+	}
+
+	@Test
+	public void multibyteBodyOverTheThresholdIsCompressed() throws Exception {
+		//16 characters, but 21 bytes in UTF-8
+		client.create(account("\u00e9\u00e9\u00e9\u00e9\u00e9"));
+
+		assertEquals("gzip", encodings.get(0));
+		assertEquals("{\"Name\":\"\u00e9\u00e9\u00e9\u00e9\u00e9\"}", bodies.get(0));
+	}
+
+	@Test
+	public void bodiesAreSentPlainByDefault() throws Exception {
+		RestSObjectApiClient plain = server.newClient();
+		try {
+			StringBuilder name = new StringBuilder();
+			for (int i = 0; i < 2000; i++) {
+				name.append('x');
+			}
+			plain.create(account(name.toString()));
+		} finally {
+			plain.shutdown();
+		}
+
+		assertNull(encodings.get(0));
+	}
+
+	@Test
+	public void responsesAreRequestedCompressedAndDecompressed() throws Exception {
+		SObject record = client.get("Account", "001x1");
+
+		assertEquals("gzip", acceptEncodings.get(0));
+		assertEquals("Acme", record.getField("Name"));
+		//the server isn't asked to indent unless pretty printing is on
+		assertNull(prettyPrints.get(0));
+	}
+
+	@Test
+	public void uncompressedResponsesCanBeRequested() throws Exception {
+		ConnectionSettings settings = new ConnectionSettings();
+		settings.setCompressResponses(false);
+		settings.setPrettyPrint(true);
+		RestSObjectApiClient uncompressed = new RestSObjectApiClient(StubServer.SESSION_ID, server.getHostname(),
+				StubServer.API_VERSION, settings);
+		try {
+			assertEquals("Acme", uncompressed.get("Account", "001x1").getField("Name"));
+		} finally {
+			uncompressed.shutdown();
+		}
+
+		assertNull(acceptEncodings.get(0));
+		assertEquals("1", prettyPrints.get(0));
+	}
+
+	private void respondToGet(HttpExchange exchange) throws IOException {
+		String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+		acceptEncodings.add(accept);
+		prettyPrints.add(exchange.getRequestHeaders().getFirst("X-Pretty-Print"));
+		byte[] body = "{\"attributes\":{\"type\":\"Account\"},\"Id\":\"001x1\",\"Name\":\"Acme\"}".getBytes("UTF-8");
+		if (accept != null && accept.contains("gzip")) {
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+			GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+			gzip.write(body);
+			gzip.close();
+			body = compressed.toByteArray();
+			exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+		}
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+		exchange.sendResponseHeaders(200, body.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(body);
+		out.close();
+	}
+
+	private static AnySObject account(String name) {
+		AnySObject account = new AnySObject("Account");
+		account.setString("Name", name);
+		return account;
+	}
+}
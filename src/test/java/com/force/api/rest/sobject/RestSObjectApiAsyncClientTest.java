@@ -0,0 +1,106 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.sobject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+public class RestSObjectApiAsyncClientTest {
+
+	private final CountDownLatch release = new CountDownLatch(1);
+	private final DescribeGlobal describe = new DescribeGlobal();
+	private RestSObjectApiAsyncClient client;
+
+	@Before
+	public void setUp() {
+		//a blocking api whose calls wait until the test releases them
+		RestSObjectApi api = (RestSObjectApi) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { RestSObjectApi.class }, new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						release.await(5, TimeUnit.SECONDS);
+						return describe;
+					}
+				});
+		client = new RestSObjectApiAsyncClient(api, 1, 2);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		release.countDown();
+		client.shutdown();
+		client.awaitTermination(5, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void callsOverTheLimitFailWithoutBlocking() throws Exception {
+		ListenableFuture<DescribeGlobal> first = client.describeGlobal();
+		ListenableFuture<DescribeGlobal> second = client.describeGlobal();
+		ListenableFuture<DescribeGlobal> third = client.describeGlobal();
+
+		assertEquals(2, client.getInFlight());
+		assertTrue(third.isDone());
+		try {
+			third.get();
+			fail("Expected the third call to be rejected");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof RejectedExecutionException);
+		}
+
+		release.countDown();
+		assertSame(describe, first.get(5, TimeUnit.SECONDS));
+		assertSame(describe, second.get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void permitsAreReturnedWhenCallsComplete() throws Exception {
+		release.countDown();
+		client.describeGlobal().get(5, TimeUnit.SECONDS);
+		client.describeGlobal().get(5, TimeUnit.SECONDS);
+		client.describeGlobal().get(5, TimeUnit.SECONDS);
+
+		//the permit goes back in a listener that may run just after get() returns
+		for (int i = 0; i < 100 && client.getInFlight() > 0; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(0, client.getInFlight());
+	}
+}
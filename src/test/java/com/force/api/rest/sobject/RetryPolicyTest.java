@@ -0,0 +1,166 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.sobject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+/**
+ * Checks which failures are retried, the backoff bounds, and retries of GETs against a stub server that fails a set
+ * number of times before answering.
+ */
+public class RetryPolicyTest {
+
+	private static final String RECORD = "{\"attributes\":{\"type\":\"Account\"},\"Id\":\"001x1\"}";
+
+	private final AtomicInteger failuresLeft = new AtomicInteger();
+	private volatile int failureStatus = 503;
+	private StubServer server;
+	private RestSObjectApiClient client;
+	private RetryPolicy policy;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new StubServer(new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				if (failuresLeft.getAndDecrement() > 0) {
+					StubServer.respond(exchange, failureStatus, "[{\"message\":\"try later\",\"errorCode\":\"SERVER_UNAVAILABLE\"}]");
+				} else {
+					StubServer.respond(exchange, 200, RECORD);
+				}
+			}
+		});
+		client = server.newClient();
+		policy = new RetryPolicy(3, 0, 0, TimeUnit.MILLISECONDS, RetryPolicy.DEFAULT_RETRYABLE_STATUSES);
+		client.setRetryPolicy(policy);
+	}
+
+	@After
+	public void tearDown() {
+		server.stop();
+		client.shutdown();
+	}
+
+	@Test
+	public void serverErrorsAndConnectionFailuresAreRetryable() {
+		RetryPolicy defaults = new RetryPolicy();
+
+		assertTrue(defaults.isRetryable(new RestApiException("unavailable", 503)));
+		assertTrue(defaults.isRetryable(new RestApiException("bad gateway", 502)));
+		assertTrue(defaults.isRetryable(new IOException("connection reset")));
+		assertFalse(defaults.isRetryable(new RestApiException("not found", 404)));
+		assertFalse(defaults.isRetryable(new RestApiException("malformed query", 400)));
+		assertFalse(defaults.isRetryable(new InterruptedIOException()));
+		assertFalse(defaults.isRetryable(new IllegalStateException()));
+	}
+
+	@Test
+	public void backoffStaysUnderTheExponentialCeiling() {
+		RetryPolicy backoff = new RetryPolicy(5, 100, 400, TimeUnit.MILLISECONDS,
+				RetryPolicy.DEFAULT_RETRYABLE_STATUSES);
+		for (int i = 0; i < 200; i++) {
+			assertTrue(backoff.backoffMillis(1) < 100L);
+			assertTrue(backoff.backoffMillis(2) < 200L);
+			assertTrue(backoff.backoffMillis(3) < 400L);
+			assertTrue(backoff.backoffMillis(30) < 400L);
+		}
+		assertEquals(0L, policy.backoffMillis(1));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void baseDelayCantExceedMaxDelay() {
+		new RetryPolicy(3, 500, 100, TimeUnit.MILLISECONDS, RetryPolicy.DEFAULT_RETRYABLE_STATUSES);
+	}
+
+	@Test
+	public void transientFailuresAreRetried() throws Exception {
+		failuresLeft.set(2);
+
+		assertEquals("001x1", client.get("Account", "001x1").getId());
+		assertEquals(3, server.getRequests().size());
+		assertEquals(2L, policy.getRetryCount());
+		assertEquals(1L, policy.getRecoveredCount());
+		assertEquals(0L, policy.getExhaustedCount());
+	}
+
+	@Test
+	public void clientErrorsAreNotRetried() throws Exception {
+		failuresLeft.set(1);
+		failureStatus = 404;
+
+		try {
+			client.get("Account", "001x1");
+			fail("expected the 404 to be thrown");
+		} catch (RestApiException e) {
+			assertEquals(404, e.getExceptionCode());
+		}
+		assertEquals(1, server.getRequests().size());
+		assertEquals(0L, policy.getRetryCount());
+	}
+
+	@Test
+	public void theLastFailureIsThrownOnceAttemptsRunOut() throws Exception {
+		failuresLeft.set(10);
+
+		try {
+			client.get("Account", "001x1");
+			fail("expected the 503 to be thrown");
+		} catch (RestApiException e) {
+			assertEquals(503, e.getExceptionCode());
+		}
+		assertEquals(3, server.getRequests().size());
+		assertEquals(2L, policy.getRetryCount());
+		assertEquals(1L, policy.getExhaustedCount());
+	}
+
+	@Test
+	public void withoutAPolicyTheFirstFailureIsThrown() throws Exception {
+		client.setRetryPolicy(null);
+		failuresLeft.set(1);
+
+		try {
+			client.get("Account", "001x1");
+			fail("expected the 503 to be thrown");
+		} catch (RestApiException e) {
+			assertEquals(503, e.getExceptionCode());
+		}
+		assertEquals(1, server.getRequests().size());
+	}
+}
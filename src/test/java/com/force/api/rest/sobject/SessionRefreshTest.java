@@ -0,0 +1,225 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.sobject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.force.api.rest.sobject.model.AnySObject;
+import com.force.api.rest.sobject.model.SObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+/**
+ * Replays requests rejected with 401 Unauthorized after the session is refreshed.
+ */
+public class SessionRefreshTest {
+
+	private static final String REFRESHED = "00Dx0000000ABCD!AQ4AQRefreshed";
+
+	private final List<String> authorizations = new CopyOnWriteArrayList<String>();
+	private final List<String> bodies = new CopyOnWriteArrayList<String>();
+	private final AtomicInteger refreshes = new AtomicInteger();
+	private volatile CountDownLatch staleArrived = new CountDownLatch(0);
+	private StubServer server;
+	private RestSObjectApiClient client;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new StubServer(new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+				authorizations.add(authorization);
+				bodies.add(IOUtils.toString(exchange.getRequestBody(), "UTF-8"));
+				if (!authorization.endsWith(REFRESHED)) {
+					staleArrived.countDown();
+					try {
+						//holds the rejections back so concurrent callers all see the same expired session
+						staleArrived.await(5, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					StubServer.respond(exchange, 401, "[{\"errorCode\":\"INVALID_SESSION_ID\"}]");
+				} else if ("GET".equals(exchange.getRequestMethod())) {
+					StubServer.respond(exchange, 200, "{\"attributes\":{\"type\":\"Account\"},\"Id\":\"001x1\"}");
+				} else {
+					StubServer.respond(exchange, 201, "{\"id\":\"001x1\",\"success\":true,\"errors\":[]}");
+				}
+			}
+		});
+		client = server.newClient();
+		client.setCredentialProvider(new CredentialProvider() {
+			public String refreshSessionId(String expiredSessionId) {
+				refreshes.incrementAndGet();
+				return REFRESHED;
+			}
+		});
+	}
+
+	@After
+	public void tearDown() {
+		server.stop();
+		client.shutdown();
+	}
+
+	@Test
+	public void postIsReplayedWithItsBodyAndTheNewSession() throws Exception {
+		AnySObject account = new AnySObject("Account");
+		account.setString("Name", "Acme");
+
+		SObjectResult result = client.create(account);
+
+		assertEquals("001x1", result.getId());
+		assertEquals(1, refreshes.get());
+		assertEquals(2, bodies.size());
+		assertEquals("{\"Name\":\"Acme\"}", bodies.get(1));
+		assertEquals(bodies.get(0), bodies.get(1));
+		assertEquals("OAuth " + StubServer.SESSION_ID, authorizations.get(0));
+		assertEquals("OAuth " + REFRESHED, authorizations.get(1));
+	}
+
+	@Test
+	public void getIsReplayedOnce() throws Exception {
+		assertEquals("001x1", client.get("Account", "001x1").getId());
+		client.get("Account", "001x1");
+
+		assertEquals(1, refreshes.get());
+		assertEquals(3, authorizations.size());
+	}
+
+	@Test
+	public void concurrentRejectionsRefreshOnce() throws Exception {
+		int callers = 8;
+		staleArrived = new CountDownLatch(callers);
+		ExecutorService executor = Executors.newFixedThreadPool(callers);
+		try {
+			List<Future<SObject>> gets = new ArrayList<Future<SObject>>();
+			for (int i = 0; i < callers; i++) {
+				gets.add(executor.submit(new Callable<SObject>() {
+					public SObject call() throws Exception {
+						return client.get("Account", "001x1");
+					}
+				}));
+			}
+			for (Future<SObject> get : gets) {
+				assertEquals("001x1", get.get(10, TimeUnit.SECONDS).getId());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		assertEquals(1, refreshes.get());
+		assertEquals(callers * 2, authorizations.size());
+	}
+
+	@Test
+	public void aFailedRefreshIsSharedByConcurrentRejections() throws Exception {
+		final IOException failure = new IOException("token endpoint down");
+		client.setCredentialProvider(new CredentialProvider() {
+			public String refreshSessionId(String expiredSessionId) throws IOException {
+				refreshes.incrementAndGet();
+				throw failure;
+			}
+		});
+		int callers = 8;
+		staleArrived = new CountDownLatch(callers);
+		ExecutorService executor = Executors.newFixedThreadPool(callers);
+		try {
+			List<Future<SObject>> gets = new ArrayList<Future<SObject>>();
+			for (int i = 0; i < callers; i++) {
+				gets.add(executor.submit(new Callable<SObject>() {
+					public SObject call() throws Exception {
+						return client.get("Account", "001x1");
+					}
+				}));
+			}
+			for (Future<SObject> get : gets) {
+				try {
+					get.get(10, TimeUnit.SECONDS);
+					fail("expected the refresh failure to be thrown");
+				} catch (ExecutionException e) {
+					assertSame(failure, e.getCause());
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		assertEquals(1, refreshes.get());
+		//nothing is replayed
+		assertEquals(callers, authorizations.size());
+	}
+
+	@Test
+	public void rejectionsAreThrownWithoutAProvider() throws Exception {
+		client.setCredentialProvider(null);
+
+		try {
+			client.get("Account", "001x1");
+			fail("expected the 401 to be thrown");
+		} catch (RestApiException e) {
+			assertEquals(401, e.getExceptionCode());
+		}
+		assertEquals(1, authorizations.size());
+	}
+
+	@Test
+	public void anEmptyRefreshIsThrown() throws Exception {
+		client.setCredentialProvider(new CredentialProvider() {
+			public String refreshSessionId(String expiredSessionId) {
+				return null;
+			}
+		});
+
+		try {
+			client.get("Account", "001x1");
+			fail("expected the refresh failure to be thrown");
+		} catch (RestApiException e) {
+			assertEquals(401, e.getExceptionCode());
+		}
+		//nothing is replayed with a session the provider didn't hand out
+		assertEquals(1, authorizations.size());
+	}
+}
@@ -0,0 +1,147 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.sobject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.force.api.rest.sobject.model.AnySObject;
+import com.force.api.rest.sobject.model.SObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+/**
+ * Checks that update sends only the fields changed since a record was loaded.
+ */
+public class UpdateTest {
+
+	private final List<String> patches = new CopyOnWriteArrayList<String>();
+	private volatile boolean rejectPatches;
+	private StubServer server;
+	private RestSObjectApiClient client;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new StubServer(new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				if ("GET".equals(exchange.getRequestMethod())) {
+					StubServer.respond(exchange, 200, "{\"attributes\":{\"type\":\"Account\"},\"Id\":\"001x1\","
+							+ "\"Name\":\"Acme\",\"Phone\":\"555-0100\",\"CreatedDate\":\"2026-01-05T10:00:00.000+0000\"}");
+					return;
+				}
+				patches.add(IOUtils.toString(exchange.getRequestBody(), "UTF-8"));
+				if (rejectPatches) {
+					StubServer.respond(exchange, 400, "[{\"message\":\"Phone: bad value\","
+							+ "\"errorCode\":\"INVALID_FIELD\"}]");
+				} else {
+					StubServer.respond(exchange, 204, "");
+				}
+			}
+		});
+		client = server.newClient();
+	}
+
+	@After
+	public void tearDown() {
+		server.stop();
+		client.shutdown();
+	}
+
+	@Test
+	public void onlyChangedFieldsArePatched() throws Exception {
+		SObject account = client.get("Account", "001x1");
+		((AnySObject) account).setString("Phone", "555-0199");
+
+		client.update(account);
+
+		assertEquals(1, patches.size());
+		assertEquals("{\"Phone\":\"555-0199\"}", patches.get(0));
+		assertTrue(server.getRequests().get(1).endsWith("/sobjects/Account/001x1/?_HttpMethod=PATCH"));
+	}
+
+	@Test
+	public void unchangedRecordsAreNotSent() throws Exception {
+		SObject account = client.get("Account", "001x1");
+
+		SObjectResult result = client.update(account);
+
+		assertTrue(result.getSuccess());
+		assertEquals("001x1", result.getId());
+		assertEquals(1, server.getRequests().size());
+	}
+
+	@Test
+	public void savedRecordsAreCleanAgain() throws Exception {
+		SObject account = client.get("Account", "001x1");
+		((AnySObject) account).setString("Phone", "555-0199");
+		client.update(account);
+
+		assertFalse(account.hasChanges());
+		client.update(account);
+		assertEquals(1, patches.size());
+	}
+
+	@Test
+	public void failedUpdatesKeepTheirChanges() throws Exception {
+		SObject account = client.get("Account", "001x1");
+		((AnySObject) account).setString("Phone", "bad");
+		rejectPatches = true;
+
+		try {
+			client.update(account);
+			fail("expected the 400 to be thrown");
+		} catch (RestApiException e) {
+			assertEquals(400, e.getExceptionCode());
+		}
+		rejectPatches = false;
+		((AnySObject) account).setString("Phone", "555-0199");
+		client.update(account);
+
+		assertEquals("{\"Phone\":\"555-0199\"}", patches.get(1));
+	}
+
+	@Test
+	public void recordsBuiltByHandSendEverything() throws Exception {
+		AnySObject account = new AnySObject("Account");
+		account.setString("Id", "001x1");
+		account.setString("Name", "Acme");
+
+		client.update(account);
+
+		assertEquals(account.toJson(), patches.get(0));
+	}
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.sobject.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+public class AnySObjectTest {
+
+	@Test
+	public void newRecordsSendEveryField() throws Exception {
+		AnySObject account = new AnySObject("Account");
+		account.setString("Name", "Acme");
+		account.setDouble("AnnualRevenue", 10.0d);
+
+		assertTrue(account.hasChanges());
+		assertEquals(account.toJson(), account.toChangedJson());
+	}
+
+	@Test
+	public void cleanRecordsHaveNoChanges() throws Exception {
+		AnySObject account = loaded();
+
+		assertFalse(account.hasChanges());
+		assertEquals("{}", account.toChangedJson());
+	}
+
+	@Test
+	public void onlyFieldsSetAfterLoadingAreChanges() throws Exception {
+		AnySObject account = loaded();
+		account.setString("Name", "Acme Corp");
+		account.setBoolean("IsActive__c", false);
+
+		JSONObject changed = new JSONObject(account.toChangedJson());
+		assertTrue(account.hasChanges());
+		assertEquals(2, changed.length());
+		assertEquals("Acme Corp", changed.getString("Name"));
+		assertFalse(changed.getBoolean("IsActive__c"));
+		//the full record still has every field
+		assertEquals(4, new JSONObject(account.toJson()).length());
+	}
+
+	@Test
+	public void settingASameValueStillCountsAsAChange() throws Exception {
+		AnySObject account = loaded();
+		account.setString("Name", "Acme");
+
+		assertEquals("{\"Name\":\"Acme\"}", account.toChangedJson());
+	}
+
+	@Test
+	public void setFieldsTracksEveryKey() throws Exception {
+		AnySObject account = loaded();
+		account.setFields(ImmutableMap.<String, Object>of("Name", "Acme Corp", "Phone", "555-0100"));
+
+		assertEquals(2, new JSONObject(account.toChangedJson()).length());
+	}
+
+	@Test
+	public void markCleanStartsOver() throws Exception {
+		AnySObject account = loaded();
+		account.setString("Name", "Acme Corp");
+		account.markClean();
+
+		assertFalse(account.hasChanges());
+		assertEquals("Acme Corp", account.getField("Name"));
+	}
+
+	@Test
+	public void loadedFieldsAreNotChanges() throws Exception {
+		AnySObject account = loaded();
+		account.setString("Name", "Acme Corp");
+		AnySObject fetched = new AnySObject("Account");
+		fetched.setString("Name", "Acme");
+		fetched.setString("Phone", "555-0100");
+		account.putLoaded(fetched);
+
+		assertEquals("Acme Corp", account.getField("Name"));
+		assertEquals("555-0100", account.getField("Phone"));
+		assertEquals("{\"Name\":\"Acme Corp\"}", account.toChangedJson());
+	}
+
+	private static AnySObject loaded() {
+		AnySObject account = new AnySObject("Account");
+		account.setString("Id", "001x1");
+		account.setString("Name", "Acme");
+		account.setBoolean("IsActive__c", true);
+		account.setDouble("AnnualRevenue", 10.0d);
+		account.markClean();
+		return account;
+	}
+}
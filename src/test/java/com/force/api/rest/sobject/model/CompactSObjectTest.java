@@ -0,0 +1,141 @@
+/**
+ * Copyright (c) 2012, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.api.rest.sobject.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class CompactSObjectTest {
+
+	@Test
+	public void schemasAreSharedWithinARegistryOnly() {
+		RecordSchemas org1 = new RecordSchemas();
+		RecordSchemas org2 = new RecordSchemas();
+
+		assertSame(org1.forType("Account"), org1.forType("Account"));
+		assertNotSame(org1.forType("Account"), org2.forType("Account"));
+		assertEquals(1, org1.size());
+
+		new CompactSObject(org1.forType("Account")).setString("Custom__c", "x");
+		assertEquals(0, org1.forType("Account").slotOf("Custom__c"));
+		assertEquals(-1, org2.forType("Account").slotOf("Custom__c"));
+	}
+
+	@Test
+	public void standaloneRecordsHaveSchemasOfTheirOwn() {
+		CompactSObject a = new CompactSObject("Account");
+		CompactSObject b = new CompactSObject("Account");
+
+		assertNotSame(a.getSchema(), b.getSchema());
+		assertEquals("Account", a.getSObjectName());
+	}
+
+	@Test
+	public void valuesKeepTheirTypes() {
+		CompactSObject record = new CompactSObject("Account");
+		record.setString("Id", "001x");
+		record.setInt("NumberOfEmployees", 12);
+		record.setLong("Big__c", 1L << 40);
+		record.setDouble("AnnualRevenue", 1.5d);
+		record.setBoolean("IsActive__c", true);
+		record.setNull("Description");
+
+		assertEquals("001x", record.getId());
+		assertEquals(Integer.valueOf(12), record.getField("NumberOfEmployees"));
+		assertEquals(Long.valueOf(1L << 40), record.getField("Big__c"));
+		assertEquals(Double.valueOf(1.5d), record.getField("AnnualRevenue"));
+		assertEquals(Boolean.TRUE, record.getField("IsActive__c"));
+		assertSame(JSONObject.NULL, record.getField("Description"));
+		assertNull(record.getField("Phone"));
+		assertEquals(Arrays.asList("Id", "NumberOfEmployees", "Big__c", "AnnualRevenue", "IsActive__c", "Description"),
+				Arrays.asList(record.getFieldNames().toArray()));
+	}
+
+	@Test
+	public void replacingAValueChangesItsKind() {
+		CompactSObject record = new CompactSObject("Account");
+		record.setString("Rating", "Hot");
+		record.setInt("Rating", 3);
+		assertEquals(Integer.valueOf(3), record.getField("Rating"));
+		record.setString("Rating", "Cold");
+		assertEquals("Cold", record.getField("Rating"));
+	}
+
+	@Test
+	public void recordsMadeBeforeTheSchemaGrewStillWork() {
+		RecordSchema schema = new RecordSchemas().forType("Contact");
+		CompactSObject early = new CompactSObject(schema);
+		for (int i = 0; i < 100; i++) {
+			new CompactSObject(schema).setInt("Field" + i + "__c", i);
+		}
+		early.setInt("Field99__c", 99);
+		early.setString("Field3__c", "three");
+
+		assertEquals(Integer.valueOf(99), early.getField("Field99__c"));
+		assertEquals("three", early.getField("Field3__c"));
+		assertNull(early.getField("Field50__c"));
+		assertEquals(100, schema.size());
+	}
+
+	@Test
+	public void toJsonWritesEverySetField() throws Exception {
+		CompactSObject record = new CompactSObject("Account");
+		record.setString("Name", "Acme \"Inc\"");
+		record.setDouble("AnnualRevenue", 2.0d);
+		record.setNull("Description");
+
+		JSONObject json = new JSONObject(record.toJson());
+		assertEquals("Acme \"Inc\"", json.getString("Name"));
+		assertEquals(2.0d, json.getDouble("AnnualRevenue"), 0.0d);
+		assertTrue(json.isNull("Description"));
+		assertEquals("{}", new CompactSObject("Account").toJson());
+	}
+
+	@Test
+	public void onlyChangesAfterMarkCleanAreSent() throws Exception {
+		CompactSObject record = new CompactSObject("Account");
+		record.setString("Name", "Acme");
+		record.setInt("NumberOfEmployees", 12);
+		assertTrue(record.hasChanges());
+		assertEquals(record.toJson(), record.toChangedJson());
+
+		record.markClean();
+		assertFalse(record.hasChanges());
+		assertEquals("{}", record.toChangedJson());
+
+		record.setInt("NumberOfEmployees", 13);
+		assertEquals("{\"NumberOfEmployees\":13}", record.toChangedJson());
+	}
+}